@@ -0,0 +1,113 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the responder benchmarks at several thread counts with the GC
+ * profiler, and prints the throughput and allocation of each benchmark side
+ * by side.
+ * <p>
+ * A single JMH run takes one thread count; this runs the selected benchmarks
+ * once per count. The full JMH reports are printed as usual; a summary table
+ * follows.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp target/benchmarks.jar ch.keybridge.dev.benchmark.ThreadScaling \
+ *   [--threads 1,2,4,8] [benchmark regex ...]
+ * </pre>
+ *
+ * @author Key Bridge
+ */
+public class ThreadScaling {
+
+  public static void main(String[] args) throws RunnerException {
+    List<Integer> threads = new ArrayList<>();
+    List<String> includes = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("--threads".equals(args[i])) {
+        for (String value : args[++i].split(",")) {
+          threads.add(Integer.parseInt(value.trim()));
+        }
+      } else {
+        includes.add(args[i]);
+      }
+    }
+    if (threads.isEmpty()) {
+      threads.add(1);
+      threads.add(Runtime.getRuntime().availableProcessors());
+    }
+    if (includes.isEmpty()) {
+      includes.add("ch\\.keybridge\\.");
+    }
+    /**
+     * Benchmark label to the summary cells of each thread count.
+     */
+    Map<String, List<String>> summary = new LinkedHashMap<>();
+    for (int count : threads) {
+      OptionsBuilder builder = new OptionsBuilder();
+      includes.forEach(builder::include);
+      Options options = builder
+        .threads(count)
+        .addProfiler(GCProfiler.class)
+        .build();
+      Collection<RunResult> results = new Runner(options).run();
+      for (RunResult result : results) {
+        String label = result.getParams().getBenchmark().replaceFirst("^ch\\.keybridge\\.(dev\\.)?", "");
+        for (String key : result.getParams().getParamsKeys()) {
+          label += " " + key + "=" + result.getParams().getParam(key);
+        }
+        Result primary = result.getPrimaryResult();
+        Result allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+        summary.computeIfAbsent(label, k -> new ArrayList<>())
+          .add(String.format("%12.3f %8.0f", primary.getScore(), allocation == null ? Double.NaN : allocation.getScore()));
+      }
+    }
+    System.out.println();
+    StringBuilder header = new StringBuilder(String.format("%-64s", "benchmark (ops/us, B/op)"));
+    for (int count : threads) {
+      header.append(String.format(" %21s", count + (count == 1 ? " thread" : " threads")));
+    }
+    System.out.println(header);
+    for (Map.Entry<String, List<String>> entry : summary.entrySet()) {
+      System.out.println(String.format("%-64s", entry.getKey()) + " " + String.join(" ", entry.getValue()));
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing the Authorization header of every listener message in the
+ * {@link BearerAuthorizationFilter}: a valid credential, and the rejected
+ * scheme and whitespace cases.
+ *
+ * @author Key Bridge
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BearerAuthorizationBenchmark {
+
+  /**
+   * Header values; not final so they are not constant folded.
+   */
+  private String valid = "Bearer 2YotnFZFEjr1zCsicMWpAA.c0ffee254729296a45a3885639AC7E10";
+  private String basic = "Basic ZXNjLXNlbnNvcjpzZWNyZXQ=";
+  private String whitespace = "Bearer 2YotnFZFEjr1zCsicMWpAA c0ffee254729296a45a3885639AC7E10";
+
+  @Benchmark
+  public String valid() {
+    return BearerAuthorizationFilter.parseBearerCredential(valid);
+  }
+
+  @Benchmark
+  public String basicScheme() {
+    return BearerAuthorizationFilter.parseBearerCredential(basic);
+  }
+
+  @Benchmark
+  public String whitespace() {
+    return BearerAuthorizationFilter.parseBearerCredential(whitespace);
+  }
+
+}
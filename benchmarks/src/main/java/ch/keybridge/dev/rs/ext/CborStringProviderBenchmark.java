@@ -0,0 +1,92 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import ch.keybridge.dev.service.cbor.Cbor;
+import ch.keybridge.dev.tool.CborComparison;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing CBOR message bodies with the
+ * {@link CborStringProvider}, which transcodes them from and to the JSON text
+ * handled by the resources.
+ *
+ * @author Key Bridge
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CborStringProviderBenchmark {
+
+  private static final MediaType CBOR = MediaType.valueOf(Cbor.MEDIA_TYPE);
+
+  /**
+   * The message: a ping or a DpacStatus with ten channels.
+   */
+  @Param({"ping", "dpacStatus"})
+  public String message;
+
+  private final CborStringProvider provider = new CborStringProvider();
+  private String json;
+  private byte[] cbor;
+
+  @Setup
+  public void setup() throws IOException {
+    json = ("ping".equals(message) ? CborComparison.ping() : CborComparison.dpacStatus(10)).toString();
+    cbor = write();
+  }
+
+  @Benchmark
+  public String read() throws IOException {
+    return provider.readFrom(String.class, String.class, null, CBOR, null, new ByteArrayInputStream(cbor));
+  }
+
+  @Benchmark
+  public byte[] write() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(json.length());
+    provider.writeTo(json, String.class, String.class, null, CBOR, null, out);
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,87 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.log;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.tool.CborComparison;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.SimpleFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Formatting the log line of a received message as the {@link MessageLogger}
+ * writer does: building the log record, then formatting it with the JUL
+ * SimpleFormatter, which expands the message pattern.
+ *
+ * @author Key Bridge
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageLogFormatBenchmark {
+
+  private final Formatter formatter = new SimpleFormatter();
+
+  private ReceivedMessage ping;
+  private ReceivedMessage dpacStatus;
+
+  @Setup
+  public void setup() {
+    ping = new ReceivedMessage(Endpoint.PING, "192.0.2.10", "2YotnFZFEjr1zCsicMWpAA",
+                               "urn:uuid:6f1c2d4e-8a3b-4c5d-9e7f-0a1b2c3d4e5f", null,
+                               CborComparison.ping().toString());
+    ping.complete(204, "urn:uuid:01a147e3-ea71-8000-813a-c00000000000");
+    dpacStatus = new ReceivedMessage(Endpoint.DPAC, "192.0.2.10", "2YotnFZFEjr1zCsicMWpAA",
+                                     "urn:uuid:0b7a3c9e-5d2f-4e81-a6c4-3f9e8d7c6b5a", "urn:uuid:6f1c2d4e-8a3b-4c5d-9e7f-0a1b2c3d4e5f",
+                                     CborComparison.dpacStatus(10).toString());
+    dpacStatus.complete(204, null);
+  }
+
+  @Benchmark
+  public String ping() {
+    return formatter.format(MessageLogger.createRecord(ping));
+  }
+
+  @Benchmark
+  public String dpacStatus() {
+    return formatter.format(MessageLogger.createRecord(dpacStatus));
+  }
+
+}
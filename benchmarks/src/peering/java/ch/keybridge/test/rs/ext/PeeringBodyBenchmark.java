@@ -0,0 +1,193 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.test.rs.ext;
+
+import ch.keybridge.dev.service.cbor.Cbor;
+import ch.keybridge.dev.tool.CborComparison;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import org.ietf.oauth.message.ClientInformationResponse;
+import org.ietf.oauth.message.ClientRegistrationRequest;
+import org.ietf.oauth.message.ClientUpdateRequest;
+import org.ietf.oauth.message.TokenExchangeResponse;
+import org.ietf.oauth.message.TokenIntrospectionResponse;
+import org.opencbrs.peering.message.DpacStatusRequest;
+import org.opencbrs.peering.message.PeerInformationResponse;
+import org.opencbrs.peering.message.PeerRegistrationRequest;
+import org.opencbrs.peering.message.PeerUpdateRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing the peering and OAuth message bodies with each of the
+ * test REST client readers and writers, for example the
+ * {@link TokenIntrospectionResponseJsonReader} which reads the body into a
+ * string and parses it twice.
+ * <p>
+ * The readers read representative JSON (or CBOR) bodies; the writers write
+ * messages bound from the same bodies.
+ *
+ * @author Key Bridge
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PeeringBodyBenchmark {
+
+  private static final MediaType JSON = MediaType.APPLICATION_JSON_TYPE;
+  private static final MediaType CBOR = MediaType.valueOf(Cbor.MEDIA_TYPE);
+
+  private static final String CLIENT_REGISTRATION = "{\"client_name\":\"ESC sensor east-1\",\"grant_types\":[\"client_credentials\"],"
+                                                    + "\"token_endpoint_auth_method\":\"client_secret_basic\",\"scope\":\"esc\"}";
+  private static final String CLIENT_INFORMATION = "{\"client_id\":\"s6BhdRkqt3\",\"client_secret\":\"cf136dc3c1fc93f31185e5885805d\","
+                                                   + "\"client_id_issued_at\":1622548800,\"client_secret_expires_at\":0,"
+                                                   + "\"registration_access_token\":\"this.is.an.access.token.value.ffx83\","
+                                                   + "\"registration_client_uri\":\"https://sts.example.com/register/s6BhdRkqt3\","
+                                                   + "\"client_name\":\"ESC sensor east-1\",\"grant_types\":[\"client_credentials\"],"
+                                                   + "\"token_endpoint_auth_method\":\"client_secret_basic\",\"scope\":\"esc\"}";
+  private static final String TOKEN_EXCHANGE = "{\"access_token\":\"2YotnFZFEjr1zCsicMWpAA\",\"token_type\":\"Bearer\",\"expires_in\":3600,\"scope\":\"esc\"}";
+  private static final String TOKEN_INTROSPECTION = "{\"active\":true,\"scope\":\"esc\",\"client_id\":\"s6BhdRkqt3\",\"token_type\":\"Bearer\","
+                                                    + "\"exp\":1622552400,\"iat\":1622548800,\"sub\":\"s6BhdRkqt3\",\"iss\":\"https://sts.example.com/\"}";
+  private static final String PEER = "{\"peerId\":\"esc-east-1\",\"listenerUri\":\"https://esc.example.com/dev/esc/rs/listen\"}";
+
+  private byte[] clientInformationJson;
+  private byte[] tokenExchangeJson;
+  private byte[] tokenIntrospectionJson;
+  private byte[] peerInformationJson;
+  private byte[] peerInformationCbor;
+
+  private ClientRegistrationRequest clientRegistrationRequest;
+  private ClientUpdateRequest clientUpdateRequest;
+  private DpacStatusRequest dpacStatusRequest;
+  private PeerInformationResponse peerInformationResponse;
+  private PeerRegistrationRequest peerRegistrationRequest;
+  private PeerUpdateRequest peerUpdateRequest;
+
+  @Setup
+  public void setup() throws Exception {
+    clientInformationJson = CLIENT_INFORMATION.getBytes(StandardCharsets.UTF_8);
+    tokenExchangeJson = TOKEN_EXCHANGE.getBytes(StandardCharsets.UTF_8);
+    tokenIntrospectionJson = TOKEN_INTROSPECTION.getBytes(StandardCharsets.UTF_8);
+    peerInformationJson = PEER.getBytes(StandardCharsets.UTF_8);
+    try (Jsonb jsonb = JsonbBuilder.create()) {
+      clientRegistrationRequest = jsonb.fromJson(CLIENT_REGISTRATION, ClientRegistrationRequest.class);
+      clientUpdateRequest = jsonb.fromJson(CLIENT_INFORMATION, ClientUpdateRequest.class);
+      dpacStatusRequest = jsonb.fromJson(CborComparison.dpacStatus(10).toString(), DpacStatusRequest.class);
+      peerInformationResponse = jsonb.fromJson(PEER, PeerInformationResponse.class);
+      peerRegistrationRequest = jsonb.fromJson(PEER, PeerRegistrationRequest.class);
+      peerUpdateRequest = jsonb.fromJson(PEER, PeerUpdateRequest.class);
+    }
+    peerInformationCbor = write(new PeerInformationResponseJsonWriter(), peerInformationResponse, CBOR);
+  }
+
+  @Benchmark
+  public ClientInformationResponse clientInformationResponseReader() throws IOException {
+    return new ClientInformationResponseJsonReader().readFrom(ClientInformationResponse.class, null, null, JSON, null, new ByteArrayInputStream(clientInformationJson));
+  }
+
+  @Benchmark
+  public PeerInformationResponse peerInformationResponseReader() throws IOException {
+    return new PeerInformationResponseJsonReader().readFrom(PeerInformationResponse.class, null, null, JSON, null, new ByteArrayInputStream(peerInformationJson));
+  }
+
+  @Benchmark
+  public PeerInformationResponse peerInformationResponseReaderCbor() throws IOException {
+    return new PeerInformationResponseJsonReader().readFrom(PeerInformationResponse.class, null, null, CBOR, null, new ByteArrayInputStream(peerInformationCbor));
+  }
+
+  @Benchmark
+  public TokenExchangeResponse tokenExchangeResponseReader() throws IOException {
+    return new TokenExchangeResponseJsonReader().readFrom(TokenExchangeResponse.class, null, null, JSON, null, new ByteArrayInputStream(tokenExchangeJson));
+  }
+
+  @Benchmark
+  public TokenIntrospectionResponse tokenIntrospectionResponseReader() throws IOException {
+    return new TokenIntrospectionResponseJsonReader().readFrom(TokenIntrospectionResponse.class, null, null, JSON, null, new ByteArrayInputStream(tokenIntrospectionJson));
+  }
+
+  @Benchmark
+  public byte[] clientRegistrationRequestWriter() throws IOException {
+    return write(new ClientRegistrationRequestJsonWriter(), clientRegistrationRequest, JSON);
+  }
+
+  @Benchmark
+  public byte[] clientUpdateRequestWriter() throws IOException {
+    return write(new ClientUpdateRequestJsonWriter(), clientUpdateRequest, JSON);
+  }
+
+  @Benchmark
+  public byte[] dpacStatusRequestWriter() throws IOException {
+    return write(new DpacStatusRequestJsonMessageBodyWriter(), dpacStatusRequest, JSON);
+  }
+
+  @Benchmark
+  public byte[] dpacStatusRequestWriterCbor() throws IOException {
+    return write(new DpacStatusRequestJsonMessageBodyWriter(), dpacStatusRequest, CBOR);
+  }
+
+  @Benchmark
+  public byte[] peerInformationResponseWriter() throws IOException {
+    return write(new PeerInformationResponseJsonWriter(), peerInformationResponse, JSON);
+  }
+
+  @Benchmark
+  public byte[] peerRegistrationRequestWriter() throws IOException {
+    return write(new PeerRegistrationRequestJsonWriter(), peerRegistrationRequest, JSON);
+  }
+
+  @Benchmark
+  public byte[] peerUpdateRequestWriter() throws IOException {
+    return write(new PeerUpdateRequestJsonWriter(), peerUpdateRequest, JSON);
+  }
+
+  /**
+   * Write a message with a writer, as the JAX-RS client does.
+   */
+  private static <T> byte[] write(MessageBodyWriter<T> writer, T message, MediaType mediaType) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+    writer.writeTo(message, message.getClass(), message.getClass(), null, mediaType, null, out);
+    return out.toByteArray();
+  }
+
+}
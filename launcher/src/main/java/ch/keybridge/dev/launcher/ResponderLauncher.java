@@ -0,0 +1,213 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.launcher;
+
+import ch.keybridge.dev.rs.ApplicationConfig;
+import ch.keybridge.dev.rs.ResponderContextListener;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.glassfish.jersey.CommonProperties;
+import org.glassfish.jersey.media.sse.SseFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+/**
+ * Runs the responder on an embedded Jetty server, without an application
+ * server.
+ * <p>
+ * The {@link ApplicationConfig} resources and providers are served by the
+ * Jersey servlet at the same <code>/dev/esc/rs/listen</code> paths as the
+ * deployed war, and the {@link ResponderContextListener} releases the
+ * responder services on shutdown. The application is initialized before the
+ * ports are opened, so the first request is not delayed. Responder settings
+ * are read from the same <code>ch.keybridge.dev.</code> system properties.
+ * <p>
+ * HTTPS is served if an HTTPS port and a keystore are given; the HTTP
+ * connector may then be disabled with <code>--port -1</code>. Port 0 binds a
+ * free port; the bound URLs are printed on startup, one per line.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -jar dev-esc-service-responder-launcher.jar [--host 0.0.0.0] [--port 8080] \
+ *   [--https-port 8443 --keystore keystore.p12 --keystore-password secret] \
+ *   [--threads 200]
+ * </pre>
+ *
+ * @author Key Bridge
+ */
+public class ResponderLauncher {
+
+  private static final Logger LOG = Logger.getLogger(ResponderLauncher.class.getName());
+
+  /**
+   * The context root of the deployed war, see glassfish-web.xml.
+   */
+  public static final String CONTEXT_PATH = "/dev/esc/rs";
+  /**
+   * The ApplicationConfig application path.
+   */
+  public static final String APPLICATION_PATH = "/listen";
+
+  private String host = "0.0.0.0";
+  private int port = 8080;
+  private int httpsPort = -1;
+  private String keystore;
+  private String keystorePassword;
+  private int threads = 200;
+
+  private Server server;
+
+  public static void main(String[] args) throws Exception {
+    ResponderLauncher launcher = new ResponderLauncher();
+    for (int i = 0; i < args.length; i++) {
+      if ("--host".equals(args[i])) {
+        launcher.host = args[++i];
+      } else if ("--port".equals(args[i])) {
+        launcher.port = Integer.parseInt(args[++i]);
+      } else if ("--https-port".equals(args[i])) {
+        launcher.httpsPort = Integer.parseInt(args[++i]);
+      } else if ("--keystore".equals(args[i])) {
+        launcher.keystore = args[++i];
+      } else if ("--keystore-password".equals(args[i])) {
+        launcher.keystorePassword = args[++i];
+      } else if ("--threads".equals(args[i])) {
+        launcher.threads = Integer.parseInt(args[++i]);
+      } else {
+        throw new IllegalArgumentException("Unknown argument " + args[i]);
+      }
+    }
+    launcher.start();
+    long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    for (String url : launcher.getUrls()) {
+      System.out.println(url);
+    }
+    LOG.log(Level.INFO, "Responder started in {0} ms", uptime);
+    launcher.server.join();
+  }
+
+  /**
+   * Start the server. Returns when the application is initialized and the
+   * ports are open.
+   *
+   * @throws Exception if the server fails to start
+   */
+  public void start() throws Exception {
+    if (port < 0 && httpsPort < 0) {
+      throw new IllegalArgumentException("No HTTP or HTTPS port");
+    }
+    if (httpsPort >= 0 && keystore == null) {
+      throw new IllegalArgumentException("HTTPS requires a --keystore");
+    }
+    QueuedThreadPool threadPool = new QueuedThreadPool(threads);
+    threadPool.setName("responder-http");
+    server = new Server(threadPool);
+    HttpConfiguration httpConfiguration = new HttpConfiguration();
+    httpConfiguration.setSendServerVersion(false);
+    if (port >= 0) {
+      ServerConnector http = new ServerConnector(server, new HttpConnectionFactory(httpConfiguration));
+      http.setHost(host);
+      http.setPort(port);
+      server.addConnector(http);
+    }
+    if (httpsPort >= 0) {
+      SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+      sslContextFactory.setKeyStorePath(keystore);
+      sslContextFactory.setKeyStorePassword(keystorePassword);
+      HttpConfiguration httpsConfiguration = new HttpConfiguration(httpConfiguration);
+      httpsConfiguration.setSecureScheme("https");
+      httpsConfiguration.addCustomizer(new SecureRequestCustomizer(false)); // test certificates rarely match the host name
+      ServerConnector https = new ServerConnector(server,
+                                                  new SslConnectionFactory(sslContextFactory, "http/1.1"),
+                                                  new HttpConnectionFactory(httpsConfiguration));
+      https.setHost(host);
+      https.setPort(httpsPort);
+      server.addConnector(https);
+    }
+    ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+    context.setContextPath(CONTEXT_PATH);
+    context.addEventListener(new ResponderContextListener());
+    /**
+     * Only the application classes are registered; provider discovery and
+     * the optional features the responder does not use are disabled to keep
+     * startup short.
+     */
+    ResourceConfig resourceConfig = ResourceConfig.forApplication(new ApplicationConfig())
+      .property(ServerProperties.FEATURE_AUTO_DISCOVERY_DISABLE, true)
+      .property(ServerProperties.WADL_FEATURE_DISABLE, true)
+      .property(ServerProperties.BV_FEATURE_DISABLE, true)
+      .property(ServerProperties.JSON_PROCESSING_FEATURE_DISABLE, true)
+      .property(ServerProperties.MOXY_JSON_FEATURE_DISABLE, true)
+      .property(CommonProperties.PROVIDER_DEFAULT_DISABLE, "DATASOURCE,DOMSOURCE,RENDEREDIMAGE,SAXSOURCE,SOURCE,STREAMSOURCE")
+      .register(SseFeature.class);
+    ServletHolder jersey = new ServletHolder(new ServletContainer(resourceConfig));
+    jersey.setAsyncSupported(true);
+    jersey.setInitOrder(0);
+    context.addServlet(jersey, APPLICATION_PATH + "/*");
+    server.setHandler(context);
+    server.setStopAtShutdown(true);
+    server.start();
+  }
+
+  /**
+   * Stop the server, releasing the responder services.
+   *
+   * @throws Exception if the server fails to stop
+   */
+  public void stop() throws Exception {
+    server.stop();
+  }
+
+  /**
+   * Get the application URLs of the open connectors.
+   *
+   * @return the URLs, HTTP first
+   */
+  public List<String> getUrls() {
+    String address = "0.0.0.0".equals(host) ? "localhost" : host;
+    List<String> urls = new ArrayList<>();
+    for (Connector connector : server.getConnectors()) {
+      String scheme = connector.getConnectionFactory(SslConnectionFactory.class) == null ? "http" : "https";
+      urls.add(scheme + "://" + address + ":" + ((ServerConnector) connector).getLocalPort() + CONTEXT_PATH + APPLICATION_PATH);
+    }
+    return urls;
+  }
+
+}
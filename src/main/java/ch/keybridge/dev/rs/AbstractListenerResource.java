@@ -0,0 +1,386 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.rs.ext.BearerAuthorizationFilter;
+import ch.keybridge.dev.service.Bulkhead;
+import ch.keybridge.dev.service.DelayScheduler;
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import ch.keybridge.dev.service.correlation.CorrelationIndex;
+import ch.keybridge.dev.service.dedup.MessageDeduplicator;
+import ch.keybridge.dev.service.dpac.DpacStatusContent;
+import ch.keybridge.dev.service.dpac.DpacStatusParser;
+import ch.keybridge.dev.service.fault.Fault;
+import ch.keybridge.dev.service.fault.FaultConfiguration;
+import ch.keybridge.dev.service.fault.FaultType;
+import ch.keybridge.dev.service.metrics.ResponderMetrics;
+import ch.keybridge.dev.service.log.MessageLogger;
+import ch.keybridge.dev.service.store.MessageJournal;
+import ch.keybridge.dev.service.store.MessageRingBuffer;
+import ch.keybridge.dev.service.store.StoredMessage;
+import ch.keybridge.dev.service.stream.MessageBroadcaster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * An abstract listener resource, implementing the delayed response common to
+ * all ESC message listeners.
+ * <p>
+ * Listeners emulate server processing by delaying their response. By default
+ * the request is suspended and resumed from the shared {@link DelayScheduler}
+ * so a pending response does not hold a container request thread. Set the
+ * <code>ch.keybridge.dev.async</code> system property to FALSE to restore the
+ * original blocking behavior.
+ * <p>
+ * Messages are read and recorded in the {@link Bulkhead} of their endpoint,
+ * see {@link #admit(Endpoint, AsyncResponse, Runnable)}, so one endpoint
+ * cannot starve the other of threads.
+ * <p>
+ * Each received message is logged by the asynchronous {@link MessageLogger},
+ * kept in the {@link MessageRingBuffer}, appended to the
+ * {@link MessageJournal} and linked in the {@link CorrelationIndex} when its
+ * response is sent.
+ *
+ * @author Key Bridge
+ */
+public abstract class AbstractListenerResource {
+
+  private static final Logger LOG = Logger.getLogger(AbstractListenerResource.class.getName());
+
+  /**
+   * Respond asynchronously from the shared scheduler. Read once on class load.
+   * Virtual thread bulkheads sleep through the delay unless async is set.
+   */
+  private static final boolean ASYNC = ResponderConfiguration.getBoolean(ResponderConfiguration.ASYNC, !Bulkhead.isVirtual());
+
+  /**
+   * ServletRequest interface provides HTTP request information.
+   */
+  @Context
+  protected HttpServletRequest httpServletRequest;
+
+  /**
+   * The request values read by {@link #receive}, captured on the container
+   * request thread by {@link #admit}. The injected request cannot be read
+   * from a bulkhead thread.
+   */
+  private String remoteAddress;
+  private String accessToken;
+  private String headers;
+
+  /**
+   * Get the bearer access token presented with the current request. The
+   * authorization header is parsed and validated by the
+   * {@link BearerAuthorizationFilter} before the resource is invoked.
+   *
+   * @return the bearer credential
+   */
+  protected String getAccessToken() {
+    return (String) httpServletRequest.getAttribute(BearerAuthorizationFilter.ACCESS_TOKEN);
+  }
+
+  /**
+   * Record the arrival of a message. The sender address and access token are
+   * those of the current request, captured by {@link #admit}.
+   *
+   * @param endpoint  the endpoint receiving the message
+   * @param messageID the MessageID header value
+   * @param relatesTo the RelatesTo header value, if any
+   * @param content   the message body
+   * @return a new received message instance
+   */
+  protected ReceivedMessage receive(Endpoint endpoint, String messageID, String relatesTo, String content) {
+    return received(new ReceivedMessage(endpoint, remoteAddress, accessToken, messageID, relatesTo, content));
+  }
+
+  /**
+   * Record the arrival of a DpacStatus message with a streamed body.
+   *
+   * @param messageID the MessageID header value
+   * @param relatesTo the RelatesTo header value, if any
+   * @param content   the parsed message body
+   * @return a new received message instance
+   */
+  protected ReceivedMessage receive(String messageID, String relatesTo, DpacStatusContent content) {
+    return received(new ReceivedMessage(Endpoint.DPAC, remoteAddress, accessToken, messageID, relatesTo, content));
+  }
+
+  /**
+   * Parse a streamed DpacStatus message body.
+   *
+   * @param content the request entity stream
+   * @param cbor    true if the body is encoded in CBOR, false if JSON
+   * @return the parsed body
+   * @throws WebApplicationException with http 400 if the body is malformed,
+   *                                 413 if it is too large
+   */
+  protected static DpacStatusContent parseDpacStatus(InputStream content, boolean cbor) {
+    try {
+      return DpacStatusParser.parse(content, cbor);
+    } catch (IllegalArgumentException ex) {
+      LOG.log(Level.FINE, ex.getMessage());
+      ResponderMetrics.malformed(Endpoint.DPAC);
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    } catch (IOException ex) {
+      ResponderMetrics.malformed(Endpoint.DPAC);
+      Response.Status status = DpacStatusParser.isTooLarge(ex) ? Response.Status.REQUEST_ENTITY_TOO_LARGE : Response.Status.BAD_REQUEST;
+      throw new WebApplicationException(Response.status(status).header("Exception", ex.getMessage()).build());
+    }
+  }
+
+  private ReceivedMessage received(ReceivedMessage message) {
+    ResponderMetrics.received(message.getEndpoint());
+    if (headers != null) {
+      message.setHeaders(headers);
+    }
+    return message;
+  }
+
+  /**
+   * Handle a message in the bulkhead of its endpoint.
+   * <p>
+   * The request values needed to record the message are captured on the
+   * calling container thread; the handler then runs on a bulkhead thread,
+   * where it may read the request entity stream and must resume the
+   * suspended request. A WebApplicationException thrown by the handler
+   * resumes the request with its response. If the bulkhead is full the
+   * request is answered at once with http 503 and is not recorded.
+   *
+   * @param endpoint      the endpoint receiving the message
+   * @param asyncResponse the suspended request
+   * @param handler       reads, records and answers the message
+   */
+  protected void admit(Endpoint endpoint, AsyncResponse asyncResponse, Runnable handler) {
+    remoteAddress = httpServletRequest.getRemoteAddr();
+    accessToken = getAccessToken();
+    if (MessageRingBuffer.getInstance().isEnabled() || MessageJournal.getInstance().isEnabled()) {
+      headers = readHeaders();
+    }
+    try {
+      Bulkhead.get(endpoint).execute(() -> {
+        try {
+          handler.run();
+        } catch (WebApplicationException ex) {
+          asyncResponse.resume(ex);
+        } catch (RuntimeException ex) {
+          LOG.log(Level.WARNING, "{0} handling failed {1}", new Object[]{getClass().getSimpleName(), ex.getMessage()});
+          asyncResponse.resume(Response.serverError().build()); // http 500 on error
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      LOG.log(Level.FINE, "{0} bulkhead full", endpoint);
+      asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, 1)
+        .header("Exception", "The " + endpoint.getPath() + " listener is busy")
+        .build());
+    }
+  }
+
+  /**
+   * Read the request headers into "name: value" lines. Authorization
+   * credentials are masked.
+   *
+   * @return the request headers
+   */
+  private String readHeaders() {
+    StringBuilder headers = new StringBuilder(256);
+    Enumeration<String> names = httpServletRequest.getHeaderNames();
+    while (names != null && names.hasMoreElements()) {
+      String name = names.nextElement();
+      Enumeration<String> values = httpServletRequest.getHeaders(name);
+      while (values.hasMoreElements()) {
+        headers.append(name).append(": ").append(StoredMessage.redactHeader(name, values.nextElement())).append('\n');
+      }
+    }
+    return headers.toString();
+  }
+
+  /**
+   * Answer a re-delivered message with the status of the original response.
+   *
+   * @param asyncResponse the suspended request
+   * @param message       the received message
+   * @return true if the message is a duplicate and was answered
+   * @see #answerDuplicate(Consumer, ReceivedMessage)
+   */
+  protected boolean answerDuplicate(AsyncResponse asyncResponse, ReceivedMessage message) {
+    return answerDuplicate(asyncResponse::resume, message);
+  }
+
+  /**
+   * Resume the suspended request with the indicated response after the
+   * emulated processing delay.
+   *
+   * @param asyncResponse the suspended request
+   * @param message       the received message
+   * @param delayMillis   the emulated processing delay
+   * @param response      supplies the response
+   * @see #respondAfter(Consumer, ReceivedMessage, long, Supplier)
+   */
+  protected void respondAfter(AsyncResponse asyncResponse, ReceivedMessage message, long delayMillis, Supplier<Response> response) {
+    respondAfter(asyncResponse::resume, message, delayMillis, response);
+  }
+
+  /**
+   * Answer a re-delivered message with the status of the original response.
+   * The duplicate is not delayed, logged or stored. If the original response
+   * is still pending the duplicate is answered when it is sent.
+   *
+   * @param resume  resumes the request with the response
+   * @param message the received message
+   * @return true if the message is a duplicate and was answered
+   */
+  protected boolean answerDuplicate(Consumer<Response> resume, ReceivedMessage message) {
+    CompletableFuture<Integer> original = MessageDeduplicator.getInstance().register(message);
+    if (original == null) {
+      return false;
+    }
+    LOG.log(Level.FINE, "{0} duplicate MessageID {1} from {2}", new Object[]{message.getEndpoint(), message.getMessageId(), message.getRemoteAddress()});
+    original.thenAccept(status -> {
+      ResponderMetrics.duplicate(message.getEndpoint(), status);
+      resume.accept(Response.status(status).build());
+    });
+    return true;
+  }
+
+  /**
+   * Resume the suspended request with the indicated response after the
+   * emulated processing delay.
+   * <p>
+   * The response is built when the delay expires, not when the request is
+   * received. If the {@link FaultConfiguration} injects a fault, a latency
+   * spike extends the delay and other faults replace the response.
+   *
+   * @param resume      resumes the request with the response
+   * @param message     the received message
+   * @param delayMillis the emulated processing delay, in milliseconds
+   * @param response    the response supplier
+   */
+  protected void respondAfter(Consumer<Response> resume, ReceivedMessage message, long delayMillis, Supplier<Response> response) {
+    respondAfter(resume, message, delayMillis, response, ASYNC);
+  }
+
+  /**
+   * Resume the suspended request with the indicated response after the
+   * emulated processing delay, always from the shared scheduler. The calling
+   * thread never sleeps through the delay, so several messages received in
+   * one request are delayed concurrently.
+   *
+   * @param resume      resumes the request with the response
+   * @param message     the received message
+   * @param delayMillis the emulated processing delay, in milliseconds
+   * @param response    the response supplier
+   * @see #respondAfter(Consumer, ReceivedMessage, long, Supplier)
+   */
+  protected void scheduleResponse(Consumer<Response> resume, ReceivedMessage message, long delayMillis, Supplier<Response> response) {
+    respondAfter(resume, message, delayMillis, response, true);
+  }
+
+  private void respondAfter(Consumer<Response> resume, ReceivedMessage message, long delayMillis, Supplier<Response> response, boolean async) {
+    Fault fault = FaultConfiguration.getInstance().decide(message.getEndpoint(), message.getRemoteAddress());
+    FaultType faultType = fault == null ? null : fault.getType();
+    long delay = faultType == FaultType.SPIKE ? delayMillis + Math.min(fault.getParameter(), Long.MAX_VALUE - delayMillis) : delayMillis;
+    Supplier<Response> supplier = fault == null || faultType == FaultType.SPIKE ? response : () -> FaultResponses.build(fault);
+    message.setDelayMillis(delay);
+    if (async) {
+      try {
+        DelayScheduler.schedule(() -> {
+          if (faultType == FaultType.SLOW_DRIP) {
+            FaultResponses.execute(() -> respond(resume, message, supplier)); // do not block the scheduler
+          } else {
+            respond(resume, message, supplier);
+          }
+        }, delay);
+      } catch (RejectedExecutionException ex) {
+        LOG.log(Level.INFO, "{0} delayed response rejected {1}", new Object[]{getClass().getSimpleName(), ex.getMessage()});
+        respond(resume, message, () -> Response.serverError().build()); // http 500 on error
+      }
+      return;
+    }
+    try {
+      Thread.sleep(delay);
+      respond(resume, message, supplier);
+    } catch (InterruptedException ex) {
+      LOG.log(Level.INFO, "{0} interrupted {1}", new Object[]{getClass().getSimpleName(), ex.getMessage()});
+      Thread.currentThread().interrupt();
+      respond(resume, message, () -> Response.serverError().build()); // http 500 on error
+    }
+  }
+
+  /**
+   * Complete the received message with the response and resume the suspended
+   * request, then hand the message to the metrics, message logger, ring
+   * buffer, journal, correlation index and message stream.
+   * <p>
+   * This runs on the delay scheduler, where an uncaught exception would be
+   * swallowed and the request never resumed. A failure to build the response
+   * is answered with HTTP 500 and a failure to record the message is logged.
+   *
+   * @param resume   resumes the request with the response
+   * @param message  the received message
+   * @param supplier supplies the response
+   */
+  private static void respond(Consumer<Response> resume, ReceivedMessage message, Supplier<Response> supplier) {
+    Response response;
+    try {
+      response = supplier.get();
+    } catch (RuntimeException ex) {
+      LOG.log(Level.WARNING, "{0} response failed for MessageID {1}: {2}", new Object[]{message.getEndpoint(), message.getMessageId(), ex.toString()});
+      response = Response.serverError().build(); // http 500 on error
+    }
+    message.complete(response.getStatus(), response.getHeaderString("MessageId"));
+    try {
+      resume.accept(response);
+    } finally {
+      try {
+        ResponderMetrics.completed(message);
+        MessageLogger.log(message);
+        MessageRingBuffer.getInstance().add(message);
+        MessageJournal.getInstance().append(message);
+        CorrelationIndex.getInstance().add(message);
+        MessageBroadcaster.getInstance().publish(message);
+      } catch (RuntimeException ex) {
+        LOG.log(Level.WARNING, "{0} message MessageID {1} not recorded: {2}", new Object[]{message.getEndpoint(), message.getMessageId(), ex.toString()});
+      }
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.dedup.MessageDeduplicator;
+import ch.keybridge.dev.service.fault.FaultConfiguration;
+import ch.keybridge.dev.service.fault.FaultProfile;
+import ch.keybridge.dev.service.latency.LatencyConfiguration;
+import ch.keybridge.dev.service.latency.LatencyProfile;
+import ch.keybridge.dev.service.latency.LatencyProfiles;
+import ch.keybridge.dev.service.limit.RateLimit;
+import ch.keybridge.dev.service.limit.RateLimiter;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * REST Web Service
+ * <p>
+ * Provides runtime administration of the responder behavior.
+ *
+ * @author Key Bridge
+ */
+@Path("admin")
+@Produces(MediaType.APPLICATION_JSON)
+public class AdminResource {
+
+  private static final Logger LOG = Logger.getLogger(AdminResource.class.getName());
+
+  public AdminResource() {
+  }
+
+  /**
+   * Get the latency profile assigned to each endpoint.
+   *
+   * @return a JSON object of endpoint path to profile specification
+   */
+  @GET
+  @Path("latency")
+  public String getLatency() {
+    return writeLatency(LatencyConfiguration.getInstance());
+  }
+
+  /**
+   * Replace the latency profile assigned to an endpoint. The change takes
+   * effect for the next request received.
+   *
+   * @param endpoint      the endpoint path, e.g. "ping" or "dpac"
+   * @param specification the profile specification, e.g.
+   *                      <code>lognormal:180,0.6</code>. See
+   *                      {@link LatencyProfiles} for supported profiles.
+   * @return the updated latency configuration
+   */
+  @PUT
+  @Path("latency/{endpoint}")
+  @Consumes(MediaType.TEXT_PLAIN)
+  public String putLatency(@PathParam("endpoint") String endpoint, String specification) {
+    try {
+      Endpoint target = Endpoint.fromString(endpoint);
+      LatencyProfile profile = LatencyProfiles.parse(specification);
+      LOG.log(Level.INFO, "Latency profile for {0} set to {1}", new Object[]{target, profile.toSpecification()});
+      return writeLatency(LatencyConfiguration.update(target, profile));
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    }
+  }
+
+  /**
+   * Get the fault profile assigned to each endpoint and the peer specific
+   * profiles.
+   *
+   * @return a JSON object of endpoint path to profile specification, with a
+   *         "peers" object of peer address to endpoint profiles
+   */
+  @GET
+  @Path("faults")
+  public String getFaults() {
+    return writeFaults(FaultConfiguration.getInstance());
+  }
+
+  /**
+   * Replace the fault profile assigned to an endpoint. The change takes effect
+   * for the next request received.
+   *
+   * @param endpoint      the endpoint path, e.g. "ping" or "dpac"
+   * @param specification the profile specification, e.g.
+   *                      <code>500=0.01,503=0.02@10,spike=0.05@3000</code>
+   *                      or <code>none</code>. See {@link FaultProfile}.
+   * @return the updated fault configuration
+   */
+  @PUT
+  @Path("faults/{endpoint}")
+  @Consumes(MediaType.TEXT_PLAIN)
+  public String putFaults(@PathParam("endpoint") String endpoint, String specification) {
+    try {
+      Endpoint target = Endpoint.fromString(endpoint);
+      FaultProfile profile = FaultProfile.parse(specification);
+      LOG.log(Level.INFO, "Fault profile for {0} set to {1}", new Object[]{target, profile.toSpecification()});
+      return writeFaults(FaultConfiguration.update(target, profile));
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    }
+  }
+
+  /**
+   * Replace the fault profile assigned to an endpoint for one remote peer. The
+   * peer profile is used instead of the endpoint profile for messages sent
+   * from the peer address.
+   *
+   * @param endpoint      the endpoint path, e.g. "ping" or "dpac"
+   * @param peer          the peer IP address
+   * @param specification the profile specification
+   * @return the updated fault configuration
+   */
+  @PUT
+  @Path("faults/{endpoint}/{peer}")
+  @Consumes(MediaType.TEXT_PLAIN)
+  public String putPeerFaults(@PathParam("endpoint") String endpoint, @PathParam("peer") String peer, String specification) {
+    try {
+      Endpoint target = Endpoint.fromString(endpoint);
+      FaultProfile profile = FaultProfile.parse(specification);
+      LOG.log(Level.INFO, "Fault profile for {0} from {1} set to {2}", new Object[]{target, peer, profile.toSpecification()});
+      return writeFaults(FaultConfiguration.update(target, peer, profile));
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    }
+  }
+
+  /**
+   * Remove the fault profile assigned to an endpoint for one remote peer.
+   *
+   * @param endpoint the endpoint path, e.g. "ping" or "dpac"
+   * @param peer     the peer IP address
+   * @return the updated fault configuration
+   */
+  @DELETE
+  @Path("faults/{endpoint}/{peer}")
+  public String deletePeerFaults(@PathParam("endpoint") String endpoint, @PathParam("peer") String peer) {
+    try {
+      Endpoint target = Endpoint.fromString(endpoint);
+      LOG.log(Level.INFO, "Fault profile for {0} from {1} removed", new Object[]{target, peer});
+      return writeFaults(FaultConfiguration.update(target, peer, null));
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    }
+  }
+
+  /**
+   * Get the per-peer rate limit applied to each endpoint and the number of
+   * peers tracked.
+   *
+   * @return a JSON object of endpoint path to limit specification, with a
+   *         "peers" object of endpoint path to peer count
+   */
+  @GET
+  @Path("limits")
+  public String getLimits() {
+    return writeLimits(RateLimiter.getInstance());
+  }
+
+  /**
+   * Replace the per-peer rate limit applied to an endpoint. The change takes
+   * effect for the next request received.
+   *
+   * @param endpoint      the endpoint path, e.g. "ping" or "dpac"
+   * @param specification the limit specification, <code>rate[,burst]</code>
+   *                      in requests per second, or <code>none</code>. See
+   *                      {@link RateLimit}.
+   * @return the updated rate limits
+   */
+  @PUT
+  @Path("limits/{endpoint}")
+  @Consumes(MediaType.TEXT_PLAIN)
+  public String putLimits(@PathParam("endpoint") String endpoint, String specification) {
+    try {
+      Endpoint target = Endpoint.fromString(endpoint);
+      RateLimit limit = RateLimit.parse(specification);
+      LOG.log(Level.INFO, "Rate limit for {0} set to {1}", new Object[]{target, limit.toSpecification()});
+      RateLimiter.getInstance().setLimit(target, limit);
+      return writeLimits(RateLimiter.getInstance());
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    }
+  }
+
+  /**
+   * Get the MessageID deduplication statistics. Hits count messages
+   * re-delivered by the ESC; misses count new messages.
+   *
+   * @return a JSON object with the deduplication statistics
+   */
+  @GET
+  @Path("dedup")
+  public String getDedup() {
+    MessageDeduplicator deduplicator = MessageDeduplicator.getInstance();
+    return Json.createObjectBuilder()
+      .add("enabled", deduplicator.isEnabled())
+      .add("windowSeconds", deduplicator.getWindowSeconds())
+      .add("size", deduplicator.getSize())
+      .add("hits", deduplicator.getHitCount())
+      .add("misses", deduplicator.getMissCount())
+      .build().toString();
+  }
+
+  /**
+   * Write a latency configuration as a JSON object.
+   */
+  private static String writeLatency(LatencyConfiguration configuration) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (Map.Entry<Endpoint, LatencyProfile> entry : configuration.getProfiles().entrySet()) {
+      builder.add(entry.getKey().getPath(), entry.getValue().toSpecification());
+    }
+    return builder.build().toString();
+  }
+
+  /**
+   * Write the rate limits as a JSON object.
+   */
+  private static String writeLimits(RateLimiter limiter) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    JsonObjectBuilder peers = Json.createObjectBuilder();
+    for (Endpoint endpoint : Endpoint.values()) {
+      builder.add(endpoint.getPath(), limiter.getLimit(endpoint).toSpecification());
+      peers.add(endpoint.getPath(), limiter.getPeerCount(endpoint));
+    }
+    return builder.add("peers", peers).build().toString();
+  }
+
+  /**
+   * Write a fault configuration as a JSON object.
+   */
+  private static String writeFaults(FaultConfiguration configuration) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (Endpoint endpoint : Endpoint.values()) {
+      builder.add(endpoint.getPath(), configuration.getProfile(endpoint).toSpecification());
+    }
+    JsonObjectBuilder peers = Json.createObjectBuilder();
+    for (Map.Entry<String, FaultProfile[]> entry : configuration.getPeerProfiles().entrySet()) {
+      JsonObjectBuilder peer = Json.createObjectBuilder();
+      for (Endpoint endpoint : Endpoint.values()) {
+        FaultProfile profile = entry.getValue()[endpoint.ordinal()];
+        if (profile != null) {
+          peer.add(endpoint.getPath(), profile.toSpecification());
+        }
+      }
+      peers.add(entry.getKey(), peer);
+    }
+    return builder.add("peers", peers).build().toString();
+  }
+
+}
@@ -48,8 +48,20 @@ public class ApplicationConfig extends Application {
    * out calling this method in getClasses().
    */
   private void addRestResourceClasses(Set<Class<?>> resources) {
+    resources.add(ch.keybridge.dev.rs.AdminResource.class);
     resources.add(ch.keybridge.dev.rs.DpacStatusListenerResource.class);
+    resources.add(ch.keybridge.dev.rs.GatewayResource.class);
+    resources.add(ch.keybridge.dev.rs.JournalResource.class);
+    resources.add(ch.keybridge.dev.rs.MessagesResource.class);
+    resources.add(ch.keybridge.dev.rs.MetricsResource.class);
     resources.add(ch.keybridge.dev.rs.PingListenerResource.class);
+    resources.add(ch.keybridge.dev.rs.StreamResource.class);
+    resources.add(ch.keybridge.dev.rs.StsResource.class);
+    resources.add(ch.keybridge.dev.rs.ext.BearerAuthorizationFilter.class);
+    resources.add(ch.keybridge.dev.rs.ext.CborStringProvider.class);
+    resources.add(ch.keybridge.dev.rs.ext.ContentEncodingInterceptor.class);
+    resources.add(ch.keybridge.dev.rs.ext.InspectionAuthorizationFilter.class);
+    resources.add(ch.keybridge.dev.rs.ext.RateLimitFilter.class);
   }
 
 }
@@ -25,12 +25,27 @@
  */
 package ch.keybridge.dev.rs;
 
-import java.util.Random;
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.cbor.Cbor;
+import ch.keybridge.dev.service.dpac.DpacStatusBatchReader;
+import ch.keybridge.dev.service.dpac.DpacStatusContent;
+import ch.keybridge.dev.service.dpac.DpacStatusParser;
+import ch.keybridge.dev.service.latency.LatencyConfiguration;
+import ch.keybridge.dev.service.metrics.ResponderMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.servlet.http.HttpServletRequest;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.ws.rs.*;
-import javax.ws.rs.core.Context;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -38,29 +53,30 @@ import javax.ws.rs.core.Response;
 /**
  * REST Web Service
  * <p>
- * Provides a basic DPAC status listener. The response is delayed by a random
- * amount to emulate server processing.
+ * Provides a basic DPAC status listener. The response is delayed by an amount
+ * drawn from a configurable latency profile to emulate server processing.
+ * <p>
+ * Messages must present an HTTP Bearer access token. This is a STS issued
+ * access_token issued by the ESC to the SAS to authenticate the ESC. The
+ * authorization header is validated by the BearerAuthorizationFilter before
+ * the message body is read.
+ * <p>
+ * A DpacStatus message may be encoded in JSON or CBOR, as declared by its
+ * Content-Type.
  *
  * @author Key Bridge
  */
 @Path("dpac")
 @Consumes(MediaType.APPLICATION_JSON)
-@Produces(MediaType.APPLICATION_JSON)
-public class DpacStatusListenerResource {
+@Produces({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+public class DpacStatusListenerResource extends AbstractListenerResource {
 
   private static final Logger LOG = Logger.getLogger(DpacStatusListenerResource.class.getName());
 
   /**
-   * A random number generator. Used to delay the response to simulate
-   * processing time.
-   */
-  private static final Random RANDOM = new Random();
-
-  /**
-   * ServletRequest interface provides HTTP request information.
+   * The newline-delimited JSON media type.
    */
-  @Context
-  protected HttpServletRequest httpServletRequest;
+  public static final String NDJSON = "application/x-ndjson";
 
   /**
    * Creates a new instance of DpaStatusResource
@@ -74,64 +90,137 @@ public class DpacStatusListenerResource {
    * @see
    * <a href="https://www.w3.org/TR/ws-addr-core/#msgaddrpropsinfoset">Message
    * Addressing Properties</a>
-   * @param authorization The HTTP Bearer access token. This is a STS issued
-   *                      access_token issued by the ESC to the SAS to
-   *                      authenticate the ESC. Use the STS 'introspect' api to
-   *                      validate the token against the ESC well known server
-   *                      configuration.
    * @param messageID     An absolute IRI that uniquely identifies the message.
    * @param relatesTo     If present, identifies the messageID that this message
    *                      is responding to.
-   * @param content       a JSON encoded DpacStatus message object
-   * @return http 204 on success, 500 on error
+   * @param contentType   the message Content-Type: application/json or
+   *                      application/cbor
+   * @param content       a JSON or CBOR encoded DpacStatus message object;
+   *                      streamed and parsed without being read into memory
+   * @param asyncResponse the suspended response; resumed with http 204 on
+   *                      success, 500 on error. A duplicate message is
+   *                      answered with the original status. A malformed
+   *                      message is answered with 400 and an oversized one
+   *                      with 413. A message received while the dpac
+   *                      bulkhead is full is answered with 503.
    */
   @PUT
-  public Response receiveDpacStatus(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
-                                    @HeaderParam("MessageID") String messageID,
-                                    @HeaderParam("RelatesTo") String relatesTo,
-                                    String content) {
-    /**
-     * Parse the authorization header.
-     */
-    String accessToken = parseHttpAuthorizationHeader(authorization);
-    /**
-     * Log the request to console so we know something arrived.
-     */
-    LOG.log(Level.INFO,
-            "DpacStatusListenerResource received notice '{'remoteAddr={0}, access_token={1}, messageId={2}, relatesTo={3}, content={4}'}'",
-            new Object[]{httpServletRequest.getRemoteAddr(), accessToken, messageID, relatesTo, content});
-
-    /**
-     * Note that the ESC client is configured to timeout DPAC status message
-     * delivery after 2 seconds.
-     * <p>
-     * Delay the response by up to 2.25 seconds. This will occasionally induce a
-     * message processing failure and trigger an error processing sequence on
-     * the ESC.
-     */
-    try {
-      Thread.sleep(RANDOM.nextInt(2250)); // simulate processing up to 2.25 seconds
-      return Response.noContent().build();  // http 204 on success
-    } catch (InterruptedException ex) {
-      LOG.log(Level.INFO, "Ping resource interrupted {0}", ex.getMessage());
-      return Response.serverError().build(); // http 500 on error
-    }
+  @Consumes({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+  public void receiveDpacStatus(@HeaderParam("MessageID") String messageID,
+                                @HeaderParam("RelatesTo") String relatesTo,
+                                @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+                                InputStream content,
+                                @Suspended AsyncResponse asyncResponse) {
+    admit(Endpoint.DPAC, asyncResponse, () -> {
+      /**
+       * Record the message arrival. The authorization header was parsed by
+       * the BearerAuthorizationFilter. The message is logged asynchronously
+       * when the response is sent.
+       */
+      ReceivedMessage message = receive(messageID, relatesTo, parseDpacStatus(content, Cbor.isCbor(contentType)));
+      /**
+       * The ESC re-delivers a message when its timeout expires. Answer a
+       * duplicate MessageID immediately with the original response status.
+       */
+      if (answerDuplicate(asyncResponse, message)) {
+        return;
+      }
+      /**
+       * Note that the ESC client is configured to timeout DPAC status
+       * message delivery after 2 seconds.
+       * <p>
+       * Delay the response by a sample from the dpac latency profile. The
+       * default profile delays up to 2.25 seconds. This will occasionally
+       * induce a message processing failure and trigger an error processing
+       * sequence on the ESC.
+       */
+      long delay = LatencyConfiguration.getInstance().nextDelay(Endpoint.DPAC);
+      respondAfter(asyncResponse, message, delay, () -> Response.noContent().build());  // http 204 on success
+    });
   }
 
   /**
-   * Parse the authorization header to get the bearer credential.
+   * HTTP(S) listener end point to receive a batch of DpacStatus messages in
+   * one request, either as a JSON array or as newline-delimited JSON.
+   * <p>
+   * Messages are processed one by one as they are parsed, each exactly as if
+   * received by {@link #receiveDpacStatus}: with its own emulated delay,
+   * faults, deduplication, logging and storage. The delays run concurrently
+   * on the shared scheduler, so a batch is answered after the longest delay
+   * rather than their sum. A message is addressed by its
+   * top level <code>messageId</code> and <code>relatesTo</code> fields; a
+   * message without a <code>messageId</code> is identified by the batch
+   * MessageID and its position, e.g. <code>urn:batch#3</code>.
    *
-   * @param authorization the authorization header value
-   * @return the bearer credential component
-   * @throws Exception if no authorization header is present or an invalid
-   *                   scheme is offered
+   * @param messageID     the batch MessageID
+   * @param content       the JSON array or NDJSON stream of DpacStatus
+   *                      messages
+   * @param asyncResponse the suspended response; resumed with http 200 and a
+   *                      JSON array of the MessageID and status of each
+   *                      message, in batch order, when every message has
+   *                      been answered. A malformed
+   *                      message has status 400 and an oversized one 413. A
+   *                      malformed batch is answered with 400 and a batch
+   *                      received while the dpac bulkhead is full with 503.
    */
-  private String parseHttpAuthorizationHeader(String authorization) throws WebApplicationException {
-    if (authorization == null || !authorization.matches("^[Bb]earer \\S+$")) {
-      LOG.warning("Authorization HTTP header is required with format 'Bearer [credential]'");
-      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Authorization HTTP header is required with format 'Bearer [credential]'").build());
-    }
-    return authorization.split("\\s")[1].trim();
+  @POST
+  @Path("batch")
+  @Consumes({MediaType.APPLICATION_JSON, NDJSON})
+  public void receiveDpacStatusBatch(@HeaderParam("MessageID") String messageID,
+                                     InputStream content,
+                                     @Suspended AsyncResponse asyncResponse) {
+    admit(Endpoint.DPAC, asyncResponse, () -> {
+      DpacStatusBatchReader batch = new DpacStatusBatchReader(content);
+      List<String> messageIds = new ArrayList<>();
+      List<CompletableFuture<Integer>> statuses = new ArrayList<>();
+      try {
+        InputStream element;
+        while ((element = batch.next()) != null) {
+          String position = (messageID == null ? "" : messageID) + "#" + batch.getCount();
+          CompletableFuture<Integer> status = new CompletableFuture<>();
+          statuses.add(status);
+          DpacStatusContent parsed;
+          try {
+            parsed = DpacStatusParser.parse(element);
+          } catch (IllegalArgumentException ex) {
+            ResponderMetrics.malformed(Endpoint.DPAC);
+            messageIds.add(position);
+            status.complete(Response.Status.BAD_REQUEST.getStatusCode());
+            continue;
+          } catch (IOException ex) {
+            if (!DpacStatusParser.isTooLarge(ex)) {
+              throw ex;
+            }
+            ResponderMetrics.malformed(Endpoint.DPAC);
+            messageIds.add(position);
+            status.complete(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+            continue;
+          }
+          ReceivedMessage message = receive(parsed.getMessageId() == null ? position : parsed.getMessageId(), parsed.getRelatesTo(), parsed);
+          messageIds.add(message.getMessageId());
+          Consumer<Response> resume = response -> status.complete(response.getStatus());
+          if (!answerDuplicate(resume, message)) {
+            scheduleResponse(resume, message, LatencyConfiguration.getInstance().nextDelay(Endpoint.DPAC), () -> Response.noContent().build());
+          }
+        }
+      } catch (IllegalArgumentException | IOException ex) {
+        /**
+         * Messages already read are still answered, logged and stored.
+         */
+        LOG.log(Level.FINE, "Malformed DpacStatus batch: {0}", ex.getMessage());
+        asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+        return;
+      }
+      CompletableFuture.allOf(statuses.toArray(new CompletableFuture<?>[statuses.size()])).thenRun(() -> {
+        JsonArrayBuilder result = Json.createArrayBuilder();
+        for (int i = 0; i < messageIds.size(); i++) {
+          result.add(Json.createObjectBuilder()
+            .add("messageId", messageIds.get(i))
+            .add("status", statuses.get(i).join()));
+        }
+        asyncResponse.resume(Response.ok(result.build().toString(), MediaType.APPLICATION_JSON).build());
+      });
+    });
   }
 
 }
@@ -0,0 +1,156 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.service.fault.Fault;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Builds the responses of injected faults.
+ * <p>
+ * Aborted and truncated responses declare a body length, send the response
+ * headers (and part of the body) and then fail the entity write, which makes
+ * the container close the connection. A slow-drip response writes its body
+ * one byte at a time; it is written on a separate executor so the sleeping
+ * writer does not hold a shared scheduler thread.
+ *
+ * @author Key Bridge
+ */
+final class FaultResponses {
+
+  /**
+   * The slow-drip response body.
+   */
+  private static final byte[] DRIP_BODY = "{\"status\":\"slow drip fault\"}".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * Runs slow-drip responses. Threads are created on demand and expire when
+   * idle.
+   */
+  private static final ExecutorService DRIP_EXECUTOR = buildExecutor();
+
+  private FaultResponses() {
+  }
+
+  /**
+   * Build a cached executor with daemon threads.
+   *
+   * @return a new executor
+   */
+  private static ExecutorService buildExecutor() {
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = (Runnable runnable) -> {
+      Thread thread = new Thread(runnable, "responder-fault-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return Executors.newCachedThreadPool(threadFactory);
+  }
+
+  /**
+   * Build the response of a fault. Not used for latency spikes, which only
+   * extend the emulated delay.
+   *
+   * @param fault the fault
+   * @return the fault response
+   */
+  static Response build(Fault fault) {
+    switch (fault.getType()) {
+      case UNAVAILABLE:
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, fault.getParameter()).build();
+      case TOO_MANY_REQUESTS:
+        return Response.status(429).header(HttpHeaders.RETRY_AFTER, fault.getParameter()).build();
+      case ABORT:
+        return broken(64, 0);
+      case TRUNCATE:
+        int length = (int) Math.max(2, Math.min(1 << 20, fault.getParameter()));
+        return broken(length, length / 2);
+      case SLOW_DRIP:
+        long intervalMillis = fault.getParameter();
+        StreamingOutput drip = output -> {
+          try {
+            for (byte b : DRIP_BODY) {
+              output.write(b);
+              output.flush();
+              Thread.sleep(intervalMillis);
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Slow drip response interrupted");
+          }
+        };
+        return Response.ok(drip, MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.CONTENT_LENGTH, DRIP_BODY.length).build();
+      case ERROR:
+      default:
+        return Response.serverError().build();
+    }
+  }
+
+  /**
+   * Build a response that declares a body of the indicated length, sends part
+   * of it and then fails.
+   */
+  private static Response broken(int declaredLength, int sentLength) {
+    StreamingOutput output = stream -> {
+      byte[] body = new byte[sentLength];
+      Arrays.fill(body, (byte) ' ');
+      stream.write(body);
+      stream.flush();
+      throw new IOException("Fault injection: connection closed after " + sentLength + " of " + declaredLength + " bytes");
+    };
+    return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.CONTENT_LENGTH, declaredLength).build();
+  }
+
+  /**
+   * Run a slow-drip response on the drip executor.
+   *
+   * @param task the response task
+   * @throws RejectedExecutionException if the executor is shut down
+   */
+  static void execute(Runnable task) throws RejectedExecutionException {
+    DRIP_EXECUTOR.execute(task);
+  }
+
+  /**
+   * Stop the drip executor. Responses in progress are interrupted.
+   */
+  static void shutdown() {
+    DRIP_EXECUTOR.shutdownNow();
+  }
+
+}
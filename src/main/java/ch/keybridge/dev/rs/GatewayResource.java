@@ -0,0 +1,227 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.rs.ext.BearerAuthorizationFilter;
+import ch.keybridge.dev.service.auth.TokenIntrospection;
+import ch.keybridge.dev.service.auth.TokenIntrospector;
+import ch.keybridge.dev.service.cbor.Cbor;
+import ch.keybridge.dev.service.gw.GatewayEmulator;
+import ch.keybridge.dev.service.gw.PeerSession;
+import java.io.StringReader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * REST Web Service
+ * <p>
+ * An emulated ESC gateway, mirroring the <code>peer</code> and
+ * <code>dpa/status</code> paths used by <code>EscGwRestClient</code>. All
+ * paths answer 404 unless the gateway emulator is enabled. See
+ * {@link GatewayEmulator}.
+ * <p>
+ * Requests and responses may be encoded in JSON or CBOR, as negotiated with
+ * the Content-Type and Accept headers.
+ *
+ * @author Key Bridge
+ */
+@Path("gw")
+@Produces({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+public class GatewayResource {
+
+  private static final Logger LOG = Logger.getLogger(GatewayResource.class.getName());
+
+  @Context
+  private UriInfo uriInfo;
+
+  public GatewayResource() {
+  }
+
+  /**
+   * Get the gateway statistics.
+   *
+   * @return session and notice counts
+   */
+  @GET
+  public String getStatistics() {
+    return GatewayEmulator.getInstance().toStatistics().build().toString();
+  }
+
+  /**
+   * Register a peer session.
+   *
+   * @param authorization the registration access token, as a bearer token
+   * @param request       the peer registration request JSON
+   * @return the peer information
+   */
+  @POST
+  @Path("peer")
+  @Consumes({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+  public Response registerPeer(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization, String request) {
+    GatewayEmulator gateway = enabled();
+    PeerSession session = gateway.register(authorize(authorization), readJson(request));
+    LOG.log(Level.FINE, "Peer session {0} registered for {1}", new Object[]{session.getPeerId(), session.getListenerUri()});
+    return Response.created(uriInfo.getBaseUriBuilder().path(GatewayResource.class).path("peer").path(session.getPeerId()).build())
+      .entity(session.toJson().build().toString())
+      .build();
+  }
+
+  /**
+   * Read a peer session.
+   *
+   * @param peerId        the peer ID
+   * @param authorization the registration access token, as a bearer token
+   * @return the peer information
+   */
+  @GET
+  @Path("peer/{peerId}")
+  public String readPeer(@PathParam("peerId") String peerId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+    return findSession(peerId, authorization).toJson().build().toString();
+  }
+
+  /**
+   * Update a peer session.
+   *
+   * @param peerId        the peer ID
+   * @param authorization the registration access token, as a bearer token
+   * @param request       the peer update request JSON
+   * @return the peer information
+   */
+  @PUT
+  @Path("peer/{peerId}")
+  @Consumes({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+  public String updatePeer(@PathParam("peerId") String peerId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization, String request) {
+    PeerSession session = findSession(peerId, authorization);
+    enabled().update(session, readJson(request));
+    return session.toJson().build().toString();
+  }
+
+  /**
+   * Reset a peer session.
+   *
+   * @param peerId        the peer ID
+   * @param authorization the registration access token, as a bearer token
+   * @return 204 No Content
+   */
+  @POST
+  @Path("peer/{peerId}")
+  public Response resetPeer(@PathParam("peerId") String peerId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+    enabled().reset(findSession(peerId, authorization));
+    return Response.noContent().build();
+  }
+
+  /**
+   * Terminate a peer session.
+   *
+   * @param peerId        the peer ID
+   * @param authorization the registration access token, as a bearer token
+   * @return 204 No Content
+   */
+  @DELETE
+  @Path("peer/{peerId}")
+  public Response deletePeer(@PathParam("peerId") String peerId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+    enabled().delete(findSession(peerId, authorization));
+    return Response.noContent().build();
+  }
+
+  /**
+   * Request a DPA status. The request is pushed as a DpacStatus notice to
+   * every registered peer listener.
+   *
+   * @param authorization the access token, as a bearer token
+   * @param messageId     the request MessageID
+   * @param request       the DpacStatus request JSON
+   * @return 204 No Content
+   */
+  @POST
+  @Path("dpa/status")
+  @Consumes({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+  public Response requestDpacStatus(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+                                    @HeaderParam("MessageID") String messageId,
+                                    String request) {
+    GatewayEmulator gateway = enabled();
+    authorize(authorization);
+    int peers = gateway.requestStatus(messageId, readJson(request));
+    LOG.log(Level.FINE, "DPA status request {0} pushed to {1} peers", new Object[]{messageId, peers});
+    return Response.noContent().build();
+  }
+
+  private static GatewayEmulator enabled() {
+    GatewayEmulator gateway = GatewayEmulator.getInstance();
+    if (!gateway.isEnabled()) {
+      throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).header("Exception", "ESC gateway emulator is not enabled").build());
+    }
+    return gateway;
+  }
+
+  /**
+   * Read the bearer token, validating it if token introspection is enabled.
+   */
+  private static String authorize(String authorization) {
+    String token = BearerAuthorizationFilter.parseBearerCredential(authorization);
+    if (token == null) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Authorization HTTP header is required with format 'Bearer [credential]'").build());
+    }
+    TokenIntrospector introspector = TokenIntrospector.getInstance();
+    if (introspector.isEnabled()) {
+      TokenIntrospection introspection = introspector.introspect(token);
+      if (introspection == null || !introspection.isActive()) {
+        throw new WebApplicationException(Response.status(Response.Status.UNAUTHORIZED)
+          .header(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"")
+          .header("Exception", "Access token is not active")
+          .build());
+      }
+    }
+    return token;
+  }
+
+  private static PeerSession findSession(String peerId, String authorization) {
+    PeerSession session = enabled().find(peerId, BearerAuthorizationFilter.parseBearerCredential(authorization));
+    if (session == null) {
+      throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).header("Exception", "No peer session " + peerId).build());
+    }
+    return session;
+  }
+
+  private static JsonObject readJson(String request) {
+    try (JsonReader reader = Json.createReader(new StringReader(request == null || request.isEmpty() ? "{}" : request))) {
+      return reader.readObject();
+    } catch (JsonException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Malformed JSON: " + ex.getMessage()).build());
+    }
+  }
+
+}
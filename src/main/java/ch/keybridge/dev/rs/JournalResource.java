@@ -0,0 +1,114 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.service.store.MessageJournal;
+import ch.keybridge.dev.service.store.StoredMessage;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * REST Web Service
+ * <p>
+ * Provides read access to the durable message journal. Messages are found by
+ * MessageID or by received time.
+ *
+ * @author Key Bridge
+ */
+@Path("journal")
+@Produces(MediaType.APPLICATION_JSON)
+public class JournalResource {
+
+  /**
+   * The maximum number of messages returned.
+   */
+  private static final int MAX_LIMIT = 1000;
+
+  public JournalResource() {
+  }
+
+  /**
+   * Find journaled messages. Either a MessageID or a time range is required.
+   * Times are ISO-8601 instants (e.g. 2021-06-01T12:00:00Z) or epoch
+   * milliseconds.
+   *
+   * @param messageId (optional) the MessageID to find
+   * @param from      (optional) the start of the received time range,
+   *                  inclusive
+   * @param to        (optional) the end of the received time range,
+   *                  exclusive. Default is now.
+   * @param limit     (optional) the maximum number of messages returned.
+   *                  Default is 100.
+   * @return a JSON object with the matching messages
+   */
+  @GET
+  public String findMessages(@QueryParam("messageId") String messageId,
+                             @QueryParam("from") String from,
+                             @QueryParam("to") String to,
+                             @QueryParam("limit") @DefaultValue("100") int limit) {
+    MessageJournal journal = MessageJournal.getInstance();
+    if (!journal.isEnabled()) {
+      throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).header("Exception", "Message journal is not enabled").build());
+    }
+    int max = Math.min(Math.max(1, limit), MAX_LIMIT);
+    List<StoredMessage> found;
+    if (messageId != null && !messageId.isEmpty()) {
+      found = journal.findByMessageId(messageId, max);
+    } else if (from != null && !from.isEmpty()) {
+      found = journal.findByTime(parseTime(from), to == null || to.isEmpty() ? System.currentTimeMillis() : parseTime(to), max);
+    } else {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "messageId or from parameter required").build());
+    }
+    JsonArrayBuilder messages = Json.createArrayBuilder();
+    found.forEach(message -> messages.add(message.toJson()));
+    return Json.createObjectBuilder()
+      .add("messages", messages)
+      .build().toString();
+  }
+
+  /**
+   * Parse an ISO-8601 instant or epoch milliseconds value.
+   *
+   * @param time the time parameter
+   * @return the time in epoch milliseconds
+   */
+  private static long parseTime(String time) {
+    try {
+      return time.chars().allMatch(Character::isDigit)
+             ? Long.parseLong(time)
+             : Instant.parse(time).toEpochMilli();
+    } catch (NumberFormatException | DateTimeParseException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Invalid time " + time).build());
+    }
+  }
+
+}
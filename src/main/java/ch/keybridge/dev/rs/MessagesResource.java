@@ -0,0 +1,129 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.correlation.CorrelatedMessage;
+import ch.keybridge.dev.service.correlation.CorrelationIndex;
+import ch.keybridge.dev.service.store.MessageRingBuffer;
+import ch.keybridge.dev.service.store.StoredMessage;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * REST Web Service
+ * <p>
+ * Provides read access to the most recently received messages held in the
+ * off-heap message ring buffer, and to message conversations.
+ *
+ * @author Key Bridge
+ */
+@Path("messages")
+@Produces(MediaType.APPLICATION_JSON)
+public class MessagesResource {
+
+  /**
+   * The maximum page size.
+   */
+  private static final int MAX_LIMIT = 1000;
+
+  public MessagesResource() {
+  }
+
+  /**
+   * Read a page of recently received messages, newest first.
+   * <p>
+   * To read the next (older) page pass the returned <code>next</code> value as
+   * the <code>before</code> parameter. Messages overwritten in the meantime are
+   * silently skipped.
+   *
+   * @param before   (optional) return messages with a sequence number less
+   *                 than this value. Default is the latest message.
+   * @param limit    (optional) the maximum number of messages returned.
+   *                 Default is 50.
+   * @param endpoint (optional) only return messages received by this endpoint,
+   *                 "ping" or "dpac"
+   * @return a JSON object with the page of messages
+   */
+  @GET
+  public String getMessages(@QueryParam("before") @DefaultValue("0") long before,
+                            @QueryParam("limit") @DefaultValue("50") int limit,
+                            @QueryParam("endpoint") String endpoint) {
+    Endpoint filter;
+    try {
+      filter = endpoint == null || endpoint.isEmpty() ? null : Endpoint.fromString(endpoint);
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+    }
+    MessageRingBuffer ringBuffer = MessageRingBuffer.getInstance();
+    List<StoredMessage> page = ringBuffer.read(before, Math.min(Math.max(1, limit), MAX_LIMIT), filter);
+    JsonArrayBuilder messages = Json.createArrayBuilder();
+    page.forEach(message -> messages.add(message.toJson()));
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("latest", ringBuffer.getLatestSequence())
+      .add("messages", messages);
+    if (!page.isEmpty()) {
+      builder.add("next", page.get(page.size() - 1).getSequence());
+    }
+    return builder.build().toString();
+  }
+
+  /**
+   * Get the conversation of a message: the messages linked to it by their
+   * RelatesTo headers and response MessageIDs, transitively.
+   *
+   * @param messageId a MessageID in the conversation
+   * @return a JSON object with the conversation messages, ordered by received
+   *         time
+   */
+  @GET
+  @Path("chain")
+  public String getChain(@QueryParam("messageId") String messageId) {
+    if (messageId == null || messageId.isEmpty()) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "messageId parameter required").build());
+    }
+    CorrelationIndex index = CorrelationIndex.getInstance();
+    if (!index.isEnabled()) {
+      throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).header("Exception", "Correlation index is not enabled").build());
+    }
+    List<CorrelatedMessage> conversation = index.findConversation(messageId);
+    if (conversation.isEmpty()) {
+      throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).header("Exception", "MessageID not found").build());
+    }
+    JsonArrayBuilder messages = Json.createArrayBuilder();
+    conversation.forEach(message -> messages.add(message.toJson()));
+    return Json.createObjectBuilder()
+      .add("messageId", messageId)
+      .add("messages", messages)
+      .build().toString();
+  }
+
+}
@@ -25,47 +25,35 @@
  */
 package ch.keybridge.dev.rs;
 
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.servlet.http.HttpServletRequest;
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.MessageIds;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.cbor.Cbor;
+import ch.keybridge.dev.service.latency.LatencyConfiguration;
 import javax.ws.rs.*;
-import javax.ws.rs.core.Context;
-import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 /**
  * REST Web Service.
  * <p>
- * Provides a basic ping responder. The response is delayed by a random amount
- * to emulate server processing.
+ * Provides a basic ping responder. The response is delayed by an amount drawn
+ * from a configurable latency profile to emulate server processing.
+ * <p>
+ * Ping messages must present the ESC issued HTTP Bearer access token. The
+ * authorization header is checked by the BearerAuthorizationFilter.
+ * <p>
+ * A ping message may be encoded in JSON or CBOR. A CBOR message is recorded
+ * as its JSON transcription.
  *
  * @author Key Bridge
  */
 @Path("ping")
-@Consumes(MediaType.APPLICATION_JSON)
-@Produces(MediaType.APPLICATION_JSON)
-public class PingListenerResource {
-
-  private static final Logger LOG = Logger.getLogger(PingListenerResource.class.getName());
-
-  /**
-   * A random number generator. Used to delay the response to simulate
-   * processing time.
-   */
-  private static final Random RANDOM = new Random();
-  /**
-   * An AtomicLong counter for consistent message identification.
-   */
-  private static final AtomicLong ATOMIC_LONG = new AtomicLong(System.currentTimeMillis());
-
-  /**
-   * ServletRequest interface provides HTTP request information.
-   */
-  @Context
-  protected HttpServletRequest httpServletRequest;
+@Consumes({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+@Produces({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
+public class PingListenerResource extends AbstractListenerResource {
 
   public PingListenerResource() {
   }
@@ -73,64 +61,50 @@ public class PingListenerResource {
   /**
    * HTTP(S) listener end point to receive PING messages.
    *
-   * @param authorization The HTTP Bearer access token. This is a STS issued
-   *                      access_token issued by the ESC to the SAS to
-   *                      authenticate the ESC. Use the STS 'introspect' api to
-   *                      validate the token against the ESC well known server
-   *                      configuration.
    * @param messageID     An absolute IRI that uniquely identifies the message.
    * @param relatesTo     If present, identifies the messageID that this message
    *                      is responding to.
    * @param content       url-encoded hash value of the current database state
-   * @return http 204 on success, 500 on error
+   * @param asyncResponse the suspended response; resumed with http 204 on
+   *                      success, 500 on error and 503 if the ping bulkhead
+   *                      is full
    */
   @PUT
-  public Response receivePing(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
-                              @HeaderParam("MessageID") String messageID,
-                              String content) {
-    /**
-     * Parse the authorization header.
-     */
-    String accessToken = parseHttpAuthorizationHeader(authorization);
-    /**
-     * Log the request to console so we know something arrived.
-     */
-    LOG.log(Level.INFO,
-            "PingListenerResource received ping '{'remoteAddr={0}, access_token={1}, messageId={2}, content={3}'}'",
-            new Object[]{httpServletRequest.getRemoteAddr(), accessToken, messageID, content});
-    /**
-     * Note that the ESC client is configured to timeout ping status message
-     * delivery after 1/2 seconds.
-     * <p>
-     * Delay the response by up to 0.55 seconds. This will occasionally induce a
-     * message processing failure and trigger an error processing sequence on
-     * the ESC.
-     */
-    try {
-      Thread.sleep(RANDOM.nextInt(550));  // simlulate processing up to 1/2 second
-      return Response.noContent()
-        .header("MessageId", ATOMIC_LONG.getAndIncrement())
-        .header("RelatesTo", messageID)
-        .build();  // http 204 on success
-    } catch (InterruptedException ex) {
-      LOG.log(Level.INFO, "Ping resource interrupted {0}", ex.getMessage());
-      return Response.serverError().build(); // http 500 on error
-    }
+  public void receivePing(@HeaderParam("MessageID") String messageID,
+                          String content,
+                          @Suspended AsyncResponse asyncResponse) {
+    admit(Endpoint.PING, asyncResponse, () -> {
+      /**
+       * Record the message arrival. The authorization header was parsed by
+       * the BearerAuthorizationFilter. The message is logged asynchronously
+       * when the response is sent.
+       */
+      ReceivedMessage message = receive(Endpoint.PING, messageID, null, content);
+      /**
+       * Note that the ESC client is configured to timeout ping status
+       * message delivery after 1/2 seconds.
+       * <p>
+       * Delay the response by a sample from the ping latency profile. The
+       * default profile delays up to 0.55 seconds. This will occasionally
+       * induce a message processing failure and trigger an error processing
+       * sequence on the ESC.
+       */
+      long delay = LatencyConfiguration.getInstance().nextDelay(Endpoint.PING);
+      respondAfter(asyncResponse, message, delay, () -> pingResponse(messageID));  // http 204 on success
+    });
   }
 
   /**
-   * Parse the authorization header to get the bearer credential.
+   * Build the ping response: http 204 with a new MessageId, relating to the
+   * received message.
    *
-   * @param authorization the authorization header value
-   * @return the bearer credential component
-   * @throws Exception if no authorization header is present or an invalid
-   *                   scheme is offered
+   * @param relatesTo the MessageID of the received ping
+   * @return the ping response
    */
-  private String parseHttpAuthorizationHeader(String authorization) throws WebApplicationException {
-    if (authorization == null || !authorization.matches("^[Bb]earer \\S+$")) {
-      LOG.warning("Authorization HTTP header is required with format 'Bearer [credential]'");
-      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Authorization HTTP header is required with format 'Bearer [credential]'").build());
-    }
-    return authorization.split("\\s")[1].trim();
+  static Response pingResponse(String relatesTo) {
+    return Response.noContent()
+      .header("MessageId", MessageIds.next())
+      .header("RelatesTo", relatesTo)
+      .build();
   }
 }
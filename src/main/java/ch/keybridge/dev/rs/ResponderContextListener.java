@@ -0,0 +1,80 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.service.Bulkhead;
+import ch.keybridge.dev.service.DelayScheduler;
+import ch.keybridge.dev.service.auth.TokenIntrospector;
+import ch.keybridge.dev.service.gw.GatewayEmulator;
+import ch.keybridge.dev.service.log.MessageLogger;
+import ch.keybridge.dev.service.store.MessageJournal;
+import ch.keybridge.dev.service.stream.MessageBroadcaster;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Web application life cycle listener. Releases the shared responder services
+ * when the application is undeployed.
+ *
+ * @author Key Bridge
+ */
+@WebListener
+public class ResponderContextListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent sce) {
+    // nothing to do; services are created on first use
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent sce) {
+    Bulkhead.shutdown();
+    FaultResponses.shutdown();
+    /**
+     * Shared instances that were never used are not created here; the gateway
+     * schedules work on the delay scheduler when it is created.
+     */
+    if (GatewayEmulator.isInitialized()) {
+      GatewayEmulator.getInstance().shutdown();
+    }
+    MessageLogger.shutdown();
+    if (MessageJournal.isInitialized()) {
+      MessageJournal.getInstance().shutdown();
+    }
+    if (MessageBroadcaster.isInitialized()) {
+      MessageBroadcaster.getInstance().shutdown();
+    }
+    if (TokenIntrospector.isInitialized()) {
+      TokenIntrospector.getInstance().shutdown();
+    }
+    /**
+     * Last, so that no service above schedules on a stopped executor.
+     */
+    DelayScheduler.shutdown();
+  }
+
+}
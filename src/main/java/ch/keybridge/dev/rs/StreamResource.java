@@ -0,0 +1,83 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.stream.MessageBroadcaster;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+/**
+ * REST Web Service
+ * <p>
+ * A Server-Sent Events stream of the messages answered by the listener
+ * resources. Each event is named after the listener endpoint, carries the
+ * event sequence number as its id and a compact JSON summary of the message
+ * as its data. A "dropped" event reports the number of events lost when the
+ * subscriber could not keep up. See {@link MessageBroadcaster}.
+ *
+ * @author Key Bridge
+ */
+@Path("stream")
+public class StreamResource {
+
+  public StreamResource() {
+  }
+
+  /**
+   * Subscribe to the message stream.
+   *
+   * @param endpoint the listener endpoint to follow; all endpoints if null
+   * @param sink     the event sink, injected
+   * @param sse      the SSE context, injected
+   */
+  @GET
+  @Produces(MediaType.SERVER_SENT_EVENTS)
+  public void subscribe(@QueryParam("endpoint") String endpoint,
+                        @Context SseEventSink sink,
+                        @Context Sse sse) {
+    Endpoint filter = null;
+    if (endpoint != null && !endpoint.isEmpty()) {
+      try {
+        filter = Endpoint.fromString(endpoint);
+      } catch (IllegalArgumentException ex) {
+        throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", ex.getMessage()).build());
+      }
+    }
+    if (!MessageBroadcaster.getInstance().subscribe(sink, sse, filter)) {
+      throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Exception", "Too many stream subscribers").build());
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs;
+
+import ch.keybridge.dev.rs.ext.BearerAuthorizationFilter;
+import ch.keybridge.dev.service.sts.StsClientRegistration;
+import ch.keybridge.dev.service.sts.StsService;
+import ch.keybridge.dev.service.sts.StsToken;
+import java.io.StringReader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * REST Web Service
+ * <p>
+ * An embedded stand-in for the Key Bridge STS API, mirroring the
+ * <code>register</code>, <code>token/oauth2</code>, <code>introspect</code>
+ * and <code>revoke</code> paths used by <code>StsClient</code>. All paths
+ * answer 404 unless the embedded STS is enabled. See {@link StsService}.
+ *
+ * @author Key Bridge
+ */
+@Path("sts")
+@Produces(MediaType.APPLICATION_JSON)
+public class StsResource {
+
+  private static final Logger LOG = Logger.getLogger(StsResource.class.getName());
+
+  private static final String CLIENT_CREDENTIALS = "client_credentials";
+  private static final String TOKEN_EXCHANGE = "urn:ietf:params:oauth:grant-type:token-exchange";
+  private static final String INACTIVE = Json.createObjectBuilder().add("active", false).build().toString();
+
+  @Context
+  private UriInfo uriInfo;
+
+  public StsResource() {
+  }
+
+  /**
+   * Register a client (RFC 7591).
+   *
+   * @param authorization the initial access token, as a bearer token
+   * @param metadata      the client metadata JSON
+   * @return the client information
+   */
+  @POST
+  @Path("register")
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Response register(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization, String metadata) {
+    StsService sts = enabled();
+    if (!sts.isRegistrationAuthorized(BearerAuthorizationFilter.parseBearerCredential(authorization))) {
+      throw error(Response.Status.UNAUTHORIZED, "invalid_token");
+    }
+    StsClientRegistration client = sts.register(readMetadata(metadata));
+    LOG.log(Level.FINE, "STS client {0} registered", client.getClientId());
+    return Response.status(Response.Status.CREATED)
+      .entity(client.toClientInformation(clientUri(client)).build().toString())
+      .build();
+  }
+
+  /**
+   * Read a client registration (RFC 7592).
+   *
+   * @param clientId      the client ID
+   * @param authorization the registration access token, as a bearer token
+   * @return the client information
+   */
+  @GET
+  @Path("register/{clientId}")
+  public String readClient(@PathParam("clientId") String clientId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+    StsClientRegistration client = findClient(clientId, authorization);
+    return client.toClientInformation(clientUri(client)).build().toString();
+  }
+
+  /**
+   * Update a client registration (RFC 7592).
+   *
+   * @param clientId      the client ID
+   * @param authorization the registration access token, as a bearer token
+   * @param metadata      the replacement client metadata JSON
+   * @return the client information
+   */
+  @PUT
+  @Path("register/{clientId}")
+  @Consumes(MediaType.APPLICATION_JSON)
+  public String updateClient(@PathParam("clientId") String clientId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization, String metadata) {
+    StsClientRegistration client = findClient(clientId, authorization);
+    enabled().update(client, readMetadata(metadata));
+    return client.toClientInformation(clientUri(client)).build().toString();
+  }
+
+  /**
+   * Delete a client registration (RFC 7592).
+   *
+   * @param clientId      the client ID
+   * @param authorization the registration access token, as a bearer token
+   * @return 204 No Content
+   */
+  @DELETE
+  @Path("register/{clientId}")
+  public Response deleteClient(@PathParam("clientId") String clientId, @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+    enabled().delete(findClient(clientId, authorization));
+    return Response.noContent().build();
+  }
+
+  /**
+   * Issue an access token to an authenticated client. The client credentials
+   * and token exchange grants are supported; a token exchange is answered with
+   * a new client token.
+   *
+   * @param authorization the client credentials, as HTTP Basic authorization
+   * @param grantType     the grant type
+   * @param scope         the requested scope
+   * @return the token response
+   */
+  @POST
+  @Path("token/oauth2")
+  @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+  public Response token(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+                        @FormParam("grant_type") String grantType,
+                        @FormParam("scope") String scope) {
+    StsService sts = enabled();
+    StsClientRegistration client = authenticate(sts, authorization);
+    if (!CLIENT_CREDENTIALS.equals(grantType) && !TOKEN_EXCHANGE.equals(grantType)) {
+      throw error(Response.Status.BAD_REQUEST, "unsupported_grant_type");
+    }
+    StsToken token = sts.issue(client, scope);
+    return Response.ok(Json.createObjectBuilder()
+      .add("access_token", token.getValue())
+      .add("token_type", "Bearer")
+      .add("expires_in", token.getExpiresAt() - token.getIssuedAt())
+      .add("issued_token_type", "urn:ietf:params:oauth:token-type:access_token")
+      .add("scope", scope == null ? "" : scope)
+      .build().toString())
+      .header(HttpHeaders.CACHE_CONTROL, "no-store")
+      .build();
+  }
+
+  /**
+   * Introspect an access token (RFC 7662).
+   *
+   * @param authorization the client credentials, as HTTP Basic authorization
+   * @param token         the token to introspect
+   * @return the introspection response
+   */
+  @POST
+  @Path("introspect")
+  @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+  public String introspect(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization, @FormParam("token") String token) {
+    StsService sts = enabled();
+    authenticate(sts, authorization);
+    StsToken issued = sts.introspect(token);
+    return issued == null ? INACTIVE : issued.toIntrospection().build().toString();
+  }
+
+  /**
+   * Revoke an access token (RFC 7009). Unknown tokens are ignored.
+   *
+   * @param authorization the client credentials, as HTTP Basic authorization
+   * @param token         the token to revoke
+   * @return 200 OK
+   */
+  @POST
+  @Path("revoke")
+  @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+  public Response revoke(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization, @FormParam("token") String token) {
+    StsService sts = enabled();
+    sts.revoke(authenticate(sts, authorization), token);
+    return Response.ok().build();
+  }
+
+  private static StsService enabled() {
+    StsService sts = StsService.getInstance();
+    if (!sts.isEnabled()) {
+      throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).header("Exception", "Embedded STS is not enabled").build());
+    }
+    return sts;
+  }
+
+  private static StsClientRegistration authenticate(StsService sts, String authorization) {
+    StsClientRegistration client = sts.authenticate(authorization);
+    if (client == null) {
+      throw new WebApplicationException(Response.status(Response.Status.UNAUTHORIZED)
+        .header(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"sts\"")
+        .entity(Json.createObjectBuilder().add("error", "invalid_client").build().toString())
+        .type(MediaType.APPLICATION_JSON)
+        .build());
+    }
+    return client;
+  }
+
+  private static StsClientRegistration findClient(String clientId, String authorization) {
+    StsClientRegistration client = enabled().findClient(clientId, BearerAuthorizationFilter.parseBearerCredential(authorization));
+    if (client == null) {
+      throw error(Response.Status.UNAUTHORIZED, "invalid_token");
+    }
+    return client;
+  }
+
+  private static JsonObject readMetadata(String metadata) {
+    try (JsonReader reader = Json.createReader(new StringReader(metadata == null || metadata.isEmpty() ? "{}" : metadata))) {
+      return reader.readObject();
+    } catch (JsonException ex) {
+      throw error(Response.Status.BAD_REQUEST, "invalid_client_metadata");
+    }
+  }
+
+  private String clientUri(StsClientRegistration client) {
+    return uriInfo.getBaseUriBuilder().path(StsResource.class).path("register").path(client.getClientId()).build().toString();
+  }
+
+  private static WebApplicationException error(Response.Status status, String error) {
+    return new WebApplicationException(Response.status(status)
+      .header("Exception", error)
+      .entity(Json.createObjectBuilder().add("error", error).build().toString())
+      .type(MediaType.APPLICATION_JSON)
+      .build());
+  }
+
+}
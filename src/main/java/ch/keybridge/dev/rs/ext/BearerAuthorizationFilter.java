@@ -0,0 +1,156 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.auth.TokenIntrospection;
+import ch.keybridge.dev.service.auth.TokenIntrospector;
+import ch.keybridge.dev.service.metrics.ResponderMetrics;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Pre-matching request filter to validate the HTTP Bearer authorization
+ * header of messages sent to the listener end points.
+ * <p>
+ * The filter runs before resource matching and before the message body is
+ * read, so a request without a valid authorization header is rejected with
+ * HTTP 400 without consuming its entity. On success the bearer credential is
+ * stored in the {@link #ACCESS_TOKEN} request property.
+ * <p>
+ * If an STS is configured the access token is also validated with the STS
+ * introspection API by the {@link TokenIntrospector}. An inactive token is
+ * rejected with HTTP 401; if the STS cannot be reached the request is rejected
+ * with HTTP 503.
+ * <p>
+ * Requests to other (non-listener) resources pass through unchanged.
+ *
+ * @author Key Bridge
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.AUTHENTICATION)
+public class BearerAuthorizationFilter implements ContainerRequestFilter {
+
+  private static final Logger LOG = Logger.getLogger(BearerAuthorizationFilter.class.getName());
+
+  /**
+   * The request property holding the parsed bearer credential.
+   */
+  public static final String ACCESS_TOKEN = "ch.keybridge.dev.rs.access_token";
+
+  /**
+   * The exception message returned when the authorization header is invalid.
+   */
+  private static final String EXCEPTION = "Authorization HTTP header is required with format 'Bearer [credential]'";
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Parse the authorization header of listener messages and abort the request
+   * with HTTP 400 if it is missing or invalid, or with HTTP 401 if the token is
+   * not active.
+   */
+  @Override
+  public void filter(ContainerRequestContext requestContext) throws IOException {
+    Endpoint endpoint = Endpoint.fromRequestPath(requestContext.getUriInfo().getPath());
+    if (endpoint == null) {
+      return;
+    }
+    String accessToken = parseBearerCredential(requestContext.getHeaderString(HttpHeaders.AUTHORIZATION));
+    if (accessToken == null) {
+      LOG.log(Level.FINE, EXCEPTION);
+      ResponderMetrics.authorizationRejected(endpoint);
+      requestContext.abortWith(Response.status(Response.Status.BAD_REQUEST).header("Exception", EXCEPTION).build());
+      return;
+    }
+    TokenIntrospector introspector = TokenIntrospector.getInstance();
+    if (introspector.isEnabled()) {
+      TokenIntrospection introspection = introspector.introspect(accessToken);
+      if (introspection == null) {
+        ResponderMetrics.authorizationRejected(endpoint);
+        requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Exception", "Access token introspection unavailable").build());
+        return;
+      }
+      if (!introspection.isActive()) {
+        LOG.log(Level.FINE, "Inactive access token");
+        ResponderMetrics.authorizationRejected(endpoint);
+        requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED)
+          .header(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"")
+          .header("Exception", "Access token is not active")
+          .build());
+        return;
+      }
+    }
+    requestContext.setProperty(ACCESS_TOKEN, accessToken);
+  }
+
+  /**
+   * Parse the authorization header to get the bearer credential.
+   * <p>
+   * The header must match <code>^[Bb]earer \S+$</code>: the scheme name, one
+   * space and a credential containing no whitespace. This is implemented as a
+   * single pass scanner; the only allocation is the returned credential.
+   *
+   * @param authorization the authorization header value
+   * @return the bearer credential component, null if no authorization header
+   *         is present or an invalid scheme is offered
+   */
+  public static String parseBearerCredential(String authorization) {
+    if (authorization == null || authorization.length() < 8) {
+      return null;
+    }
+    char first = authorization.charAt(0);
+    if ((first != 'B' && first != 'b')
+        || !authorization.startsWith("earer ", 1)) {
+      return null;
+    }
+    for (int i = 7; i < authorization.length(); i++) {
+      if (isWhitespace(authorization.charAt(i))) {
+        return null;
+      }
+    }
+    return authorization.substring(7);
+  }
+
+  /**
+   * Matches the regular expression <code>\s</code> character class:
+   * <code>[ \t\n\x0B\f\r]</code>.
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+}
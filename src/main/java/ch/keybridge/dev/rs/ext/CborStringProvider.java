@@ -0,0 +1,137 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import ch.keybridge.dev.service.cbor.Cbor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Reads and writes String entities of type <code>application/cbor</code> as
+ * the equivalent JSON text. A resource method taking or returning a JSON
+ * String, e.g. the ping listener, thereby accepts and produces CBOR without
+ * change.
+ *
+ * @author Key Bridge
+ */
+@Provider
+@Consumes(Cbor.MEDIA_TYPE)
+@Produces(Cbor.MEDIA_TYPE)
+public class CborStringProvider implements MessageBodyReader<String>, MessageBodyWriter<String> {
+
+  /**
+   * Shared factories. <code>Json.createParser</code> looks up the JSON-P
+   * provider on every call.
+   */
+  private static final JsonParserFactory PARSERS = Json.createParserFactory(null);
+  private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+  @Override
+  public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    return type == String.class;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws WebApplicationException http 400 if the entity is not valid CBOR
+   */
+  @Override
+  public String readFrom(Class<String> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                         MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+    StringWriter json = new StringWriter();
+    JsonParser parser = Cbor.createParser(entityStream);
+    try {
+      if (!parser.hasNext()) {
+        return "";
+      }
+      try (JsonGenerator generator = GENERATORS.createGenerator(json)) {
+        Cbor.transcode(parser, generator);
+      }
+    } catch (JsonParsingException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Malformed CBOR: " + ex.getMessage()).build());
+    } catch (JsonException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Exception", "Malformed CBOR: " + ex.getMessage()).build());
+    }
+    return json.toString();
+  }
+
+  @Override
+  public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    return type == String.class;
+  }
+
+  @Override
+  public long getSize(String t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    return -1;
+  }
+
+  /**
+   * {@inheritDoc} The String must be JSON text.
+   */
+  @Override
+  public void writeTo(String t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                      MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+    try (JsonParser parser = PARSERS.createParser(new StringReader(t))) {
+      JsonGenerator generator = Cbor.createGenerator(entityStream);
+      Cbor.transcode(parser, generator);
+      /**
+       * The generator is not closed: that would close the entity stream.
+       */
+      generator.flush();
+    } catch (JsonException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException("Not JSON text: " + ex.getMessage(), ex);
+    }
+  }
+
+}
@@ -0,0 +1,691 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The gzip and deflate HTTP content codings (RFC 7230 section 4.2), shared by
+ * the server and client content encoding interceptors.
+ * <p>
+ * Both codings are written and read with a raw ("nowrap") {@link Deflater} or
+ * {@link Inflater}; the gzip (RFC 1952) and zlib (RFC 1950) framing is written
+ * and checked here. Deflaters, inflaters and their 8 KiB buffers are pooled
+ * per thread: a stream takes them from the pool of the thread that first
+ * writes or reads it (an inflating stream on its first read) and returns them
+ * to the pool of the thread closing it. A stream handed to another thread,
+ * e.g. a bulkhead thread, therefore never shares them. A deflater holds
+ * about 256 KiB of native memory, which a new instance per message would
+ * allocate and free again. Nothing is pooled on a virtual thread: it handles
+ * one message and ends, so a deflater or inflater taken there is created for
+ * the stream and ended when it is closed.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.encoding.threshold</code> - the body size, in
+ * bytes, below which responses are sent uncompressed. At most 8192. Default
+ * 1024; -1 disables response compression.</li>
+ * <li><code>ch.keybridge.dev.encoding.level</code> - the deflate compression
+ * level, 1 (fastest) to 9 (smallest). Default 6.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class ContentCoding {
+
+  public static final String THRESHOLD = ResponderConfiguration.PREFIX + "encoding.threshold";
+  public static final String LEVEL = ResponderConfiguration.PREFIX + "encoding.level";
+
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+  public static final String IDENTITY = "identity";
+  /**
+   * The Accept-Encoding header value sent by clients.
+   */
+  public static final String ACCEPT = GZIP + ", " + DEFLATE;
+
+  private static final int BUFFER_SIZE = 8192;
+  /**
+   * The default compression threshold, in bytes.
+   */
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  private static final int LEVEL_VALUE = Math.max(1, Math.min(9, ResponderConfiguration.getInt(LEVEL, 6)));
+
+  private static final PerThreadPool<Deflater> DEFLATERS = new PerThreadPool<>(1, () -> new Deflater(LEVEL_VALUE, true));
+  private static final PerThreadPool<Inflater> INFLATERS = new PerThreadPool<>(1, () -> new Inflater(true));
+  /**
+   * Two buffers per thread: a threshold stream and the compressing stream it
+   * hands over to are open together.
+   */
+  private static final PerThreadPool<byte[]> BUFFERS = new PerThreadPool<>(2, () -> new byte[BUFFER_SIZE]);
+
+  private ContentCoding() {
+  }
+
+  /**
+   * Get the configured response compression threshold.
+   *
+   * @return the threshold in bytes, -1 if responses are not compressed
+   */
+  public static int getThreshold() {
+    int threshold = ResponderConfiguration.getInt(THRESHOLD, DEFAULT_THRESHOLD);
+    return threshold < 0 ? -1 : Math.min(threshold, BUFFER_SIZE);
+  }
+
+  /**
+   * Determine if a content coding is supported.
+   *
+   * @param coding the Content-Encoding header value
+   * @return true for gzip, x-gzip, deflate and identity
+   */
+  public static boolean isSupported(String coding) {
+    return coding == null || normalize(coding) != null;
+  }
+
+  /**
+   * Normalize a content coding name.
+   *
+   * @return gzip, deflate or identity; null if not supported
+   */
+  private static String normalize(String coding) {
+    String name = coding.trim();
+    if (name.isEmpty() || name.equalsIgnoreCase(IDENTITY)) {
+      return IDENTITY;
+    }
+    if (name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip")) {
+      return GZIP;
+    }
+    return name.equalsIgnoreCase(DEFLATE) ? DEFLATE : null;
+  }
+
+  /**
+   * Choose the content coding of a response from the request Accept-Encoding
+   * header. gzip is preferred to deflate when both are acceptable.
+   *
+   * @param acceptEncoding the Accept-Encoding header value
+   * @return gzip, deflate or null if neither is acceptable
+   */
+  public static String negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    boolean deflate = false;
+    boolean wildcard = false;
+    for (String entry : acceptEncoding.split(",")) {
+      int semicolon = entry.indexOf(';');
+      String name = (semicolon < 0 ? entry : entry.substring(0, semicolon)).trim();
+      if (semicolon >= 0 && isZeroQuality(entry.substring(semicolon + 1))) {
+        continue;
+      }
+      if (name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip")) {
+        return GZIP;
+      }
+      deflate |= name.equalsIgnoreCase(DEFLATE);
+      wildcard |= name.equals("*");
+    }
+    return wildcard ? GZIP : deflate ? DEFLATE : null;
+  }
+
+  /**
+   * Determine if Accept-Encoding parameters declare a zero quality value.
+   */
+  private static boolean isZeroQuality(String parameters) {
+    for (String parameter : parameters.split(";")) {
+      String value = parameter.trim();
+      if (value.startsWith("q=") || value.startsWith("Q=")) {
+        try {
+          return Double.parseDouble(value.substring(2).trim()) <= 0;
+        } catch (NumberFormatException ex) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Decode a body.
+   *
+   * @param in     the encoded body
+   * @param coding the Content-Encoding header value
+   * @return the decoded body; the input stream if the coding is identity
+   * @throws IllegalArgumentException if the coding is not supported
+   */
+  public static InputStream decode(InputStream in, String coding) {
+    String name = coding == null ? IDENTITY : normalize(coding);
+    if (name == null) {
+      throw new IllegalArgumentException("Unsupported Content-Encoding \"" + coding + "\"");
+    }
+    return name.equals(IDENTITY) ? in : new InflatingInputStream(in, name.equals(GZIP));
+  }
+
+  /**
+   * Encode a body if it reaches the threshold size. The leading bytes are
+   * held until the threshold is reached or the stream is closed; a smaller
+   * body is written unchanged.
+   *
+   * @param out       the body output stream
+   * @param coding    gzip or deflate
+   * @param threshold the threshold size in bytes
+   * @param onEncode  called once, before the first encoded byte is written;
+   *                  typically sets the Content-Encoding header
+   * @return the body output stream to write to
+   */
+  public static OutputStream encode(OutputStream out, String coding, int threshold, Runnable onEncode) {
+    return new ThresholdOutputStream(out, GZIP.equals(normalize(coding)), Math.min(threshold, BUFFER_SIZE), onEncode);
+  }
+
+  /**
+   * A small stack of reusable objects per platform thread. Virtual threads
+   * borrow new objects and release none.
+   */
+  private static final class PerThreadPool<T> {
+
+    /**
+     * <code>Thread.isVirtual()</code>, null before Java 21. Looked up by
+     * reflection so the responder still builds and runs on Java 8.
+     */
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    private final int capacity;
+    private final Supplier<T> factory;
+    private final ThreadLocal<Object[]> stacks;
+
+    private PerThreadPool(int capacity, Supplier<T> factory) {
+      this.capacity = capacity;
+      this.factory = factory;
+      this.stacks = ThreadLocal.withInitial(() -> new Object[capacity]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T borrow() {
+      if (isVirtualThread()) {
+        return factory.get();
+      }
+      Object[] stack = stacks.get();
+      for (int i = capacity - 1; i >= 0; i--) {
+        if (stack[i] != null) {
+          T value = (T) stack[i];
+          stack[i] = null;
+          return value;
+        }
+      }
+      return factory.get();
+    }
+
+    /**
+     * @return false if the pool is full, or the current thread is virtual,
+     *         and the value was not kept
+     */
+    private boolean release(T value) {
+      if (isVirtualThread()) {
+        return false;
+      }
+      Object[] stack = stacks.get();
+      for (int i = 0; i < capacity; i++) {
+        if (stack[i] == null) {
+          stack[i] = value;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static boolean isVirtualThread() {
+      if (IS_VIRTUAL == null) {
+        return false;
+      }
+      try {
+        return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+      } catch (Throwable throwable) {
+        return false;
+      }
+    }
+
+    private static MethodHandle isVirtualHandle() {
+      try {
+        return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+      } catch (ReflectiveOperationException ex) {
+        return null;
+      }
+    }
+  }
+
+  private static void release(Deflater deflater) {
+    deflater.reset();
+    if (!DEFLATERS.release(deflater)) {
+      deflater.end();
+    }
+  }
+
+  private static void release(Inflater inflater) {
+    inflater.reset();
+    if (!INFLATERS.release(inflater)) {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Holds the leading bytes of a body until the compression threshold.
+   */
+  private static final class ThresholdOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final boolean gzip;
+    private final int threshold;
+    private final Runnable onEncode;
+    private byte[] buffer;
+    private int count;
+    /**
+     * The deflating stream, once the threshold is reached.
+     */
+    private OutputStream target;
+    private boolean closed;
+
+    private ThresholdOutputStream(OutputStream out, boolean gzip, int threshold, Runnable onEncode) {
+      this.out = out;
+      this.gzip = gzip;
+      this.threshold = threshold;
+      this.onEncode = onEncode;
+      this.buffer = BUFFERS.borrow();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (target == null) {
+        if (count + len < threshold) {
+          System.arraycopy(b, off, buffer, count, len);
+          count += len;
+          return;
+        }
+        onEncode.run();
+        target = new DeflatingOutputStream(out, gzip);
+        target.write(buffer, 0, count);
+        BUFFERS.release(buffer);
+        buffer = null;
+      }
+      target.write(b, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Held bytes are not flushed: the coding is only decided at the threshold
+     * or on close.
+     */
+    @Override
+    public void flush() throws IOException {
+      if (target != null) {
+        target.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (target != null) {
+        target.close();
+        return;
+      }
+      try {
+        out.write(buffer, 0, count);
+      } finally {
+        BUFFERS.release(buffer);
+        buffer = null;
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Writes a gzip or zlib stream.
+   */
+  private static final class DeflatingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final boolean gzip;
+    private final Checksum checksum;
+    private Deflater deflater;
+    private byte[] buffer;
+    private boolean closed;
+
+    private DeflatingOutputStream(OutputStream out, boolean gzip) throws IOException {
+      this.out = out;
+      this.gzip = gzip;
+      this.checksum = gzip ? new CRC32() : new Adler32();
+      this.deflater = DEFLATERS.borrow();
+      this.buffer = BUFFERS.borrow();
+      if (gzip) {
+        out.write(new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+      } else {
+        out.write(new byte[]{0x78, (byte) 0x9c});
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (len == 0) {
+        return;
+      }
+      checksum.update(b, off, len);
+      deflater.setInput(b, off, len);
+      while (!deflater.needsInput()) {
+        deflate(Deflater.NO_FLUSH);
+      }
+    }
+
+    private int deflate(int flush) throws IOException {
+      int length = deflater.deflate(buffer, 0, buffer.length, flush);
+      if (length > 0) {
+        out.write(buffer, 0, length);
+      }
+      return length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (!closed) {
+        while (deflate(Deflater.SYNC_FLUSH) == buffer.length) {
+          // the buffer was filled; deflate again
+        }
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        deflater.finish();
+        while (!deflater.finished()) {
+          deflate(Deflater.NO_FLUSH);
+        }
+        long value = checksum.getValue();
+        if (gzip) {
+          long size = deflater.getBytesRead();
+          out.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                               (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)});
+        } else {
+          out.write(new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+        }
+      } finally {
+        release(deflater);
+        BUFFERS.release(buffer);
+        deflater = null;
+        buffer = null;
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Reads a gzip, zlib or raw deflate stream. Content after the end of the
+   * compressed data is ignored.
+   */
+  private static final class InflatingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final boolean gzip;
+    private Checksum checksum;
+    private Inflater inflater;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean started;
+    private boolean finished;
+
+    private InflatingInputStream(InputStream in, boolean gzip) {
+      this.in = in;
+      this.gzip = gzip;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (finished) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+      if (!started) {
+        start();
+      }
+      try {
+        while (true) {
+          int length = inflater.inflate(b, off, len);
+          if (length > 0) {
+            if (checksum != null) {
+              checksum.update(b, off, length);
+            }
+            return length;
+          }
+          if (inflater.finished()) {
+            position = limit - inflater.getRemaining();
+            readTrailer();
+            finish();
+            return -1;
+          }
+          if (inflater.needsDictionary()) {
+            throw new ZipException("Preset dictionaries are not supported");
+          }
+          if (inflater.needsInput()) {
+            if (fill() < 0) {
+              throw new EOFException("Unexpected end of compressed body");
+            }
+            inflater.setInput(buffer, position, limit - position);
+            position = limit;
+          }
+        }
+      } catch (DataFormatException ex) {
+        throw new ZipException("Invalid compressed body: " + ex.getMessage());
+      }
+    }
+
+    /**
+     * Borrow the inflater and read the gzip or zlib header.
+     */
+    private void start() throws IOException {
+      started = true;
+      inflater = INFLATERS.borrow();
+      buffer = BUFFERS.borrow();
+      if (gzip) {
+        readGzipHeader();
+        checksum = new CRC32();
+      } else if (require(2)) {
+        int cmf = buffer[position] & 0xff;
+        int flg = buffer[position + 1] & 0xff;
+        if ((cmf & 0x0f) == Deflater.DEFLATED && ((cmf << 8) | flg) % 31 == 0) {
+          if ((flg & 0x20) != 0) {
+            throw new ZipException("Preset dictionaries are not supported");
+          }
+          position += 2;
+          checksum = new Adler32();
+        }
+        // else a raw deflate stream, sent by some clients as "deflate"
+      }
+      if (limit > position) {
+        inflater.setInput(buffer, position, limit - position);
+        position = limit;
+      }
+    }
+
+    private void readGzipHeader() throws IOException {
+      if (readByte() != 0x1f || readByte() != 0x8b || readByte() != Deflater.DEFLATED) {
+        throw new ZipException("Not in gzip format");
+      }
+      int flags = readByte();
+      for (int i = 0; i < 6; i++) {
+        readByte(); // modification time, extra flags and operating system
+      }
+      if ((flags & 4) != 0) {
+        int length = readByte() | readByte() << 8;
+        for (int i = 0; i < length; i++) {
+          readByte();
+        }
+      }
+      if ((flags & 8) != 0) {
+        while (readByte() != 0) {
+          // file name
+        }
+      }
+      if ((flags & 16) != 0) {
+        while (readByte() != 0) {
+          // comment
+        }
+      }
+      if ((flags & 2) != 0) {
+        readByte(); // header crc
+        readByte();
+      }
+    }
+
+    private void readTrailer() throws IOException {
+      if (checksum == null) {
+        return; // raw deflate has no trailer
+      }
+      long value = checksum.getValue();
+      if (gzip) {
+        long crc = readByte() | readByte() << 8 | readByte() << 16 | (long) readByte() << 24;
+        long size = readByte() | readByte() << 8 | readByte() << 16 | (long) readByte() << 24;
+        if (crc != value || size != (inflater.getBytesWritten() & 0xffffffffL)) {
+          throw new ZipException("Corrupt gzip trailer");
+        }
+      } else {
+        long adler = (long) readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        if (adler != value) {
+          throw new ZipException("Corrupt zlib trailer");
+        }
+      }
+    }
+
+    /**
+     * Read one byte of the encoded body.
+     */
+    private int readByte() throws IOException {
+      if (position == limit && fill() < 0) {
+        throw new EOFException("Unexpected end of compressed body");
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Ensure some bytes are buffered.
+     *
+     * @return false if the body ends first
+     */
+    private boolean require(int count) throws IOException {
+      while (limit - position < count) {
+        if (position > 0) {
+          System.arraycopy(buffer, position, buffer, 0, limit - position);
+          limit -= position;
+          position = 0;
+        }
+        int length = in.read(buffer, limit, buffer.length - limit);
+        if (length < 0) {
+          return false;
+        }
+        limit += length;
+      }
+      return true;
+    }
+
+    /**
+     * Replace the buffered bytes with the next bytes of the encoded body.
+     *
+     * @return the number of bytes read, -1 at the end of the body
+     */
+    private int fill() throws IOException {
+      int length;
+      do {
+        length = in.read(buffer, 0, buffer.length);
+      } while (length == 0);
+      position = 0;
+      limit = Math.max(0, length);
+      return length;
+    }
+
+    /**
+     * Return the inflater and buffer to the pool.
+     */
+    private void finish() {
+      finished = true;
+      if (inflater != null) {
+        release(inflater);
+        BUFFERS.release(buffer);
+        inflater = null;
+        buffer = null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
+      in.close();
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import java.io.IOException;
+import javax.annotation.Priority;
+import javax.ws.rs.ConstrainedTo;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Client filter and entity interceptor for the gzip and deflate content
+ * codings.
+ * <p>
+ * Requests accept gzip and deflate encoded responses, which are decoded as
+ * they are read. Request compression is opt-in: if a threshold is set,
+ * request bodies are gzip compressed once they reach it and smaller bodies
+ * are sent unchanged. Not every peer accepts compressed requests. See
+ * {@link ContentCoding}.
+ *
+ * @author Key Bridge
+ */
+@ConstrainedTo(RuntimeType.CLIENT)
+@Priority(Priorities.ENTITY_CODER)
+public class ContentEncodingClientInterceptor implements ClientRequestFilter, ReaderInterceptor, WriterInterceptor {
+
+  /**
+   * The request compression threshold in bytes, -1 if request bodies are not
+   * compressed.
+   */
+  private final int threshold;
+
+  /**
+   * Accept compressed responses; never compress request bodies.
+   */
+  public ContentEncodingClientInterceptor() {
+    this(-1);
+  }
+
+  /**
+   * Construct a new interceptor.
+   *
+   * @param threshold the request body size, in bytes, below which request
+   *                  bodies are sent uncompressed; -1 to never compress them
+   */
+  public ContentEncodingClientInterceptor(int threshold) {
+    this.threshold = threshold;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Accept compressed responses.
+   */
+  @Override
+  public void filter(ClientRequestContext requestContext) throws IOException {
+    if (!requestContext.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+      requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, ContentCoding.ACCEPT);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Decode a gzip or deflate response body. Other codings are passed through.
+   */
+  @Override
+  public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+    MultivaluedMap<String, String> headers = context.getHeaders();
+    String coding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+    if (coding != null && ContentCoding.isSupported(coding)) {
+      context.setInputStream(ContentCoding.decode(context.getInputStream(), coding));
+      headers.remove(HttpHeaders.CONTENT_ENCODING);
+      headers.remove(HttpHeaders.CONTENT_LENGTH);
+    }
+    return context.proceed();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Compress a request body if it reaches the threshold size.
+   */
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+    MultivaluedMap<String, Object> headers = context.getHeaders();
+    if (threshold < 0 || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+      context.proceed();
+      return;
+    }
+    context.setOutputStream(ContentCoding.encode(context.getOutputStream(), ContentCoding.GZIP, threshold,
+                                                 () -> headers.putSingle(HttpHeaders.CONTENT_ENCODING, ContentCoding.GZIP)));
+    context.proceed();
+  }
+
+}
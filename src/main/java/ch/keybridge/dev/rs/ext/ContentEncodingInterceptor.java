@@ -0,0 +1,123 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import java.io.IOException;
+import javax.annotation.Priority;
+import javax.ws.rs.ConstrainedTo;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Server entity interceptor for the gzip and deflate content codings.
+ * <p>
+ * Request bodies sent with a gzip or deflate Content-Encoding are decoded as
+ * they are read, so a DpacStatus body is still streamed; its size limit
+ * applies to the decoded body. A request with another coding is rejected with
+ * HTTP 415.
+ * <p>
+ * Response bodies are compressed with the coding preferred by the request
+ * Accept-Encoding header once they reach the
+ * <code>ch.keybridge.dev.encoding.threshold</code>; smaller bodies are sent
+ * unchanged. Responses that declare their own Content-Length or
+ * Content-Encoding, such as injected faults, and event streams are never
+ * compressed. See {@link ContentCoding}.
+ *
+ * @author Key Bridge
+ */
+@Provider
+@ConstrainedTo(RuntimeType.SERVER)
+@Priority(Priorities.ENTITY_CODER)
+public class ContentEncodingInterceptor implements ReaderInterceptor, WriterInterceptor {
+
+  /**
+   * The response compression threshold in bytes, -1 if disabled.
+   */
+  private static final int THRESHOLD = ContentCoding.getThreshold();
+
+  @Context
+  private HttpHeaders httpHeaders;
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Decode a gzip or deflate request body.
+   */
+  @Override
+  public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+    MultivaluedMap<String, String> headers = context.getHeaders();
+    String coding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+    if (coding == null) {
+      return context.proceed();
+    }
+    try {
+      context.setInputStream(ContentCoding.decode(context.getInputStream(), coding));
+    } catch (IllegalArgumentException ex) {
+      throw new WebApplicationException(Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+        .header("Accept-Encoding", ContentCoding.ACCEPT)
+        .header("Exception", ex.getMessage())
+        .build());
+    }
+    headers.remove(HttpHeaders.CONTENT_ENCODING);
+    headers.remove(HttpHeaders.CONTENT_LENGTH);
+    return context.proceed();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Compress a response body the client accepts compressed, if it reaches the
+   * threshold size.
+   */
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+    MultivaluedMap<String, Object> headers = context.getHeaders();
+    String coding = THRESHOLD < 0 ? null : ContentCoding.negotiate(httpHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+    if (coding == null
+        || headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+        || headers.containsKey(HttpHeaders.CONTENT_LENGTH)
+        || MediaType.SERVER_SENT_EVENTS_TYPE.isCompatible(context.getMediaType())) {
+      context.proceed();
+      return;
+    }
+    headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    context.setOutputStream(ContentCoding.encode(context.getOutputStream(), coding, THRESHOLD,
+                                                 () -> headers.putSingle(HttpHeaders.CONTENT_ENCODING, coding)));
+    context.proceed();
+  }
+
+}
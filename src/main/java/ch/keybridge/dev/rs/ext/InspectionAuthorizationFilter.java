@@ -0,0 +1,131 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Pre-matching request filter to require a bearer token for the resources
+ * serving recorded messages and for changes to the runtime settings.
+ * <p>
+ * Recorded messages disclose the peer addresses, message IDs and contents of
+ * every peer. If <code>ch.keybridge.dev.inspect.token</code> is set, requests
+ * to the message ring buffer (<code>messages</code>), the message journal
+ * (<code>journal</code>) and the live message stream (<code>stream</code>)
+ * must present it as
+ * <code>Authorization: Bearer [token]</code> and are otherwise rejected with
+ * HTTP 401. The same token is required to change the latency, fault and
+ * limit profiles (any method but GET or HEAD on <code>admin</code>), since a
+ * change applies to every peer. If it is not set the resources are open, as
+ * suits a responder on a private test network.
+ *
+ * @author Key Bridge
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.AUTHENTICATION)
+public class InspectionAuthorizationFilter implements ContainerRequestFilter {
+
+  private static final Logger LOG = Logger.getLogger(InspectionAuthorizationFilter.class.getName());
+
+  /**
+   * The bearer token required to read recorded messages. Not set by default.
+   */
+  public static final String TOKEN = ResponderConfiguration.PREFIX + "inspect.token";
+
+  /**
+   * The request path prefixes of the protected resources.
+   */
+  private static final String[] PATHS = {"messages", "journal", "stream"};
+  /**
+   * The request path prefixes of the resources protected for changes only.
+   */
+  private static final String[] CHANGE_PATHS = {"admin"};
+
+  /**
+   * The required token bytes, null if the resources are open. Read once on
+   * class load.
+   */
+  private static final byte[] REQUIRED = token();
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Reject a request to a protected resource with HTTP 401 unless it carries
+   * the configured bearer token.
+   */
+  @Override
+  public void filter(ContainerRequestContext requestContext) throws IOException {
+    if (REQUIRED == null || !isProtected(requestContext.getMethod(), requestContext.getUriInfo().getPath())) {
+      return;
+    }
+    String credential = BearerAuthorizationFilter.parseBearerCredential(requestContext.getHeaderString(HttpHeaders.AUTHORIZATION));
+    if (credential == null || !MessageDigest.isEqual(REQUIRED, credential.getBytes(StandardCharsets.UTF_8))) {
+      LOG.log(Level.FINE, "Unauthorized request for {0}", requestContext.getUriInfo().getPath());
+      requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED)
+        .header(HttpHeaders.WWW_AUTHENTICATE, "Bearer")
+        .header("Exception", "A valid inspection token is required")
+        .build());
+    }
+  }
+
+  private static boolean isProtected(String method, String path) {
+    String relative = path.startsWith("/") ? path.substring(1) : path;
+    if (matches(relative, PATHS)) {
+      return true;
+    }
+    return !HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method) && matches(relative, CHANGE_PATHS);
+  }
+
+  private static boolean matches(String relative, String[] prefixes) {
+    for (String prefix : prefixes) {
+      if (relative.equals(prefix) || relative.startsWith(prefix + "/")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static byte[] token() {
+    String token = ResponderConfiguration.getString(TOKEN, null);
+    return token == null ? null : token.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,90 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.rs.ext;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.limit.RateLimiter;
+import ch.keybridge.dev.service.metrics.ResponderMetrics;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Priority;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Pre-matching request filter to limit the rate of messages each peer sends
+ * to the listener end points.
+ * <p>
+ * Peers are identified by their remote address. The filter runs before the
+ * {@link BearerAuthorizationFilter} so a misbehaving peer is throttled before
+ * its access token is introspected. The unvalidated authorization header is not
+ * used as the key: a client sending a new junk token with each request would
+ * otherwise get a new bucket each time and fill the peer table. A request over
+ * the limit is rejected with HTTP 429 and a Retry-After header, in seconds. See
+ * {@link RateLimiter}.
+ * <p>
+ * Requests to other (non-listener) resources pass through unchanged.
+ *
+ * @author Key Bridge
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.AUTHENTICATION - 100)
+public class RateLimitFilter implements ContainerRequestFilter {
+
+  @Context
+  private HttpServletRequest httpServletRequest;
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Abort listener messages over the peer rate limit with HTTP 429.
+   */
+  @Override
+  public void filter(ContainerRequestContext requestContext) throws IOException {
+    Endpoint endpoint = Endpoint.fromRequestPath(requestContext.getUriInfo().getPath());
+    if (endpoint == null || RateLimiter.getInstance().getLimit(endpoint).isNone()) {
+      return;
+    }
+    long waitNanos = RateLimiter.getInstance().acquire(endpoint, httpServletRequest.getRemoteAddr());
+    if (waitNanos > 0) {
+      ResponderMetrics.rateLimited(endpoint);
+      long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+      requestContext.abortWith(Response.status(Response.Status.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, retryAfter)
+        .header("Exception", "Rate limit exceeded")
+        .build());
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free, multiple-producer single-consumer queue.
+ * <p>
+ * The queue is an array ring of fixed capacity with a sequence number per
+ * slot (after D. Vyukov's bounded queue). Producers claim a slot with a single
+ * CAS on the tail counter and never block: when the queue is full
+ * {@link #offer(Object)} returns false immediately. Exactly one thread may
+ * call {@link #poll()} or {@link #drain(Consumer, int)}.
+ *
+ * @author Key Bridge
+ * @param <E> the element type
+ */
+public final class BoundedMpscQueue<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  /**
+   * The consumer position. Only written by the consumer thread.
+   */
+  private volatile long head;
+
+  /**
+   * Construct a new queue.
+   *
+   * @param capacity the queue capacity; rounded up to a power of two
+   */
+  public BoundedMpscQueue(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Get the queue capacity.
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Insert an element if space is available. Safe for concurrent producers.
+   *
+   * @param element the element, not null
+   * @return true if the element was added, false if the queue is full
+   */
+  public boolean offer(E element) {
+    for (;;) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+      } else if (difference < 0) {
+        return false; // full
+      }
+      // another producer claimed this slot; retry with the new tail
+    }
+  }
+
+  /**
+   * Remove the element at the head of the queue. Consumer thread only.
+   *
+   * @return the head element, null if the queue is empty
+   */
+  public E poll() {
+    int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null; // empty, or the producer has not finished publishing
+    }
+    E element = elements.get(index);
+    elements.lazySet(index, null);
+    sequences.lazySet(index, head + mask + 1);
+    head++;
+    return element;
+  }
+
+  /**
+   * Remove up to <code>limit</code> elements, passing each to the consumer.
+   * Consumer thread only.
+   *
+   * @param consumer the element consumer
+   * @param limit    the maximum number of elements to remove
+   * @return the number of elements removed
+   */
+  public int drain(Consumer<? super E> consumer, int limit) {
+    int count = 0;
+    E element;
+    while (count < limit && (element = poll()) != null) {
+      consumer.accept(element);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Get the approximate number of elements in the queue.
+   *
+   * @return the approximate size
+   */
+  public int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+}
@@ -0,0 +1,335 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded executor isolating the message handling of one listener endpoint.
+ * <p>
+ * Each endpoint reads and records its messages on its own threads, so a flood
+ * of slow DpacStatus uploads cannot occupy the threads needed to answer
+ * pings within their shorter ESC timeout. A bulkhead runs at most
+ * <code>concurrency</code> messages at once and queues at most
+ * <code>queue</code> more; a message beyond that is rejected immediately
+ * rather than queued without bound.
+ * <p>
+ * In virtual mode, on a Java 21 or later runtime, each message runs on its
+ * own virtual thread and a blocking delay does not hold a platform thread.
+ * The bulkhead then admits at most <code>concurrency</code> messages in
+ * flight and has no queue. If virtual threads are not available the platform
+ * thread pool is used.
+ * <p>
+ * Configured per endpoint with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.bulkhead.[endpoint].concurrency</code> - the
+ * number of handling threads. Default 16, or 10000 in virtual mode; 0
+ * handles messages on the container request thread, without admission
+ * control.</li>
+ * <li><code>ch.keybridge.dev.bulkhead.[endpoint].queue</code> - the number of
+ * messages waiting for a thread. Default 64. Not used in virtual mode.</li>
+ * </ul>
+ * and for all endpoints with <code>ch.keybridge.dev.bulkhead.virtual</code>,
+ * default false.
+ *
+ * @author Key Bridge
+ */
+public final class Bulkhead {
+
+  private static final Logger LOG = Logger.getLogger(Bulkhead.class.getName());
+
+  /**
+   * The system property prefix for the per-endpoint settings.
+   */
+  public static final String PROPERTY_PREFIX = ResponderConfiguration.PREFIX + "bulkhead.";
+  /**
+   * Run each message on its own virtual thread. Default is FALSE.
+   */
+  public static final String VIRTUAL = PROPERTY_PREFIX + "virtual";
+
+  /**
+   * Virtual mode is requested and the runtime supports virtual threads.
+   */
+  private static final boolean VIRTUAL_THREADS = useVirtualThreads();
+
+  private static final Bulkhead[] BULKHEADS = buildBulkheads();
+
+  private final String name;
+  /**
+   * The handling executor. Null if messages are handled on the request
+   * thread.
+   */
+  private final ExecutorService executor;
+  /**
+   * The in-flight message permits. Null unless the executor starts a thread
+   * per message.
+   */
+  private final Semaphore permits;
+  private final int concurrency;
+  private final LongAdder rejected = new LongAdder();
+
+  private Bulkhead(String name, int concurrency, int queue, boolean virtual) {
+    this.name = name;
+    this.concurrency = concurrency;
+    if (concurrency <= 0) {
+      this.executor = null;
+      this.permits = null;
+      return;
+    }
+    if (virtual) {
+      this.executor = newVirtualThreadExecutor("responder-" + name + "-v");
+      this.permits = new Semaphore(concurrency);
+      return;
+    }
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = (Runnable runnable) -> {
+      Thread thread = new Thread(runnable, "responder-" + name + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                                                     new ArrayBlockingQueue<>(Math.max(1, queue)), threadFactory);
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+    this.permits = null;
+  }
+
+  private static Bulkhead[] buildBulkheads() {
+    Endpoint[] endpoints = Endpoint.values();
+    Bulkhead[] bulkheads = new Bulkhead[endpoints.length];
+    for (Endpoint endpoint : endpoints) {
+      String prefix = PROPERTY_PREFIX + endpoint.getPath();
+      bulkheads[endpoint.ordinal()] = new Bulkhead(endpoint.getPath(),
+                                                   ResponderConfiguration.getInt(prefix + ".concurrency", VIRTUAL_THREADS ? 10000 : 16),
+                                                   ResponderConfiguration.getInt(prefix + ".queue", 64),
+                                                   VIRTUAL_THREADS);
+    }
+    return bulkheads;
+  }
+
+  /**
+   * Get the bulkhead of an endpoint.
+   *
+   * @param endpoint the listener endpoint
+   * @return the endpoint bulkhead
+   */
+  public static Bulkhead get(Endpoint endpoint) {
+    return BULKHEADS[endpoint.ordinal()];
+  }
+
+  /**
+   * Create a stand-alone bulkhead, for example to compare the platform and
+   * virtual thread modes. The caller must {@link #close} it.
+   *
+   * @param name        the name used for the handling threads
+   * @param concurrency the number of handling threads, or of messages in
+   *                    flight in virtual mode
+   * @param queue       the number of messages waiting for a thread
+   * @param virtual     run each message on a virtual thread
+   * @return a new bulkhead
+   * @throws UnsupportedOperationException if virtual threads are requested
+   *                                       but not available
+   */
+  public static Bulkhead create(String name, int concurrency, int queue, boolean virtual) {
+    if (virtual && !isVirtualAvailable()) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+    return new Bulkhead(name, concurrency, queue, virtual);
+  }
+
+  /**
+   * Determine if the listener bulkheads run each message on a virtual
+   * thread.
+   *
+   * @return true if virtual mode is configured and available
+   */
+  public static boolean isVirtual() {
+    return VIRTUAL_THREADS;
+  }
+
+  /**
+   * Determine if messages are handled on the bulkhead threads.
+   *
+   * @return false if messages are handled on the request thread
+   */
+  public boolean isEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * Run a message handling task, on the calling thread if the bulkhead is not
+   * enabled.
+   *
+   * @param task the task
+   * @throws RejectedExecutionException if the bulkhead is full or shut down
+   */
+  public void execute(Runnable task) throws RejectedExecutionException {
+    if (executor == null) {
+      task.run();
+      return;
+    }
+    try {
+      if (permits == null) {
+        executor.execute(task);
+        return;
+      }
+      if (!permits.tryAcquire()) {
+        throw new RejectedExecutionException(name + " bulkhead has " + concurrency + " messages in flight");
+      }
+      try {
+        executor.execute(() -> {
+          try {
+            task.run();
+          } finally {
+            permits.release();
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        permits.release();
+        throw ex;
+      }
+    } catch (RejectedExecutionException ex) {
+      rejected.increment();
+      throw ex;
+    }
+  }
+
+  /**
+   * Get the number of messages being handled.
+   *
+   * @return the active thread count
+   */
+  public int getActiveCount() {
+    if (permits != null) {
+      return concurrency - permits.availablePermits();
+    }
+    return executor == null ? 0 : ((ThreadPoolExecutor) executor).getActiveCount();
+  }
+
+  /**
+   * Get the number of messages waiting for a thread.
+   *
+   * @return the queue size
+   */
+  public int getQueuedCount() {
+    return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+  }
+
+  /**
+   * Get the number of messages rejected because the bulkhead was full.
+   *
+   * @return the rejected count
+   */
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * Shut down this bulkhead, interrupting the messages in flight. Queued
+   * messages are discarded.
+   */
+  public void close() {
+    if (executor != null) {
+      LOG.log(Level.INFO, "Shutting down {0} bulkhead with {1} queued messages", new Object[]{name, getQueuedCount()});
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Shut down all bulkheads. Queued messages are discarded; the container
+   * cancels their suspended requests on undeploy.
+   */
+  public static void shutdown() {
+    for (Bulkhead bulkhead : BULKHEADS) {
+      bulkhead.close();
+    }
+  }
+
+  /**
+   * Determine if virtual mode is configured and the runtime supports it.
+   *
+   * @return true if the listener bulkheads run messages on virtual threads
+   */
+  private static boolean useVirtualThreads() {
+    if (!ResponderConfiguration.getBoolean(VIRTUAL, false)) {
+      return false;
+    }
+    if (!isVirtualAvailable()) {
+      LOG.log(Level.WARNING, "Virtual threads are not available on Java {0}; using platform threads", System.getProperty("java.version"));
+      return false;
+    }
+    LOG.info("Listener bulkheads run each message on a virtual thread");
+    return true;
+  }
+
+  /**
+   * Determine if the runtime supports virtual threads.
+   *
+   * @return true on Java 21 or later
+   */
+  private static boolean isVirtualAvailable() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Build an executor starting a named virtual thread per task. The Java 21
+   * API is called by reflection so the responder still builds and runs on
+   * Java 8.
+   *
+   * @param prefix the thread name prefix
+   * @return the executor
+   */
+  private static ExecutorService newVirtualThreadExecutor(String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+      ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) method.invoke(null, threadFactory);
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException("Virtual thread executor not available", ex);
+    }
+  }
+
+}
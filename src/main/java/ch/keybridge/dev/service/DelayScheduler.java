@@ -0,0 +1,112 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A shared scheduler used to complete delayed responses.
+ * <p>
+ * The listener resources emulate server processing by delaying their response.
+ * Rather than holding a container request thread for the whole delay, the
+ * request is suspended and a resume task is scheduled here. A pending delayed
+ * response costs one queue entry, so thousands of them are served by a few
+ * threads.
+ * <p>
+ * Scheduled tasks must be short and must not block.
+ *
+ * @author Key Bridge
+ */
+public final class DelayScheduler {
+
+  private static final Logger LOG = Logger.getLogger(DelayScheduler.class.getName());
+
+  /**
+   * The shared executor. Created on class load and shut down when the web
+   * application is undeployed.
+   */
+  private static final ScheduledThreadPoolExecutor EXECUTOR = buildExecutor();
+
+  private DelayScheduler() {
+  }
+
+  /**
+   * Build a scheduled executor with daemon threads. Cancelled tasks are removed
+   * from the work queue immediately so they do not accumulate.
+   *
+   * @return a new scheduled executor
+   */
+  private static ScheduledThreadPoolExecutor buildExecutor() {
+    int threads = Math.max(1, ResponderConfiguration.getInt(ResponderConfiguration.SCHEDULER_THREADS, 2));
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = (Runnable runnable) -> {
+      Thread thread = new Thread(runnable, "responder-delay-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, threadFactory);
+    executor.setRemoveOnCancelPolicy(true);
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    return executor;
+  }
+
+  /**
+   * Schedule a task to run after the indicated delay.
+   *
+   * @param task        the task to run. This must not block.
+   * @param delayMillis the delay in milliseconds. Zero or negative values run
+   *                    the task as soon as possible.
+   * @return a future that may be used to cancel the task
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+    return EXECUTOR.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the number of delayed tasks waiting to run.
+   *
+   * @return the scheduler queue size
+   */
+  public static int getPendingCount() {
+    return EXECUTOR.getQueue().size();
+  }
+
+  /**
+   * Shut down the scheduler. Pending delayed responses are discarded; the
+   * container cancels their suspended requests on undeploy.
+   */
+  public static void shutdown() {
+    LOG.log(Level.INFO, "Shutting down delay scheduler with {0} pending tasks", getPendingCount());
+    EXECUTOR.shutdownNow();
+  }
+
+}
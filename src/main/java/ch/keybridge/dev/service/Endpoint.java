@@ -0,0 +1,126 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+/**
+ * Enumerated ESC message listener end points. Used to select per-endpoint
+ * responder behavior.
+ *
+ * @author Key Bridge
+ */
+public enum Endpoint {
+
+  /**
+   * The ping message listener. The ESC times out ping delivery after 1/2
+   * second.
+   */
+  PING("ping", 500),
+  /**
+   * The DpacStatus message listener. The ESC times out DpacStatus delivery
+   * after 2 seconds.
+   */
+  DPAC("dpac", 2000);
+
+  /**
+   * Cached values. {@link #values()} returns a new array on every call.
+   */
+  private static final Endpoint[] VALUES = values();
+
+  /**
+   * The resource path, relative to the application path.
+   */
+  private final String path;
+  /**
+   * The ESC message delivery timeout, in milliseconds.
+   */
+  private final long timeoutMillis;
+
+  private Endpoint(String path, long timeoutMillis) {
+    this.path = path;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Get the resource path, relative to the application path.
+   *
+   * @return the resource path
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Get the time after which the ESC abandons delivery of a message to this
+   * end point.
+   *
+   * @return the ESC delivery timeout, in milliseconds
+   */
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  /**
+   * Find an endpoint by its resource path or name, ignoring case.
+   *
+   * @param value the resource path or enum name
+   * @return the matching endpoint
+   * @throws IllegalArgumentException if no endpoint matches
+   */
+  public static Endpoint fromString(String value) throws IllegalArgumentException {
+    for (Endpoint endpoint : values()) {
+      if (endpoint.path.equalsIgnoreCase(value) || endpoint.name().equalsIgnoreCase(value)) {
+        return endpoint;
+      }
+    }
+    throw new IllegalArgumentException("Unknown endpoint \"" + value + "\"");
+  }
+
+  /**
+   * Find the listener endpoint addressed by a request path.
+   * <p>
+   * Matches the endpoint path and any sub-resource path beneath it, with or
+   * without a leading slash. This is called for every request and does not
+   * allocate.
+   *
+   * @param requestPath the request path, relative to the application path
+   * @return the addressed endpoint, null if the path is not a listener path
+   */
+  public static Endpoint fromRequestPath(String requestPath) {
+    if (requestPath == null) {
+      return null;
+    }
+    int start = requestPath.startsWith("/") ? 1 : 0;
+    for (Endpoint endpoint : VALUES) {
+      int end = start + endpoint.path.length();
+      if (requestPath.startsWith(endpoint.path, start)
+          && (requestPath.length() == end || requestPath.charAt(end) == '/')) {
+        return endpoint;
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,227 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A bounded, time-windowed concurrent cache.
+ * <p>
+ * Entries are held in a small ring of generations. New entries are added to
+ * the youngest generation; lookups check every generation, youngest first.
+ * When the youngest generation is older than its share of the time window, or
+ * holds its share of the capacity, a new generation is started and the oldest
+ * one is dropped as a whole. Eviction is therefore O(1) and needs no per-entry
+ * timestamps or cleanup thread. An entry is retained for between
+ * <code>(generations - 1) / generations</code> of the window and the full
+ * window; under a load above the capacity it is retained for less.
+ * <p>
+ * Reads and writes are lock-free. Only starting a new generation is
+ * synchronized.
+ *
+ * @author Key Bridge
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class GenerationalCache<K, V> {
+
+  private final long generationMillis;
+  private final int generationCapacity;
+  /**
+   * The current generations, youngest first. Replaced on rotation.
+   */
+  private volatile Generations<K, V> generations;
+
+  /**
+   * Construct a new cache.
+   *
+   * @param windowMillis the time an entry is retained, in milliseconds
+   * @param generations  the number of generations; at least two
+   * @param capacity     the maximum number of entries
+   */
+  public GenerationalCache(long windowMillis, int generations, int capacity) {
+    int count = Math.max(2, generations);
+    this.generationMillis = Math.max(1, windowMillis / count);
+    this.generationCapacity = Math.max(1, capacity / count);
+    this.generations = new Generations<>(System.currentTimeMillis() / generationMillis, count);
+  }
+
+  /**
+   * Get the current generations, starting a new generation if the youngest has
+   * expired.
+   */
+  private Generations<K, V> current() {
+    Generations<K, V> current = generations;
+    long epoch = System.currentTimeMillis() / generationMillis;
+    return epoch == current.epoch ? current : rotate(current, epoch);
+  }
+
+  /**
+   * Start a new generation, dropping the oldest. Generations that expired
+   * while the cache was idle are dropped together.
+   *
+   * @param expected the generations to replace
+   * @param epoch    the current time epoch
+   * @return the new generations
+   */
+  private synchronized Generations<K, V> rotate(Generations<K, V> expected, long epoch) {
+    Generations<K, V> current = generations;
+    if (current != expected) {
+      return current; // rotated by another thread
+    }
+    int shift = (int) Math.max(1, Math.min(current.maps.length, epoch - current.epoch));
+    generations = new Generations<>(current, Math.max(epoch, current.epoch), shift);
+    return generations;
+  }
+
+  /**
+   * Get the value cached for a key.
+   *
+   * @param key the key
+   * @return the value, null if not cached
+   */
+  public V get(K key) {
+    for (ConcurrentHashMap<K, V> map : current().maps) {
+      V value = map.get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Cache a value if no value is cached for the key.
+   *
+   * @param key   the key
+   * @param value the value
+   * @return the value already cached, null if the value was added
+   */
+  public V putIfAbsent(K key, V value) {
+    Generations<K, V> current = current();
+    for (int i = 1; i < current.maps.length; i++) {
+      V existing = current.maps[i].get(key);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return young(current).putIfAbsent(key, value);
+  }
+
+  /**
+   * Get the value cached for a key, computing and caching it if absent.
+   *
+   * @param key      the key
+   * @param function the function computing a value
+   * @return the cached or computed value
+   */
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+    Generations<K, V> current = current();
+    for (int i = 1; i < current.maps.length; i++) {
+      V existing = current.maps[i].get(key);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return young(current).computeIfAbsent(key, function);
+  }
+
+  /**
+   * Get the youngest generation for an insertion, starting a new generation
+   * if it is full.
+   */
+  private ConcurrentHashMap<K, V> young(Generations<K, V> current) {
+    return current.maps[0].size() < generationCapacity
+           ? current.maps[0]
+           : rotate(current, current.epoch).maps[0];
+  }
+
+  /**
+   * Remove the entry for a key only if it is cached with the indicated value.
+   *
+   * @param key   the key
+   * @param value the value expected to be cached
+   * @return true if the entry was removed
+   */
+  public boolean remove(K key, V value) {
+    boolean removed = false;
+    for (ConcurrentHashMap<K, V> map : current().maps) {
+      removed |= map.remove(key, value);
+    }
+    return removed;
+  }
+
+  /**
+   * Get the approximate number of cached entries.
+   *
+   * @return the entry count
+   */
+  public int size() {
+    int size = 0;
+    for (ConcurrentHashMap<K, V> map : current().maps) {
+      size += map.size();
+    }
+    return size;
+  }
+
+  /**
+   * An immutable ring of generations.
+   */
+  private static final class Generations<K, V> {
+
+    /**
+     * The time epoch of the youngest generation, in generation periods.
+     */
+    private final long epoch;
+    /**
+     * The generations, youngest first.
+     */
+    private final ConcurrentHashMap<K, V>[] maps;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Generations(long epoch, int count) {
+      this.epoch = epoch;
+      this.maps = new ConcurrentHashMap[count];
+      for (int i = 0; i < count; i++) {
+        maps[i] = new ConcurrentHashMap<>();
+      }
+    }
+
+    /**
+     * Shift the generations, adding new empty generations.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Generations(Generations<K, V> previous, long epoch, int shift) {
+      this.epoch = epoch;
+      this.maps = new ConcurrentHashMap[previous.maps.length];
+      for (int i = 0; i < maps.length; i++) {
+        maps[i] = i < shift ? new ConcurrentHashMap<>() : previous.maps[i - shift];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,239 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates unique message identifiers without cross-thread synchronization.
+ * <p>
+ * Each identifier is a version 8 (custom) UUID, written as the absolute IRI
+ * <code>urn:uuid:...</code> required of a MessageID. It encodes, from the most
+ * significant bit:
+ * <ul>
+ * <li>48 bits: the creation time in epoch milliseconds;</li>
+ * <li>4 bits: the version, 8;</li>
+ * <li>12 + 4 bits: the slot of the creating thread, around the 2 bit
+ * variant;</li>
+ * <li>16 bits: the node ID;</li>
+ * <li>42 bits: the sequence number within the slot.</li>
+ * </ul>
+ * A thread is assigned its slot on first use and then numbers its identifiers
+ * in a thread confined counter, so generation touches no shared memory. Nodes
+ * are distinguished by the node ID and restarts by the time. Slots are reused
+ * after 65536 threads; an identifier is then still unique unless two threads
+ * with the same slot reach the same sequence number in the same millisecond.
+ * <p>
+ * When listener messages run on virtual threads (see {@link Bulkhead}) every
+ * message runs on a new thread. A thread confined counter would then cost a
+ * thread local and a shared slot increment per identifier, and slots would be
+ * reused after 65536 messages. Identifiers are instead numbered by a fixed set
+ * of striped counters, each holding its own slot, chosen by thread ID. An
+ * identifier then costs one atomic increment, contended only by the threads
+ * sharing a stripe.
+ * <p>
+ * The node ID is set with the system property
+ * <code>ch.keybridge.dev.nodeId</code> (0 - 65535). Set a distinct value on
+ * each node of a cluster; by default a node ID is drawn at random at startup.
+ *
+ * @author Key Bridge
+ */
+public final class MessageIds {
+
+  private static final Logger LOG = Logger.getLogger(MessageIds.class.getName());
+
+  public static final String NODE_ID = ResponderConfiguration.PREFIX + "nodeId";
+
+  private static final String IRI_PREFIX = "urn:uuid:";
+  private static final long SEQUENCE_MASK = (1L << 42) - 1;
+  /**
+   * The two hex digits of each byte value.
+   */
+  private static final char[] HEX = new char[512];
+
+  static {
+    String digits = "0123456789abcdef";
+    for (int b = 0; b < 256; b++) {
+      HEX[2 * b] = digits.charAt(b >>> 4);
+      HEX[2 * b + 1] = digits.charAt(b & 0xf);
+    }
+  }
+
+  private static final AtomicInteger SLOTS = new AtomicInteger();
+  private static final int NODE = nodeId();
+  private static final ThreadLocal<Sequence> SEQUENCE = ThreadLocal.withInitial(Sequence::new);
+
+  /**
+   * True if striped counters are used, when listener messages run on virtual
+   * threads. Read from the property so the bulkheads are not created here.
+   */
+  private static final boolean STRIPED = ResponderConfiguration.getBoolean(Bulkhead.VIRTUAL, false);
+  /**
+   * The number of striped counters, a power of two.
+   */
+  private static final int STRIPES = Integer.highestOneBit(Math.max(16, Runtime.getRuntime().availableProcessors() * 4) * 2 - 1);
+  /**
+   * Counters are spaced 128 bytes apart so stripes do not share a cache line.
+   */
+  private static final int STRIDE = 16;
+  /**
+   * The slot of the first stripe; each stripe holds the next slot.
+   */
+  private static final int STRIPE_SLOT = STRIPED ? SLOTS.getAndAdd(STRIPES) : 0;
+  private static final AtomicLongArray STRIPE_SEQUENCES = STRIPED ? new AtomicLongArray(STRIPES * STRIDE) : null;
+
+  private MessageIds() {
+  }
+
+  /**
+   * Get the node ID encoded in the identifiers of this node.
+   *
+   * @return the node ID, 0 - 65535
+   */
+  public static int getNodeId() {
+    return NODE;
+  }
+
+  /**
+   * Generate a message identifier.
+   *
+   * @return a new identifier, e.g.
+   *         <code>urn:uuid:0179c3a2-5e10-8000-8001-000000000000</code>
+   */
+  public static String next() {
+    if (STRIPED) {
+      int stripe = stripe();
+      return format(mostSignificantBits(STRIPE_SLOT + stripe), leastSignificantBits(STRIPE_SLOT + stripe, STRIPE_SEQUENCES.getAndIncrement(stripe * STRIDE)));
+    }
+    Sequence sequence = SEQUENCE.get();
+    return format(mostSignificantBits(sequence.slot), leastSignificantBits(sequence.slot, sequence.next++));
+  }
+
+  /**
+   * Generate a message identifier as a UUID.
+   *
+   * @return a new identifier
+   */
+  public static UUID nextUuid() {
+    if (STRIPED) {
+      int stripe = stripe();
+      return new UUID(mostSignificantBits(STRIPE_SLOT + stripe), leastSignificantBits(STRIPE_SLOT + stripe, STRIPE_SEQUENCES.getAndIncrement(stripe * STRIDE)));
+    }
+    Sequence sequence = SEQUENCE.get();
+    return new UUID(mostSignificantBits(sequence.slot), leastSignificantBits(sequence.slot, sequence.next++));
+  }
+
+  /**
+   * Choose the stripe of the current thread.
+   */
+  @SuppressWarnings("deprecation") // Thread.getId, as Java 8 has no threadId
+  private static int stripe() {
+    long id = Thread.currentThread().getId();
+    return (int) (id ^ id >>> 16) & (STRIPES - 1);
+  }
+
+  private static long mostSignificantBits(int slot) {
+    return System.currentTimeMillis() << 16 | 0x8000 | (slot & 0xffff) >>> 4;
+  }
+
+  private static long leastSignificantBits(int slot, long sequence) {
+    return 0x8000000000000000L | (long) (slot & 0xf) << 58 | (long) NODE << 42 | sequence & SEQUENCE_MASK;
+  }
+
+  /**
+   * Write an identifier as a urn:uuid IRI.
+   */
+  private static String format(long msb, long lsb) {
+    char[] chars = new char[IRI_PREFIX.length() + 36];
+    IRI_PREFIX.getChars(0, IRI_PREFIX.length(), chars, 0);
+    int i = IRI_PREFIX.length();
+    i = hex(msb >>> 32, 8, chars, i);
+    chars[i++] = '-';
+    i = hex(msb >>> 16, 4, chars, i);
+    chars[i++] = '-';
+    i = hex(msb, 4, chars, i);
+    chars[i++] = '-';
+    i = hex(lsb >>> 48, 4, chars, i);
+    chars[i++] = '-';
+    hex(lsb, 12, chars, i);
+    return new String(chars);
+  }
+
+  /**
+   * Write the low order hex digits of a value, two per byte.
+   *
+   * @return the index after the digits
+   */
+  private static int hex(long value, int digits, char[] chars, int index) {
+    for (int i = index + digits - 2; i >= index; i -= 2) {
+      int b = (int) value & 0xff;
+      chars[i] = HEX[2 * b];
+      chars[i + 1] = HEX[2 * b + 1];
+      value >>>= 8;
+    }
+    return index + digits;
+  }
+
+  /**
+   * Read the configured node ID or draw one at random. The JVM name
+   * (typically pid@host) and start time are mixed in so that nodes started
+   * together on different hosts still differ.
+   */
+  private static int nodeId() {
+    int configured = ResponderConfiguration.getInt(NODE_ID, -1);
+    if (configured >= 0 && configured <= 0xffff) {
+      return configured;
+    }
+    if (configured != -1) {
+      LOG.log(Level.WARNING, "Ignoring {0}={1}: must be 0 - 65535", new Object[]{NODE_ID, configured});
+    }
+    long seed = System.nanoTime() ^ (long) ManagementFactory.getRuntimeMXBean().getName().hashCode() << 32
+                ^ System.identityHashCode(SLOTS) ^ System.currentTimeMillis();
+    /**
+     * SplitMix64 finalizer.
+     */
+    seed = (seed ^ seed >>> 30) * 0xbf58476d1ce4e5b9L;
+    seed = (seed ^ seed >>> 27) * 0x94d049bb133111ebL;
+    int node = (int) (seed ^ seed >>> 31) & 0xffff;
+    LOG.log(Level.INFO, "Message ID node {0} drawn at random; set {1} to fix it", new Object[]{node, NODE_ID});
+    return node;
+  }
+
+  /**
+   * The slot and sequence of one thread.
+   */
+  private static final class Sequence {
+
+    private final int slot = SLOTS.getAndIncrement() & 0xffff;
+    private long next;
+  }
+
+}
@@ -0,0 +1,263 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import ch.keybridge.dev.service.dpac.DpacStatusContent;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A message received by a listener end point and the response sent to it.
+ * <p>
+ * An instance is created when the message arrives and completed exactly once
+ * when the response is sent. Completed messages are handed to the responder
+ * message consumers (logging, etc.) and must not be modified afterwards.
+ *
+ * @author Key Bridge
+ */
+public final class ReceivedMessage {
+
+  private final Endpoint endpoint;
+  private final String remoteAddress;
+  private final String accessToken;
+  private final String messageId;
+  private final String relatesTo;
+  private final String content;
+  /**
+   * The streamed DpacStatus content, null if the body was read as a string.
+   */
+  private final DpacStatusContent dpacStatus;
+  /**
+   * The arrival time, in milliseconds since the epoch.
+   */
+  private final long receivedMillis;
+  /**
+   * The arrival time in monotonic nanoseconds. Used to measure handling time.
+   */
+  private final long receivedNanos;
+
+  /**
+   * The request headers, one "name: value" line per header. Only captured if
+   * a message store needs them.
+   */
+  private String headers;
+  /**
+   * The emulated processing delay, in milliseconds.
+   */
+  private long delayMillis;
+  /**
+   * The response time, in milliseconds since the epoch. Zero until completed.
+   */
+  private long respondedMillis;
+  /**
+   * The response time in monotonic nanoseconds.
+   */
+  private long respondedNanos;
+  /**
+   * The HTTP response status code. Zero until completed.
+   */
+  private int status;
+  /**
+   * The MessageID header of the response, if any.
+   */
+  private String responseMessageId;
+  /**
+   * Completed with the response status. Only created if requested.
+   */
+  private CompletableFuture<Integer> completion;
+
+  /**
+   * Create a new received message. The arrival time is set to now.
+   *
+   * @param endpoint      the endpoint that received the message
+   * @param remoteAddress the IP address of the sender
+   * @param accessToken   the bearer access token presented by the sender
+   * @param messageId     the MessageID header value
+   * @param relatesTo     the RelatesTo header value, if any
+   * @param content       the message body
+   */
+  public ReceivedMessage(Endpoint endpoint, String remoteAddress, String accessToken, String messageId, String relatesTo, String content) {
+    this.endpoint = endpoint;
+    this.remoteAddress = remoteAddress;
+    this.accessToken = accessToken;
+    this.messageId = messageId;
+    this.relatesTo = relatesTo;
+    this.content = content;
+    this.dpacStatus = null;
+    this.receivedMillis = System.currentTimeMillis();
+    this.receivedNanos = System.nanoTime();
+  }
+
+  /**
+   * Record the response sent to this message.
+   *
+   * @param status            the HTTP response status code
+   * @param responseMessageId the response MessageID header value, if any
+   */
+  public void complete(int status, String responseMessageId) {
+    this.status = status;
+    this.responseMessageId = responseMessageId;
+    this.respondedMillis = System.currentTimeMillis();
+    this.respondedNanos = System.nanoTime();
+    if (completion != null) {
+      completion.complete(status);
+    }
+  }
+
+  /**
+   * Get a future completed with the response status when this message is
+   * completed. Must be called on the receiving thread, before the response is
+   * scheduled.
+   *
+   * @return the response status future
+   */
+  public CompletableFuture<Integer> getCompletion() {
+    if (completion == null) {
+      completion = new CompletableFuture<>();
+    }
+    return completion;
+  }
+
+  public Endpoint getEndpoint() {
+    return endpoint;
+  }
+
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  public String getAccessToken() {
+    return accessToken;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public String getRelatesTo() {
+    return relatesTo;
+  }
+
+  /**
+   * Create a new received message with a streamed DpacStatus body. The
+   * arrival time is set to now.
+   *
+   * @param endpoint      the endpoint that received the message
+   * @param remoteAddress the IP address of the sender
+   * @param accessToken   the bearer access token presented by the sender
+   * @param messageId     the MessageID header value
+   * @param relatesTo     the RelatesTo header value, if any
+   * @param dpacStatus    the parsed message body
+   */
+  public ReceivedMessage(Endpoint endpoint, String remoteAddress, String accessToken, String messageId, String relatesTo, DpacStatusContent dpacStatus) {
+    this.endpoint = endpoint;
+    this.remoteAddress = remoteAddress;
+    this.accessToken = accessToken;
+    this.messageId = messageId;
+    this.relatesTo = relatesTo;
+    this.content = null;
+    this.dpacStatus = dpacStatus;
+    this.receivedMillis = System.currentTimeMillis();
+    this.receivedNanos = System.nanoTime();
+  }
+
+  /**
+   * Get the message body. A streamed body is truncated to the capture limit.
+   *
+   * @return the message body
+   */
+  public String getContent() {
+    return dpacStatus != null ? dpacStatus.getContent() : content;
+  }
+
+  /**
+   * Get the full length of the message body.
+   *
+   * @return the body length; in bytes if streamed
+   */
+  public long getContentLength() {
+    return dpacStatus != null ? dpacStatus.getLength() : content == null ? 0 : content.length();
+  }
+
+  /**
+   * Get the streamed DpacStatus content.
+   *
+   * @return the parsed body, null if the body was read as a string
+   */
+  public DpacStatusContent getDpacStatus() {
+    return dpacStatus;
+  }
+
+  public String getHeaders() {
+    return headers;
+  }
+
+  public void setHeaders(String headers) {
+    this.headers = headers;
+  }
+
+  public long getReceivedMillis() {
+    return receivedMillis;
+  }
+
+  public long getDelayMillis() {
+    return delayMillis;
+  }
+
+  public void setDelayMillis(long delayMillis) {
+    this.delayMillis = delayMillis;
+  }
+
+  public long getRespondedMillis() {
+    return respondedMillis;
+  }
+
+  /**
+   * Get the end-to-end handling time from arrival to response.
+   *
+   * @return the handling time in nanoseconds, zero if not completed
+   */
+  public long getHandlingNanos() {
+    return respondedNanos == 0 ? 0 : respondedNanos - receivedNanos;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getResponseMessageId() {
+    return responseMessageId;
+  }
+
+  /**
+   * Determine if the response was an error (HTTP 4xx or 5xx).
+   *
+   * @return true if the response status indicates an error
+   */
+  public boolean isError() {
+    return status >= 400;
+  }
+
+}
@@ -0,0 +1,122 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Responder configuration.
+ * <p>
+ * All responder settings are read from JVM system properties. On Glassfish
+ * these are set as JVM options in the domain configuration, for example
+ * <code>-Dch.keybridge.dev.async=false</code>. Every setting has a sensible
+ * default so the responder runs without any configuration.
+ *
+ * @author Key Bridge
+ */
+public final class ResponderConfiguration {
+
+  private static final Logger LOG = Logger.getLogger(ResponderConfiguration.class.getName());
+
+  /**
+   * The common prefix of all responder system properties.
+   */
+  public static final String PREFIX = "ch.keybridge.dev.";
+
+  /**
+   * Respond asynchronously. When TRUE the listener resources suspend the
+   * request and resume it from a shared scheduler after the emulated
+   * processing delay. When FALSE the handling thread sleeps for the delay.
+   * Default is TRUE, or FALSE with virtual thread bulkheads.
+   */
+  public static final String ASYNC = PREFIX + "async";
+  /**
+   * The number of threads in the shared delay scheduler. Default is 2.
+   */
+  public static final String SCHEDULER_THREADS = PREFIX + "scheduler.threads";
+
+  private ResponderConfiguration() {
+  }
+
+  /**
+   * Read a string property.
+   *
+   * @param name         the property name
+   * @param defaultValue the value returned if the property is not set
+   * @return the property value
+   */
+  public static String getString(String name, String defaultValue) {
+    String value = System.getProperty(name);
+    return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+  }
+
+  /**
+   * Read a boolean property.
+   *
+   * @param name         the property name
+   * @param defaultValue the value returned if the property is not set
+   * @return the property value
+   */
+  public static boolean getBoolean(String name, boolean defaultValue) {
+    String value = getString(name, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Read an integer property.
+   *
+   * @param name         the property name
+   * @param defaultValue the value returned if the property is not set or is
+   *                     not a number
+   * @return the property value
+   */
+  public static int getInt(String name, int defaultValue) {
+    return (int) getLong(name, defaultValue);
+  }
+
+  /**
+   * Read a long property.
+   *
+   * @param name         the property name
+   * @param defaultValue the value returned if the property is not set or is
+   *                     not a number
+   * @return the property value
+   */
+  public static long getLong(String name, long defaultValue) {
+    String value = getString(name, null);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException ex) {
+      LOG.log(Level.WARNING, "Ignoring invalid {0} value \"{1}\"", new Object[]{name, value});
+      return defaultValue;
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.auth;
+
+/**
+ * The result of an access token introspection.
+ *
+ * @author Key Bridge
+ */
+public final class TokenIntrospection {
+
+  private final boolean active;
+  private final String clientId;
+  private final String subject;
+  /**
+   * The time this result may be cached until, in milliseconds since the epoch.
+   */
+  private final long cacheUntilMillis;
+
+  TokenIntrospection(boolean active, String clientId, String subject, long cacheUntilMillis) {
+    this.active = active;
+    this.clientId = clientId;
+    this.subject = subject;
+    this.cacheUntilMillis = cacheUntilMillis;
+  }
+
+  /**
+   * Determine if the token is active: issued by the STS, not expired and not
+   * revoked.
+   *
+   * @return true if the token is active
+   */
+  public boolean isActive() {
+    return active;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public String getSubject() {
+    return subject;
+  }
+
+  /**
+   * Determine if this cached result has expired.
+   *
+   * @param nowMillis the current time
+   * @return true if the token must be introspected again
+   */
+  boolean isExpired(long nowMillis) {
+    return nowMillis >= cacheUntilMillis;
+  }
+
+}
@@ -0,0 +1,356 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.auth;
+
+import ch.keybridge.dev.service.GenerationalCache;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import ch.keybridge.dev.service.sts.StsService;
+import ch.keybridge.dev.service.sts.StsToken;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Validates bearer access tokens with the STS token introspection API (RFC
+ * 7662), as used by <code>StsClient.introspectToken</code>.
+ * <p>
+ * Introspection results are cached. An active token is cached until its
+ * <code>exp</code> time, but no longer than the maximum TTL so a revoked token
+ * is eventually rejected. An inactive token is cached for the (shorter)
+ * negative TTL. Loading is single-flight: the first request presenting a new
+ * token calls the STS and concurrent requests with the same token wait for
+ * that one result. STS failures are not cached.
+ * <p>
+ * Introspection is disabled unless an STS URI is configured. It is configured
+ * with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.sts.uri</code> - the STS API base URI, e.g.
+ * <code>https://keybridgewireless.com/sts/api</code>, or <code>embedded</code>
+ * to validate tokens directly against the embedded {@link StsService} without
+ * HTTP calls. Embedded results are cached in the same way.</li>
+ * <li><code>ch.keybridge.dev.sts.clientId</code> and
+ * <code>ch.keybridge.dev.sts.clientSecret</code> - the credentials used to
+ * call the introspection API.</li>
+ * <li><code>ch.keybridge.dev.sts.cacheSize</code> - the maximum number of
+ * cached tokens. Default 10000.</li>
+ * <li><code>ch.keybridge.dev.sts.maxTtlSeconds</code> - the maximum time an
+ * active token is cached. Default 300.</li>
+ * <li><code>ch.keybridge.dev.sts.negativeTtlSeconds</code> - the time an
+ * inactive token is cached. Default 30.</li>
+ * <li><code>ch.keybridge.dev.sts.timeoutMillis</code> - the introspection
+ * call timeout. Default 2000.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class TokenIntrospector {
+
+  private static final Logger LOG = Logger.getLogger(TokenIntrospector.class.getName());
+
+  public static final String URI = ResponderConfiguration.PREFIX + "sts.uri";
+  public static final String CLIENT_ID = ResponderConfiguration.PREFIX + "sts.clientId";
+  public static final String CLIENT_SECRET = ResponderConfiguration.PREFIX + "sts.clientSecret";
+  public static final String CACHE_SIZE = ResponderConfiguration.PREFIX + "sts.cacheSize";
+  public static final String MAX_TTL_SECONDS = ResponderConfiguration.PREFIX + "sts.maxTtlSeconds";
+  public static final String NEGATIVE_TTL_SECONDS = ResponderConfiguration.PREFIX + "sts.negativeTtlSeconds";
+  public static final String TIMEOUT_MILLIS = ResponderConfiguration.PREFIX + "sts.timeoutMillis";
+
+  private static final int GENERATIONS = 4;
+
+  /**
+   * Set when the shared instance is created.
+   */
+  private static volatile boolean initialized;
+
+  /**
+   * The introspection API client. Null if disabled or embedded.
+   */
+  private final Client client;
+  /**
+   * The introspection API target. Null if disabled or embedded.
+   */
+  private final WebTarget target;
+  /**
+   * True if tokens are validated against the embedded STS.
+   */
+  private final boolean embedded;
+  private final String authorization;
+  private final long maxTtlMillis;
+  private final long negativeTtlMillis;
+  private final long timeoutMillis;
+  /**
+   * Token to introspection result. A pending future is a load in progress.
+   */
+  private final GenerationalCache<String, CompletableFuture<TokenIntrospection>> cache;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  /**
+   * Create an introspector.
+   *
+   * @param uri                the STS API base URI, <code>embedded</code> or
+   *                           null to disable introspection
+   * @param clientId           the introspection API client ID
+   * @param clientSecret       the introspection API client secret
+   * @param cacheSize          the maximum number of cached tokens
+   * @param maxTtlSeconds      the maximum time an active token is cached
+   * @param negativeTtlSeconds the time an inactive token is cached
+   * @param timeoutMillis      the introspection call timeout
+   */
+  TokenIntrospector(String uri, String clientId, String clientSecret, int cacheSize, long maxTtlSeconds, long negativeTtlSeconds, long timeoutMillis) {
+    this.maxTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(1, maxTtlSeconds));
+    this.negativeTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, negativeTtlSeconds));
+    this.timeoutMillis = Math.max(1, timeoutMillis);
+    String credential = clientId + ":" + clientSecret;
+    this.authorization = "Basic " + Base64.getEncoder().encodeToString(credential.getBytes(StandardCharsets.UTF_8));
+    this.embedded = StsService.EMBEDDED_URI.equals(uri);
+    if (uri == null || uri.trim().isEmpty()) {
+      this.client = null;
+      this.target = null;
+      this.cache = null;
+      return;
+    }
+    this.cache = new GenerationalCache<>(maxTtlMillis, GENERATIONS, cacheSize);
+    if (embedded) {
+      this.client = null;
+      this.target = null;
+      return;
+    }
+    this.client = ClientBuilder.newClient();
+    /**
+     * Jersey client timeouts. Ignored by other implementations.
+     */
+    client.property("jersey.config.client.connectTimeout", (int) this.timeoutMillis);
+    client.property("jersey.config.client.readTimeout", (int) this.timeoutMillis);
+    this.target = client.target(uri.trim()).path("introspect");
+    LOG.log(Level.INFO, "Access tokens are introspected at {0}", target.getUri());
+  }
+
+  /**
+   * Get the shared introspector instance.
+   *
+   * @return the token introspector
+   */
+  public static TokenIntrospector getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Determine if the shared introspector has been created.
+   *
+   * @return true if {@link #getInstance()} has been called
+   */
+  public static boolean isInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Determine if token introspection is enabled.
+   *
+   * @return true if an STS URI is configured
+   */
+  public boolean isEnabled() {
+    return target != null || embedded;
+  }
+
+  /**
+   * Introspect an access token, using a cached result if available.
+   *
+   * @param token the bearer access token
+   * @return the introspection result, null if the STS could not be reached
+   */
+  public TokenIntrospection introspect(String token) {
+    long now = System.currentTimeMillis();
+    CompletableFuture<TokenIntrospection> future = cache.get(token);
+    if (future != null && future.isDone() && (future.getNow(null) == null || future.getNow(null).isExpired(now))) {
+      cache.remove(token, future);
+      future = null;
+    }
+    if (future == null) {
+      CompletableFuture<TokenIntrospection> created = new CompletableFuture<>();
+      future = cache.putIfAbsent(token, created);
+      if (future == null) {
+        /**
+         * This thread loads the token. Failures are completed with null and
+         * removed so the next request retries.
+         */
+        loads.increment();
+        TokenIntrospection result = embedded ? loadEmbedded(token, now) : load(token, now);
+        created.complete(result);
+        if (result == null) {
+          failures.increment();
+          cache.remove(token, created);
+        }
+        return result;
+      }
+    }
+    hits.increment();
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | TimeoutException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Validate a token against the embedded STS. An active token is cached until
+   * it expires, but no longer than the maximum TTL.
+   *
+   * @param token     the access token
+   * @param nowMillis the current time
+   * @return the introspection result
+   */
+  private TokenIntrospection loadEmbedded(String token, long nowMillis) {
+    StsToken issued = StsService.getInstance().introspect(token);
+    if (issued == null) {
+      return new TokenIntrospection(false, null, null, nowMillis + negativeTtlMillis);
+    }
+    long cacheUntil = Math.min(nowMillis + maxTtlMillis, TimeUnit.SECONDS.toMillis(issued.getExpiresAt()));
+    return new TokenIntrospection(true, issued.getClientId(), issued.getClientId(), cacheUntil);
+  }
+
+  /**
+   * Call the STS introspection API.
+   *
+   * @param token     the access token
+   * @param nowMillis the current time
+   * @return the introspection result, null on error
+   */
+  private TokenIntrospection load(String token, long nowMillis) {
+    Form form = new Form().param("token", token).param("token_type_hint", "access_token");
+    Response response = null;
+    try {
+      response = target.request(MediaType.APPLICATION_JSON)
+        .header(HttpHeaders.AUTHORIZATION, authorization)
+        .post(Entity.form(form));
+      if (response.getStatus() != 200) {
+        LOG.log(Level.WARNING, "Token introspection failed with HTTP {0}", response.getStatus());
+        return null;
+      }
+      JsonObject json;
+      try (JsonReader reader = Json.createReader(new StringReader(response.readEntity(String.class)))) {
+        json = reader.readObject();
+      }
+      if (!json.getBoolean("active", false)) {
+        return new TokenIntrospection(false, null, null, nowMillis + negativeTtlMillis);
+      }
+      long cacheUntil = nowMillis + maxTtlMillis;
+      JsonValue exp = json.get("exp");
+      if (exp instanceof JsonNumber) {
+        cacheUntil = Math.min(cacheUntil, TimeUnit.SECONDS.toMillis(((JsonNumber) exp).longValue()));
+      }
+      return new TokenIntrospection(true, json.getString("client_id", null), json.getString("sub", null), cacheUntil);
+    } catch (RuntimeException ex) {
+      LOG.log(Level.WARNING, "Token introspection failed: {0}", ex.getMessage());
+      return null;
+    } finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * Get the number of introspections answered from the cache, including
+   * requests that waited for a load in progress.
+   *
+   * @return the cache hit count
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of STS introspection calls.
+   *
+   * @return the load count
+   */
+  public long getLoadCount() {
+    return loads.sum();
+  }
+
+  /**
+   * Get the number of failed STS introspection calls.
+   *
+   * @return the failure count
+   */
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /**
+   * Close the introspection API client.
+   */
+  public void shutdown() {
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  /**
+   * Holds the shared instance, created on first use.
+   */
+  private static final class Holder {
+
+    private static final TokenIntrospector INSTANCE = new TokenIntrospector(ResponderConfiguration.getString(URI, null),
+                                                                            ResponderConfiguration.getString(CLIENT_ID, ""),
+                                                                            ResponderConfiguration.getString(CLIENT_SECRET, ""),
+                                                                            ResponderConfiguration.getInt(CACHE_SIZE, 10_000),
+                                                                            ResponderConfiguration.getLong(MAX_TTL_SECONDS, 300),
+                                                                            ResponderConfiguration.getLong(NEGATIVE_TTL_SECONDS, 30),
+                                                                            ResponderConfiguration.getLong(TIMEOUT_MILLIS, 2000));
+
+    static {
+      initialized = true;
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.cbor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import javax.json.JsonBuilderFactory;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+
+/**
+ * CBOR (RFC 8949), a binary encoding of the JSON data model, as an alternative
+ * encoding of peering messages.
+ * <p>
+ * CBOR is read and written through the JSON-P streaming API, so code written
+ * against a {@link JsonParser} or {@link JsonGenerator} handles both encodings.
+ * JSON-B binds CBOR with a Jsonb instance built on the {@link #provider()}.
+ *
+ * @author Key Bridge
+ */
+public final class Cbor {
+
+  /**
+   * The CBOR media type.
+   */
+  public static final String MEDIA_TYPE = "application/cbor";
+
+  /**
+   * The default JSON-P provider. <code>JsonProvider.provider()</code> looks
+   * up the provider on every call.
+   */
+  static final JsonProvider JSON = JsonProvider.provider();
+  static final JsonBuilderFactory BUILDERS = JSON.createBuilderFactory(null);
+
+  private static final CborJsonProvider PROVIDER = new CborJsonProvider(JSON);
+
+  private Cbor() {
+  }
+
+  /**
+   * Get a JSON-P provider whose parsers, generators, readers and writers read
+   * and write CBOR byte streams. Builders and values are those of the default
+   * provider.
+   *
+   * @return the CBOR provider
+   */
+  public static JsonProvider provider() {
+    return PROVIDER;
+  }
+
+  /**
+   * Get a shared JSON-B instance that binds objects to and from CBOR byte
+   * streams. JSON-B methods taking a String or Reader are not supported.
+   *
+   * @return the CBOR JSON-B instance
+   */
+  public static Jsonb jsonb() {
+    return Binding.JSONB;
+  }
+
+  /**
+   * Determine if a content type is CBOR.
+   *
+   * @param contentType the content type, with or without parameters; may be
+   *                    null
+   * @return true if the type is application/cbor
+   */
+  public static boolean isCbor(String contentType) {
+    return contentType != null
+           && contentType.regionMatches(true, 0, MEDIA_TYPE, 0, MEDIA_TYPE.length())
+           && (contentType.length() == MEDIA_TYPE.length() || contentType.charAt(MEDIA_TYPE.length()) == ';'
+               || contentType.charAt(MEDIA_TYPE.length()) == ' ');
+  }
+
+  /**
+   * Create a CBOR parser.
+   *
+   * @param in the CBOR input
+   * @return a new parser
+   */
+  public static JsonParser createParser(InputStream in) {
+    return new CborParser(in);
+  }
+
+  /**
+   * Create a CBOR generator.
+   *
+   * @param out the CBOR output
+   * @return a new generator
+   */
+  public static JsonGenerator createGenerator(OutputStream out) {
+    return new CborGenerator(out);
+  }
+
+  /**
+   * Copy the remaining items of a parser to a generator, e.g. to transcode
+   * between JSON and CBOR. The generator is not flushed.
+   *
+   * @param parser    the source
+   * @param generator the target
+   */
+  public static void transcode(JsonParser parser, JsonGenerator generator) {
+    while (parser.hasNext()) {
+      copy(parser, parser.next(), generator);
+    }
+  }
+
+  /**
+   * Copy the current event of a parser to a generator.
+   *
+   * @param parser    the source
+   * @param event     the current event of the parser
+   * @param generator the target
+   */
+  public static void copy(JsonParser parser, JsonParser.Event event, JsonGenerator generator) {
+    switch (event) {
+      case START_OBJECT:
+        generator.writeStartObject();
+        break;
+      case START_ARRAY:
+        generator.writeStartArray();
+        break;
+      case END_OBJECT:
+      case END_ARRAY:
+        generator.writeEnd();
+        break;
+      case KEY_NAME:
+        generator.writeKey(parser.getString());
+        break;
+      case VALUE_STRING:
+        generator.write(parser.getString());
+        break;
+      case VALUE_NUMBER:
+        if (parser instanceof CborParser) {
+          ((CborParser) parser).copyNumber(generator);
+          break;
+        }
+        BigDecimal number = parser.getBigDecimal();
+        if (parser.isIntegralNumber() && number.precision() < 19) {
+          generator.write(number.longValue());
+        } else {
+          generator.write(number);
+        }
+        break;
+      case VALUE_TRUE:
+        generator.write(true);
+        break;
+      case VALUE_FALSE:
+        generator.write(false);
+        break;
+      default:
+        generator.writeNull();
+    }
+  }
+
+  /**
+   * Holds the JSON-B instance, built on first use.
+   */
+  private static final class Binding {
+
+    private static final Jsonb JSONB = JsonbBuilder.newBuilder().withProvider(PROVIDER).build();
+  }
+
+}
@@ -0,0 +1,493 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.cbor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * A streaming JSON-P generator of CBOR (RFC 8949) data items.
+ * <p>
+ * Objects are written as maps and arrays as arrays, both of indefinite length
+ * so that nothing is buffered. Integers are written in their shortest form,
+ * with bignums (tags 2 and 3) beyond 64 bits. A double is written in single
+ * precision when that is exact. A BigDecimal with a fractional part, or with
+ * more than 20 integer digits, is written exactly as a decimal fraction
+ * (tag 4), so that a large exponent is never expanded into its digits.
+ * <p>
+ * Output is written through an internal buffer; {@link #flush()} writes it to
+ * the stream and {@link #close()} also closes the stream.
+ *
+ * @author Key Bridge
+ */
+public final class CborGenerator implements JsonGenerator {
+
+  private static final BigInteger UNSIGNED_MAX = BigInteger.ONE.shiftLeft(64);
+  /**
+   * The most integer digits of a decimal written as a plain (or bignum)
+   * integer; larger values are written as a decimal fraction.
+   */
+  private static final int MAX_INTEGER_DIGITS = 20;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[4096];
+  private int position;
+
+  /**
+   * The open containers: true if a map. For each map, whether a key has been
+   * written and its value is pending.
+   */
+  private boolean[] map = new boolean[16];
+  private boolean[] pending = new boolean[16];
+  private int depth;
+
+  /**
+   * Construct a generator.
+   *
+   * @param out the CBOR output
+   */
+  public CborGenerator(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public JsonGenerator writeStartObject() {
+    value();
+    put(0xbf);
+    push(true);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeStartObject(String name) {
+    return writeKey(name).writeStartObject();
+  }
+
+  @Override
+  public JsonGenerator writeKey(String name) {
+    if (depth == 0 || !map[depth - 1] || pending[depth - 1]) {
+      throw new JsonGenerationException("A key is not allowed here");
+    }
+    writeText(name);
+    pending[depth - 1] = true;
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeStartArray() {
+    value();
+    put(0x9f);
+    push(false);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeStartArray(String name) {
+    return writeKey(name).writeStartArray();
+  }
+
+  @Override
+  public JsonGenerator write(String name, JsonValue value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, String value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, BigInteger value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, BigDecimal value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, int value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, long value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, double value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator write(String name, boolean value) {
+    return writeKey(name).write(value);
+  }
+
+  @Override
+  public JsonGenerator writeNull(String name) {
+    return writeKey(name).writeNull();
+  }
+
+  @Override
+  public JsonGenerator writeEnd() {
+    if (depth == 0 || pending[depth - 1]) {
+      throw new JsonGenerationException("No container to end");
+    }
+    depth--;
+    put(0xff);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(JsonValue value) {
+    switch (value.getValueType()) {
+      case OBJECT:
+        writeStartObject();
+        for (Map.Entry<String, JsonValue> entry : ((JsonObject) value).entrySet()) {
+          writeKey(entry.getKey()).write(entry.getValue());
+        }
+        return writeEnd();
+      case ARRAY:
+        writeStartArray();
+        for (JsonValue item : (JsonArray) value) {
+          write(item);
+        }
+        return writeEnd();
+      case STRING:
+        return write(((JsonString) value).getString());
+      case NUMBER:
+        return write(((JsonNumber) value).bigDecimalValue());
+      case TRUE:
+        return write(true);
+      case FALSE:
+        return write(false);
+      default:
+        return writeNull();
+    }
+  }
+
+  @Override
+  public JsonGenerator write(String value) {
+    value();
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(BigDecimal value) {
+    value();
+    if (value.scale() <= 0 && value.precision() - value.scale() <= MAX_INTEGER_DIGITS) {
+      try {
+        writeLong(value.longValueExact());
+      } catch (ArithmeticException ex) {
+        writeInteger(value.toBigIntegerExact());
+      }
+    } else {
+      /**
+       * Tag 4: [exponent, mantissa]. Integers with a large exponent stay in
+       * this form rather than being expanded into their digits.
+       */
+      writeHead(6, 4);
+      put(0x82);
+      writeLong(-(long) value.scale());
+      writeInteger(value.unscaledValue());
+    }
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(BigInteger value) {
+    value();
+    writeInteger(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(int value) {
+    value();
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(long value) {
+    value();
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new NumberFormatException("Non-finite numbers are not supported");
+    }
+    value();
+    float single = (float) value;
+    if (single == value) {
+      ensure(5);
+      buffer[position++] = (byte) 0xfa;
+      putBits(Float.floatToIntBits(single), 4);
+    } else {
+      ensure(9);
+      buffer[position++] = (byte) 0xfb;
+      putBits(Double.doubleToLongBits(value), 8);
+    }
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(boolean value) {
+    value();
+    put(value ? 0xf5 : 0xf4);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeNull() {
+    value();
+    put(0xf6);
+    return this;
+  }
+
+  /**
+   * Check that a value is allowed and mark the pending map value written.
+   */
+  private void value() {
+    if (depth > 0 && map[depth - 1]) {
+      if (!pending[depth - 1]) {
+        throw new JsonGenerationException("A map value requires a key");
+      }
+      pending[depth - 1] = false;
+    }
+  }
+
+  private void push(boolean isMap) {
+    if (depth == CborParser.MAX_DEPTH) {
+      throw new JsonGenerationException("CBOR nesting too deep");
+    }
+    if (depth == map.length) {
+      map = Arrays.copyOf(map, depth * 2);
+      pending = Arrays.copyOf(pending, depth * 2);
+    }
+    map[depth] = isMap;
+    pending[depth] = false;
+    depth++;
+  }
+
+  private void writeLong(long value) {
+    if (value >= 0) {
+      writeHead(0, value);
+    } else {
+      writeHead(1, -1 - value);
+    }
+  }
+
+  private void writeInteger(BigInteger value) {
+    if (value.bitLength() < 64) {
+      writeLong(value.longValue());
+      return;
+    }
+    boolean negative = value.signum() < 0;
+    BigInteger argument = negative ? value.negate().subtract(BigInteger.ONE) : value;
+    if (argument.compareTo(UNSIGNED_MAX) < 0) {
+      writeHead(negative ? 1 : 0, argument.longValue());
+      return;
+    }
+    byte[] bytes = argument.toByteArray();
+    int skip = bytes[0] == 0 ? 1 : 0;
+    writeHead(6, negative ? 3 : 2);
+    writeHead(2, bytes.length - skip);
+    writeBytes(bytes, skip, bytes.length - skip);
+  }
+
+  /**
+   * Write an initial byte and its argument in the shortest form. The argument
+   * is an unsigned 64 bit value.
+   */
+  private void writeHead(int type, long argument) {
+    ensure(9);
+    int major = type << 5;
+    if (argument >= 0 && argument < 24) {
+      buffer[position++] = (byte) (major | (int) argument);
+    } else if (argument >= 0 && argument <= 0xff) {
+      buffer[position++] = (byte) (major | 24);
+      buffer[position++] = (byte) argument;
+    } else if (argument >= 0 && argument <= 0xffff) {
+      buffer[position++] = (byte) (major | 25);
+      putBits(argument, 2);
+    } else if (argument >= 0 && argument <= 0xffffffffL) {
+      buffer[position++] = (byte) (major | 26);
+      putBits(argument, 4);
+    } else {
+      buffer[position++] = (byte) (major | 27);
+      putBits(argument, 8);
+    }
+  }
+
+  private void putBits(long bits, int bytes) {
+    for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+      buffer[position++] = (byte) (bits >>> shift);
+    }
+  }
+
+  /**
+   * Write a text string, encoding UTF-8 directly into the buffer. A lone
+   * surrogate is written as '?', as by String.getBytes.
+   */
+  private void writeText(String text) {
+    int length = text.length();
+    long bytes = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        bytes++;
+      } else {
+        bytes += 3;
+      }
+    }
+    writeHead(3, bytes);
+    if (bytes == length) {
+      /**
+       * ASCII.
+       */
+      for (int i = 0; i < length;) {
+        ensure(1);
+        int end = Math.min(length, i + buffer.length - position);
+        while (i < end) {
+          buffer[position++] = (byte) text.charAt(i++);
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      ensure(4);
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xc0 | c >> 6);
+        buffer[position++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int code = Character.toCodePoint(c, text.charAt(++i));
+        buffer[position++] = (byte) (0xf0 | code >> 18);
+        buffer[position++] = (byte) (0x80 | code >> 12 & 0x3f);
+        buffer[position++] = (byte) (0x80 | code >> 6 & 0x3f);
+        buffer[position++] = (byte) (0x80 | code & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xe0 | c >> 12);
+        buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+        buffer[position++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      ensure(1);
+      int n = Math.min(length, buffer.length - position);
+      System.arraycopy(bytes, offset, buffer, position, n);
+      position += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  private void put(int b) {
+    ensure(1);
+    buffer[position++] = (byte) b;
+  }
+
+  /**
+   * Ensure that the buffer has room for a number of bytes.
+   */
+  private void ensure(int bytes) {
+    if (buffer.length - position < bytes) {
+      drain();
+    }
+  }
+
+  private void drain() {
+    try {
+      out.write(buffer, 0, position);
+    } catch (IOException ex) {
+      throw new JsonException("Failed to write CBOR output: " + ex.getMessage(), ex);
+    }
+    position = 0;
+  }
+
+  @Override
+  public void flush() {
+    drain();
+    try {
+      out.flush();
+    } catch (IOException ex) {
+      throw new JsonException("Failed to write CBOR output: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws JsonGenerationException if a map or array is not ended
+   */
+  @Override
+  public void close() {
+    flush();
+    try {
+      out.close();
+    } catch (IOException ex) {
+      throw new JsonException("Failed to close CBOR output: " + ex.getMessage(), ex);
+    }
+    if (depth > 0) {
+      throw new JsonGenerationException("Incomplete CBOR item");
+    }
+  }
+
+}
@@ -0,0 +1,412 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.cbor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import javax.json.*;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * A JSON-P provider that reads and writes CBOR byte streams.
+ * <p>
+ * Parsers, generators, readers and writers of byte streams use CBOR;
+ * character streams are not supported, since CBOR is binary. Builders,
+ * values, pointers and patches are those of the delegate provider. Obtain the
+ * instance with {@link Cbor#provider()}.
+ *
+ * @author Key Bridge
+ */
+final class CborJsonProvider extends JsonProvider {
+
+  private static final Map<String, ?> CONFIG = Collections.emptyMap();
+
+  private final JsonProvider delegate;
+
+  CborJsonProvider(JsonProvider delegate) {
+    this.delegate = delegate;
+  }
+
+  private static UnsupportedOperationException characterStream() {
+    return new UnsupportedOperationException("CBOR is a binary format and requires a byte stream");
+  }
+
+  @Override
+  public JsonParser createParser(Reader reader) {
+    throw characterStream();
+  }
+
+  @Override
+  public JsonParser createParser(InputStream in) {
+    return new CborParser(in);
+  }
+
+  @Override
+  public JsonParserFactory createParserFactory(Map<String, ?> config) {
+    JsonParserFactory structures = delegate.createParserFactory(config);
+    return new JsonParserFactory() {
+      @Override
+      public JsonParser createParser(Reader reader) {
+        throw characterStream();
+      }
+
+      @Override
+      public JsonParser createParser(InputStream in) {
+        return new CborParser(in);
+      }
+
+      @Override
+      public JsonParser createParser(InputStream in, Charset charset) {
+        return new CborParser(in);
+      }
+
+      @Override
+      public JsonParser createParser(JsonObject obj) {
+        return structures.createParser(obj);
+      }
+
+      @Override
+      public JsonParser createParser(JsonArray array) {
+        return structures.createParser(array);
+      }
+
+      @Override
+      public Map<String, ?> getConfigInUse() {
+        return CONFIG;
+      }
+    };
+  }
+
+  @Override
+  public JsonGenerator createGenerator(Writer writer) {
+    throw characterStream();
+  }
+
+  @Override
+  public JsonGenerator createGenerator(OutputStream out) {
+    return new CborGenerator(out);
+  }
+
+  @Override
+  public JsonGeneratorFactory createGeneratorFactory(Map<String, ?> config) {
+    return new JsonGeneratorFactory() {
+      @Override
+      public JsonGenerator createGenerator(Writer writer) {
+        throw characterStream();
+      }
+
+      @Override
+      public JsonGenerator createGenerator(OutputStream out) {
+        return new CborGenerator(out);
+      }
+
+      @Override
+      public JsonGenerator createGenerator(OutputStream out, Charset charset) {
+        return new CborGenerator(out);
+      }
+
+      @Override
+      public Map<String, ?> getConfigInUse() {
+        return CONFIG;
+      }
+    };
+  }
+
+  @Override
+  public JsonReader createReader(Reader reader) {
+    throw characterStream();
+  }
+
+  @Override
+  public JsonReader createReader(InputStream in) {
+    return new CborReader(new CborParser(in));
+  }
+
+  @Override
+  public JsonReaderFactory createReaderFactory(Map<String, ?> config) {
+    return new JsonReaderFactory() {
+      @Override
+      public JsonReader createReader(Reader reader) {
+        throw characterStream();
+      }
+
+      @Override
+      public JsonReader createReader(InputStream in) {
+        return new CborReader(new CborParser(in));
+      }
+
+      @Override
+      public JsonReader createReader(InputStream in, Charset charset) {
+        return new CborReader(new CborParser(in));
+      }
+
+      @Override
+      public Map<String, ?> getConfigInUse() {
+        return CONFIG;
+      }
+    };
+  }
+
+  @Override
+  public JsonWriter createWriter(Writer writer) {
+    throw characterStream();
+  }
+
+  @Override
+  public JsonWriter createWriter(OutputStream out) {
+    return new CborWriter(new CborGenerator(out));
+  }
+
+  @Override
+  public JsonWriterFactory createWriterFactory(Map<String, ?> config) {
+    return new JsonWriterFactory() {
+      @Override
+      public JsonWriter createWriter(Writer writer) {
+        throw characterStream();
+      }
+
+      @Override
+      public JsonWriter createWriter(OutputStream out) {
+        return new CborWriter(new CborGenerator(out));
+      }
+
+      @Override
+      public JsonWriter createWriter(OutputStream out, Charset charset) {
+        return new CborWriter(new CborGenerator(out));
+      }
+
+      @Override
+      public Map<String, ?> getConfigInUse() {
+        return CONFIG;
+      }
+    };
+  }
+
+  @Override
+  public JsonObjectBuilder createObjectBuilder() {
+    return delegate.createObjectBuilder();
+  }
+
+  @Override
+  public JsonObjectBuilder createObjectBuilder(JsonObject object) {
+    return delegate.createObjectBuilder(object);
+  }
+
+  @Override
+  public JsonObjectBuilder createObjectBuilder(Map<String, Object> map) {
+    return delegate.createObjectBuilder(map);
+  }
+
+  @Override
+  public JsonArrayBuilder createArrayBuilder() {
+    return delegate.createArrayBuilder();
+  }
+
+  @Override
+  public JsonArrayBuilder createArrayBuilder(JsonArray array) {
+    return delegate.createArrayBuilder(array);
+  }
+
+  @Override
+  public JsonArrayBuilder createArrayBuilder(Collection<?> collection) {
+    return delegate.createArrayBuilder(collection);
+  }
+
+  @Override
+  public JsonPointer createPointer(String jsonPointer) {
+    return delegate.createPointer(jsonPointer);
+  }
+
+  @Override
+  public JsonPatchBuilder createPatchBuilder() {
+    return delegate.createPatchBuilder();
+  }
+
+  @Override
+  public JsonPatchBuilder createPatchBuilder(JsonArray array) {
+    return delegate.createPatchBuilder(array);
+  }
+
+  @Override
+  public JsonPatch createPatch(JsonArray array) {
+    return delegate.createPatch(array);
+  }
+
+  @Override
+  public JsonPatch createDiff(JsonStructure source, JsonStructure target) {
+    return delegate.createDiff(source, target);
+  }
+
+  @Override
+  public JsonMergePatch createMergePatch(JsonValue patch) {
+    return delegate.createMergePatch(patch);
+  }
+
+  @Override
+  public JsonMergePatch createMergeDiff(JsonValue source, JsonValue target) {
+    return delegate.createMergeDiff(source, target);
+  }
+
+  @Override
+  public JsonBuilderFactory createBuilderFactory(Map<String, ?> config) {
+    return delegate.createBuilderFactory(config);
+  }
+
+  @Override
+  public JsonString createValue(String value) {
+    return delegate.createValue(value);
+  }
+
+  @Override
+  public JsonNumber createValue(int value) {
+    return delegate.createValue(value);
+  }
+
+  @Override
+  public JsonNumber createValue(long value) {
+    return delegate.createValue(value);
+  }
+
+  @Override
+  public JsonNumber createValue(double value) {
+    return delegate.createValue(value);
+  }
+
+  @Override
+  public JsonNumber createValue(BigDecimal value) {
+    return delegate.createValue(value);
+  }
+
+  @Override
+  public JsonNumber createValue(BigInteger value) {
+    return delegate.createValue(value);
+  }
+
+  /**
+   * Reads one CBOR item as a JSON value.
+   */
+  private static final class CborReader implements JsonReader {
+
+    private final CborParser parser;
+
+    private CborReader(CborParser parser) {
+      this.parser = parser;
+    }
+
+    @Override
+    public JsonStructure read() {
+      JsonValue value = readValue();
+      if (!(value instanceof JsonStructure)) {
+        throw new JsonParsingException("Not a CBOR map or array", parser.getLocation());
+      }
+      return (JsonStructure) value;
+    }
+
+    @Override
+    public JsonObject readObject() {
+      JsonValue value = readValue();
+      if (!(value instanceof JsonObject)) {
+        throw new JsonParsingException("Not a CBOR map", parser.getLocation());
+      }
+      return (JsonObject) value;
+    }
+
+    @Override
+    public JsonArray readArray() {
+      JsonValue value = readValue();
+      if (!(value instanceof JsonArray)) {
+        throw new JsonParsingException("Not a CBOR array", parser.getLocation());
+      }
+      return (JsonArray) value;
+    }
+
+    @Override
+    public JsonValue readValue() {
+      if (!parser.hasNext()) {
+        throw new JsonParsingException("No CBOR item", parser.getLocation());
+      }
+      parser.next();
+      return parser.getValue();
+    }
+
+    @Override
+    public void close() {
+      parser.close();
+    }
+  }
+
+  /**
+   * Writes JSON values as CBOR items.
+   */
+  private static final class CborWriter implements JsonWriter {
+
+    private final CborGenerator generator;
+
+    private CborWriter(CborGenerator generator) {
+      this.generator = generator;
+    }
+
+    @Override
+    public void writeArray(JsonArray array) {
+      write(array);
+    }
+
+    @Override
+    public void writeObject(JsonObject object) {
+      write(object);
+    }
+
+    @Override
+    public void write(JsonStructure value) {
+      write((JsonValue) value);
+    }
+
+    @Override
+    public void write(JsonValue value) {
+      generator.write(value);
+      generator.flush();
+    }
+
+    @Override
+    public void close() {
+      generator.close();
+    }
+  }
+
+}
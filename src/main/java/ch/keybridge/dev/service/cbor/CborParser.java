@@ -0,0 +1,753 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.cbor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.NoSuchElementException;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * A streaming JSON-P parser of CBOR (RFC 8949) data items.
+ * <p>
+ * CBOR items are reported as the equivalent JSON events: maps as objects,
+ * arrays as arrays, text strings as strings, integers and floating point
+ * values as numbers and the simple values false, true, null and undefined as
+ * literals. Both definite and indefinite length items are read. Byte strings
+ * are reported as base64url strings without padding, as recommended by RFC
+ * 8949 section 6.1. Bignums (tags 2 and 3) and decimal fractions (tag 4) are
+ * reported as numbers; other tags are ignored and their content reported.
+ * Map keys must be text strings. Non-finite floating point values have no
+ * JSON equivalent and are rejected.
+ * <p>
+ * Input is read through an internal buffer, so the parser may read past the
+ * end of the item. At the top level {@link #hasNext()} returns true if more
+ * input follows the item, which is then read as another item of a CBOR
+ * sequence (RFC 8742). Closing the parser closes the stream.
+ *
+ * @author Key Bridge
+ */
+public final class CborParser implements JsonParser {
+
+  /**
+   * The maximum nesting depth of maps, arrays and tags.
+   */
+  static final int MAX_DEPTH = 1000;
+
+  private static final int NUMBER_LONG = 0;
+  private static final int NUMBER_BIG = 1;
+  private static final int NUMBER_FLOAT = 2;
+  private static final int NUMBER_DOUBLE = 3;
+  /**
+   * A decimal fraction with a long mantissa.
+   */
+  private static final int NUMBER_DECIMAL = 4;
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[4096];
+  private int position;
+  private int limit;
+  /**
+   * The stream offset of the first byte in the buffer.
+   */
+  private long offset;
+  /**
+   * The stream offset of the current event.
+   */
+  private long eventOffset;
+
+  /**
+   * The open containers. For each: true if a map, the number of items (map
+   * entries) remaining or -1 if indefinite, and for a map whether the next
+   * item is a key.
+   */
+  private boolean[] map = new boolean[16];
+  private long[] remaining = new long[16];
+  private boolean[] key = new boolean[16];
+  private int depth;
+  /**
+   * The number of enclosing tags of the item being read.
+   */
+  private int tags;
+
+  private Event event;
+  private String string;
+  /**
+   * The buffer position and length of a text string not yet decoded; decoded
+   * on demand, so that skipped strings are never decoded.
+   */
+  private int textStart = -1;
+  private int textLength;
+  private int numberKind;
+  private long longValue;
+  private double doubleValue;
+  private int scale;
+  private BigDecimal bigValue;
+  private byte[] scratch;
+
+  /**
+   * Construct a parser.
+   *
+   * @param in the CBOR input
+   */
+  public CborParser(InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (depth > 0) {
+      return true;
+    }
+    return available(1);
+  }
+
+  @Override
+  public Event next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException("No more CBOR items");
+    }
+    string = null;
+    textStart = -1;
+    bigValue = null;
+    eventOffset = offset + position;
+    /**
+     * A definite length container ends after its last item.
+     */
+    if (depth > 0 && remaining[depth - 1] == 0) {
+      return end();
+    }
+    int initial = readByte();
+    if (initial == 0xff) {
+      if (depth == 0 || remaining[depth - 1] >= 0) {
+        throw error("Unexpected break");
+      }
+      if (map[depth - 1] && !key[depth - 1]) {
+        throw error("Missing map value before break");
+      }
+      return end();
+    }
+    if (depth > 0 && map[depth - 1] && key[depth - 1]) {
+      if (initial >>> 5 != 3) {
+        throw error("Map keys must be text strings");
+      }
+      readText(initial & 0x1f);
+      key[depth - 1] = false;
+      return event = Event.KEY_NAME;
+    }
+    event = readItem(initial);
+    if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      complete();
+    }
+    return event;
+  }
+
+  /**
+   * Read an item from its initial byte.
+   */
+  private Event readItem(int initial) {
+    int info = initial & 0x1f;
+    switch (initial >>> 5) {
+      case 0:
+        return readInteger(readArgument(info), false);
+      case 1:
+        return readInteger(readArgument(info), true);
+      case 2:
+        string = Base64.getUrlEncoder().withoutPadding().encodeToString(readBytes(info, 2));
+        return Event.VALUE_STRING;
+      case 3:
+        readText(info);
+        return Event.VALUE_STRING;
+      case 4:
+        push(false, info == 31 ? -1 : readArgument(info));
+        return Event.START_ARRAY;
+      case 5:
+        push(true, info == 31 ? -1 : readArgument(info));
+        return Event.START_OBJECT;
+      case 6:
+        return readTagged(readArgument(info));
+      default:
+        return readSimple(info);
+    }
+  }
+
+  private Event readInteger(long argument, boolean negative) {
+    if (argument >= 0) {
+      numberKind = NUMBER_LONG;
+      longValue = negative ? -1 - argument : argument;
+    } else {
+      /**
+       * The argument is an unsigned 64 bit value over Long.MAX_VALUE.
+       */
+      BigInteger value = new BigInteger(Long.toUnsignedString(argument));
+      numberKind = NUMBER_BIG;
+      bigValue = new BigDecimal(negative ? value.negate().subtract(BigInteger.ONE) : value);
+    }
+    return Event.VALUE_NUMBER;
+  }
+
+  private Event readTagged(long tag) {
+    /**
+     * Tags nest like containers; count them against the same limit.
+     */
+    if (depth + tags >= MAX_DEPTH) {
+      throw error("CBOR nesting too deep");
+    }
+    int initial = readByte();
+    if (tag == 2 || tag == 3) {
+      if (initial >>> 5 != 2) {
+        throw error("Bignum content must be a byte string");
+      }
+      BigInteger value = new BigInteger(1, readBytes(initial & 0x1f, 2));
+      numberKind = NUMBER_BIG;
+      bigValue = new BigDecimal(tag == 3 ? value.negate().subtract(BigInteger.ONE) : value);
+      return Event.VALUE_NUMBER;
+    }
+    if (tag == 4) {
+      if (initial != 0x82) {
+        throw error("Decimal fraction content must be an array of two integers");
+      }
+      initial = readByte();
+      if (initial >>> 5 > 1) {
+        throw error("Decimal fraction exponent must be an integer");
+      }
+      readInteger(readArgument(initial & 0x1f), initial >>> 5 == 1);
+      if (numberKind != NUMBER_LONG || longValue <= Integer.MIN_VALUE || longValue > Integer.MAX_VALUE) {
+        throw error("Decimal fraction exponent out of range");
+      }
+      int exponent = (int) longValue;
+      readMantissa();
+      if (numberKind == NUMBER_LONG) {
+        numberKind = NUMBER_DECIMAL;
+        scale = -exponent;
+      } else {
+        bigValue = new BigDecimal(bigValue.toBigIntegerExact(), -exponent);
+      }
+      return Event.VALUE_NUMBER;
+    }
+    if (initial == 0xff) {
+      throw error("Unexpected break");
+    }
+    tags++;
+    try {
+      return readItem(initial);
+    } finally {
+      tags--;
+    }
+  }
+
+  /**
+   * Read the integer or bignum mantissa of a decimal fraction.
+   */
+  private void readMantissa() {
+    int initial = readByte();
+    int type = initial >>> 5;
+    if (type == 6) {
+      long tag = readArgument(initial & 0x1f);
+      if (tag != 2 && tag != 3) {
+        throw error("Decimal fraction mantissa must be an integer");
+      }
+      readTagged(tag);
+    } else if (type == 0 || type == 1) {
+      readInteger(readArgument(initial & 0x1f), type == 1);
+    } else {
+      throw error("Decimal fraction mantissa must be an integer");
+    }
+  }
+
+  private Event readSimple(int info) {
+    switch (info) {
+      case 20:
+        return Event.VALUE_FALSE;
+      case 21:
+        return Event.VALUE_TRUE;
+      case 22:
+      case 23:
+        return Event.VALUE_NULL;
+      case 25:
+        return readFloat(halfToFloat(readUnsigned(2)));
+      case 26:
+        return readFloat(Float.intBitsToFloat((int) readUnsigned(4)));
+      case 27:
+        double value = Double.longBitsToDouble(readUnsigned(8));
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+          throw error("Non-finite numbers are not supported");
+        }
+        numberKind = NUMBER_DOUBLE;
+        doubleValue = value;
+        return Event.VALUE_NUMBER;
+      default:
+        throw error("Unsupported simple value " + info);
+    }
+  }
+
+  private Event readFloat(float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      throw error("Non-finite numbers are not supported");
+    }
+    numberKind = NUMBER_FLOAT;
+    doubleValue = value;
+    return Event.VALUE_NUMBER;
+  }
+
+  /**
+   * Convert an IEEE 754 half precision value.
+   */
+  private static float halfToFloat(long bits) {
+    int exponent = (int) (bits >> 10) & 0x1f;
+    int mantissa = (int) bits & 0x3ff;
+    float value = exponent == 0 ? mantissa * 0x1p-24f
+                  : exponent == 31 ? (mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN)
+                    : Math.scalb(mantissa + 1024, exponent - 25);
+    return (bits & 0x8000) == 0 ? value : -value;
+  }
+
+  /**
+   * Read a text string. A string held in the buffer is decoded on demand.
+   */
+  private void readText(int info) {
+    if (info == 31) {
+      string = new String(readBytes(info, 3), StandardCharsets.UTF_8);
+      return;
+    }
+    long length = readArgument(info);
+    if (length < 0 || length > limit - position) {
+      string = new String(readDefinite(length, 0), StandardCharsets.UTF_8);
+      return;
+    }
+    textStart = position;
+    textLength = (int) length;
+    position += length;
+  }
+
+  /**
+   * Get the current text string, decoding it if necessary.
+   */
+  private String text() {
+    if (string == null && textStart >= 0) {
+      string = new String(buffer, textStart, textLength, StandardCharsets.UTF_8);
+    }
+    return string;
+  }
+
+  /**
+   * Read the content of a byte or text string, joining the chunks of an
+   * indefinite length string. Memory is allocated as bytes arrive, not from
+   * the declared length.
+   */
+  private byte[] readBytes(int info, int type) {
+    if (info != 31) {
+      return readDefinite(readArgument(info), 0);
+    }
+    int length = 0;
+    int initial;
+    while ((initial = readByte()) != 0xff) {
+      if (initial >>> 5 != type || (initial & 0x1f) == 31) {
+        throw error("Invalid chunk in an indefinite length string");
+      }
+      scratch = readDefinite(readArgument(initial & 0x1f), length);
+      length = scratch.length;
+    }
+    byte[] joined = scratch == null ? new byte[0] : Arrays.copyOf(scratch, length);
+    scratch = null;
+    return joined;
+  }
+
+  /**
+   * Read a definite length string content, after any previous chunks.
+   *
+   * @return the previous chunks and the content
+   */
+  private byte[] readDefinite(long length, int previous) {
+    if (length < 0 || length > Integer.MAX_VALUE - 8 - previous) {
+      throw error("String too long");
+    }
+    int total = previous + (int) length;
+    byte[] bytes = previous == 0 ? new byte[(int) Math.min(length, buffer.length)] : scratch;
+    int filled = previous;
+    while (filled < total) {
+      if (position == limit && !available(1)) {
+        throw error("Unexpected end of CBOR input");
+      }
+      if (bytes.length == filled) {
+        bytes = Arrays.copyOf(bytes, (int) Math.min(total, 2L * bytes.length + 16));
+      }
+      int n = Math.min(Math.min(total, bytes.length) - filled, limit - position);
+      System.arraycopy(buffer, position, bytes, filled, n);
+      position += n;
+      filled += n;
+    }
+    return bytes.length == total ? bytes : Arrays.copyOf(bytes, total);
+  }
+
+  /**
+   * Read the argument of an initial byte: its additional information or the
+   * unsigned integer that follows. An unsigned 64 bit value over
+   * Long.MAX_VALUE is returned as a negative long.
+   */
+  private long readArgument(int info) {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readUnsigned(1);
+      case 25:
+        return readUnsigned(2);
+      case 26:
+        return readUnsigned(4);
+      case 27:
+        return readUnsigned(8);
+      default:
+        throw error("Invalid additional information " + info);
+    }
+  }
+
+  private long readUnsigned(int bytes) {
+    if (!available(bytes)) {
+      throw error("Unexpected end of CBOR input");
+    }
+    long value = 0;
+    for (int i = 0; i < bytes; i++) {
+      value = value << 8 | (buffer[position++] & 0xff);
+    }
+    return value;
+  }
+
+  private int readByte() {
+    if (position == limit && !available(1)) {
+      throw error("Unexpected end of CBOR input");
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  /**
+   * Ensure that the buffer holds a number of unread bytes.
+   *
+   * @return false if the input ends first
+   */
+  private boolean available(int bytes) {
+    if (limit - position >= bytes) {
+      return true;
+    }
+    /**
+     * Decode the current text before the buffer is compacted.
+     */
+    text();
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      offset += position;
+      limit -= position;
+      position = 0;
+    }
+    try {
+      while (limit < bytes) {
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+          return false;
+        }
+        limit += n;
+      }
+    } catch (IOException ex) {
+      throw new JsonException("Failed to read CBOR input: " + ex.getMessage(), ex);
+    }
+    return true;
+  }
+
+  private void push(boolean isMap, long length) {
+    if (depth == MAX_DEPTH) {
+      throw error("CBOR nesting too deep");
+    }
+    if (depth == map.length) {
+      map = Arrays.copyOf(map, depth * 2);
+      remaining = Arrays.copyOf(remaining, depth * 2);
+      key = Arrays.copyOf(key, depth * 2);
+    }
+    /**
+     * A negative length is an unsigned 64 bit value; no input is that long.
+     */
+    if (length < -1) {
+      throw error("Container too long");
+    }
+    map[depth] = isMap;
+    remaining[depth] = length;
+    key[depth] = isMap;
+    depth++;
+  }
+
+  private Event end() {
+    depth--;
+    event = map[depth] ? Event.END_OBJECT : Event.END_ARRAY;
+    complete();
+    return event;
+  }
+
+  /**
+   * Count a completed item in its container.
+   */
+  private void complete() {
+    if (depth == 0) {
+      return;
+    }
+    int i = depth - 1;
+    if (map[i]) {
+      key[i] = true;
+    }
+    if (remaining[i] > 0) {
+      remaining[i]--;
+    }
+  }
+
+  private JsonParsingException error(String message) {
+    return new JsonParsingException(message + " at offset " + eventOffset, getLocation());
+  }
+
+  @Override
+  public String getString() {
+    if (event == Event.KEY_NAME || event == Event.VALUE_STRING) {
+      return text();
+    }
+    if (event == Event.VALUE_NUMBER) {
+      switch (numberKind) {
+        case NUMBER_LONG:
+          return Long.toString(longValue);
+        case NUMBER_FLOAT:
+          return Float.toString((float) doubleValue);
+        case NUMBER_DOUBLE:
+          return Double.toString(doubleValue);
+        case NUMBER_DECIMAL:
+          return BigDecimal.valueOf(longValue, scale).toString();
+        default:
+          return bigValue.toString();
+      }
+    }
+    throw new IllegalStateException("Not a string or number: " + event);
+  }
+
+  @Override
+  public boolean isIntegralNumber() {
+    checkNumber();
+    return numberKind == NUMBER_LONG || numberKind == NUMBER_DECIMAL && scale == 0 || numberKind == NUMBER_BIG && bigValue.scale() == 0;
+  }
+
+  @Override
+  public int getInt() {
+    checkNumber();
+    return numberKind == NUMBER_LONG ? (int) longValue : (int) truncate(getBigDecimal());
+  }
+
+  @Override
+  public long getLong() {
+    checkNumber();
+    return numberKind == NUMBER_LONG ? longValue : truncate(getBigDecimal());
+  }
+
+  /**
+   * The low 64 bits of the integer part of a decimal, as
+   * {@link BigDecimal#longValue()}, without expanding a large exponent.
+   * Values below one truncate to zero, and a multiple of 10^64 has no low
+   * bits set.
+   */
+  private static long truncate(BigDecimal value) {
+    if (value.scale() <= -64 || value.precision() - value.scale() <= 0) {
+      return 0;
+    }
+    return value.longValue();
+  }
+
+  @Override
+  public BigDecimal getBigDecimal() {
+    checkNumber();
+    switch (numberKind) {
+      case NUMBER_LONG:
+        return BigDecimal.valueOf(longValue);
+      case NUMBER_FLOAT:
+        return new BigDecimal(Float.toString((float) doubleValue));
+      case NUMBER_DOUBLE:
+        return BigDecimal.valueOf(doubleValue);
+      case NUMBER_DECIMAL:
+        return BigDecimal.valueOf(longValue, scale);
+      default:
+        return bigValue;
+    }
+  }
+
+  /**
+   * Write the current number to a generator without loss, avoiding a
+   * BigDecimal where possible.
+   */
+  void copyNumber(JsonGenerator generator) {
+    checkNumber();
+    switch (numberKind) {
+      case NUMBER_LONG:
+        generator.write(longValue);
+        break;
+      case NUMBER_DOUBLE:
+        generator.write(doubleValue);
+        break;
+      default:
+        generator.write(getBigDecimal());
+    }
+  }
+
+  private void checkNumber() {
+    if (event != Event.VALUE_NUMBER) {
+      throw new IllegalStateException("Not a number: " + event);
+    }
+  }
+
+  /**
+   * {@inheritDoc} The location has no line or column; the stream offset is
+   * the offset of the current item.
+   */
+  @Override
+  public JsonLocation getLocation() {
+    long streamOffset = eventOffset;
+    return new JsonLocation() {
+      @Override
+      public long getLineNumber() {
+        return -1;
+      }
+
+      @Override
+      public long getColumnNumber() {
+        return -1;
+      }
+
+      @Override
+      public long getStreamOffset() {
+        return streamOffset;
+      }
+    };
+  }
+
+  @Override
+  public JsonValue getValue() {
+    if (event == null) {
+      throw new IllegalStateException("No current event");
+    }
+    switch (event) {
+      case START_OBJECT:
+        return readObject();
+      case START_ARRAY:
+        return readArray();
+      case KEY_NAME:
+      case VALUE_STRING:
+        return Cbor.JSON.createValue(text());
+      case VALUE_NUMBER:
+        return isIntegralNumber() && numberKind == NUMBER_LONG ? Cbor.JSON.createValue(longValue) : Cbor.JSON.createValue(getBigDecimal());
+      case VALUE_TRUE:
+        return JsonValue.TRUE;
+      case VALUE_FALSE:
+        return JsonValue.FALSE;
+      case VALUE_NULL:
+        return JsonValue.NULL;
+      default:
+        throw new IllegalStateException("Not a value: " + event);
+    }
+  }
+
+  @Override
+  public JsonObject getObject() {
+    if (event != Event.START_OBJECT) {
+      throw new IllegalStateException("Not an object: " + event);
+    }
+    return readObject();
+  }
+
+  @Override
+  public JsonArray getArray() {
+    if (event != Event.START_ARRAY) {
+      throw new IllegalStateException("Not an array: " + event);
+    }
+    return readArray();
+  }
+
+  private JsonObject readObject() {
+    JsonObjectBuilder builder = Cbor.BUILDERS.createObjectBuilder();
+    while (next() == Event.KEY_NAME) {
+      String name = text();
+      next();
+      builder.add(name, getValue());
+    }
+    return builder.build();
+  }
+
+  private JsonArray readArray() {
+    JsonArrayBuilder builder = Cbor.BUILDERS.createArrayBuilder();
+    while (next() != Event.END_ARRAY) {
+      builder.add(getValue());
+    }
+    return builder.build();
+  }
+
+  @Override
+  public void skipObject() {
+    skip(true);
+  }
+
+  @Override
+  public void skipArray() {
+    skip(false);
+  }
+
+  /**
+   * Skip to the end of the current container if it is of the given type.
+   */
+  private void skip(boolean isMap) {
+    if (depth == 0 || map[depth - 1] != isMap) {
+      return;
+    }
+    int target = depth - 1;
+    while (depth > target) {
+      next();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      in.close();
+    } catch (IOException ex) {
+      throw new JsonException("Failed to close CBOR input: " + ex.getMessage(), ex);
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.correlation;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.dpac.DpacStatusContent;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * A message in a conversation. Holds the message addressing and response
+ * summary; the message content is not retained.
+ *
+ * @author Key Bridge
+ */
+public class CorrelatedMessage {
+
+  private final String messageId;
+  /**
+   * The endpoint receiving the message. Null if the MessageID was referenced
+   * but the message was not received here.
+   */
+  private final Endpoint endpoint;
+  private final String remoteAddress;
+  private final String relatesTo;
+  private final String responseMessageId;
+  private final long receivedMillis;
+  private final long respondedMillis;
+  private final int status;
+  /**
+   * The DPA fields of a streamed DpacStatus message, without its content; null
+   * otherwise.
+   */
+  private final DpacStatusContent dpacStatus;
+  /**
+   * The linked MessageIDs. Set when the conversation is read.
+   */
+  private final String[] links;
+
+  CorrelatedMessage(ReceivedMessage message) {
+    this(message.getMessageId(), message.getEndpoint(), message.getRemoteAddress(), message.getRelatesTo(),
+         message.getResponseMessageId(), message.getReceivedMillis(), message.getRespondedMillis(), message.getStatus(), summarize(message.getDpacStatus()), null);
+  }
+
+  private CorrelatedMessage(String messageId, Endpoint endpoint, String remoteAddress, String relatesTo, String responseMessageId,
+                            long receivedMillis, long respondedMillis, int status, DpacStatusContent dpacStatus, String[] links) {
+    this.messageId = messageId;
+    this.endpoint = endpoint;
+    this.remoteAddress = remoteAddress;
+    this.relatesTo = relatesTo;
+    this.responseMessageId = responseMessageId;
+    this.receivedMillis = receivedMillis;
+    this.respondedMillis = respondedMillis;
+    this.status = status;
+    this.dpacStatus = dpacStatus;
+    this.links = links;
+  }
+
+  private static DpacStatusContent summarize(DpacStatusContent dpacStatus) {
+    return dpacStatus == null ? null : dpacStatus.summary();
+  }
+
+  /**
+   * A MessageID referenced by a received message but not received here.
+   */
+  static CorrelatedMessage referenced(String messageId, String[] links) {
+    return new CorrelatedMessage(messageId, null, null, null, null, 0, 0, 0, null, links);
+  }
+
+  /**
+   * Copy this message with its current links.
+   */
+  CorrelatedMessage withLinks(String[] links) {
+    return new CorrelatedMessage(messageId, endpoint, remoteAddress, relatesTo, responseMessageId, receivedMillis, respondedMillis, status, dpacStatus, links);
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public Endpoint getEndpoint() {
+    return endpoint;
+  }
+
+  public long getReceivedMillis() {
+    return receivedMillis;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Determine if the message was received here.
+   *
+   * @return false if the MessageID was only referenced
+   */
+  public boolean isReceived() {
+    return endpoint != null;
+  }
+
+  /**
+   * Write this message as a JSON object. Null fields are omitted.
+   *
+   * @return the JSON object
+   */
+  public JsonObject toJson() {
+    JsonObjectBuilder builder = Json.createObjectBuilder().add("messageId", messageId);
+    if (endpoint != null) {
+      builder.add("endpoint", endpoint.getPath())
+        .add("received", receivedMillis)
+        .add("responded", respondedMillis)
+        .add("status", status);
+      if (remoteAddress != null) {
+        builder.add("remoteAddr", remoteAddress);
+      }
+      if (relatesTo != null) {
+        builder.add("relatesTo", relatesTo);
+      }
+      if (responseMessageId != null) {
+        builder.add("responseMessageId", responseMessageId);
+      }
+      if (dpacStatus != null) {
+        builder.add("dpacStatus", dpacStatus.toJson());
+      }
+    }
+    if (links != null) {
+      JsonArrayBuilder linked = Json.createArrayBuilder();
+      for (String link : links) {
+        linked.add(link);
+      }
+      builder.add("links", linked);
+    }
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,195 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.correlation;
+
+import ch.keybridge.dev.service.GenerationalCache;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An in-memory index linking messages into conversations.
+ * <p>
+ * Each received message is linked to the message identified by its RelatesTo
+ * header and to the MessageID of the response sent to it. The index maps every
+ * MessageID to a node holding the received message summary (if the message
+ * was received here) and the MessageIDs linked to it, so the whole
+ * conversation of a message is found by following links from any one of its
+ * MessageIDs.
+ * <p>
+ * Nodes are held in a {@link GenerationalCache} and are evicted when older
+ * than the configured window. The index is configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.correlation.windowSeconds</code> - the time a
+ * message is indexed. Default 3600; 0 disables the index.</li>
+ * <li><code>ch.keybridge.dev.correlation.capacity</code> - the maximum number
+ * of MessageIDs indexed. Default 100000.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class CorrelationIndex {
+
+  public static final String WINDOW_SECONDS = ResponderConfiguration.PREFIX + "correlation.windowSeconds";
+  public static final String CAPACITY = ResponderConfiguration.PREFIX + "correlation.capacity";
+
+  private static final int GENERATIONS = 4;
+  /**
+   * The maximum number of links held per MessageID.
+   */
+  private static final int MAX_LINKS = 32;
+  /**
+   * The maximum number of messages returned in a conversation.
+   */
+  private static final int MAX_CONVERSATION = 256;
+
+  private static final CorrelationIndex INSTANCE = new CorrelationIndex(ResponderConfiguration.getLong(WINDOW_SECONDS, 3600),
+                                                                        ResponderConfiguration.getInt(CAPACITY, 100_000));
+
+  /**
+   * MessageID to node. Null if disabled.
+   */
+  private final GenerationalCache<String, Node> nodes;
+
+  private CorrelationIndex(long windowSeconds, int capacity) {
+    this.nodes = windowSeconds <= 0
+                 ? null
+                 : new GenerationalCache<>(TimeUnit.SECONDS.toMillis(windowSeconds), GENERATIONS, capacity);
+  }
+
+  /**
+   * Get the shared index instance.
+   *
+   * @return the correlation index
+   */
+  public static CorrelationIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Determine if the index is enabled.
+   *
+   * @return true if messages are indexed
+   */
+  public boolean isEnabled() {
+    return nodes != null;
+  }
+
+  /**
+   * Index a completed message.
+   *
+   * @param message the completed message
+   */
+  public void add(ReceivedMessage message) {
+    if (nodes == null || message.getMessageId() == null) {
+      return;
+    }
+    Node node = nodes.computeIfAbsent(message.getMessageId(), id -> new Node());
+    node.message = new CorrelatedMessage(message);
+    link(node, message.getMessageId(), message.getRelatesTo());
+    link(node, message.getMessageId(), message.getResponseMessageId());
+  }
+
+  /**
+   * Link a message to a related MessageID, in both directions.
+   */
+  private void link(Node node, String messageId, String relatedId) {
+    if (relatedId == null || relatedId.equals(messageId)) {
+      return;
+    }
+    node.link(relatedId);
+    nodes.computeIfAbsent(relatedId, id -> new Node()).link(messageId);
+  }
+
+  /**
+   * Find the conversation of a message: all messages transitively linked to
+   * the indicated MessageID.
+   *
+   * @param messageId a MessageID in the conversation
+   * @return the conversation, ordered by received time. Linked MessageIDs not
+   *         received here (e.g. response MessageIDs) are included without
+   *         message details. Empty if the MessageID is not indexed.
+   */
+  public List<CorrelatedMessage> findConversation(String messageId) {
+    if (nodes == null || nodes.get(messageId) == null) {
+      return Collections.emptyList();
+    }
+    List<CorrelatedMessage> conversation = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    Deque<String> pending = new ArrayDeque<>();
+    pending.add(messageId);
+    visited.add(messageId);
+    while (!pending.isEmpty() && conversation.size() < MAX_CONVERSATION) {
+      String id = pending.poll();
+      Node node = nodes.get(id);
+      if (node == null) {
+        continue; // evicted
+      }
+      String[] links = node.links.get();
+      CorrelatedMessage message = node.message;
+      conversation.add(message != null ? message.withLinks(links) : CorrelatedMessage.referenced(id, links));
+      for (String link : links) {
+        if (visited.add(link)) {
+          pending.add(link);
+        }
+      }
+    }
+    conversation.sort(Comparator.comparingLong(CorrelatedMessage::getReceivedMillis));
+    return conversation;
+  }
+
+  /**
+   * An index node: the message received with a MessageID, if any, and the
+   * linked MessageIDs.
+   */
+  private static final class Node {
+
+    private static final String[] NONE = new String[0];
+
+    private volatile CorrelatedMessage message;
+    /**
+     * Linked MessageIDs. Copied on write; most messages have one or two.
+     */
+    private final AtomicReference<String[]> links = new AtomicReference<>(NONE);
+
+    private void link(String messageId) {
+      for (;;) {
+        String[] current = links.get();
+        if (current.length >= MAX_LINKS || Arrays.asList(current).contains(messageId)) {
+          return;
+        }
+        String[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = messageId;
+        if (links.compareAndSet(current, updated)) {
+          return;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.dedup;
+
+import ch.keybridge.dev.service.GenerationalCache;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects messages re-delivered with a MessageID already received.
+ * <p>
+ * The ESC retries DpacStatus delivery when its 2 second timeout expires. A
+ * retried message is answered with the status of the original response,
+ * without the emulated delay and without being processed or logged again. If
+ * the original response is still pending the retry is answered as soon as it
+ * is sent.
+ * <p>
+ * MessageIDs are held in a {@link GenerationalCache} for a configurable time
+ * window. The deduplicator is configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.dedup.windowSeconds</code> - the time a
+ * MessageID is remembered. Default 300; 0 disables deduplication.</li>
+ * <li><code>ch.keybridge.dev.dedup.capacity</code> - the maximum number of
+ * MessageIDs remembered. Default 100000.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class MessageDeduplicator {
+
+  public static final String WINDOW_SECONDS = ResponderConfiguration.PREFIX + "dedup.windowSeconds";
+  public static final String CAPACITY = ResponderConfiguration.PREFIX + "dedup.capacity";
+
+  /**
+   * The number of cache generations. Entries are evicted in steps of 1/4 of
+   * the window.
+   */
+  private static final int GENERATIONS = 4;
+
+  private static final MessageDeduplicator INSTANCE = new MessageDeduplicator(ResponderConfiguration.getLong(WINDOW_SECONDS, 300),
+                                                                              ResponderConfiguration.getInt(CAPACITY, 100_000));
+
+  private final long windowSeconds;
+  /**
+   * MessageID to the response status of the original message. Null if
+   * disabled.
+   */
+  private final GenerationalCache<String, CompletableFuture<Integer>> cache;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private MessageDeduplicator(long windowSeconds, int capacity) {
+    this.windowSeconds = Math.max(0, windowSeconds);
+    this.cache = this.windowSeconds == 0
+                 ? null
+                 : new GenerationalCache<>(TimeUnit.SECONDS.toMillis(this.windowSeconds), GENERATIONS, capacity);
+  }
+
+  /**
+   * Get the shared deduplicator instance.
+   *
+   * @return the deduplicator
+   */
+  public static MessageDeduplicator getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Register a received message.
+   *
+   * @param message the received message
+   * @return the response status of the original message if this message is a
+   *         duplicate; null if the message is new, has no MessageID or
+   *         deduplication is disabled
+   */
+  public CompletableFuture<Integer> register(ReceivedMessage message) {
+    if (cache == null || message.getMessageId() == null) {
+      return null;
+    }
+    CompletableFuture<Integer> original = cache.putIfAbsent(message.getMessageId(), message.getCompletion());
+    if (original == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return original;
+  }
+
+  /**
+   * Determine if deduplication is enabled.
+   *
+   * @return true if enabled
+   */
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  public long getWindowSeconds() {
+    return windowSeconds;
+  }
+
+  /**
+   * Get the number of duplicate messages received.
+   *
+   * @return the duplicate count
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of new messages received.
+   *
+   * @return the new message count
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the approximate number of MessageIDs remembered.
+   *
+   * @return the cache size
+   */
+  public int getSize() {
+    return cache == null ? 0 : cache.size();
+  }
+
+}
@@ -0,0 +1,149 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.dpac;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * An input stream that digests, counts and captures the leading bytes of
+ * everything read through it, in one pass and without buffering the whole
+ * stream.
+ *
+ * @author Key Bridge
+ */
+final class CapturingInputStream extends FilterInputStream {
+
+  private final MessageDigest digest;
+  private final byte[] capture;
+  private final long maxBytes;
+  private int captured;
+  private long count;
+
+  /**
+   * Construct a capturing stream.
+   *
+   * @param in       the stream to read
+   * @param digest   the digest updated with every byte read
+   * @param capture  the buffer receiving the leading bytes
+   * @param maxBytes the maximum number of bytes that may be read; 0 for no
+   *                 limit
+   */
+  CapturingInputStream(InputStream in, MessageDigest digest, byte[] capture, long maxBytes) {
+    super(in);
+    this.digest = digest;
+    this.capture = capture;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b >= 0) {
+      accept(new byte[]{(byte) b}, 0, 1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = in.read(b, off, len);
+    if (n > 0) {
+      accept(b, off, n);
+    }
+    return n;
+  }
+
+  private void accept(byte[] b, int off, int n) throws IOException {
+    count += n;
+    if (maxBytes > 0 && count > maxBytes) {
+      throw new ContentTooLargeException(maxBytes);
+    }
+    digest.update(b, off, n);
+    if (captured < capture.length) {
+      int copy = Math.min(n, capture.length - captured);
+      System.arraycopy(b, off, capture, captured, copy);
+      captured += copy;
+    }
+  }
+
+  /**
+   * Read and account for the rest of the stream.
+   *
+   * @param whitespace true if JSON white space is allowed
+   * @return true if nothing remained but allowed white space
+   * @throws IOException if the stream cannot be read
+   */
+  boolean drain(boolean whitespace) throws IOException {
+    boolean empty = true;
+    byte[] buffer = new byte[1024];
+    int n;
+    while ((n = read(buffer, 0, buffer.length)) >= 0) {
+      for (int i = 0; i < n && empty; i++) {
+        empty = whitespace && (buffer[i] == ' ' || buffer[i] == '\t' || buffer[i] == '\n' || buffer[i] == '\r');
+      }
+    }
+    return empty;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    /**
+     * Skipped bytes must still be digested.
+     */
+    byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 1024)];
+    int read = buffer.length == 0 ? 0 : read(buffer, 0, buffer.length);
+    return Math.max(read, 0);
+  }
+
+  int getCaptured() {
+    return captured;
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  /**
+   * Thrown when a stream exceeds the maximum length.
+   */
+  static final class ContentTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    ContentTooLargeException(long maxBytes) {
+      super("Message content exceeds " + maxBytes + " bytes");
+    }
+  }
+
+}
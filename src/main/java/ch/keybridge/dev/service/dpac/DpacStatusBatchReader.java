@@ -0,0 +1,267 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.dpac;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a batch of DpacStatus messages into one stream per message.
+ * <p>
+ * A batch is either a JSON array of messages or a stream of messages
+ * separated by white space, such as newline-delimited JSON (NDJSON). The
+ * batch bytes are scanned once, tracking only string and nesting state, so
+ * message boundaries are found without parsing and each message stream may be
+ * handed to {@link DpacStatusParser} as it arrives. Messages are read in
+ * order; calling {@link #next()} skips whatever remains of the previous
+ * message.
+ *
+ * @author Key Bridge
+ */
+public final class DpacStatusBatchReader {
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[8192];
+  private int position;
+  private int limit;
+  private Boolean array;
+  private boolean started;
+  private boolean finished;
+  private MessageStream current;
+  private int count;
+
+  /**
+   * Construct a batch reader.
+   *
+   * @param in the batch stream; not closed
+   */
+  public DpacStatusBatchReader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Get the next batch byte without consuming it.
+   *
+   * @return the next byte, -1 at the end of the batch
+   */
+  private int peek() throws IOException {
+    if (position == limit) {
+      int n;
+      do {
+        n = in.read(buffer, 0, buffer.length);
+      } while (n == 0);
+      if (n < 0) {
+        return -1;
+      }
+      position = 0;
+      limit = n;
+    }
+    return buffer[position] & 0xff;
+  }
+
+  private int read() throws IOException {
+    int b = peek();
+    if (b >= 0) {
+      position++;
+    }
+    return b;
+  }
+
+  /**
+   * Get the stream of the next message.
+   *
+   * @return the next message stream, null at the end of the batch
+   * @throws IllegalArgumentException if the batch framing is malformed
+   * @throws IOException              if the batch cannot be read
+   */
+  public InputStream next() throws IOException {
+    if (current != null) {
+      current.skipRemaining();
+      current = null;
+    }
+    if (finished) {
+      return null;
+    }
+    int b = skipWhitespace();
+    if (array == null) {
+      array = b == '[';
+      if (array) {
+        b = skipWhitespace();
+      }
+    }
+    if (array) {
+      if (b == ']' && !started) {
+        return end();
+      }
+      if (started) {
+        if (b == ']') {
+          return end();
+        }
+        if (b != ',') {
+          throw new IllegalArgumentException("Expected ',' or ']' after batch message " + count);
+        }
+        b = skipWhitespace();
+      }
+      if (b < 0) {
+        throw new IllegalArgumentException("Unterminated batch array after message " + count);
+      }
+    } else if (b < 0) {
+      finished = true;
+      return null;
+    }
+    started = true;
+    count++;
+    current = new MessageStream(b);
+    return current;
+  }
+
+  /**
+   * Finish an array batch, which may only be followed by white space.
+   */
+  private InputStream end() throws IOException {
+    finished = true;
+    if (skipWhitespace() >= 0) {
+      throw new IllegalArgumentException("Unexpected content after the batch array");
+    }
+    return null;
+  }
+
+  private int skipWhitespace() throws IOException {
+    int b;
+    do {
+      b = read();
+    } while (b == ' ' || b == '\t' || b == '\n' || b == '\r');
+    return b;
+  }
+
+  /**
+   * Get the number of messages read.
+   *
+   * @return the message count
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * The bytes of one message. Ends after the bracket closing a structured
+   * message, or before the delimiter following a scalar.
+   */
+  private final class MessageStream extends InputStream {
+
+    /**
+     * The first message byte, already read from the batch; -1 once returned.
+     */
+    private int first;
+    private int depth;
+    private boolean inString;
+    private boolean escape;
+    private boolean done;
+
+    private MessageStream(int first) {
+      this.first = first;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (done) {
+        return -1;
+      }
+      int b;
+      if (first >= 0) {
+        b = first;
+        first = -1;
+      } else {
+        b = peek();
+        if (b < 0 || depth == 0 && !inString && (b == ',' || b == ']' || b == ' ' || b == '\t' || b == '\n' || b == '\r')) {
+          /**
+           * A scalar ends at the next delimiter, which is left in the batch.
+           */
+          done = true;
+          return -1;
+        }
+        position++;
+      }
+      return scan(b);
+    }
+
+    /**
+     * Update the string and nesting state with a message byte.
+     */
+    private int scan(int b) {
+      if (inString) {
+        if (escape) {
+          escape = false;
+        } else if (b == '\\') {
+          escape = true;
+        } else if (b == '"') {
+          inString = false;
+        }
+      } else if (b == '"') {
+        inString = true;
+      } else if (b == '{' || b == '[') {
+        depth++;
+      } else if ((b == '}' || b == ']') && --depth <= 0) {
+        done = true;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int n = 0;
+      while (n < len && !done) {
+        if (first >= 0 || depth == 0 && !inString || position == limit) {
+          int b = read();
+          if (b < 0) {
+            break;
+          }
+          bytes[off + n++] = (byte) b;
+          continue;
+        }
+        /**
+         * Inside a structure: scan the buffered bytes directly.
+         */
+        while (n < len && position < limit && !done && (depth > 0 || inString)) {
+          int b = buffer[position++] & 0xff;
+          bytes[off + n++] = (byte) scan(b);
+        }
+      }
+      return n == 0 ? -1 : n;
+    }
+
+    private void skipRemaining() throws IOException {
+      byte[] skipped = new byte[1024];
+      while (read(skipped, 0, skipped.length) >= 0) {
+        // discard
+      }
+    }
+  }
+
+}
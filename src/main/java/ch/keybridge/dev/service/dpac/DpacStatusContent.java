@@ -0,0 +1,215 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.dpac;
+
+import ch.keybridge.dev.service.cbor.Cbor;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+/**
+ * The content of a DpacStatus message, as read by {@link DpacStatusParser}:
+ * the leading bytes of the body, its length and digest, and the DPA fields
+ * found while parsing.
+ *
+ * @author Key Bridge
+ */
+public final class DpacStatusContent {
+
+  private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+  /**
+   * The captured content; for a CBOR body set when first read.
+   */
+  private String content;
+  /**
+   * The captured bytes of a CBOR body, null for JSON.
+   */
+  private final byte[] cbor;
+  private final long length;
+  private final boolean truncated;
+  private final String digest;
+  private final String messageId;
+  private final String relatesTo;
+  private final List<String> dpaIds;
+  private final String activation;
+  private final Map<String, String> times;
+
+  DpacStatusContent(String content, byte[] cbor, long length, boolean truncated, String digest,
+                    String messageId, String relatesTo, List<String> dpaIds, String activation, Map<String, String> times) {
+    this.content = content;
+    this.cbor = cbor;
+    this.length = length;
+    this.truncated = truncated;
+    this.digest = digest;
+    this.messageId = messageId;
+    this.relatesTo = relatesTo;
+    this.dpaIds = Collections.unmodifiableList(dpaIds);
+    this.activation = activation;
+    this.times = Collections.unmodifiableMap(times);
+  }
+
+  /**
+   * Copy the parsed fields without the captured content, for holding after
+   * the message is stored.
+   *
+   * @return the length, digest and DPA fields of this content
+   */
+  public DpacStatusContent summary() {
+    return content == null && cbor == null
+           ? this
+           : new DpacStatusContent(null, null, length, truncated, digest, messageId, relatesTo, dpaIds, activation, times);
+  }
+
+  /**
+   * Get the message content, truncated to the capture limit. A CBOR body is
+   * returned as its JSON transcription, ending where the capture ends.
+   *
+   * @return the captured content
+   */
+  public String getContent() {
+    if (content == null && cbor != null) {
+      content = transcribe(cbor);
+    }
+    return content;
+  }
+
+  /**
+   * Transcribe captured CBOR bytes to JSON text. A truncated capture yields
+   * the JSON of the complete items read.
+   */
+  private static String transcribe(byte[] cbor) {
+    StringWriter json = new StringWriter();
+    JsonGenerator generator = GENERATORS.createGenerator(json);
+    try {
+      Cbor.transcode(Cbor.createParser(new ByteArrayInputStream(cbor)), generator);
+    } catch (JsonException ex) {
+      /**
+       * The capture ends within an item.
+       */
+    }
+    generator.flush();
+    return json.toString();
+  }
+
+  /**
+   * Get the full content length.
+   *
+   * @return the content length in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Determine if the captured content is shorter than the message.
+   *
+   * @return true if truncated
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * Get the SHA-256 digest of the raw content bytes.
+   *
+   * @return the lower case hex digest
+   */
+  public String getDigest() {
+    return digest;
+  }
+
+  /**
+   * Get the top level <code>messageId</code> field, used to address a message
+   * in a batch.
+   *
+   * @return the MessageID, null if none
+   */
+  public String getMessageId() {
+    return messageId;
+  }
+
+  /**
+   * Get the top level <code>relatesTo</code> field of a batched message.
+   *
+   * @return the RelatesTo MessageID, null if none
+   */
+  public String getRelatesTo() {
+    return relatesTo;
+  }
+
+  public List<String> getDpaIds() {
+    return dpaIds;
+  }
+
+  /**
+   * Get the first DPA activation state found.
+   *
+   * @return the activation state, null if none
+   */
+  public String getActivation() {
+    return activation;
+  }
+
+  /**
+   * Get the time fields found, by field name.
+   *
+   * @return the time values
+   */
+  public Map<String, String> getTimes() {
+    return times;
+  }
+
+  /**
+   * Write the parsed fields.
+   *
+   * @return the fields JSON
+   */
+  public JsonObjectBuilder toJson() {
+    JsonArrayBuilder ids = Json.createArrayBuilder();
+    dpaIds.forEach(ids::add);
+    JsonObjectBuilder timeValues = Json.createObjectBuilder();
+    times.forEach(timeValues::add);
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("length", length)
+      .add("sha256", digest)
+      .add("dpaIds", ids)
+      .add("times", timeValues);
+    if (activation != null) {
+      builder.add("activation", activation);
+    }
+    return builder;
+  }
+
+}
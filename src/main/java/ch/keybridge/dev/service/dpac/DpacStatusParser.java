@@ -0,0 +1,277 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.dpac;
+
+import ch.keybridge.dev.service.ResponderConfiguration;
+import ch.keybridge.dev.service.cbor.Cbor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * A streaming reader of DpacStatus message bodies.
+ * <p>
+ * The body is parsed with a JSON-P {@link JsonParser} directly from the
+ * request stream. In the same pass the raw bytes are digested (SHA-256),
+ * counted and captured up to a limit, and the DPA fields of interest are
+ * extracted: DPA IDs (<code>dpaId</code>, <code>dpaIds</code>), the first
+ * activation state (any field whose name contains "activ", e.g.
+ * <code>activationStatus</code>) and time fields (names ending in "Time" and
+ * <code>timestamp</code>), and the top level <code>messageId</code> and
+ * <code>relatesTo</code> of a batched message. Other values are skipped without being
+ * materialized, so the heap used per message is bounded by the capture limit
+ * and the longest single JSON token, not by the body size. The body must be a
+ * single JSON object; a malformed body is rejected at the first invalid token.
+ * <p>
+ * A body may instead be encoded in CBOR, read with the same field extraction
+ * through a {@link Cbor} parser. The leading CBOR bytes are captured and
+ * transcribed to JSON only when the content is read, so that logs, storage and
+ * replay remain JSON; the length and digest are of the raw CBOR bytes.
+ * <p>
+ * Limits are configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.dpac.captureBytes</code> - the number of leading
+ * content bytes kept for logging and storage. Default 4096.</li>
+ * <li><code>ch.keybridge.dev.dpac.maxBytes</code> - the maximum body size; 0
+ * for no limit. Default 16777216.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class DpacStatusParser {
+
+  public static final String CAPTURE_BYTES = ResponderConfiguration.PREFIX + "dpac.captureBytes";
+  public static final String MAX_BYTES = ResponderConfiguration.PREFIX + "dpac.maxBytes";
+
+  private static final int CAPTURE = Math.max(0, ResponderConfiguration.getInt(CAPTURE_BYTES, 4096));
+  private static final long MAX = Math.max(0, ResponderConfiguration.getLong(MAX_BYTES, 16L << 20));
+  /**
+   * The maximum number of DPA IDs and time fields kept per message.
+   */
+  private static final int MAX_VALUES = 32;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  /**
+   * A shared parser factory. <code>Json.createParser</code> looks up the
+   * JSON-P provider on every call.
+   */
+  private static final JsonParserFactory PARSERS = Json.createParserFactory(null);
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  });
+
+  private DpacStatusParser() {
+  }
+
+  /**
+   * Parse a JSON DpacStatus body.
+   *
+   * @param in the body stream; read to the end but not closed
+   * @return the message content
+   * @throws IllegalArgumentException if the body is not a JSON object
+   * @throws IOException              if the body cannot be read or is too
+   *                                  large
+   */
+  public static DpacStatusContent parse(InputStream in) throws IOException {
+    return parse(in, false);
+  }
+
+  /**
+   * Parse a DpacStatus body.
+   *
+   * @param in   the body stream; read to the end but not closed
+   * @param cbor true if the body is encoded in CBOR, false if JSON
+   * @return the message content
+   * @throws IllegalArgumentException if the body is not a JSON object or CBOR
+   *                                  map
+   * @throws IOException              if the body cannot be read or is too
+   *                                  large
+   */
+  public static DpacStatusContent parse(InputStream in, boolean cbor) throws IOException {
+    MessageDigest digest = SHA256.get();
+    digest.reset();
+    byte[] capture = new byte[CAPTURE];
+    CapturingInputStream stream = new CapturingInputStream(in, digest, capture, MAX);
+    Fields fields = new Fields();
+    try {
+      JsonParser parser = cbor ? Cbor.createParser(stream) : PARSERS.createParser(stream);
+      if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+        throw new IllegalArgumentException(cbor ? "DpacStatus message must be a CBOR map" : "DpacStatus message must be a JSON object");
+      }
+      fields.readObject(parser);
+      /**
+       * The parser is not closed: that would close the request stream. Any
+       * byte after a CBOR item is unexpected; JSON may be followed by
+       * whitespace.
+       */
+      if (parser.hasNext() || !stream.drain(!cbor)) {
+        throw new IllegalArgumentException("Unexpected content after the DpacStatus message");
+      }
+    } catch (JsonParsingException ex) {
+      JsonLocation location = ex.getLocation();
+      throw new IllegalArgumentException(location == null || location.getLineNumber() < 0
+                                         ? "Malformed DpacStatus message: " + ex.getMessage()
+                                         : "Malformed DpacStatus message at line " + location.getLineNumber()
+                                           + " column " + location.getColumnNumber() + ": " + ex.getMessage());
+    } catch (JsonException ex) {
+      /**
+       * Read errors are wrapped by the parser.
+       */
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IllegalArgumentException("Malformed DpacStatus message: " + ex.getMessage());
+    }
+    return new DpacStatusContent(cbor ? null : new String(capture, 0, stream.getCaptured(), StandardCharsets.UTF_8),
+                                 cbor ? Arrays.copyOf(capture, stream.getCaptured()) : null,
+                                 stream.getCount(), stream.getCaptured() < stream.getCount(), hex(digest.digest()),
+                                 fields.messageId, fields.relatesTo, fields.dpaIds, fields.activation, fields.times);
+  }
+
+  /**
+   * Determine if an exception reports a body over the maximum size.
+   *
+   * @param ex the exception
+   * @return true if the body is too large
+   */
+  public static boolean isTooLarge(IOException ex) {
+    return ex instanceof CapturingInputStream.ContentTooLargeException;
+  }
+
+  private static String hex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * The DPA fields found in one message.
+   */
+  private static final class Fields {
+
+    private final List<String> dpaIds = new ArrayList<>();
+    private final Map<String, String> times = new LinkedHashMap<>();
+    private String activation;
+    private String messageId;
+    private String relatesTo;
+
+    /**
+     * Read an object, from after its START_OBJECT event to its END_OBJECT.
+     * Array values are attributed to the name of the array.
+     */
+    private void readObject(JsonParser parser) {
+      ArrayDeque<String> containers = new ArrayDeque<>();
+      containers.push("");
+      String name = null;
+      while (!containers.isEmpty()) {
+        JsonParser.Event event = parser.next();
+        switch (event) {
+          case KEY_NAME:
+            name = parser.getString();
+            break;
+          case START_OBJECT:
+            containers.push("");
+            name = null;
+            break;
+          case START_ARRAY:
+            containers.push(name == null ? containers.peek() : name);
+            name = null;
+            break;
+          case END_OBJECT:
+          case END_ARRAY:
+            containers.pop();
+            name = null;
+            break;
+          default:
+            if (name != null && containers.size() == 1 && event == JsonParser.Event.VALUE_STRING) {
+              /**
+               * Message addressing fields of a batched message.
+               */
+              if (name.equalsIgnoreCase("messageId")) {
+                messageId = parser.getString();
+              } else if (name.equalsIgnoreCase("relatesTo")) {
+                relatesTo = parser.getString();
+              }
+            }
+            accept(name == null ? containers.peek() : name, event, parser);
+            name = null;
+        }
+      }
+    }
+
+    private void accept(String name, JsonParser.Event event, JsonParser parser) {
+      if (name.isEmpty()) {
+        return;
+      }
+      boolean scalar = event == JsonParser.Event.VALUE_STRING || event == JsonParser.Event.VALUE_NUMBER;
+      if (name.equalsIgnoreCase("dpaId") || name.equalsIgnoreCase("dpaIds")) {
+        if (scalar && dpaIds.size() < MAX_VALUES) {
+          dpaIds.add(parser.getString());
+        }
+      } else if (activation == null && isActivation(name)) {
+        activation = scalar ? parser.getString() : event == JsonParser.Event.VALUE_TRUE ? "true"
+                                                   : event == JsonParser.Event.VALUE_FALSE ? "false" : null;
+      } else if ((name.endsWith("Time") || name.equalsIgnoreCase("timestamp")) && scalar
+                 && times.size() < MAX_VALUES && !times.containsKey(name)) {
+        times.put(name, parser.getString());
+      }
+    }
+
+    /**
+     * Determine if a field name contains "activ", ignoring case.
+     */
+    private static boolean isActivation(String name) {
+      for (int i = 0; i + 5 <= name.length(); i++) {
+        if (name.regionMatches(true, i, "activ", 0, 5)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+}
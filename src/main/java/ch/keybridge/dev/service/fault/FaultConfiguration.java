@@ -0,0 +1,214 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.fault;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An immutable snapshot of the fault profile assigned to each endpoint, and
+ * optionally to each endpoint of a remote peer.
+ * <p>
+ * The active snapshot is published through an atomic reference and replaced
+ * as a whole, like the {@link ch.keybridge.dev.service.latency.LatencyConfiguration}.
+ * A fault decision is one snapshot read, at most one hash lookup of the peer
+ * address and one random draw.
+ * <p>
+ * Initial endpoint profiles are read from the
+ * <code>ch.keybridge.dev.fault.[endpoint]</code> system properties. By default
+ * no faults are injected.
+ *
+ * @author Key Bridge
+ */
+public final class FaultConfiguration {
+
+  private static final Logger LOG = Logger.getLogger(FaultConfiguration.class.getName());
+
+  /**
+   * The system property prefix for the initial per-endpoint profile.
+   */
+  public static final String PROPERTY_PREFIX = ResponderConfiguration.PREFIX + "fault.";
+
+  private static final Endpoint[] ENDPOINTS = Endpoint.values();
+  private static final FaultType[] TYPES = FaultType.values();
+
+  /**
+   * The active configuration snapshot.
+   */
+  private static final AtomicReference<FaultConfiguration> CURRENT = new AtomicReference<>(buildInitial());
+
+  /**
+   * The number of faults injected, by endpoint and fault type.
+   */
+  private static final LongAdder[][] INJECTED = new LongAdder[ENDPOINTS.length][TYPES.length];
+
+  static {
+    for (LongAdder[] counts : INJECTED) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+  }
+
+  /**
+   * The profile of each endpoint, by endpoint ordinal.
+   */
+  private final FaultProfile[] endpoints;
+  /**
+   * Peer address to the peer profile of each endpoint, by endpoint ordinal.
+   * Null entries use the endpoint profile. Unmodifiable.
+   */
+  private final Map<String, FaultProfile[]> peers;
+
+  private FaultConfiguration(FaultProfile[] endpoints, Map<String, FaultProfile[]> peers) {
+    this.endpoints = endpoints;
+    this.peers = peers;
+  }
+
+  /**
+   * Build the initial configuration from system properties.
+   */
+  private static FaultConfiguration buildInitial() {
+    FaultProfile[] profiles = new FaultProfile[ENDPOINTS.length];
+    for (Endpoint endpoint : ENDPOINTS) {
+      String specification = ResponderConfiguration.getString(PROPERTY_PREFIX + endpoint.getPath(), "none");
+      try {
+        profiles[endpoint.ordinal()] = FaultProfile.parse(specification);
+      } catch (IllegalArgumentException ex) {
+        LOG.log(Level.WARNING, "Ignoring invalid {0} fault profile \"{1}\": {2}", new Object[]{endpoint, specification, ex.getMessage()});
+        profiles[endpoint.ordinal()] = FaultProfile.NONE;
+      }
+    }
+    return new FaultConfiguration(profiles, Collections.emptyMap());
+  }
+
+  /**
+   * Get the active configuration snapshot.
+   *
+   * @return the active configuration
+   */
+  public static FaultConfiguration getInstance() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Replace the profile assigned to an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @param profile  the new profile
+   * @return the new active configuration
+   */
+  public static FaultConfiguration update(Endpoint endpoint, FaultProfile profile) {
+    return CURRENT.updateAndGet(current -> {
+      FaultProfile[] copy = current.endpoints.clone();
+      copy[endpoint.ordinal()] = profile;
+      return new FaultConfiguration(copy, current.peers);
+    });
+  }
+
+  /**
+   * Replace the profile assigned to an endpoint for one remote peer.
+   *
+   * @param endpoint the endpoint
+   * @param peer     the peer IP address
+   * @param profile  the new profile; null removes the peer profile
+   * @return the new active configuration
+   */
+  public static FaultConfiguration update(Endpoint endpoint, String peer, FaultProfile profile) {
+    return CURRENT.updateAndGet(current -> {
+      Map<String, FaultProfile[]> copy = new HashMap<>(current.peers);
+      FaultProfile[] profiles = copy.containsKey(peer) ? copy.get(peer).clone() : new FaultProfile[ENDPOINTS.length];
+      profiles[endpoint.ordinal()] = profile;
+      if (Arrays.stream(profiles).allMatch(Objects::isNull)) {
+        copy.remove(peer);
+      } else {
+        copy.put(peer, profiles);
+      }
+      return new FaultConfiguration(current.endpoints, Collections.unmodifiableMap(copy));
+    });
+  }
+
+  /**
+   * Decide the fault to inject into a response.
+   *
+   * @param endpoint the endpoint receiving the message
+   * @param peer     the sender IP address
+   * @return the fault, null if no fault is injected
+   */
+  public Fault decide(Endpoint endpoint, String peer) {
+    FaultProfile profile = null;
+    if (!peers.isEmpty() && peer != null) {
+      FaultProfile[] peerProfiles = peers.get(peer);
+      profile = peerProfiles == null ? null : peerProfiles[endpoint.ordinal()];
+    }
+    if (profile == null) {
+      profile = endpoints[endpoint.ordinal()];
+    }
+    Fault fault = profile.decide(ThreadLocalRandom.current());
+    if (fault != null) {
+      INJECTED[endpoint.ordinal()][fault.getType().ordinal()].increment();
+    }
+    return fault;
+  }
+
+  /**
+   * Get the profile assigned to an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the fault profile
+   */
+  public FaultProfile getProfile(Endpoint endpoint) {
+    return endpoints[endpoint.ordinal()];
+  }
+
+  /**
+   * Get the peer profiles: peer address to the profile of each endpoint, by
+   * endpoint ordinal. Null entries use the endpoint profile.
+   *
+   * @return an unmodifiable map of peer profiles
+   */
+  public Map<String, FaultProfile[]> getPeerProfiles() {
+    return peers;
+  }
+
+  /**
+   * Get the number of faults injected.
+   *
+   * @param endpoint the endpoint
+   * @param type     the fault type
+   * @return the injected fault count
+   */
+  public static long getInjectedCount(Endpoint endpoint, FaultType type) {
+    return INJECTED[endpoint.ordinal()][type.ordinal()].sum();
+  }
+
+}
@@ -0,0 +1,173 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.fault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An immutable set of fault injection rates.
+ * <p>
+ * Profiles are described by a compact specification string: a comma separated
+ * list of <code>type=rate[@parameter]</code> entries, where the rate is the
+ * probability [0, 1] of the fault and the optional parameter overrides the
+ * fault type default. For example
+ * <pre>
+ * 500=0.01,503=0.02@10,abort=0.005,spike=0.05@3000
+ * </pre> See {@link FaultType} for the fault names and parameters. The
+ * specification <code>none</code> injects no faults.
+ * <p>
+ * At most one fault is injected per request. The decision is a single random
+ * draw compared against the cumulative rates.
+ *
+ * @author Key Bridge
+ */
+public final class FaultProfile {
+
+  /**
+   * A profile injecting no faults.
+   */
+  public static final FaultProfile NONE = new FaultProfile(new Fault[0], new double[0]);
+
+  private final Fault[] faults;
+  /**
+   * The cumulative fault rates, in the order of the faults.
+   */
+  private final double[] thresholds;
+  /**
+   * The sum of all fault rates.
+   */
+  private final double total;
+
+  private FaultProfile(Fault[] faults, double[] thresholds) {
+    this.faults = faults;
+    this.thresholds = thresholds;
+    this.total = thresholds.length == 0 ? 0 : thresholds[thresholds.length - 1];
+  }
+
+  /**
+   * Parse a profile specification.
+   *
+   * @param specification the profile specification
+   * @return a new fault profile
+   * @throws IllegalArgumentException if the specification is not valid
+   */
+  public static FaultProfile parse(String specification) throws IllegalArgumentException {
+    if (specification == null || specification.trim().isEmpty()) {
+      throw new IllegalArgumentException("Fault profile specification is required with format 'type=rate[@parameter],...' or 'none'");
+    }
+    String spec = specification.trim().toLowerCase(Locale.ROOT);
+    if ("none".equals(spec)) {
+      return NONE;
+    }
+    List<Fault> faults = new ArrayList<>();
+    List<Double> rates = new ArrayList<>();
+    for (String entry : spec.split(",")) {
+      int equals = entry.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Invalid fault entry '" + entry.trim() + "'; expected 'type=rate[@parameter]'");
+      }
+      FaultType type = FaultType.fromName(entry.substring(0, equals).trim());
+      String value = entry.substring(equals + 1).trim();
+      int at = value.indexOf('@');
+      double rate;
+      long parameter;
+      try {
+        rate = Double.parseDouble(at < 0 ? value : value.substring(0, at));
+        parameter = at < 0 ? type.getDefaultParameter() : Long.parseLong(value.substring(at + 1).trim());
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Invalid fault entry '" + entry.trim() + "': " + ex.getMessage());
+      }
+      if (!(rate >= 0 && rate <= 1) || parameter < 0) {
+        throw new IllegalArgumentException("Invalid fault entry '" + entry.trim() + "'; rate must be in [0, 1] and parameter non-negative");
+      }
+      if (rate > 0) {
+        faults.add(new Fault(type, parameter));
+        rates.add(rate);
+      }
+    }
+    double[] thresholds = new double[rates.size()];
+    double cumulative = 0;
+    for (int i = 0; i < thresholds.length; i++) {
+      cumulative += rates.get(i);
+      thresholds[i] = cumulative;
+    }
+    if (cumulative > 1 + 1e-9) {
+      throw new IllegalArgumentException("Fault rates sum to " + cumulative + "; must not exceed 1");
+    }
+    return thresholds.length == 0 ? NONE : new FaultProfile(faults.toArray(new Fault[0]), thresholds);
+  }
+
+  /**
+   * Decide the fault to inject into one response.
+   *
+   * @param random the random number generator
+   * @return the fault, null if no fault is injected
+   */
+  public Fault decide(ThreadLocalRandom random) {
+    if (total == 0) {
+      return null;
+    }
+    double draw = random.nextDouble();
+    if (draw >= total) {
+      return null;
+    }
+    for (int i = 0; i < thresholds.length; i++) {
+      if (draw < thresholds[i]) {
+        return faults[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the specification string describing this profile.
+   *
+   * @return the profile specification
+   */
+  public String toSpecification() {
+    if (faults.length == 0) {
+      return "none";
+    }
+    StringBuilder builder = new StringBuilder();
+    double previous = 0;
+    for (int i = 0; i < faults.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(faults[i].getType().getName()).append('=')
+        .append(Math.round((thresholds[i] - previous) * 1e9) / 1e9);
+      if (faults[i].getParameter() != 0 || faults[i].getType().getDefaultParameter() != 0) {
+        builder.append('@').append(faults[i].getParameter());
+      }
+      previous = thresholds[i];
+    }
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,107 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.fault;
+
+/**
+ * Enumerated responder faults.
+ *
+ * @author Key Bridge
+ */
+public enum FaultType {
+
+  /**
+   * Respond with HTTP 500 Internal Server Error.
+   */
+  ERROR("500", 0),
+  /**
+   * Respond with HTTP 503 Service Unavailable. The parameter is the
+   * Retry-After header value, in seconds.
+   */
+  UNAVAILABLE("503", 5),
+  /**
+   * Respond with HTTP 429 Too Many Requests. The parameter is the Retry-After
+   * header value, in seconds.
+   */
+  TOO_MANY_REQUESTS("429", 1),
+  /**
+   * Close the connection after the response headers, without a body.
+   */
+  ABORT("abort", 0),
+  /**
+   * Declare a response body and close the connection half way through it. The
+   * parameter is the declared body length, in bytes.
+   */
+  TRUNCATE("truncate", 256),
+  /**
+   * Send a short response body one byte at a time. The parameter is the
+   * interval between bytes, in milliseconds.
+   */
+  SLOW_DRIP("drip", 100),
+  /**
+   * Add a latency spike to the emulated delay, then respond normally. The
+   * parameter is the additional delay, in milliseconds.
+   */
+  SPIKE("spike", 5000);
+
+  /**
+   * The name used in fault profile specifications.
+   */
+  private final String name;
+  /**
+   * The parameter value used if none is specified.
+   */
+  private final long defaultParameter;
+
+  private FaultType(String name, long defaultParameter) {
+    this.name = name;
+    this.defaultParameter = defaultParameter;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getDefaultParameter() {
+    return defaultParameter;
+  }
+
+  /**
+   * Find a fault type by its specification name, ignoring case.
+   *
+   * @param name the specification name, e.g. "503" or "abort"
+   * @return the fault type
+   * @throws IllegalArgumentException if no fault type matches
+   */
+  public static FaultType fromName(String name) throws IllegalArgumentException {
+    for (FaultType type : values()) {
+      if (type.name.equalsIgnoreCase(name)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unknown fault type " + name);
+  }
+
+}
@@ -0,0 +1,158 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.gw;
+
+import ch.keybridge.dev.service.MessageIds;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends DpacStatus notices to peer listeners.
+ * <p>
+ * Notices are sent with an HTTP PUT from a small bounded thread pool. When the
+ * pool queue is full notices are dropped and counted rather than blocking the
+ * gateway request.
+ *
+ * @author Key Bridge
+ */
+final class DpacStatusPusher {
+
+  private static final Logger LOG = Logger.getLogger(DpacStatusPusher.class.getName());
+
+  private final ThreadPoolExecutor executor;
+  private final int timeoutMillis;
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  DpacStatusPusher(int threads, int queueCapacity, int timeoutMillis) {
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = (Runnable runnable) -> {
+      Thread thread = new Thread(runnable, "responder-gw-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    int size = Math.max(1, threads);
+    this.executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                                           new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory);
+    this.executor.allowCoreThreadTimeOut(true);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Queue a DpacStatus notice for a peer.
+   *
+   * @param session     the peer session
+   * @param accessToken the bearer token sent with the notice, may be null
+   * @param relatesTo   the MessageID of the status request, may be null
+   * @param body        the notice JSON
+   */
+  void push(PeerSession session, String accessToken, String relatesTo, byte[] body) {
+    try {
+      executor.execute(() -> send(session, accessToken, relatesTo, body));
+    } catch (RejectedExecutionException ex) {
+      dropped.increment();
+    }
+  }
+
+  private void send(PeerSession session, String accessToken, String relatesTo, byte[] body) {
+    String uri = session.getListenerUri();
+    if (uri == null) {
+      return;
+    }
+    try {
+      HttpURLConnection connection = (HttpURLConnection) URI.create(uri).toURL().openConnection();
+      connection.setRequestMethod("PUT");
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+      connection.setRequestProperty("Content-Type", "application/json");
+      connection.setRequestProperty("MessageID", MessageIds.next());
+      if (accessToken != null) {
+        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+      }
+      if (relatesTo != null) {
+        connection.setRequestProperty("RelatesTo", relatesTo);
+      }
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+      int status = connection.getResponseCode();
+      /**
+       * Read the response to completion so the connection is kept alive.
+       */
+      try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+        if (in != null) {
+          byte[] buffer = new byte[1024];
+          while (in.read(buffer) >= 0) {
+            // discard
+          }
+        }
+      }
+      if (status / 100 == 2) {
+        sent.increment();
+        session.pushed();
+      } else {
+        failed.increment();
+        LOG.log(Level.FINE, "DpacStatus push to {0} answered HTTP {1}", new Object[]{uri, status});
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      failed.increment();
+      LOG.log(Level.FINE, "DpacStatus push to {0} failed: {1}", new Object[]{uri, ex.getMessage()});
+    }
+  }
+
+  long getSentCount() {
+    return sent.sum();
+  }
+
+  long getFailedCount() {
+    return failed.sum();
+  }
+
+  long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+}
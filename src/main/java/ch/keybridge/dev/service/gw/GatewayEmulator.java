@@ -0,0 +1,298 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.gw;
+
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * An emulated ESC gateway, implementing the peer session and DPA status paths
+ * used by <code>EscGwRestClient</code>, so the whole SAS to ESC message loop
+ * can run on one host.
+ * <p>
+ * Peer sessions are kept in a sharded {@link PeerSessionStore} and expire
+ * through a {@link TimerWheel}. Registering, updating, reading or resetting a
+ * session extends it. An accepted DPA status request is pushed as a DpacStatus
+ * notice once per registered peer to the configured default listener URI.
+ * When peer URIs are enabled the <code>listenerUri</code> (or
+ * <code>dpacStatusUri</code>) field of the peer registration is used instead;
+ * the gateway then sends requests to any address a peer registers. The token
+ * of the status request is never forwarded.
+ * <p>
+ * The gateway is disabled unless enabled with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.gw.enabled</code> - enable the gateway. Default
+ * false.</li>
+ * <li><code>ch.keybridge.dev.gw.sessionTtlSeconds</code> - the time a peer
+ * session is kept without activity. Default 300.</li>
+ * <li><code>ch.keybridge.dev.gw.shards</code> - the number of session store
+ * shards. Default 16.</li>
+ * <li><code>ch.keybridge.dev.gw.listenerUri</code> - the default DpacStatus
+ * listener URI, e.g.
+ * <code>http://localhost:8080/dev/esc/rs/listen/dpac</code>.</li>
+ * <li><code>ch.keybridge.dev.gw.peerUris</code> - push notices to the
+ * listener URI registered by each peer. Default false.</li>
+ * <li><code>ch.keybridge.dev.gw.pushToken</code> - the bearer token sent with
+ * DpacStatus notices. Default none; notices have no Authorization header.</li>
+ * <li><code>ch.keybridge.dev.gw.pushThreads</code> - the number of notice
+ * sending threads. Default 4.</li>
+ * <li><code>ch.keybridge.dev.gw.timeoutMillis</code> - the notice connect and
+ * read timeout. Default 2000.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class GatewayEmulator {
+
+  private static final Logger LOG = Logger.getLogger(GatewayEmulator.class.getName());
+
+  public static final String ENABLED = ResponderConfiguration.PREFIX + "gw.enabled";
+  public static final String SESSION_TTL_SECONDS = ResponderConfiguration.PREFIX + "gw.sessionTtlSeconds";
+  public static final String SHARDS = ResponderConfiguration.PREFIX + "gw.shards";
+  public static final String LISTENER_URI = ResponderConfiguration.PREFIX + "gw.listenerUri";
+  public static final String PEER_URIS = ResponderConfiguration.PREFIX + "gw.peerUris";
+  public static final String PUSH_TOKEN = ResponderConfiguration.PREFIX + "gw.pushToken";
+  public static final String PUSH_THREADS = ResponderConfiguration.PREFIX + "gw.pushThreads";
+  public static final String TIMEOUT_MILLIS = ResponderConfiguration.PREFIX + "gw.timeoutMillis";
+
+  /**
+   * Peer registration fields read as the DpacStatus listener URI.
+   */
+  private static final String[] LISTENER_FIELDS = {"listenerUri", "dpacStatusUri"};
+  private static final long TICK_MILLIS = 1000;
+  private static final int WHEEL_SLOTS = 512;
+  private static final int PUSH_QUEUE = 10_000;
+
+  /**
+   * Set when the shared instance is created.
+   */
+  private static volatile boolean initialized;
+
+  private final boolean enabled;
+  private final long sessionTtlMillis;
+  private final String defaultListenerUri;
+  private final boolean peerUris;
+  private final String pushToken;
+  private final PeerSessionStore sessions;
+  private final TimerWheel<PeerSession> expiry;
+  private final DpacStatusPusher pusher;
+
+  private final LongAdder registered = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+  private final LongAdder statusRequests = new LongAdder();
+
+  private GatewayEmulator() {
+    this.enabled = ResponderConfiguration.getBoolean(ENABLED, false);
+    this.sessionTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(1, ResponderConfiguration.getLong(SESSION_TTL_SECONDS, 300)));
+    this.defaultListenerUri = ResponderConfiguration.getString(LISTENER_URI, null);
+    this.peerUris = ResponderConfiguration.getBoolean(PEER_URIS, false);
+    this.pushToken = ResponderConfiguration.getString(PUSH_TOKEN, null);
+    if (!enabled) {
+      this.sessions = null;
+      this.expiry = null;
+      this.pusher = null;
+      return;
+    }
+    this.sessions = new PeerSessionStore(ResponderConfiguration.getInt(SHARDS, 16));
+    this.expiry = new TimerWheel<>(TICK_MILLIS, WHEEL_SLOTS, PeerSession::getExpiresMillis, this::expire);
+    this.pusher = new DpacStatusPusher(ResponderConfiguration.getInt(PUSH_THREADS, 4), PUSH_QUEUE,
+                                       Math.max(1, ResponderConfiguration.getInt(TIMEOUT_MILLIS, 2000)));
+    LOG.log(Level.INFO, "ESC gateway emulator enabled; default DpacStatus listener {0}", defaultListenerUri);
+  }
+
+  /**
+   * Get the shared gateway instance.
+   *
+   * @return the gateway emulator
+   */
+  public static GatewayEmulator getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Determine if the shared gateway has been created.
+   *
+   * @return true if {@link #getInstance()} has been called
+   */
+  public static boolean isInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Determine if the gateway emulator is enabled.
+   *
+   * @return true if enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  private void expire(PeerSession session) {
+    if (sessions.remove(session)) {
+      expired.increment();
+      LOG.log(Level.FINE, "Peer session {0} expired", session.getPeerId());
+    }
+  }
+
+  private String listenerUri(JsonObject metadata) {
+    if (!peerUris) {
+      return defaultListenerUri;
+    }
+    for (String field : LISTENER_FIELDS) {
+      JsonValue value = metadata.get(field);
+      if (value instanceof JsonString) {
+        return ((JsonString) value).getString();
+      }
+    }
+    return defaultListenerUri;
+  }
+
+  /**
+   * Register a new peer session.
+   *
+   * @param registrationAccessToken the bearer token presented
+   * @param metadata                the peer registration request
+   * @return the new session
+   */
+  public PeerSession register(String registrationAccessToken, JsonObject metadata) {
+    long now = System.currentTimeMillis();
+    PeerSession session;
+    do {
+      session = new PeerSession(UUID.randomUUID().toString(), registrationAccessToken, metadata, listenerUri(metadata), now, now + sessionTtlMillis);
+    } while (!sessions.add(session));
+    expiry.schedule(session);
+    registered.increment();
+    return session;
+  }
+
+  /**
+   * Find a live peer session and extend it.
+   *
+   * @param peerId                  the peer ID
+   * @param registrationAccessToken the bearer token presented
+   * @return the session, null if not registered, expired or the token does
+   *         not match
+   */
+  public PeerSession find(String peerId, String registrationAccessToken) {
+    PeerSession session = peerId == null ? null : sessions.get(peerId);
+    if (session == null || !session.getRegistrationAccessToken().equals(registrationAccessToken)) {
+      return null;
+    }
+    session.renew(System.currentTimeMillis() + sessionTtlMillis);
+    return session;
+  }
+
+  /**
+   * Replace the registration of a peer session.
+   *
+   * @param session  the session
+   * @param metadata the peer update request
+   */
+  public void update(PeerSession session, JsonObject metadata) {
+    session.update(metadata, listenerUri(metadata));
+  }
+
+  public void reset(PeerSession session) {
+    session.reset(System.currentTimeMillis());
+  }
+
+  public void delete(PeerSession session) {
+    sessions.remove(session);
+  }
+
+  /**
+   * Accept a DPA status request and notify every registered peer. Notices
+   * carry the configured push token, if any, not the token of the request.
+   *
+   * @param messageId the request MessageID, may be null
+   * @param content   the status request JSON
+   * @return the number of peers notified
+   */
+  public int requestStatus(String messageId, JsonObject content) {
+    statusRequests.increment();
+    byte[] body = content.toString().getBytes(StandardCharsets.UTF_8);
+    int count = 0;
+    for (PeerSession session : sessions.values()) {
+      if (session.getListenerUri() != null) {
+        pusher.push(session, pushToken, messageId, body);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Write the gateway statistics.
+   *
+   * @return the statistics JSON
+   */
+  public JsonObjectBuilder toStatistics() {
+    JsonObjectBuilder builder = Json.createObjectBuilder().add("enabled", enabled);
+    if (enabled) {
+      builder.add("sessions", sessions.size())
+        .add("registered", registered.sum())
+        .add("expired", expired.sum())
+        .add("statusRequests", statusRequests.sum())
+        .add("pushed", pusher.getSentCount())
+        .add("pushFailed", pusher.getFailedCount())
+        .add("pushDropped", pusher.getDroppedCount());
+    }
+    return builder;
+  }
+
+  /**
+   * Stop session expiry and notice sending.
+   */
+  public void shutdown() {
+    if (enabled) {
+      expiry.stop();
+      pusher.shutdown();
+    }
+  }
+
+  /**
+   * Holds the shared instance, created on first use.
+   */
+  private static final class Holder {
+
+    private static final GatewayEmulator INSTANCE = new GatewayEmulator();
+
+    static {
+      initialized = true;
+    }
+  }
+
+}
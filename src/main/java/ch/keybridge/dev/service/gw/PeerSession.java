@@ -0,0 +1,129 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.gw;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+/**
+ * A peer session registered with the emulated ESC gateway.
+ *
+ * @author Key Bridge
+ */
+public final class PeerSession {
+
+  private final String peerId;
+  /**
+   * The bearer token presented on registration, required for later calls.
+   */
+  private final String registrationAccessToken;
+  private final long createdMillis;
+  private volatile JsonObject metadata;
+  /**
+   * The DpacStatus listener URI, null if the peer is not notified.
+   */
+  private volatile String listenerUri;
+  private volatile long expiresMillis;
+  private volatile long resetMillis;
+  private final LongAdder pushed = new LongAdder();
+
+  PeerSession(String peerId, String registrationAccessToken, JsonObject metadata, String listenerUri, long createdMillis, long expiresMillis) {
+    this.peerId = peerId;
+    this.registrationAccessToken = registrationAccessToken;
+    this.metadata = metadata;
+    this.listenerUri = listenerUri;
+    this.createdMillis = createdMillis;
+    this.expiresMillis = expiresMillis;
+  }
+
+  public String getPeerId() {
+    return peerId;
+  }
+
+  String getRegistrationAccessToken() {
+    return registrationAccessToken;
+  }
+
+  public String getListenerUri() {
+    return listenerUri;
+  }
+
+  long getExpiresMillis() {
+    return expiresMillis;
+  }
+
+  void update(JsonObject metadata, String listenerUri) {
+    this.metadata = metadata;
+    this.listenerUri = listenerUri;
+  }
+
+  /**
+   * Extend the session. The timer wheel finds the new expiry time when the
+   * old one is reached.
+   *
+   * @param expiresMillis the new expiry time
+   */
+  void renew(long expiresMillis) {
+    this.expiresMillis = expiresMillis;
+  }
+
+  void reset(long nowMillis) {
+    this.resetMillis = nowMillis;
+  }
+
+  void pushed() {
+    pushed.increment();
+  }
+
+  /**
+   * Write the peer information response.
+   *
+   * @return the peer information JSON
+   */
+  public JsonObjectBuilder toJson() {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (Map.Entry<String, JsonValue> entry : metadata.entrySet()) {
+      builder.add(entry.getKey(), entry.getValue());
+    }
+    builder.add("peerId", peerId)
+      .add("created", Instant.ofEpochMilli(createdMillis).toString())
+      .add("expires", Instant.ofEpochMilli(expiresMillis).toString())
+      .add("pushed", pushed.sum());
+    if (resetMillis > 0) {
+      builder.add("reset", Instant.ofEpochMilli(resetMillis).toString());
+    }
+    if (listenerUri != null) {
+      builder.add("listenerUri", listenerUri);
+    }
+    return builder;
+  }
+
+}
@@ -0,0 +1,126 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.gw;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sharded store of peer sessions.
+ * <p>
+ * Sessions are spread over a power of two number of shards by peer ID hash.
+ * Each shard is a plain hash map guarded by its own monitor, so operations on
+ * different shards never contend and each operation holds a lock only for a
+ * single map access.
+ *
+ * @author Key Bridge
+ */
+final class PeerSessionStore {
+
+  private final Map<String, PeerSession>[] shards;
+  private final int mask;
+
+  /**
+   * Construct a store.
+   *
+   * @param shards the number of shards; rounded up to a power of two
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  PeerSessionStore(int shards) {
+    int size = Integer.highestOneBit(Math.max(1, Math.min(shards, 1 << 16)) * 2 - 1);
+    this.shards = new Map[size];
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      this.shards[i] = new HashMap<>();
+    }
+  }
+
+  private Map<String, PeerSession> shard(String peerId) {
+    int hash = peerId.hashCode();
+    return shards[(hash ^ hash >>> 16) & mask];
+  }
+
+  /**
+   * Add a session if no session has the same peer ID.
+   *
+   * @param session the session
+   * @return true if added
+   */
+  boolean add(PeerSession session) {
+    Map<String, PeerSession> shard = shard(session.getPeerId());
+    synchronized (shard) {
+      return shard.putIfAbsent(session.getPeerId(), session) == null;
+    }
+  }
+
+  PeerSession get(String peerId) {
+    Map<String, PeerSession> shard = shard(peerId);
+    synchronized (shard) {
+      return shard.get(peerId);
+    }
+  }
+
+  /**
+   * Remove a session if it is still stored.
+   *
+   * @param session the session
+   * @return true if removed
+   */
+  boolean remove(PeerSession session) {
+    Map<String, PeerSession> shard = shard(session.getPeerId());
+    synchronized (shard) {
+      return shard.remove(session.getPeerId(), session);
+    }
+  }
+
+  /**
+   * Get a snapshot of all sessions, one shard at a time.
+   *
+   * @return the sessions
+   */
+  List<PeerSession> values() {
+    List<PeerSession> values = new ArrayList<>();
+    for (Map<String, PeerSession> shard : shards) {
+      synchronized (shard) {
+        values.addAll(shard.values());
+      }
+    }
+    return values;
+  }
+
+  int size() {
+    int size = 0;
+    for (Map<String, PeerSession> shard : shards) {
+      synchronized (shard) {
+        size += shard.size();
+      }
+    }
+    return size;
+  }
+
+}
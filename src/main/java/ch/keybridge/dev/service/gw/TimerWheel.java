@@ -0,0 +1,169 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.gw;
+
+import ch.keybridge.dev.service.DelayScheduler;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel expiring many timed entries with one periodic task.
+ * <p>
+ * Entries are pushed onto a lock-free stack in the wheel slot of their
+ * deadline tick. Each tick the current slot is detached as a whole and its
+ * entries are either expired or, if their deadline has moved later or is more
+ * than one wheel revolution away, pushed onto their new slot. A deadline may
+ * therefore be extended by simply changing it, without touching the wheel;
+ * scheduling is O(1) and no thread or scheduled task is held per entry. The
+ * tick task runs on the shared {@link DelayScheduler}.
+ *
+ * @author Key Bridge
+ * @param <T> the entry type
+ */
+final class TimerWheel<T> {
+
+  private static final Logger LOG = Logger.getLogger(TimerWheel.class.getName());
+
+  private final long tickMillis;
+  private final int mask;
+  private final AtomicReferenceArray<Node<T>> slots;
+  private final ToLongFunction<T> deadline;
+  private final Consumer<T> expiry;
+  /**
+   * The last tick processed. Only written by the tick task.
+   */
+  private volatile long lastTick;
+  private volatile boolean stopped;
+
+  /**
+   * Construct and start a timer wheel.
+   *
+   * @param tickMillis the tick period; the expiry resolution
+   * @param slots      the number of slots; rounded up to a power of two
+   * @param deadline   a function reading the current deadline of an entry, in
+   *                   milliseconds since the epoch
+   * @param expiry     the action called once for an expired entry
+   */
+  TimerWheel(long tickMillis, int slots, ToLongFunction<T> deadline, Consumer<T> expiry) {
+    int size = Integer.highestOneBit(Math.max(2, Math.min(slots, 1 << 20)) * 2 - 1);
+    this.tickMillis = Math.max(1, tickMillis);
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.deadline = deadline;
+    this.expiry = expiry;
+    this.lastTick = System.currentTimeMillis() / this.tickMillis;
+    DelayScheduler.schedule(this::tick, this.tickMillis);
+  }
+
+  /**
+   * Schedule an entry to expire at its deadline. An entry must be scheduled
+   * once only; later deadline changes are found when its slot is reached.
+   *
+   * @param entry the entry
+   */
+  void schedule(T entry) {
+    push(new Node<>(entry), deadline.applyAsLong(entry) / tickMillis);
+  }
+
+  private void push(Node<T> node, long tick) {
+    /**
+     * Never push onto a slot that has already been processed this revolution.
+     */
+    int slot = (int) (Math.max(tick, lastTick + 1) & mask);
+    Node<T> head;
+    do {
+      head = slots.get(slot);
+      node.next = head;
+    } while (!slots.compareAndSet(slot, head, node));
+  }
+
+  /**
+   * Process every tick elapsed since the last run. After a long pause each
+   * slot is processed at most once. An entry whose deadline or expiry action
+   * fails is logged and dropped; the next tick is always scheduled.
+   */
+  private void tick() {
+    if (stopped) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    try {
+      long current = now / tickMillis;
+      long first = Math.max(lastTick + 1, current - mask);
+      for (long t = first; t <= current; t++) {
+        lastTick = t;
+        Node<T> node = slots.getAndSet((int) (t & mask), null);
+        while (node != null) {
+          Node<T> next = node.next;
+          process(node, now);
+          node = next;
+        }
+      }
+      lastTick = current;
+    } finally {
+      if (!stopped) {
+        DelayScheduler.schedule(this::tick, tickMillis - now % tickMillis);
+      }
+    }
+  }
+
+  /**
+   * Expire an entry if it is due, otherwise push it onto its new slot.
+   */
+  private void process(Node<T> node, long now) {
+    try {
+      long due = deadline.applyAsLong(node.entry);
+      if (due <= now) {
+        expiry.accept(node.entry);
+      } else {
+        push(node, due / tickMillis);
+      }
+    } catch (RuntimeException ex) {
+      LOG.log(Level.WARNING, "Timer entry " + node.entry + " dropped", ex);
+    }
+  }
+
+  /**
+   * Stop ticking. Pending entries are not expired.
+   */
+  void stop() {
+    stopped = true;
+  }
+
+  private static final class Node<T> {
+
+    private final T entry;
+    private Node<T> next;
+
+    private Node(T entry) {
+      this.entry = entry;
+    }
+  }
+
+}
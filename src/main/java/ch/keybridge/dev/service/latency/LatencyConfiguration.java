@@ -0,0 +1,177 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.latency;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An immutable snapshot of the latency profile assigned to each endpoint.
+ * <p>
+ * The active snapshot is published through an atomic reference. Request
+ * threads read it without locking; an administrator replaces it as a whole, so
+ * a request never sees a half-updated configuration.
+ * <p>
+ * Initial profiles are read from the
+ * <code>ch.keybridge.dev.latency.[endpoint]</code> system properties. The
+ * defaults reproduce the original uniform delays: up to 0.55 seconds for ping
+ * and up to 2.25 seconds for DpacStatus.
+ *
+ * @author Key Bridge
+ */
+public final class LatencyConfiguration {
+
+  private static final Logger LOG = Logger.getLogger(LatencyConfiguration.class.getName());
+
+  /**
+   * The system property prefix for the initial per-endpoint profile.
+   */
+  public static final String PROPERTY_PREFIX = ResponderConfiguration.PREFIX + "latency.";
+
+  /**
+   * The active configuration snapshot.
+   */
+  private static final AtomicReference<LatencyConfiguration> CURRENT = new AtomicReference<>(buildInitial());
+
+  /**
+   * The profile assigned to each endpoint. Unmodifiable.
+   */
+  private final Map<Endpoint, LatencyProfile> profiles;
+
+  private LatencyConfiguration(Map<Endpoint, LatencyProfile> profiles) {
+    this.profiles = Collections.unmodifiableMap(new EnumMap<>(profiles));
+  }
+
+  /**
+   * Build the initial configuration from system properties.
+   */
+  private static LatencyConfiguration buildInitial() {
+    Map<Endpoint, LatencyProfile> profiles = new EnumMap<>(Endpoint.class);
+    for (Endpoint endpoint : Endpoint.values()) {
+      String defaultSpecification = getDefaultSpecification(endpoint);
+      String specification = ResponderConfiguration.getString(PROPERTY_PREFIX + endpoint.getPath(), defaultSpecification);
+      try {
+        profiles.put(endpoint, LatencyProfiles.parse(specification));
+      } catch (IllegalArgumentException ex) {
+        LOG.log(Level.WARNING, "Ignoring invalid {0} latency profile \"{1}\": {2}", new Object[]{endpoint, specification, ex.getMessage()});
+        profiles.put(endpoint, LatencyProfiles.parse(defaultSpecification));
+      }
+    }
+    return new LatencyConfiguration(profiles);
+  }
+
+  /**
+   * Get the built-in profile specification for an endpoint.
+   * <p>
+   * Note that the ESC client is configured to timeout ping message delivery
+   * after 1/2 second and DPAC status message delivery after 2 seconds. The
+   * default delays occasionally exceed these to trigger an error processing
+   * sequence on the ESC.
+   *
+   * @param endpoint the endpoint
+   * @return the default specification
+   */
+  private static String getDefaultSpecification(Endpoint endpoint) {
+    switch (endpoint) {
+      case PING:
+        return "uniform:0,550";
+      case DPAC:
+      default:
+        return "uniform:0,2250";
+    }
+  }
+
+  /**
+   * Get the active configuration snapshot.
+   *
+   * @return the active configuration
+   */
+  public static LatencyConfiguration getInstance() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Replace the profile assigned to an endpoint. A new snapshot is published;
+   * requests already in progress keep the delay they sampled.
+   *
+   * @param endpoint the endpoint
+   * @param profile  the new profile
+   * @return the new active configuration
+   */
+  public static LatencyConfiguration update(Endpoint endpoint, LatencyProfile profile) {
+    return CURRENT.updateAndGet(current -> current.with(endpoint, profile));
+  }
+
+  /**
+   * Get a copy of this configuration with one profile replaced.
+   *
+   * @param endpoint the endpoint
+   * @param profile  the new profile
+   * @return a new configuration instance
+   */
+  public LatencyConfiguration with(Endpoint endpoint, LatencyProfile profile) {
+    Map<Endpoint, LatencyProfile> copy = new EnumMap<>(profiles);
+    copy.put(endpoint, profile);
+    return new LatencyConfiguration(copy);
+  }
+
+  /**
+   * Get the profile assigned to an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the latency profile
+   */
+  public LatencyProfile getProfile(Endpoint endpoint) {
+    return profiles.get(endpoint);
+  }
+
+  /**
+   * Get all profiles, keyed by endpoint.
+   *
+   * @return an unmodifiable map of profiles
+   */
+  public Map<Endpoint, LatencyProfile> getProfiles() {
+    return profiles;
+  }
+
+  /**
+   * Sample an emulated processing delay for an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the delay, in milliseconds
+   */
+  public long nextDelay(Endpoint endpoint) {
+    return profiles.get(endpoint).sample(ThreadLocalRandom.current());
+  }
+
+}
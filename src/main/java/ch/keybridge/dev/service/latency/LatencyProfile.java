@@ -0,0 +1,58 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.latency;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A parametric distribution of emulated processing delays.
+ * <p>
+ * Implementations must be immutable and thread safe. Samples are drawn from
+ * the caller's {@link ThreadLocalRandom} so concurrent request threads never
+ * contend on a shared generator.
+ *
+ * @author Key Bridge
+ */
+public interface LatencyProfile {
+
+  /**
+   * Draw a delay from this distribution.
+   *
+   * @param random the calling thread's random number generator
+   * @return a non-negative delay, in milliseconds
+   */
+  long sample(ThreadLocalRandom random);
+
+  /**
+   * Get the specification string describing this profile. The returned value
+   * can be parsed by {@link LatencyProfiles#parse(String)} to recreate an
+   * equivalent profile.
+   *
+   * @return the profile specification
+   */
+  String toSpecification();
+
+}
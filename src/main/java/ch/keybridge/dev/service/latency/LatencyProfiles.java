@@ -0,0 +1,345 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.latency;
+
+import ch.keybridge.dev.service.Endpoint;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency profile factory.
+ * <p>
+ * Profiles are described by a compact specification string of the form
+ * <code>type:arg1,arg2,...</code>. All times are in milliseconds. Supported
+ * profiles are:
+ * <ul>
+ * <li><code>fixed:delay</code> - always the same delay</li>
+ * <li><code>uniform:min,max</code> - uniformly distributed in [min, max)</li>
+ * <li><code>normal:mean,stddev</code> - normal (Gaussian), truncated at
+ * zero</li>
+ * <li><code>lognormal:median,sigma</code> - log-normal with the indicated
+ * median and log-space standard deviation</li>
+ * <li><code>pareto:scale,shape[,max]</code> - Pareto tail with minimum
+ * <code>scale</code>, tail index <code>shape</code> and an upper bound,
+ * by default {@link #DEFAULT_PARETO_MAX}</li>
+ * <li><code>bimodal:weight,mean1,stddev1,mean2,stddev2</code> - a mixture of
+ * two normal modes; <code>weight</code> is the probability [0, 1] of the first
+ * mode</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class LatencyProfiles {
+
+  /**
+   * The default upper bound of a Pareto profile: ten times the longest ESC
+   * delivery timeout. A heavy tail is otherwise unbounded and may hold a
+   * request for hours; any delay past the timeout already looks the same to
+   * the ESC.
+   */
+  public static final double DEFAULT_PARETO_MAX = 10.0 * Endpoint.DPAC.getTimeoutMillis();
+
+  private LatencyProfiles() {
+  }
+
+  /**
+   * Parse a profile specification.
+   *
+   * @param specification the profile specification, e.g.
+   *                      <code>uniform:0,550</code>
+   * @return a new latency profile instance
+   * @throws IllegalArgumentException if the specification is not valid
+   */
+  public static LatencyProfile parse(String specification) throws IllegalArgumentException {
+    if (specification == null || specification.trim().isEmpty()) {
+      throw new IllegalArgumentException("Latency profile specification is required with format 'type:arg1,arg2,...'");
+    }
+    String spec = specification.trim();
+    int colon = spec.indexOf(':');
+    String type = (colon < 0 ? spec : spec.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+    double[] args = colon < 0 ? new double[0] : parseArguments(spec.substring(colon + 1));
+    switch (type) {
+      case "fixed":
+        requireArguments(type, args, 1, 1);
+        return new Fixed(args[0]);
+      case "uniform":
+        requireArguments(type, args, 2, 2);
+        return new Uniform(args[0], args[1]);
+      case "normal":
+        requireArguments(type, args, 2, 2);
+        return new Normal(args[0], args[1]);
+      case "lognormal":
+        requireArguments(type, args, 2, 2);
+        return new LogNormal(args[0], args[1]);
+      case "pareto":
+        requireArguments(type, args, 2, 3);
+        return new Pareto(args[0], args[1], args.length > 2 ? args[2] : DEFAULT_PARETO_MAX);
+      case "bimodal":
+        requireArguments(type, args, 5, 5);
+        return new Bimodal(args[0], args[1], args[2], args[3], args[4]);
+      default:
+        throw new IllegalArgumentException("Unknown latency profile type \"" + type + "\"");
+    }
+  }
+
+  /**
+   * Parse a comma separated list of numbers.
+   *
+   * @param value the argument list
+   * @return the parsed arguments
+   * @throws IllegalArgumentException if an argument is not a number or is
+   *                                  negative
+   */
+  private static double[] parseArguments(String value) throws IllegalArgumentException {
+    String[] tokens = value.split(",");
+    double[] args = new double[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      try {
+        args[i] = Double.parseDouble(tokens[i].trim());
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Latency profile argument \"" + tokens[i].trim() + "\" is not a number");
+      }
+      if (args[i] < 0 || Double.isNaN(args[i]) || Double.isInfinite(args[i])) {
+        throw new IllegalArgumentException("Latency profile argument \"" + tokens[i].trim() + "\" must be a finite, non-negative number");
+      }
+    }
+    return args;
+  }
+
+  private static void requireArguments(String type, double[] args, int min, int max) throws IllegalArgumentException {
+    if (args.length < min || args.length > max) {
+      throw new IllegalArgumentException("Latency profile \"" + type + "\" requires "
+                                         + (min == max ? String.valueOf(min) : min + " to " + max)
+                                         + " arguments");
+    }
+  }
+
+  /**
+   * Draw a standard normal deviate with the Box-Muller transform. Unlike
+   * {@code Random.nextGaussian()} this does not cache the second deviate, so
+   * it allocates nothing and keeps no state.
+   *
+   * @param random the calling thread's random number generator
+   * @return a normal deviate with mean 0 and standard deviation 1
+   */
+  static double nextGaussian(ThreadLocalRandom random) {
+    double u = 1.0 - random.nextDouble(); // (0, 1] avoids log(0)
+    double v = random.nextDouble();
+    return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+  }
+
+  /**
+   * Round and clamp a sampled value to a non-negative number of milliseconds.
+   *
+   * @param value the sampled value
+   * @return the delay in milliseconds
+   */
+  static long toMillis(double value) {
+    return value <= 0 ? 0 : Math.round(value);
+  }
+
+  /**
+   * Format a number for a specification string, dropping a trailing ".0".
+   */
+  private static String format(double value) {
+    return value == Math.rint(value) && Math.abs(value) < 1e15
+           ? String.valueOf((long) value)
+           : String.valueOf(value);
+  }
+
+  /**
+   * A constant delay.
+   */
+  static final class Fixed implements LatencyProfile {
+
+    private final long delay;
+
+    Fixed(double delay) {
+      this.delay = toMillis(delay);
+    }
+
+    @Override
+    public long sample(ThreadLocalRandom random) {
+      return delay;
+    }
+
+    @Override
+    public String toSpecification() {
+      return "fixed:" + delay;
+    }
+  }
+
+  /**
+   * A uniformly distributed delay in [min, max).
+   */
+  static final class Uniform implements LatencyProfile {
+
+    private final double min;
+    private final double max;
+
+    Uniform(double min, double max) {
+      if (max < min) {
+        throw new IllegalArgumentException("Uniform latency profile max must not be less than min");
+      }
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    public long sample(ThreadLocalRandom random) {
+      return max == min ? toMillis(min) : (long) (min + random.nextDouble() * (max - min));
+    }
+
+    @Override
+    public String toSpecification() {
+      return "uniform:" + format(min) + "," + format(max);
+    }
+  }
+
+  /**
+   * A normally distributed delay, truncated at zero.
+   */
+  static final class Normal implements LatencyProfile {
+
+    private final double mean;
+    private final double stddev;
+
+    Normal(double mean, double stddev) {
+      this.mean = mean;
+      this.stddev = stddev;
+    }
+
+    @Override
+    public long sample(ThreadLocalRandom random) {
+      return toMillis(mean + stddev * nextGaussian(random));
+    }
+
+    @Override
+    public String toSpecification() {
+      return "normal:" + format(mean) + "," + format(stddev);
+    }
+  }
+
+  /**
+   * A log-normally distributed delay. Most responses are near the median with
+   * a long right tail, which is typical of real service response times.
+   */
+  static final class LogNormal implements LatencyProfile {
+
+    private final double median;
+    private final double sigma;
+    private final double mu;
+
+    LogNormal(double median, double sigma) {
+      if (median <= 0) {
+        throw new IllegalArgumentException("Log-normal latency profile median must be positive");
+      }
+      this.median = median;
+      this.sigma = sigma;
+      this.mu = Math.log(median);
+    }
+
+    @Override
+    public long sample(ThreadLocalRandom random) {
+      return toMillis(Math.exp(mu + sigma * nextGaussian(random)));
+    }
+
+    @Override
+    public String toSpecification() {
+      return "lognormal:" + format(median) + "," + format(sigma);
+    }
+  }
+
+  /**
+   * A Pareto distributed delay. Produces a heavy tail of occasional very slow
+   * responses.
+   */
+  static final class Pareto implements LatencyProfile {
+
+    private final double scale;
+    private final double shape;
+    private final double max;
+    private final double inverseShape;
+
+    Pareto(double scale, double shape, double max) {
+      if (scale <= 0 || shape <= 0) {
+        throw new IllegalArgumentException("Pareto latency profile scale and shape must be positive");
+      }
+      this.scale = scale;
+      this.shape = shape;
+      this.max = max;
+      this.inverseShape = 1.0 / shape;
+    }
+
+    @Override
+    public long sample(ThreadLocalRandom random) {
+      double u = 1.0 - random.nextDouble(); // (0, 1]
+      return toMillis(Math.min(max, scale / Math.pow(u, inverseShape)));
+    }
+
+    @Override
+    public String toSpecification() {
+      return "pareto:" + format(scale) + "," + format(shape) + (max == DEFAULT_PARETO_MAX ? "" : "," + format(max));
+    }
+  }
+
+  /**
+   * A mixture of two normal modes, e.g. a fast cache hit path and a slow
+   * database path.
+   */
+  static final class Bimodal implements LatencyProfile {
+
+    private final double weight;
+    private final double mean1;
+    private final double stddev1;
+    private final double mean2;
+    private final double stddev2;
+
+    Bimodal(double weight, double mean1, double stddev1, double mean2, double stddev2) {
+      if (weight > 1) {
+        throw new IllegalArgumentException("Bimodal latency profile weight must be in [0, 1]");
+      }
+      this.weight = weight;
+      this.mean1 = mean1;
+      this.stddev1 = stddev1;
+      this.mean2 = mean2;
+      this.stddev2 = stddev2;
+    }
+
+    @Override
+    public long sample(ThreadLocalRandom random) {
+      return random.nextDouble() < weight
+             ? toMillis(mean1 + stddev1 * nextGaussian(random))
+             : toMillis(mean2 + stddev2 * nextGaussian(random));
+    }
+
+    @Override
+    public String toSpecification() {
+      return "bimodal:" + format(weight) + "," + format(mean1) + "," + format(stddev1) + "," + format(mean2) + "," + format(stddev2);
+    }
+  }
+
+}
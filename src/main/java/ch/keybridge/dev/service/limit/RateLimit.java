@@ -0,0 +1,145 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable request rate limit: a sustained rate and a burst size.
+ * <p>
+ * The limit is specified as <code>rate[,burst]</code>, the rate in requests
+ * per second and the burst in requests, e.g. <code>10</code> or
+ * <code>0.5,5</code>. The burst defaults to the rate, rounded up.
+ * <code>none</code> disables the limit.
+ * <p>
+ * The limit is applied as a Generic Cell Rate Algorithm (GCRA), which admits
+ * the same requests as a token bucket of <code>burst</code> tokens refilled
+ * at <code>rate</code> tokens per second but holds a single timestamp per
+ * peer instead of a token count and a refill time.
+ *
+ * @author Key Bridge
+ */
+public final class RateLimit {
+
+  /**
+   * No limit.
+   */
+  public static final RateLimit NONE = new RateLimit(0, 0);
+
+  private final double rate;
+  private final int burst;
+  /**
+   * The emission interval: the time to refill one token, in nanoseconds.
+   */
+  private final long intervalNanos;
+  /**
+   * The burst tolerance: the time a peer may run ahead of its sustained rate,
+   * in nanoseconds.
+   */
+  private final long toleranceNanos;
+
+  private RateLimit(double rate, int burst) {
+    this.rate = rate;
+    this.burst = burst;
+    this.intervalNanos = rate > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate)) : 0;
+    this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+  }
+
+  /**
+   * Parse a rate limit specification.
+   *
+   * @param specification the specification, <code>rate[,burst]</code> or
+   *                      <code>none</code>
+   * @return the rate limit
+   * @throws IllegalArgumentException if the specification is not valid
+   */
+  public static RateLimit parse(String specification) throws IllegalArgumentException {
+    if (specification == null || specification.trim().isEmpty()) {
+      throw new IllegalArgumentException("Rate limit specification is required with format 'rate[,burst]' or 'none'");
+    }
+    String value = specification.trim();
+    if ("none".equalsIgnoreCase(value)) {
+      return NONE;
+    }
+    int comma = value.indexOf(',');
+    double rate;
+    int burst;
+    try {
+      rate = Double.parseDouble(comma < 0 ? value : value.substring(0, comma).trim());
+      burst = comma < 0 ? (int) Math.ceil(rate) : Integer.parseInt(value.substring(comma + 1).trim());
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("Invalid rate limit '" + value + "': " + ex.getMessage());
+    }
+    if (!(rate > 0) || rate > TimeUnit.SECONDS.toNanos(1) || burst < 1) {
+      throw new IllegalArgumentException("Invalid rate limit '" + value + "'; rate must be positive and burst at least 1");
+    }
+    return new RateLimit(rate, burst);
+  }
+
+  /**
+   * Determine if this limit admits every request.
+   *
+   * @return true if no limit is applied
+   */
+  public boolean isNone() {
+    return intervalNanos == 0;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+
+  long getIntervalNanos() {
+    return intervalNanos;
+  }
+
+  long getToleranceNanos() {
+    return toleranceNanos;
+  }
+
+  /**
+   * Write this limit as a specification string that {@link #parse(String)}
+   * accepts.
+   *
+   * @return the specification
+   */
+  public String toSpecification() {
+    if (isNone()) {
+      return "none";
+    }
+    return (rate == Math.rint(rate) ? Long.toString((long) rate) : Double.toString(rate)) + "," + burst;
+  }
+
+  @Override
+  public String toString() {
+    return toSpecification();
+  }
+
+}
@@ -0,0 +1,246 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.limit;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the rate of messages each peer may send to each listener endpoint.
+ * <p>
+ * Peers are identified by a key, their remote address. Each peer holds one
+ * {@link AtomicLong}: its GCRA theoretical arrival time (TAT), the time at
+ * which its bucket will be full again. A request is admitted with one hash
+ * lookup, one clock read and one compare-and-set; there are no locks and, for a
+ * known peer, no allocation. The peer table is a {@link ConcurrentHashMap},
+ * whose bins are locked only to add or remove a peer.
+ * <p>
+ * A peer whose TAT has been in the past for the idle time has a full bucket
+ * and is indistinguishable from a new peer, so it is evicted. Eviction sweeps
+ * run on the thread adding a peer, at most once per quarter of the idle
+ * time. While the table is full, new peers share one overflow bucket.
+ * <p>
+ * Initial limits are read from the <code>ch.keybridge.dev.limit.[endpoint]</code>
+ * system properties, see {@link RateLimit}. By default no limit is applied.
+ * Other system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.limit.idleSeconds</code> - the time a peer is
+ * retained after its bucket is full. Default 60.</li>
+ * <li><code>ch.keybridge.dev.limit.capacity</code> - the maximum number of
+ * peers tracked per endpoint. Default 100000.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class RateLimiter {
+
+  private static final Logger LOG = Logger.getLogger(RateLimiter.class.getName());
+
+  /**
+   * The system property prefix for the initial per-endpoint limit.
+   */
+  public static final String PROPERTY_PREFIX = ResponderConfiguration.PREFIX + "limit.";
+  public static final String IDLE_SECONDS = PROPERTY_PREFIX + "idleSeconds";
+  public static final String CAPACITY = PROPERTY_PREFIX + "capacity";
+
+  /**
+   * The TAT of an evicted bucket. A request finding it looks up the peer
+   * again.
+   */
+  private static final long EVICTED = Long.MIN_VALUE;
+  /**
+   * The key of the bucket shared by new peers while the table is full.
+   */
+  private static final String OVERFLOW = "";
+
+  private static final Endpoint[] ENDPOINTS = Endpoint.values();
+
+  private static final RateLimiter INSTANCE = new RateLimiter();
+
+  private final AtomicReferenceArray<RateLimit> limits = new AtomicReferenceArray<>(ENDPOINTS.length);
+  private final Table[] tables = new Table[ENDPOINTS.length];
+  private final long idleNanos;
+  private final int capacity;
+
+  private RateLimiter() {
+    this.idleNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ResponderConfiguration.getLong(IDLE_SECONDS, 60)));
+    this.capacity = Math.max(1, ResponderConfiguration.getInt(CAPACITY, 100_000));
+    for (Endpoint endpoint : ENDPOINTS) {
+      RateLimit limit = RateLimit.NONE;
+      String specification = ResponderConfiguration.getString(PROPERTY_PREFIX + endpoint.getPath(), null);
+      if (specification != null) {
+        try {
+          limit = RateLimit.parse(specification);
+        } catch (IllegalArgumentException ex) {
+          LOG.log(Level.WARNING, "Ignoring {0}{1}: {2}", new Object[]{PROPERTY_PREFIX, endpoint.getPath(), ex.getMessage()});
+        }
+      }
+      limits.set(endpoint.ordinal(), limit);
+      tables[endpoint.ordinal()] = new Table();
+    }
+  }
+
+  /**
+   * Get the shared rate limiter instance.
+   *
+   * @return the rate limiter
+   */
+  public static RateLimiter getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get the limit applied to an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the rate limit, never null
+   */
+  public RateLimit getLimit(Endpoint endpoint) {
+    return limits.get(endpoint.ordinal());
+  }
+
+  /**
+   * Replace the limit applied to an endpoint. Peers keep their current state,
+   * so the new limit takes effect at once.
+   *
+   * @param endpoint the endpoint
+   * @param limit    the rate limit
+   */
+  public void setLimit(Endpoint endpoint, RateLimit limit) {
+    limits.set(endpoint.ordinal(), limit);
+    if (limit.isNone()) {
+      tables[endpoint.ordinal()].peers.clear();
+    }
+  }
+
+  /**
+   * Get the number of peers tracked for an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the peer count
+   */
+  public int getPeerCount(Endpoint endpoint) {
+    return tables[endpoint.ordinal()].peers.size();
+  }
+
+  /**
+   * Admit a request from a peer.
+   *
+   * @param endpoint the endpoint receiving the request
+   * @param key      the peer key
+   * @return zero if the request is admitted, otherwise the time until it would
+   *         be admitted, in nanoseconds
+   */
+  public long acquire(Endpoint endpoint, String key) {
+    RateLimit limit = limits.get(endpoint.ordinal());
+    if (limit.isNone()) {
+      return 0;
+    }
+    Table table = tables[endpoint.ordinal()];
+    long interval = limit.getIntervalNanos();
+    long tolerance = limit.getToleranceNanos();
+    while (true) {
+      long now = System.nanoTime();
+      AtomicLong bucket = table.peers.get(key);
+      if (bucket == null) {
+        bucket = table.add(key, now + interval, now);
+        if (bucket == null) {
+          return 0; // a new peer; its first request is admitted
+        }
+      }
+      long tat = bucket.get();
+      while (tat != EVICTED) {
+        long start = Math.max(tat, now);
+        if (start - now > tolerance) {
+          return start - tolerance - now;
+        }
+        if (bucket.compareAndSet(tat, start + interval)) {
+          return 0;
+        }
+        tat = bucket.get();
+      }
+    }
+  }
+
+  /**
+   * The peer buckets of one endpoint.
+   */
+  private final class Table {
+
+    private final ConcurrentHashMap<String, AtomicLong> peers = new ConcurrentHashMap<>();
+    /**
+     * The earliest time of the next eviction sweep, in nanoseconds.
+     */
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+    /**
+     * Add a peer.
+     *
+     * @param key the peer key
+     * @param tat the initial TAT, having admitted one request
+     * @param now the current time
+     * @return the existing bucket of the peer, or of the overflow peer if the
+     *         table is full; null if the peer was added
+     */
+    private AtomicLong add(String key, long tat, long now) {
+      long sweep = nextSweep.get();
+      if (now - sweep >= 0 && nextSweep.compareAndSet(sweep, now + idleNanos / 4)) {
+        evict(now);
+      }
+      if (peers.size() >= capacity) {
+        return peers.computeIfAbsent(OVERFLOW, k -> new AtomicLong(now));
+      }
+      return peers.putIfAbsent(key, new AtomicLong(tat));
+    }
+
+    /**
+     * Remove the peers idle since their bucket was full. Each bucket is
+     * marked evicted before removal so a concurrent request cannot update a
+     * removed bucket.
+     */
+    private void evict(long now) {
+      int evicted = 0;
+      for (Iterator<Map.Entry<String, AtomicLong>> iterator = peers.entrySet().iterator(); iterator.hasNext();) {
+        AtomicLong bucket = iterator.next().getValue();
+        long tat = bucket.get();
+        if (now - tat > idleNanos && bucket.compareAndSet(tat, EVICTED)) {
+          iterator.remove();
+          evicted++;
+        }
+      }
+      LOG.log(Level.FINE, "Evicted {0} idle peers", evicted);
+    }
+  }
+
+}
@@ -0,0 +1,256 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.log;
+
+import ch.keybridge.dev.service.BoundedMpscQueue;
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous, sampled logger of received messages.
+ * <p>
+ * Request threads only decide whether a message is sampled and offer it to a
+ * bounded lock-free queue; no log record is built and nothing is formatted on
+ * the request thread. A background thread drains the queue in batches and
+ * writes one log record per message. When the queue is full the message is
+ * dropped and counted, so logging never slows down or blocks a request.
+ * <p>
+ * Records are written to the listener resource logger with the original
+ * message pattern and the message arrival time, so existing log configuration
+ * and log processing tools continue to work.
+ * <p>
+ * Logging is configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.log.sample</code> - log one in N messages. 1 (the
+ * default) logs every message, 0 disables message logging.</li>
+ * <li><code>ch.keybridge.dev.log.errors</code> - always log messages answered
+ * with an error status, regardless of sampling. Default TRUE.</li>
+ * <li><code>ch.keybridge.dev.log.content</code> - include the full message
+ * body. Default FALSE; only the body length is logged.</li>
+ * <li><code>ch.keybridge.dev.log.queue</code> - the queue capacity. Default
+ * 8192.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class MessageLogger {
+
+  private static final Logger LOG = Logger.getLogger(MessageLogger.class.getName());
+
+  public static final String SAMPLE = ResponderConfiguration.PREFIX + "log.sample";
+  public static final String ERRORS = ResponderConfiguration.PREFIX + "log.errors";
+  public static final String CONTENT = ResponderConfiguration.PREFIX + "log.content";
+  public static final String QUEUE_CAPACITY = ResponderConfiguration.PREFIX + "log.queue";
+
+  /**
+   * The maximum number of records written per batch.
+   */
+  private static final int BATCH_SIZE = 256;
+  /**
+   * The writer idle wait when the queue is empty.
+   */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final int SAMPLE_RATE = Math.max(0, ResponderConfiguration.getInt(SAMPLE, 1));
+  private static final boolean LOG_ERRORS = ResponderConfiguration.getBoolean(ERRORS, true);
+  private static final boolean LOG_CONTENT = ResponderConfiguration.getBoolean(CONTENT, false);
+
+  private static final BoundedMpscQueue<ReceivedMessage> QUEUE = new BoundedMpscQueue<>(ResponderConfiguration.getInt(QUEUE_CAPACITY, 8192));
+  private static final LongAdder LOGGED = new LongAdder();
+  private static final LongAdder DROPPED = new LongAdder();
+
+  /**
+   * The listener resource loggers. Records are written to these so the
+   * existing log configuration applies.
+   */
+  private static final Logger PING_LOG = Logger.getLogger("ch.keybridge.dev.rs.PingListenerResource");
+  private static final Logger DPAC_LOG = Logger.getLogger("ch.keybridge.dev.rs.DpacStatusListenerResource");
+
+  /**
+   * Cleared on shutdown. Must be initialized before the writer is started.
+   */
+  private static volatile boolean running = true;
+  /**
+   * The background writer thread. Started on class load.
+   */
+  private static final Thread WRITER = startWriter();
+
+  private MessageLogger() {
+  }
+
+  private static Thread startWriter() {
+    Thread thread = new Thread(MessageLogger::write, "responder-message-logger");
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Submit a completed message for logging. Called on the request (or
+   * scheduler) thread; never blocks.
+   *
+   * @param message the completed message
+   */
+  public static void log(ReceivedMessage message) {
+    if (!isSampled(message)) {
+      return;
+    }
+    if (!QUEUE.offer(message)) {
+      DROPPED.increment();
+    }
+  }
+
+  /**
+   * Determine if a message should be logged.
+   */
+  private static boolean isSampled(ReceivedMessage message) {
+    if (LOG_ERRORS && message.isError()) {
+      return true;
+    }
+    switch (SAMPLE_RATE) {
+      case 0:
+        return false;
+      case 1:
+        return true;
+      default:
+        return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+    }
+  }
+
+  /**
+   * The writer loop. Drains the queue in batches and idles briefly when it is
+   * empty. Reports dropped messages once per batch cycle.
+   */
+  private static void write() {
+    long reportedDrops = 0;
+    while (running || QUEUE.size() > 0) {
+      try {
+        int count = QUEUE.drain(MessageLogger::writeRecord, BATCH_SIZE);
+        LOGGED.add(count);
+        long drops = DROPPED.sum();
+        if (drops != reportedDrops) {
+          LOG.log(Level.WARNING, "Message log queue full; {0} messages dropped since start", drops);
+          reportedDrops = drops;
+        }
+        if (count == 0) {
+          LockSupport.parkNanos(IDLE_NANOS);
+        }
+      } catch (Throwable throwable) {
+        LOG.log(Level.WARNING, "Message log write error {0}", throwable.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Build and publish the log record for one message.
+   *
+   * @param message the message
+   */
+  private static void writeRecord(ReceivedMessage message) {
+    Logger logger = getResourceLogger(message.getEndpoint());
+    if (logger.isLoggable(Level.INFO)) {
+      logger.log(createRecord(message));
+    }
+  }
+
+  /**
+   * Build the log record for one message. The message is formatted by the
+   * log handler when the record is published.
+   *
+   * @param message the message
+   * @return the log record
+   */
+  @SuppressWarnings("deprecation") // LogRecord.setInstant is Java 9+; the target is Java 8
+  static LogRecord createRecord(ReceivedMessage message) {
+    String loggerName = getResourceLogger(message.getEndpoint()).getName();
+    LogRecord record = new LogRecord(Level.INFO, format(message.getEndpoint()));
+    record.setLoggerName(loggerName);
+    record.setSourceClassName(loggerName);
+    record.setSourceMethodName(message.getEndpoint() == Endpoint.PING ? "receivePing" : "receiveDpacStatus");
+    record.setMillis(message.getReceivedMillis());
+    String content = LOG_CONTENT || message.getContent() == null
+                     ? message.getContent()
+                     : "[" + message.getContentLength() + " chars]";
+    record.setParameters(message.getEndpoint() == Endpoint.PING
+                         ? new Object[]{message.getRemoteAddress(), message.getAccessToken(), message.getMessageId(), content, message.getStatus()}
+                         : new Object[]{message.getRemoteAddress(), message.getAccessToken(), message.getMessageId(), message.getRelatesTo(), content, message.getStatus()});
+    return record;
+  }
+
+  /**
+   * Get the message pattern for an endpoint. These are the patterns originally
+   * written by the listener resources with the response status appended.
+   */
+  private static String format(Endpoint endpoint) {
+    return endpoint == Endpoint.PING
+           ? "PingListenerResource received ping '{'remoteAddr={0}, access_token={1}, messageId={2}, content={3}'}' status={4}"
+           : "DpacStatusListenerResource received notice '{'remoteAddr={0}, access_token={1}, messageId={2}, relatesTo={3}, content={4}'}' status={5}";
+  }
+
+  private static Logger getResourceLogger(Endpoint endpoint) {
+    return endpoint == Endpoint.PING ? PING_LOG : DPAC_LOG;
+  }
+
+  /**
+   * Get the number of messages written to the log.
+   *
+   * @return the logged message count
+   */
+  public static long getLoggedCount() {
+    return LOGGED.sum();
+  }
+
+  /**
+   * Get the number of messages dropped because the queue was full.
+   *
+   * @return the dropped message count
+   */
+  public static long getDroppedCount() {
+    return DROPPED.sum();
+  }
+
+  /**
+   * Stop the writer thread after the queued messages are written.
+   */
+  public static void shutdown() {
+    running = false;
+    LockSupport.unpark(WRITER);
+    try {
+      WRITER.join(TimeUnit.SECONDS.toMillis(2));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
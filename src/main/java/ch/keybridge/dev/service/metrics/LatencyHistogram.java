@@ -0,0 +1,147 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free log-linear latency histogram.
+ * <p>
+ * Values are recorded in microseconds. Each power of two is divided into four
+ * linear sub-buckets, so a bucket is at most 25% wide relative to its lower
+ * bound, from 1 microsecond to 19 hours in 140 buckets.
+ * <p>
+ * Recording is a single atomic increment on one of several stripes, selected
+ * by the recording thread, so concurrent request threads rarely touch the
+ * same cache lines. The stripes are merged when the histogram is read.
+ * Striping is used instead of thread-local histograms because container (and
+ * virtual) threads come and go, which would leak thread-local instances.
+ *
+ * @author Key Bridge
+ */
+public class LatencyHistogram {
+
+  /**
+   * Sub-buckets per power of two, as a bit count.
+   */
+  private static final int SUB_BITS = 2;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  /**
+   * The largest recorded value exponent; larger values are clamped.
+   */
+  private static final int MAX_EXPONENT = 35;
+  /**
+   * The number of buckets.
+   */
+  static final int BUCKETS = ((MAX_EXPONENT - SUB_BITS + 1) << SUB_BITS) + SUB_COUNT;
+  /**
+   * Index of the bucket sum in each stripe, following the bucket counts.
+   */
+  private static final int SUM = BUCKETS;
+
+  private static final int STRIPES = stripeCount();
+  private static final int STRIPE_MASK = STRIPES - 1;
+
+  /**
+   * Per stripe bucket counts followed by the sum of recorded values.
+   */
+  private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+  public LatencyHistogram() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new AtomicLongArray(BUCKETS + 1);
+    }
+  }
+
+  /**
+   * A power of two at least twice the number of processors.
+   */
+  private static int stripeCount() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    return Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+  }
+
+  /**
+   * Get the bucket index of a value.
+   *
+   * @param micros the value in microseconds, non-negative
+   * @return the bucket index
+   */
+  static int index(long micros) {
+    if (micros < SUB_COUNT) {
+      return (int) Math.max(0, micros);
+    }
+    int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+    int sub = exponent == MAX_EXPONENT && micros >= 2L << MAX_EXPONENT
+              ? SUB_COUNT - 1
+              : (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+    return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+  }
+
+  /**
+   * Get the exclusive upper bound of a bucket.
+   *
+   * @param index the bucket index
+   * @return the upper bound in microseconds
+   */
+  static long upperBound(int index) {
+    if (index < SUB_COUNT) {
+      return index + 1;
+    }
+    int exponent = (index >> SUB_BITS) + SUB_BITS - 1;
+    int sub = index & (SUB_COUNT - 1);
+    return (long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS);
+  }
+
+  /**
+   * Record a value.
+   *
+   * @param micros the value in microseconds
+   */
+  @SuppressWarnings("deprecation") // Thread.getId, as Java 8 has no threadId
+  public void record(long micros) {
+    AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & STRIPE_MASK];
+    stripe.getAndIncrement(index(micros));
+    stripe.getAndAdd(SUM, micros);
+  }
+
+  /**
+   * Merge the stripes into a snapshot. Values recorded while the snapshot is
+   * taken may or may not be included.
+   *
+   * @return the merged bucket counts followed by the sum
+   */
+  public long[] snapshot() {
+    long[] merged = new long[BUCKETS + 1];
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i <= BUCKETS; i++) {
+        merged[i] += stripe.get(i);
+      }
+    }
+    return merged;
+  }
+
+}
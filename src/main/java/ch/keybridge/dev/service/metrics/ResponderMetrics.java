@@ -0,0 +1,299 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.metrics;
+
+import ch.keybridge.dev.service.Bulkhead;
+import ch.keybridge.dev.service.DelayScheduler;
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.auth.TokenIntrospector;
+import ch.keybridge.dev.service.dedup.MessageDeduplicator;
+import ch.keybridge.dev.service.fault.FaultConfiguration;
+import ch.keybridge.dev.service.fault.FaultType;
+import ch.keybridge.dev.service.log.MessageLogger;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responder metrics, collected per endpoint and written in the Prometheus text
+ * exposition format.
+ * <p>
+ * Counters are {@link LongAdder} instances and latencies are recorded in
+ * striped {@link LatencyHistogram} instances, so recording never takes a lock
+ * and does not measurably slow the request path. Counters and histograms are
+ * merged when the metrics are read.
+ *
+ * @author Key Bridge
+ */
+public final class ResponderMetrics {
+
+  /**
+   * The metric name prefix.
+   */
+  private static final String PREFIX = "esc_responder_";
+  /**
+   * The range of HTTP status codes counted individually.
+   */
+  private static final int MAX_STATUS = 600;
+  /**
+   * The histogram buckets written, from 1 ms to 8 s. Finer buckets are merged
+   * into the first written bucket.
+   */
+  private static final int FIRST_BUCKET = LatencyHistogram.index(1 << 10);
+  private static final int LAST_BUCKET = LatencyHistogram.index((1 << 23) - 1);
+  /**
+   * The bucket upper bounds in seconds, formatted once.
+   */
+  private static final String[] BUCKET_LABELS = new String[LatencyHistogram.BUCKETS];
+
+  static {
+    for (int i = FIRST_BUCKET; i <= LAST_BUCKET; i++) {
+      BUCKET_LABELS[i] = BigDecimal.valueOf(LatencyHistogram.upperBound(i), 6).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  private static final Endpoint[] ENDPOINTS = Endpoint.values();
+  private static final EndpointMetrics[] METRICS = new EndpointMetrics[ENDPOINTS.length];
+
+  static {
+    for (Endpoint endpoint : ENDPOINTS) {
+      METRICS[endpoint.ordinal()] = new EndpointMetrics();
+    }
+  }
+
+  private ResponderMetrics() {
+  }
+
+  /**
+   * Record the arrival of a message.
+   *
+   * @param endpoint the endpoint receiving the message
+   */
+  public static void received(Endpoint endpoint) {
+    METRICS[endpoint.ordinal()].inFlight.increment();
+  }
+
+  /**
+   * Record the response sent to a message.
+   *
+   * @param message the completed message
+   */
+  public static void completed(ReceivedMessage message) {
+    EndpointMetrics metrics = METRICS[message.getEndpoint().ordinal()];
+    metrics.inFlight.decrement();
+    metrics.count(message.getStatus());
+    metrics.delay.record(TimeUnit.MILLISECONDS.toMicros(message.getDelayMillis()));
+    metrics.handling.record(TimeUnit.NANOSECONDS.toMicros(message.getHandlingNanos()));
+  }
+
+  /**
+   * Record the response sent to a duplicate message.
+   *
+   * @param endpoint the endpoint receiving the message
+   * @param status   the response status
+   */
+  public static void duplicate(Endpoint endpoint, int status) {
+    EndpointMetrics metrics = METRICS[endpoint.ordinal()];
+    metrics.inFlight.decrement();
+    metrics.duplicates.increment();
+    metrics.count(status);
+  }
+
+  /**
+   * Record a message rejected for a missing or invalid authorization.
+   *
+   * @param endpoint the endpoint receiving the message
+   */
+  public static void authorizationRejected(Endpoint endpoint) {
+    METRICS[endpoint.ordinal()].authorizationRejected.increment();
+  }
+
+  /**
+   * Record a message rejected for exceeding the peer rate limit.
+   *
+   * @param endpoint the endpoint receiving the message
+   */
+  public static void rateLimited(Endpoint endpoint) {
+    METRICS[endpoint.ordinal()].rateLimited.increment();
+  }
+
+  /**
+   * Record a message rejected for a malformed or oversized body.
+   *
+   * @param endpoint the endpoint receiving the message
+   */
+  public static void malformed(Endpoint endpoint) {
+    METRICS[endpoint.ordinal()].malformed.increment();
+  }
+
+  /**
+   * Write all metrics in the Prometheus text exposition format (version
+   * 0.0.4).
+   *
+   * @return the metrics text
+   */
+  public static String toPrometheus() {
+    StringBuilder text = new StringBuilder(16384);
+    header(text, "requests_total", "counter", "Messages answered, by response status.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      EndpointMetrics metrics = METRICS[endpoint.ordinal()];
+      for (int status = 0; status < MAX_STATUS; status++) {
+        LongAdder count = metrics.statusCounts.get(status);
+        if (count != null) {
+          text.append(PREFIX).append("requests_total{endpoint=\"").append(endpoint.getPath())
+            .append("\",status=\"").append(status).append("\"} ").append(count.sum()).append('\n');
+        }
+      }
+    }
+    header(text, "authorization_rejected_total", "counter", "Messages rejected for a missing or invalid bearer authorization.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "authorization_rejected_total", endpoint, METRICS[endpoint.ordinal()].authorizationRejected.sum());
+    }
+    header(text, "rate_limited_total", "counter", "Messages rejected for exceeding the peer rate limit.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "rate_limited_total", endpoint, METRICS[endpoint.ordinal()].rateLimited.sum());
+    }
+    header(text, "malformed_total", "counter", "Messages rejected for a malformed or oversized body.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "malformed_total", endpoint, METRICS[endpoint.ordinal()].malformed.sum());
+    }
+    header(text, "duplicates_total", "counter", "Re-delivered messages answered with the original status.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "duplicates_total", endpoint, METRICS[endpoint.ordinal()].duplicates.sum());
+    }
+    header(text, "faults_total", "counter", "Injected faults, by fault type.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      for (FaultType type : FaultType.values()) {
+        text.append(PREFIX).append("faults_total{endpoint=\"").append(endpoint.getPath())
+          .append("\",fault=\"").append(type.getName()).append("\"} ")
+          .append(FaultConfiguration.getInjectedCount(endpoint, type)).append('\n');
+      }
+    }
+    header(text, "in_flight", "gauge", "Messages received and not yet answered.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "in_flight", endpoint, METRICS[endpoint.ordinal()].inFlight.sum());
+    }
+    header(text, "delay_seconds", "histogram", "Emulated processing delay.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      histogram(text, "delay_seconds", endpoint, METRICS[endpoint.ordinal()].delay);
+    }
+    header(text, "handling_seconds", "histogram", "Time from message arrival to response.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      histogram(text, "handling_seconds", endpoint, METRICS[endpoint.ordinal()].handling);
+    }
+    header(text, "bulkhead_active", "gauge", "Messages being read and recorded on the endpoint bulkhead threads.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "bulkhead_active", endpoint, Bulkhead.get(endpoint).getActiveCount());
+    }
+    header(text, "bulkhead_queued", "gauge", "Messages waiting for an endpoint bulkhead thread.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "bulkhead_queued", endpoint, Bulkhead.get(endpoint).getQueuedCount());
+    }
+    header(text, "bulkhead_rejected_total", "counter", "Messages answered with 503 because the endpoint bulkhead was full.");
+    for (Endpoint endpoint : ENDPOINTS) {
+      sample(text, "bulkhead_rejected_total", endpoint, Bulkhead.get(endpoint).getRejectedCount());
+    }
+    header(text, "scheduler_pending", "gauge", "Delayed responses waiting in the shared scheduler.");
+    text.append(PREFIX).append("scheduler_pending ").append(DelayScheduler.getPendingCount()).append('\n');
+    header(text, "log_dropped_total", "counter", "Messages not logged because the log queue was full.");
+    text.append(PREFIX).append("log_dropped_total ").append(MessageLogger.getDroppedCount()).append('\n');
+    header(text, "dedup_hits_total", "counter", "MessageIDs found in the deduplication cache.");
+    text.append(PREFIX).append("dedup_hits_total ").append(MessageDeduplicator.getInstance().getHitCount()).append('\n');
+    header(text, "dedup_misses_total", "counter", "MessageIDs not found in the deduplication cache.");
+    text.append(PREFIX).append("dedup_misses_total ").append(MessageDeduplicator.getInstance().getMissCount()).append('\n');
+    TokenIntrospector introspector = TokenIntrospector.getInstance();
+    if (introspector.isEnabled()) {
+      header(text, "introspection_cache_hits_total", "counter", "Access token introspections answered from the cache.");
+      text.append(PREFIX).append("introspection_cache_hits_total ").append(introspector.getHitCount()).append('\n');
+      header(text, "introspection_calls_total", "counter", "Access token introspection calls to the STS.");
+      text.append(PREFIX).append("introspection_calls_total ").append(introspector.getLoadCount()).append('\n');
+      header(text, "introspection_failures_total", "counter", "Failed access token introspection calls to the STS.");
+      text.append(PREFIX).append("introspection_failures_total ").append(introspector.getFailureCount()).append('\n');
+    }
+    return text.toString();
+  }
+
+  private static void header(StringBuilder text, String name, String type, String help) {
+    text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n')
+      .append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder text, String name, Endpoint endpoint, long value) {
+    text.append(PREFIX).append(name).append("{endpoint=\"").append(endpoint.getPath()).append("\"} ").append(value).append('\n');
+  }
+
+  /**
+   * Write a histogram with cumulative buckets.
+   */
+  private static void histogram(StringBuilder text, String name, Endpoint endpoint, LatencyHistogram histogram) {
+    long[] snapshot = histogram.snapshot();
+    long cumulative = 0;
+    for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+      cumulative += snapshot[i];
+      if (i >= FIRST_BUCKET && i <= LAST_BUCKET) {
+        text.append(PREFIX).append(name).append("_bucket{endpoint=\"").append(endpoint.getPath())
+          .append("\",le=\"").append(BUCKET_LABELS[i]).append("\"} ").append(cumulative).append('\n');
+      }
+    }
+    text.append(PREFIX).append(name).append("_bucket{endpoint=\"").append(endpoint.getPath())
+      .append("\",le=\"+Inf\"} ").append(cumulative).append('\n');
+    text.append(PREFIX).append(name).append("_sum{endpoint=\"").append(endpoint.getPath()).append("\"} ")
+      .append(snapshot[LatencyHistogram.BUCKETS] / 1e6).append('\n');
+    text.append(PREFIX).append(name).append("_count{endpoint=\"").append(endpoint.getPath()).append("\"} ")
+      .append(cumulative).append('\n');
+  }
+
+  /**
+   * The metrics of one endpoint.
+   */
+  private static final class EndpointMetrics {
+
+    /**
+     * Response counts by status code. Counters are created on first use.
+     */
+    private final AtomicReferenceArray<LongAdder> statusCounts = new AtomicReferenceArray<>(MAX_STATUS);
+    private final LongAdder authorizationRejected = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LatencyHistogram delay = new LatencyHistogram();
+    private final LatencyHistogram handling = new LatencyHistogram();
+
+    private void count(int status) {
+      int index = status < 0 || status >= MAX_STATUS ? 0 : status;
+      LongAdder count = statusCounts.get(index);
+      if (count == null) {
+        statusCounts.compareAndSet(index, null, new LongAdder());
+        count = statusCounts.get(index);
+      }
+      count.increment();
+    }
+  }
+
+}
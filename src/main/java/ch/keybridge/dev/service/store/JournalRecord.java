@@ -0,0 +1,102 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.store;
+
+import ch.keybridge.dev.service.ReceivedMessage;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A received message encoded for the journal. Strings are encoded once,
+ * before a position is reserved, so the record length is known up front.
+ *
+ * @author Key Bridge
+ */
+final class JournalRecord {
+
+  final long receivedMillis;
+  final long respondedMillis;
+  final long delayMillis;
+  final int status;
+  final byte endpoint;
+  final long messageIdHash;
+  /**
+   * Remote address, MessageID, RelatesTo, response MessageID, headers and
+   * content as UTF-8 bytes.
+   */
+  final byte[][] fields;
+
+  JournalRecord(ReceivedMessage message) {
+    this.receivedMillis = message.getReceivedMillis();
+    this.respondedMillis = message.getRespondedMillis();
+    this.delayMillis = message.getDelayMillis();
+    this.status = message.getStatus();
+    this.endpoint = (byte) message.getEndpoint().ordinal();
+    this.messageIdHash = message.getMessageId() == null ? 0 : hash(message.getMessageId());
+    this.fields = new byte[][]{
+      encode(message.getRemoteAddress()),
+      encode(message.getMessageId()),
+      encode(message.getRelatesTo()),
+      encode(message.getResponseMessageId()),
+      encode(message.getHeaders()),
+      encode(message.getContent())};
+  }
+
+  /**
+   * Get the reserved record length: the encoded length rounded up to a
+   * multiple of 8, so the length and commit marker of every record are
+   * aligned for atomic access.
+   *
+   * @return the record length in bytes
+   */
+  int length() {
+    int length = JournalSegment.HEADER_SIZE;
+    for (byte[] field : fields) {
+      length += 4 + (field == null ? 0 : field.length);
+    }
+    return (length + 7) & ~7;
+  }
+
+  private static byte[] encode(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A 64-bit FNV-1a hash of a MessageID. The high and low 32 bits are used as
+   * two independent Bloom filter hashes. Never returns zero.
+   *
+   * @param messageId the MessageID
+   * @return the hash
+   */
+  static long hash(String messageId) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < messageId.length(); i++) {
+      hash ^= messageId.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+}
@@ -0,0 +1,447 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.store;
+
+import ch.keybridge.dev.service.Endpoint;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * A single memory-mapped journal segment file.
+ * <p>
+ * A writer reserves a record by atomically setting the record length at the
+ * segment write position and then advancing the position past it. The length
+ * of every record below the write position is therefore set, and readers skip
+ * records still being written by their reserved length. Concurrent writers
+ * copy their records into the mapped file in parallel. A record is only
+ * visible to readers once its commit marker is written, with a release store
+ * after the record fields (see {@link MappedMemory}).
+ * <p>
+ * Record layout (big endian):
+ * <pre>
+ * int    record length, including this field and padding to a multiple of 8
+ * int    commit marker
+ * long   received time, epoch milliseconds
+ * long   responded time, epoch milliseconds
+ * long   emulated delay, milliseconds
+ * int    status
+ * byte   endpoint ordinal
+ * string remote address, MessageID, RelatesTo, response MessageID, headers, content
+ * </pre> Strings are written as an int byte length (-1 for null) and UTF-8
+ * bytes.
+ * <p>
+ * The segment is divided into fixed size blocks. For each block a sparse index
+ * keeps the offset of the first record starting in the block, the range of
+ * received times and a small Bloom filter of MessageID hashes. Lookups by time
+ * or MessageID only scan the blocks that may contain a match. The index is
+ * updated with atomic operations only.
+ *
+ * @author Key Bridge
+ */
+final class JournalSegment {
+
+  /**
+   * The marker written last to commit a record.
+   */
+  static final int COMMITTED = 0x4B424A31; // "KBJ1"
+  /**
+   * The fixed record header size.
+   */
+  static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 1;
+  /**
+   * The index block size, 64 KiB.
+   */
+  private static final int BLOCK_SHIFT = 16;
+  /**
+   * Bloom filter words (64 bits each) per block.
+   */
+  private static final int BLOOM_WORDS = 16;
+  private static final int BLOOM_BITS = BLOOM_WORDS * 64;
+
+  private final long index;
+  private final Path path;
+  private final long createdMillis;
+  private final int capacity;
+  private final MappedByteBuffer buffer;
+  /**
+   * The address of the mapping, zero if ordered access is not available.
+   */
+  private final long address;
+  private final AtomicLong position;
+  /**
+   * The number of writers copying a record into this segment.
+   */
+  private final AtomicInteger writers = new AtomicInteger();
+  /**
+   * Set when the segment is replaced; no further records are appended.
+   */
+  private volatile boolean retired;
+  private final AtomicBoolean flushed = new AtomicBoolean();
+
+  private final AtomicLongArray blockFirstOffset;
+  private final AtomicLongArray blockMinTime;
+  private final AtomicLongArray blockMaxTime;
+  private final AtomicLongArray bloom;
+
+  /**
+   * Map a segment file. A new file is created and sized to the capacity.
+   *
+   * @param index         the segment index
+   * @param path          the segment file path
+   * @param createdMillis the segment creation time
+   * @param capacity      the segment size in bytes
+   * @throws IOException if the file cannot be created or mapped
+   */
+  JournalSegment(long index, Path path, long createdMillis, int capacity) throws IOException {
+    this.index = index;
+    this.path = path;
+    this.createdMillis = createdMillis;
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      if (file.length() == 0) {
+        file.setLength(capacity);
+      }
+      this.capacity = (int) Math.min(Integer.MAX_VALUE, file.length());
+      this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+    } // the mapping remains valid after the channel is closed
+    this.address = MappedMemory.isAvailable() ? MappedMemory.address(buffer) : 0;
+    int blocks = (this.capacity >> BLOCK_SHIFT) + 1;
+    this.blockFirstOffset = new AtomicLongArray(blocks);
+    this.blockMinTime = new AtomicLongArray(blocks);
+    this.blockMaxTime = new AtomicLongArray(blocks);
+    this.bloom = new AtomicLongArray(blocks * BLOOM_WORDS);
+    for (int i = 0; i < blocks; i++) {
+      blockFirstOffset.set(i, Long.MAX_VALUE);
+      blockMinTime.set(i, Long.MAX_VALUE);
+      blockMaxTime.set(i, Long.MIN_VALUE);
+    }
+    this.position = new AtomicLong(recover());
+  }
+
+  /**
+   * Scan existing records to rebuild the block index and find the end of the
+   * data. Records reserved but not committed before a restart are skipped by
+   * their reserved length. A new (zero filled) segment ends at offset zero.
+   *
+   * @return the write position
+   */
+  private long recover() {
+    ByteBuffer view = buffer.duplicate();
+    int offset = 0;
+    while (offset + HEADER_SIZE <= capacity) {
+      int length = view.getInt(offset);
+      if (length < HEADER_SIZE || offset + length > capacity) {
+        break;
+      }
+      if (view.getInt(offset + 4) == COMMITTED) {
+        index(offset, view.getLong(offset + 8), readMessageIdHash(view, offset));
+      }
+      offset += length;
+    }
+    return offset;
+  }
+
+  long getIndex() {
+    return index;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  long getCreatedMillis() {
+    return createdMillis;
+  }
+
+  /**
+   * Try to append an encoded record.
+   *
+   * @param record the record fields
+   * @return true if the record was written, false if the segment is full
+   */
+  boolean append(JournalRecord record) {
+    writers.incrementAndGet();
+    try {
+      if (retired) {
+        return false;
+      }
+      int start = reserve(record.length());
+      if (start < 0) {
+        return false;
+      }
+      ByteBuffer view = buffer.duplicate();
+      view.position(start + 4 + 4);
+      view.putLong(record.receivedMillis)
+        .putLong(record.respondedMillis)
+        .putLong(record.delayMillis)
+        .putInt(record.status)
+        .put(record.endpoint);
+      for (byte[] field : record.fields) {
+        if (field == null) {
+          view.putInt(-1);
+        } else {
+          view.putInt(field.length).put(field);
+        }
+      }
+      putIntOrdered(start + 4, COMMITTED);
+      index(start, record.receivedMillis, record.messageIdHash);
+      return true;
+    } finally {
+      if (writers.decrementAndGet() == 0 && retired) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Reserve space for a record. The record length is set at the write
+   * position before the position is advanced, so a reader never finds an
+   * unset length below the write position. A writer that finds the length
+   * already set by another writer helps advance the position past it.
+   *
+   * @param length the record length, a multiple of 8
+   * @return the record offset, -1 if the segment is full
+   */
+  private int reserve(int length) {
+    for (;;) {
+      long offset = position.get();
+      if (offset + length > capacity) {
+        return -1;
+      }
+      int start = (int) offset;
+      if (compareAndSetInt(start, 0, length)) {
+        position.compareAndSet(offset, offset + length);
+        return start;
+      }
+      position.compareAndSet(offset, offset + getIntVolatile(start));
+    }
+  }
+
+  private int getIntVolatile(int offset) {
+    if (address != 0 && (offset & 3) == 0) {
+      return MappedMemory.getIntVolatile(address + offset);
+    }
+    synchronized (this) { // unaligned records are only found in segments written by earlier versions
+      return buffer.getInt(offset);
+    }
+  }
+
+  private void putIntOrdered(int offset, int value) {
+    if (address != 0) {
+      MappedMemory.putIntOrdered(address + offset, value);
+      return;
+    }
+    synchronized (this) {
+      buffer.putInt(offset, value);
+    }
+  }
+
+  private boolean compareAndSetInt(int offset, int expect, int update) {
+    if (address != 0) {
+      return MappedMemory.compareAndSetInt(address + offset, expect, update);
+    }
+    synchronized (this) {
+      if (buffer.getInt(offset) != expect) {
+        return false;
+      }
+      buffer.putInt(offset, update);
+      return true;
+    }
+  }
+
+  /**
+   * Update the sparse block index for a committed record.
+   */
+  private void index(int offset, long receivedMillis, long messageIdHash) {
+    int block = offset >> BLOCK_SHIFT;
+    blockFirstOffset.accumulateAndGet(block, offset, Math::min);
+    blockMinTime.accumulateAndGet(block, receivedMillis, Math::min);
+    blockMaxTime.accumulateAndGet(block, receivedMillis, Math::max);
+    if (messageIdHash != 0) {
+      setBloomBit(block, (int) messageIdHash);
+      setBloomBit(block, (int) (messageIdHash >>> 32));
+    }
+  }
+
+  private void setBloomBit(int block, int hash) {
+    int bit = (hash & 0x7fffffff) % BLOOM_BITS;
+    long mask = 1L << (bit & 63);
+    int word = block * BLOOM_WORDS + (bit >> 6);
+    if ((bloom.get(word) & mask) == 0) {
+      bloom.accumulateAndGet(word, mask, (a, b) -> a | b);
+    }
+  }
+
+  private boolean mayContain(int block, long messageIdHash) {
+    return isBloomBitSet(block, (int) messageIdHash) && isBloomBitSet(block, (int) (messageIdHash >>> 32));
+  }
+
+  private boolean isBloomBitSet(int block, int hash) {
+    int bit = (hash & 0x7fffffff) % BLOOM_BITS;
+    return (bloom.get(block * BLOOM_WORDS + (bit >> 6)) & (1L << (bit & 63))) != 0;
+  }
+
+  /**
+   * Find records with the indicated MessageID. Only blocks whose Bloom filter
+   * matches are scanned.
+   *
+   * @param messageId     the MessageID
+   * @param messageIdHash the MessageID hash
+   * @param results       the list to add matching records to
+   * @param limit         the maximum size of the result list
+   */
+  void findByMessageId(String messageId, long messageIdHash, List<StoredMessage> results, int limit) {
+    for (int block = 0; block < blockFirstOffset.length() && results.size() < limit; block++) {
+      if (blockFirstOffset.get(block) != Long.MAX_VALUE && mayContain(block, messageIdHash)) {
+        scanBlock(block, results, limit, message -> messageId.equals(message.getMessageId()));
+      }
+    }
+  }
+
+  /**
+   * Find records received in a time range. Only blocks whose time range
+   * overlaps the query are scanned.
+   *
+   * @param fromMillis the start of the range, inclusive
+   * @param toMillis   the end of the range, exclusive
+   * @param results    the list to add matching records to
+   * @param limit      the maximum size of the result list
+   */
+  void findByTime(long fromMillis, long toMillis, List<StoredMessage> results, int limit) {
+    for (int block = 0; block < blockFirstOffset.length() && results.size() < limit; block++) {
+      if (blockFirstOffset.get(block) != Long.MAX_VALUE
+          && blockMaxTime.get(block) >= fromMillis
+          && blockMinTime.get(block) < toMillis) {
+        scanBlock(block, results, limit, message -> message.getReceivedMillis() >= fromMillis && message.getReceivedMillis() < toMillis);
+      }
+    }
+  }
+
+  /**
+   * Scan the records starting in one block.
+   */
+  private void scanBlock(int block, List<StoredMessage> results, int limit, Predicate<StoredMessage> filter) {
+    ByteBuffer view = buffer.duplicate();
+    long end = Math.min(capacity, Math.min(position.get(), ((long) block + 1) << BLOCK_SHIFT));
+    int offset = (int) blockFirstOffset.get(block);
+    while (offset < end && offset + HEADER_SIZE <= capacity && results.size() < limit) {
+      int length = getIntVolatile(offset);
+      if (length < HEADER_SIZE || offset + length > capacity) {
+        return; // not a record
+      }
+      if (getIntVolatile(offset + 4) == COMMITTED) {
+        StoredMessage message = read(view, offset, length);
+        if (filter.test(message)) {
+          results.add(message);
+        }
+      }
+      offset += length; // skip records still being written
+    }
+  }
+
+  /**
+   * Decode a committed record.
+   */
+  private StoredMessage read(ByteBuffer view, int offset, int length) {
+    byte[] copy = new byte[length];
+    ByteBuffer source = view.duplicate();
+    source.position(offset);
+    source.get(copy);
+    ByteBuffer record = ByteBuffer.wrap(copy);
+    record.position(8);
+    long receivedMillis = record.getLong();
+    long respondedMillis = record.getLong();
+    long delayMillis = record.getLong();
+    int status = record.getInt();
+    Endpoint endpoint = Endpoint.values()[record.get()];
+    return new StoredMessage((index << 32) | offset, endpoint, receivedMillis, respondedMillis, delayMillis, status, false,
+                             getString(record), getString(record), getString(record), getString(record), getString(record), getString(record));
+  }
+
+  /**
+   * Read the MessageID hash of a record without decoding the other fields.
+   */
+  private static long readMessageIdHash(ByteBuffer view, int offset) {
+    int field = offset + HEADER_SIZE;
+    int remoteLength = view.getInt(field);
+    field += 4 + Math.max(0, remoteLength);
+    int idLength = view.getInt(field);
+    if (idLength <= 0) {
+      return 0;
+    }
+    byte[] id = new byte[idLength];
+    ByteBuffer source = view.duplicate();
+    source.position(field + 4);
+    source.get(id);
+    return JournalRecord.hash(new String(id, StandardCharsets.UTF_8));
+  }
+
+  private static String getString(ByteBuffer record) {
+    int length = record.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+    record.position(record.position() + length);
+    return value;
+  }
+
+  /**
+   * Stop appending to this segment once it is replaced. The segment is
+   * flushed to the storage device when the last writer still copying a record
+   * into it is done.
+   */
+  void retire() {
+    retired = true;
+    if (writers.get() == 0) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    if (flushed.compareAndSet(false, true)) {
+      buffer.force();
+    }
+  }
+
+  /**
+   * Flush written records to the storage device.
+   */
+  void force() {
+    buffer.force();
+  }
+
+}
@@ -0,0 +1,175 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.store;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ordered and atomic access to big endian int values in a memory-mapped file.
+ * <p>
+ * Java 8 has no ordered or atomic access to a byte buffer, so this uses
+ * <code>sun.misc.Unsafe</code>. It is looked up reflectively and called
+ * through method handles so the responder still compiles against the Java 8
+ * API. If it is not available {@link #isAvailable()} is false and callers
+ * must fall back to locking.
+ * <p>
+ * Addresses must be aligned to four bytes.
+ *
+ * @author Key Bridge
+ */
+final class MappedMemory {
+
+  private static final Logger LOG = Logger.getLogger(MappedMemory.class.getName());
+
+  /**
+   * True if int values are stored in the reverse of the (big endian) file
+   * byte order.
+   */
+  private static final boolean SWAP = ByteOrder.nativeOrder() != ByteOrder.BIG_ENDIAN;
+
+  private static final MethodHandle GET_LONG;
+  private static final MethodHandle GET_INT_VOLATILE;
+  private static final MethodHandle PUT_ORDERED_INT;
+  private static final MethodHandle COMPARE_AND_SWAP_INT;
+  /**
+   * The field offset of the native address of a direct buffer.
+   */
+  private static final long ADDRESS_OFFSET;
+
+  static {
+    MethodHandle getLong = null;
+    MethodHandle getIntVolatile = null;
+    MethodHandle putOrderedInt = null;
+    MethodHandle compareAndSwapInt = null;
+    long addressOffset = -1;
+    try {
+      Class<?> type = Class.forName("sun.misc.Unsafe");
+      Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      addressOffset = (long) type.getMethod("objectFieldOffset", Field.class).invoke(unsafe, Buffer.class.getDeclaredField("address"));
+      getLong = lookup.findVirtual(type, "getLong", MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+      getIntVolatile = lookup.findVirtual(type, "getIntVolatile", MethodType.methodType(int.class, Object.class, long.class)).bindTo(unsafe);
+      putOrderedInt = lookup.findVirtual(type, "putOrderedInt", MethodType.methodType(void.class, Object.class, long.class, int.class)).bindTo(unsafe);
+      compareAndSwapInt = lookup.findVirtual(type, "compareAndSwapInt", MethodType.methodType(boolean.class, Object.class, long.class, int.class, int.class)).bindTo(unsafe);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      LOG.log(Level.WARNING, "Ordered journal access is not available; journal writes are locked. {0}", ex.toString());
+      getLong = null;
+    }
+    GET_LONG = getLong;
+    GET_INT_VOLATILE = getIntVolatile;
+    PUT_ORDERED_INT = putOrderedInt;
+    COMPARE_AND_SWAP_INT = compareAndSwapInt;
+    ADDRESS_OFFSET = addressOffset;
+  }
+
+  private MappedMemory() {
+  }
+
+  /**
+   * Determine if ordered and atomic access is available.
+   *
+   * @return true if the other methods may be used
+   */
+  static boolean isAvailable() {
+    return GET_LONG != null;
+  }
+
+  /**
+   * Get the native address of a mapped buffer. The buffer must remain
+   * reachable while the address is used.
+   *
+   * @param buffer the mapped buffer
+   * @return the address of the first byte
+   */
+  static long address(MappedByteBuffer buffer) {
+    try {
+      return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Read an int with acquire semantics: later reads are not reordered before
+   * it.
+   *
+   * @param address the aligned address
+   * @return the value
+   */
+  static int getIntVolatile(long address) {
+    try {
+      return order((int) GET_INT_VOLATILE.invokeExact((Object) null, address));
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Write an int with release semantics: earlier writes are visible to a
+   * reader that sees this value.
+   *
+   * @param address the aligned address
+   * @param value   the value
+   */
+  static void putIntOrdered(long address, int value) {
+    try {
+      PUT_ORDERED_INT.invokeExact((Object) null, address, order(value));
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Atomically set an int if it holds the expected value.
+   *
+   * @param address the aligned address
+   * @param expect  the expected value
+   * @param update  the new value
+   * @return true if the value was set
+   */
+  static boolean compareAndSetInt(long address, int expect, int update) {
+    try {
+      return (boolean) COMPARE_AND_SWAP_INT.invokeExact((Object) null, address, order(expect), order(update));
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static int order(int value) {
+    return SWAP ? Integer.reverseBytes(value) : value;
+  }
+
+}
@@ -0,0 +1,322 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.store;
+
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A durable, append-only journal of received messages.
+ * <p>
+ * Messages are appended to memory-mapped segment files. Writers reserve their
+ * record position with atomic updates and copy the record into the mapping in
+ * parallel, so journaling does not serialize the request threads. A new
+ * segment is started when the current one is full or older than the rotation
+ * interval; only the rotation itself is synchronized.
+ * <p>
+ * Each segment keeps a sparse, in-memory block index (see
+ * {@link JournalSegment}) used to look up messages by MessageID or by received
+ * time without scanning whole segments. Existing segments are re-indexed when
+ * the responder starts, and new messages are written to a new segment.
+ * <p>
+ * The journal is disabled unless a directory is configured. It is configured
+ * with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.journal.dir</code> - the segment directory.</li>
+ * <li><code>ch.keybridge.dev.journal.segmentSize</code> - the segment size in
+ * bytes. Default 64 MiB.</li>
+ * <li><code>ch.keybridge.dev.journal.rotateMinutes</code> - the maximum
+ * segment age before rotation. Default 60; 0 rotates on size only.</li>
+ * <li><code>ch.keybridge.dev.journal.maxSegments</code> - the number of
+ * segment files retained. Default 0 retains all segments.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class MessageJournal {
+
+  private static final Logger LOG = Logger.getLogger(MessageJournal.class.getName());
+
+  public static final String DIR = ResponderConfiguration.PREFIX + "journal.dir";
+  public static final String SEGMENT_SIZE = ResponderConfiguration.PREFIX + "journal.segmentSize";
+  public static final String ROTATE_MINUTES = ResponderConfiguration.PREFIX + "journal.rotateMinutes";
+  public static final String MAX_SEGMENTS = ResponderConfiguration.PREFIX + "journal.maxSegments";
+
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  /**
+   * The smallest allowed segment size, 1 MiB.
+   */
+  private static final int MIN_SEGMENT_SIZE = 1 << 20;
+
+  /**
+   * Set when the shared instance is created.
+   */
+  private static volatile boolean initialized;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final long rotateMillis;
+  private final int maxSegments;
+  /**
+   * All open segments, oldest first.
+   */
+  private final List<JournalSegment> segments = new CopyOnWriteArrayList<>();
+  /**
+   * The segment currently appended to. Null if the journal is disabled.
+   */
+  private volatile JournalSegment current;
+  /**
+   * Messages not journaled because they are larger than a segment or the
+   * journal could not be written.
+   */
+  private final LongAdder dropped = new LongAdder();
+
+  MessageJournal(String directory, long segmentSize, long rotateMinutes, int maxSegments) {
+    this.directory = directory == null ? null : Paths.get(directory);
+    this.segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(Integer.MAX_VALUE, segmentSize));
+    this.rotateMillis = TimeUnit.MINUTES.toMillis(Math.max(0, rotateMinutes));
+    this.maxSegments = Math.max(0, maxSegments);
+    if (this.directory != null) {
+      try {
+        open();
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Message journal disabled. Unable to open {0}: {1}", new Object[]{directory, ex.getMessage()});
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Get the shared journal instance.
+   *
+   * @return the journal
+   */
+  public static MessageJournal getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Determine if the shared journal has been created.
+   *
+   * @return true if {@link #getInstance()} has been called
+   */
+  public static boolean isInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Open the journal directory: index existing segments and start a new one.
+   */
+  private void open() throws IOException {
+    Files.createDirectories(directory);
+    List<Path> existing = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(existing::add);
+    }
+    existing.sort(null); // zero padded index sorts by name
+    long lastIndex = 0;
+    for (Path path : existing) {
+      long index = parseIndex(path);
+      if (index > 0) {
+        segments.add(new JournalSegment(index, path, Files.getLastModifiedTime(path).toMillis(), segmentSize));
+        lastIndex = Math.max(lastIndex, index);
+      }
+    }
+    current = createSegment(lastIndex + 1);
+    segments.add(current);
+    LOG.log(Level.INFO, "Message journal writing to {0}; {1} existing segments indexed",
+            new Object[]{current.getPath(), segments.size() - 1});
+  }
+
+  private JournalSegment createSegment(long index) throws IOException {
+    Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    return new JournalSegment(index, path, System.currentTimeMillis(), segmentSize);
+  }
+
+  private static long parseIndex(Path path) {
+    String name = path.getFileName().toString();
+    try {
+      return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * Determine if the journal is enabled.
+   *
+   * @return true if messages are journaled
+   */
+  public boolean isEnabled() {
+    return current != null;
+  }
+
+  /**
+   * Get the number of messages that could not be journaled.
+   *
+   * @return the dropped message count
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * Append a completed message to the journal. Lock-free except when the
+   * current segment must be rotated.
+   *
+   * @param message the completed message
+   */
+  public void append(ReceivedMessage message) {
+    if (current == null) {
+      return;
+    }
+    JournalRecord record = new JournalRecord(message);
+    if (record.length() > segmentSize) {
+      dropped.increment();
+      return;
+    }
+    for (;;) {
+      JournalSegment segment = current;
+      if (segment == null) {
+        dropped.increment();
+        return;
+      }
+      if (rotateMillis > 0 && message.getRespondedMillis() - segment.getCreatedMillis() > rotateMillis) {
+        rotate(segment);
+        continue;
+      }
+      if (segment.append(record)) {
+        return;
+      }
+      rotate(segment); // full
+    }
+  }
+
+  /**
+   * Replace the indicated segment with a new one. Only the first of several
+   * concurrent callers creates the new segment.
+   *
+   * @param full the segment to replace
+   */
+  private synchronized void rotate(JournalSegment full) {
+    if (current != full) {
+      return; // already rotated by another writer
+    }
+    try {
+      JournalSegment next = createSegment(full.getIndex() + 1);
+      segments.add(next);
+      current = next;
+    } catch (IOException ex) {
+      LOG.log(Level.WARNING, "Message journal disabled. Unable to create segment: {0}", ex.getMessage());
+      current = null;
+      return;
+    }
+    full.retire();
+    while (maxSegments > 0 && segments.size() > maxSegments) {
+      JournalSegment oldest = segments.remove(0);
+      try {
+        Files.deleteIfExists(oldest.getPath());
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Unable to delete journal segment {0}: {1}", new Object[]{oldest.getPath(), ex.getMessage()});
+      }
+    }
+  }
+
+  /**
+   * Find journaled messages by MessageID, newest segment first.
+   *
+   * @param messageId the MessageID
+   * @param limit     the maximum number of messages returned
+   * @return the matching messages
+   */
+  public List<StoredMessage> findByMessageId(String messageId, int limit) {
+    List<StoredMessage> results = new ArrayList<>();
+    long hash = JournalRecord.hash(messageId);
+    JournalSegment[] snapshot = segments.toArray(new JournalSegment[0]); // rotation may drop the oldest
+    for (int i = snapshot.length - 1; i >= 0 && results.size() < limit; i--) {
+      snapshot[i].findByMessageId(messageId, hash, results, limit);
+    }
+    return results;
+  }
+
+  /**
+   * Find journaled messages received in a time range, oldest segment first.
+   *
+   * @param fromMillis the start of the range, inclusive
+   * @param toMillis   the end of the range, exclusive
+   * @param limit      the maximum number of messages returned
+   * @return the matching messages
+   */
+  public List<StoredMessage> findByTime(long fromMillis, long toMillis, int limit) {
+    List<StoredMessage> results = new ArrayList<>();
+    for (JournalSegment segment : segments) {
+      if (results.size() >= limit) {
+        break;
+      }
+      segment.findByTime(fromMillis, toMillis, results, limit);
+    }
+    return results;
+  }
+
+  /**
+   * Flush the current segment to the storage device.
+   */
+  public void shutdown() {
+    JournalSegment segment = current;
+    if (segment != null) {
+      segment.force();
+    }
+  }
+
+  /**
+   * Holds the shared instance, created on first use.
+   */
+  private static final class Holder {
+
+    private static final MessageJournal INSTANCE = new MessageJournal(ResponderConfiguration.getString(DIR, null),
+                                                                      ResponderConfiguration.getLong(SEGMENT_SIZE, 64L << 20),
+                                                                      ResponderConfiguration.getLong(ROTATE_MINUTES, 60),
+                                                                      ResponderConfiguration.getInt(MAX_SEGMENTS, 0));
+
+    static {
+      initialized = true;
+    }
+  }
+
+}
@@ -0,0 +1,308 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.store;
+
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed-size, off-heap ring buffer of the most recently received messages.
+ * <p>
+ * Messages are serialized into fixed size slots of a single direct
+ * {@link ByteBuffer}, so the history occupies a constant amount of native
+ * memory and adds nothing to the heap or to garbage collection work however
+ * long the responder runs. When the ring is full the oldest message is
+ * overwritten. Values that do not fit in a slot are truncated.
+ * <p>
+ * Each writer claims a sequence number with a single atomic increment and
+ * write-locks only its own slot with a non-blocking
+ * {@link StampedLock#tryWriteLock()}; writers never wait for each other or
+ * for readers. Readers use optimistic stamps: a slot that is being written
+ * while it is read is simply skipped, so paging through the ring never blocks
+ * a writer.
+ * <p>
+ * The ring is configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.store.slots</code> - the number of messages kept.
+ * Default 1024; 0 disables the ring.</li>
+ * <li><code>ch.keybridge.dev.store.slotSize</code> - the slot size in bytes.
+ * Default 4096.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class MessageRingBuffer {
+
+  private static final Logger LOG = Logger.getLogger(MessageRingBuffer.class.getName());
+
+  public static final String SLOTS = ResponderConfiguration.PREFIX + "store.slots";
+  public static final String SLOT_SIZE = ResponderConfiguration.PREFIX + "store.slotSize";
+
+  /**
+   * Slot header: sequence (8), received (8), responded (8), delay (8), status
+   * (4), endpoint (1), truncated flag (1), payload length (4).
+   */
+  private static final int HEADER_SIZE = 42;
+  /**
+   * The smallest useful slot size.
+   */
+  private static final int MIN_SLOT_SIZE = 256;
+
+  private static final MessageRingBuffer INSTANCE = new MessageRingBuffer(ResponderConfiguration.getInt(SLOTS, 1024),
+                                                                          ResponderConfiguration.getInt(SLOT_SIZE, 4096));
+
+  private final int slots;
+  private final int slotSize;
+  private final ByteBuffer buffer;
+  private final StampedLock[] locks;
+  /**
+   * The next sequence number to write. Sequence numbers start at 1.
+   */
+  private final AtomicLong next = new AtomicLong(1);
+  /**
+   * Messages not stored because their slot was busy.
+   */
+  private final LongAdder skipped = new LongAdder();
+
+  /**
+   * Construct a new ring buffer.
+   *
+   * @param slots    the number of messages kept; zero disables the buffer
+   * @param slotSize the slot size in bytes
+   */
+  MessageRingBuffer(int slots, int slotSize) {
+    this.slots = Math.max(0, slots);
+    this.slotSize = Math.max(MIN_SLOT_SIZE, slotSize);
+    this.buffer = this.slots == 0 ? null : ByteBuffer.allocateDirect(Math.multiplyExact(this.slots, this.slotSize));
+    this.locks = new StampedLock[this.slots];
+    for (int i = 0; i < this.slots; i++) {
+      locks[i] = new StampedLock();
+    }
+    if (this.slots > 0) {
+      LOG.log(Level.INFO, "Message ring buffer allocated {0,number,#} slots of {1,number,#} bytes off-heap", new Object[]{this.slots, this.slotSize});
+    }
+  }
+
+  /**
+   * Get the shared ring buffer instance.
+   *
+   * @return the ring buffer
+   */
+  public static MessageRingBuffer getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Determine if the ring buffer is enabled.
+   *
+   * @return true if messages are stored
+   */
+  public boolean isEnabled() {
+    return slots > 0;
+  }
+
+  /**
+   * Get the sequence number of the most recently stored message.
+   *
+   * @return the latest sequence number, zero if no message was stored
+   */
+  public long getLatestSequence() {
+    return next.get() - 1;
+  }
+
+  /**
+   * Get the number of messages not stored because their slot was still being
+   * written when the ring wrapped around.
+   *
+   * @return the skipped message count
+   */
+  public long getSkippedCount() {
+    return skipped.sum();
+  }
+
+  /**
+   * Store a completed message, overwriting the oldest message if the ring is
+   * full. Never blocks.
+   *
+   * @param message the completed message
+   */
+  public void add(ReceivedMessage message) {
+    if (slots == 0) {
+      return;
+    }
+    long sequence = next.getAndIncrement();
+    int slot = (int) (sequence % slots);
+    StampedLock lock = locks[slot];
+    long stamp = lock.tryWriteLock();
+    if (stamp == 0) {
+      skipped.increment(); // a lapped writer still holds the slot
+      return;
+    }
+    try {
+      ByteBuffer view = buffer.duplicate();
+      int base = slot * slotSize;
+      if (view.getLong(base) > sequence) {
+        skipped.increment(); // a newer message already occupies the slot
+        return;
+      }
+      view.position(base + HEADER_SIZE);
+      int limit = base + slotSize;
+      boolean truncated = false;
+      truncated |= putString(view, limit, message.getRemoteAddress());
+      truncated |= putString(view, limit, message.getMessageId());
+      truncated |= putString(view, limit, message.getRelatesTo());
+      truncated |= putString(view, limit, message.getResponseMessageId());
+      truncated |= putString(view, limit, message.getHeaders());
+      truncated |= putString(view, limit, message.getContent());
+      view.putLong(base, sequence)
+        .putLong(base + 8, message.getReceivedMillis())
+        .putLong(base + 16, message.getRespondedMillis())
+        .putLong(base + 24, message.getDelayMillis())
+        .putInt(base + 32, message.getStatus())
+        .put(base + 36, (byte) message.getEndpoint().ordinal())
+        .put(base + 37, (byte) (truncated ? 1 : 0))
+        .putInt(base + 38, view.position() - base - HEADER_SIZE);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Write a length-prefixed UTF-8 string, truncated to the remaining slot
+   * space. A null value is written with length -1.
+   *
+   * @return true if the value was truncated
+   */
+  private static boolean putString(ByteBuffer view, int limit, String value) {
+    int available = limit - view.position() - 4;
+    if (value == null || available < 0) {
+      if (available >= 0) {
+        view.putInt(-1);
+      }
+      return value != null;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    int length = Math.min(bytes.length, available);
+    view.putInt(length).put(bytes, 0, length);
+    return length < bytes.length;
+  }
+
+  /**
+   * Read a page of stored messages, newest first.
+   *
+   * @param before   read messages with a sequence number less than this value;
+   *                 zero or negative to start with the latest message
+   * @param limit    the maximum number of messages returned
+   * @param endpoint if not null, only return messages received by this
+   *                 endpoint
+   * @return a list of stored messages; empty if there are no more messages
+   */
+  public List<StoredMessage> read(long before, int limit, Endpoint endpoint) {
+    List<StoredMessage> page = new ArrayList<>(Math.min(Math.max(0, limit), 256));
+    if (slots == 0) {
+      return page;
+    }
+    long latest = getLatestSequence();
+    long start = before <= 0 || before > latest ? latest : before - 1;
+    long oldest = Math.max(1, latest - slots + 1);
+    ByteBuffer view = buffer.duplicate();
+    byte[] copy = new byte[slotSize];
+    for (long sequence = start; sequence >= oldest && page.size() < limit; sequence--) {
+      StoredMessage stored = readSlot(view, copy, sequence);
+      if (stored != null && (endpoint == null || stored.getEndpoint() == endpoint)) {
+        page.add(stored);
+      }
+    }
+    return page;
+  }
+
+  /**
+   * Read one slot with an optimistic stamp. Returns null if the slot no longer
+   * holds the indicated sequence or was modified while it was being read.
+   */
+  private StoredMessage readSlot(ByteBuffer view, byte[] copy, long sequence) {
+    int slot = (int) (sequence % slots);
+    StampedLock lock = locks[slot];
+    long stamp = lock.tryOptimisticRead();
+    if (stamp == 0) {
+      return null; // being written
+    }
+    view.position(slot * slotSize);
+    view.get(copy, 0, slotSize);
+    if (!lock.validate(stamp)) {
+      return null; // overwritten while reading
+    }
+    ByteBuffer slotBuffer = ByteBuffer.wrap(copy);
+    if (slotBuffer.getLong(0) != sequence) {
+      return null; // overwritten or never written
+    }
+    int payloadLength = slotBuffer.getInt(38);
+    if (payloadLength < 0 || payloadLength > slotSize - HEADER_SIZE) {
+      return null;
+    }
+    slotBuffer.limit(HEADER_SIZE + payloadLength).position(HEADER_SIZE);
+    return new StoredMessage(sequence,
+                             Endpoint.values()[slotBuffer.get(36)],
+                             slotBuffer.getLong(8),
+                             slotBuffer.getLong(16),
+                             slotBuffer.getLong(24),
+                             slotBuffer.getInt(32),
+                             slotBuffer.get(37) != 0,
+                             getString(slotBuffer),
+                             getString(slotBuffer),
+                             getString(slotBuffer),
+                             getString(slotBuffer),
+                             getString(slotBuffer),
+                             getString(slotBuffer));
+  }
+
+  /**
+   * Read a length-prefixed UTF-8 string.
+   */
+  private static String getString(ByteBuffer slotBuffer) {
+    if (slotBuffer.remaining() < 4) {
+      return null;
+    }
+    int length = slotBuffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(slotBuffer.array(), slotBuffer.position(), length, StandardCharsets.UTF_8);
+    slotBuffer.position(slotBuffer.position() + length);
+    return value;
+  }
+
+}
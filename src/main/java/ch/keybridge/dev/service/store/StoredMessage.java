@@ -0,0 +1,183 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.store;
+
+import ch.keybridge.dev.service.Endpoint;
+import java.time.Instant;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * An immutable copy of a message read back from a message store.
+ *
+ * @author Key Bridge
+ */
+public final class StoredMessage {
+
+  private final long sequence;
+  private final Endpoint endpoint;
+  private final long receivedMillis;
+  private final long respondedMillis;
+  private final long delayMillis;
+  private final int status;
+  private final boolean truncated;
+  private final String remoteAddress;
+  private final String messageId;
+  private final String relatesTo;
+  private final String responseMessageId;
+  private final String headers;
+  private final String content;
+
+  StoredMessage(long sequence, Endpoint endpoint, long receivedMillis, long respondedMillis, long delayMillis, int status, boolean truncated,
+                String remoteAddress, String messageId, String relatesTo, String responseMessageId, String headers, String content) {
+    this.sequence = sequence;
+    this.endpoint = endpoint;
+    this.receivedMillis = receivedMillis;
+    this.respondedMillis = respondedMillis;
+    this.delayMillis = delayMillis;
+    this.status = status;
+    this.truncated = truncated;
+    this.remoteAddress = remoteAddress;
+    this.messageId = messageId;
+    this.relatesTo = relatesTo;
+    this.responseMessageId = responseMessageId;
+    this.headers = headers;
+    this.content = content;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public Endpoint getEndpoint() {
+    return endpoint;
+  }
+
+  public long getReceivedMillis() {
+    return receivedMillis;
+  }
+
+  public long getRespondedMillis() {
+    return respondedMillis;
+  }
+
+  public long getDelayMillis() {
+    return delayMillis;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public String getRelatesTo() {
+    return relatesTo;
+  }
+
+  public String getResponseMessageId() {
+    return responseMessageId;
+  }
+
+  public String getHeaders() {
+    return headers;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  /**
+   * Write this message as a JSON object. Null values are omitted. Request
+   * headers are written as an object of header name to value, with
+   * authorization credentials masked again in case the message was journaled
+   * before credentials were masked on receipt.
+   *
+   * @return a JSON object
+   */
+  public JsonObject toJson() {
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("sequence", sequence)
+      .add("endpoint", endpoint.getPath())
+      .add("received", Instant.ofEpochMilli(receivedMillis).toString())
+      .add("responded", Instant.ofEpochMilli(respondedMillis).toString())
+      .add("delay", delayMillis)
+      .add("status", status)
+      .add("truncated", truncated);
+    addIfPresent(builder, "remoteAddr", remoteAddress);
+    addIfPresent(builder, "messageId", messageId);
+    addIfPresent(builder, "relatesTo", relatesTo);
+    addIfPresent(builder, "responseMessageId", responseMessageId);
+    if (headers != null) {
+      JsonObjectBuilder headerBuilder = Json.createObjectBuilder();
+      for (String line : headers.split("\n")) {
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+          String name = line.substring(0, colon);
+          headerBuilder.add(name, redactHeader(name, line.substring(colon + 1).trim()));
+        }
+      }
+      builder.add("headers", headerBuilder);
+    }
+    addIfPresent(builder, "content", content);
+    return builder.build();
+  }
+
+  /**
+   * Mask the credential of an authorization header so stored messages do not
+   * disclose peer access tokens. The authentication scheme is kept, e.g.
+   * "Bearer ***". Other header values are returned unchanged.
+   *
+   * @param name  the header name
+   * @param value the header value
+   * @return the value to store
+   */
+  public static String redactHeader(String name, String value) {
+    if (!"Authorization".equalsIgnoreCase(name) && !"Proxy-Authorization".equalsIgnoreCase(name)) {
+      return value;
+    }
+    int space = value.indexOf(' ');
+    return space < 0 ? "***" : value.substring(0, space + 1) + "***";
+  }
+
+  private static void addIfPresent(JsonObjectBuilder builder, String name, String value) {
+    if (value != null) {
+      builder.add(name, value);
+    }
+  }
+
+}
@@ -0,0 +1,474 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.stream;
+
+import ch.keybridge.dev.service.DelayScheduler;
+import ch.keybridge.dev.service.Endpoint;
+import ch.keybridge.dev.service.ReceivedMessage;
+import ch.keybridge.dev.service.ResponderConfiguration;
+import ch.keybridge.dev.service.dpac.DpacStatusContent;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+/**
+ * Broadcasts a compact Server-Sent Event for each message answered by the
+ * listener resources.
+ * <p>
+ * Events are written once into a fixed size ring. Each subscriber reads the
+ * ring through its own cursor, so the ring is the bounded queue of every
+ * subscriber: a subscriber that falls more than the ring size behind skips to
+ * the oldest retained event (drop oldest) and is sent a "dropped" event with
+ * the number of events lost. Publishing never blocks and costs one array
+ * write plus a wake-up per idle subscriber, whatever the number or speed of
+ * the subscribers. Events are sent to a subscriber by a pooled thread, one
+ * thread per subscriber at most, so a slow client never holds a request
+ * thread.
+ * <p>
+ * A disconnected client is only detected when an event is written to it, so
+ * every subscriber is sent a heartbeat comment periodically. Subscribers whose
+ * heartbeat cannot be written are removed, even if no messages are published.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.stream.queue</code> - the number of events
+ * buffered for each subscriber. Default 1024.</li>
+ * <li><code>ch.keybridge.dev.stream.maxSubscribers</code> - the maximum number
+ * of concurrent subscribers. Default 32.</li>
+ * <li><code>ch.keybridge.dev.stream.heartbeatSeconds</code> - the heartbeat
+ * period. Default 15.</li>
+ * </ul>
+ *
+ * @author Key Bridge
+ */
+public final class MessageBroadcaster {
+
+  private static final Logger LOG = Logger.getLogger(MessageBroadcaster.class.getName());
+
+  public static final String QUEUE = ResponderConfiguration.PREFIX + "stream.queue";
+  public static final String MAX_SUBSCRIBERS = ResponderConfiguration.PREFIX + "stream.maxSubscribers";
+  public static final String HEARTBEAT_SECONDS = ResponderConfiguration.PREFIX + "stream.heartbeatSeconds";
+
+  /**
+   * The time allowed to send one event before a subscriber is dropped.
+   */
+  private static final long SEND_TIMEOUT_SECONDS = 30;
+
+  /**
+   * A shared builder factory. {@link Json#createObjectBuilder()} looks up the
+   * provider on every call.
+   */
+  private static final JsonBuilderFactory BUILDERS = Json.createBuilderFactory(null);
+
+  /**
+   * Set when the shared instance is created.
+   */
+  private static volatile boolean initialized;
+
+  private final AtomicReferenceArray<StreamEvent> ring;
+  private final int mask;
+  /**
+   * The sequence number of the next event.
+   */
+  private final AtomicLong sequence = new AtomicLong();
+  private final int maxSubscribers;
+  private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+  private final ExecutorService executor;
+  private final long heartbeatMillis;
+  /**
+   * Set when the heartbeat is started, with the first subscriber.
+   */
+  private final AtomicBoolean heartbeating = new AtomicBoolean();
+  private volatile boolean stopped;
+
+  private final LongAdder dropped = new LongAdder();
+
+  private MessageBroadcaster() {
+    int capacity = Math.max(2, Math.min(ResponderConfiguration.getInt(QUEUE, 1024), 1 << 20));
+    int size = Integer.highestOneBit(capacity * 2 - 1);
+    this.ring = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+    this.maxSubscribers = Math.max(1, ResponderConfiguration.getInt(MAX_SUBSCRIBERS, 32));
+    AtomicInteger counter = new AtomicInteger();
+    this.executor = Executors.newCachedThreadPool((Runnable runnable) -> {
+      Thread thread = new Thread(runnable, "responder-sse-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.heartbeatMillis = TimeUnit.SECONDS.toMillis(Math.max(1, ResponderConfiguration.getLong(HEARTBEAT_SECONDS, 15)));
+  }
+
+  /**
+   * Get the shared broadcaster instance.
+   *
+   * @return the message broadcaster
+   */
+  public static MessageBroadcaster getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Determine if the shared broadcaster has been created.
+   *
+   * @return true if {@link #getInstance()} has been called
+   */
+  public static boolean isInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Publish an answered message to all subscribers. Returns immediately if
+   * there are none.
+   *
+   * @param message the completed message
+   */
+  public void publish(ReceivedMessage message) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    long seq = sequence.getAndIncrement();
+    StreamEvent event = new StreamEvent(seq, message.getEndpoint(), toJson(message));
+    int slot = (int) seq & mask;
+    /**
+     * Never replace a newer event: a publisher descheduled between claiming
+     * its sequence number and writing may have been lapped meanwhile.
+     */
+    StreamEvent current = ring.get(slot);
+    while ((current == null || current.seq < seq) && !ring.compareAndSet(slot, current, event)) {
+      current = ring.get(slot);
+    }
+    for (Subscriber subscriber : subscribers) {
+      subscriber.signal();
+    }
+  }
+
+  /**
+   * Send a heartbeat to every subscriber, so subscribers whose client has
+   * disconnected are found and removed, then schedule the next heartbeat.
+   */
+  private void heartbeat() {
+    if (stopped) {
+      return;
+    }
+    try {
+      for (Subscriber subscriber : subscribers) {
+        subscriber.heartbeat();
+      }
+    } finally {
+      try {
+        DelayScheduler.schedule(this::heartbeat, heartbeatMillis);
+      } catch (RejectedExecutionException ex) {
+        // the scheduler is shut down
+      }
+    }
+  }
+
+  /**
+   * Write the compact event data of a message.
+   */
+  private static String toJson(ReceivedMessage message) {
+    JsonObjectBuilder builder = BUILDERS.createObjectBuilder()
+      .add("endpoint", message.getEndpoint().getPath())
+      .add("received", message.getReceivedMillis())
+      .add("delay", message.getDelayMillis())
+      .add("status", message.getStatus())
+      .add("length", message.getContentLength());
+    add(builder, "messageId", message.getMessageId());
+    add(builder, "relatesTo", message.getRelatesTo());
+    add(builder, "remoteAddr", message.getRemoteAddress());
+    DpacStatusContent dpacStatus = message.getDpacStatus();
+    if (dpacStatus != null) {
+      JsonArrayBuilder dpaIds = BUILDERS.createArrayBuilder();
+      dpacStatus.getDpaIds().forEach(dpaIds::add);
+      builder.add("dpaIds", dpaIds);
+      add(builder, "activation", dpacStatus.getActivation());
+    }
+    return builder.build().toString();
+  }
+
+  private static void add(JsonObjectBuilder builder, String name, String value) {
+    if (value != null) {
+      builder.add(name, value);
+    }
+  }
+
+  /**
+   * Add a subscriber. Events published from now on are sent to the sink until
+   * it is closed.
+   *
+   * @param sink     the subscriber event sink
+   * @param sse      the SSE context, used to build events
+   * @param endpoint the endpoint whose messages are sent; null for all
+   * @return false if the maximum number of subscribers is reached
+   */
+  public boolean subscribe(SseEventSink sink, Sse sse, Endpoint endpoint) {
+    synchronized (subscribers) {
+      if (subscribers.size() >= maxSubscribers) {
+        return false;
+      }
+      Subscriber subscriber = new Subscriber(sink, sse, endpoint, sequence.get());
+      subscribers.add(subscriber);
+      subscriber.signal(); // send the greeting
+    }
+    if (heartbeating.compareAndSet(false, true)) {
+      DelayScheduler.schedule(this::heartbeat, heartbeatMillis);
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of current subscribers.
+   *
+   * @return the subscriber count
+   */
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  /**
+   * Get the number of events dropped for slow subscribers.
+   *
+   * @return the dropped event count
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * Close all subscribers and stop sending.
+   */
+  public void shutdown() {
+    stopped = true;
+    for (Subscriber subscriber : subscribers) {
+      subscriber.close();
+    }
+    executor.shutdownNow();
+  }
+
+  /**
+   * A published event.
+   */
+  private static final class StreamEvent {
+
+    private final long seq;
+    private final Endpoint endpoint;
+    private final String data;
+
+    private StreamEvent(long seq, Endpoint endpoint, String data) {
+      this.seq = seq;
+      this.endpoint = endpoint;
+      this.data = data;
+    }
+  }
+
+  /**
+   * A subscriber and its ring cursor.
+   */
+  private final class Subscriber implements Runnable {
+
+    private final SseEventSink sink;
+    private final Sse sse;
+    private final Endpoint endpoint;
+    /**
+     * True while a send task is scheduled or running.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+    /**
+     * True if a heartbeat is due.
+     */
+    private final AtomicBoolean heartbeat = new AtomicBoolean();
+    /**
+     * The sequence number of the next event to send. Only accessed by the
+     * send task.
+     */
+    private long cursor;
+    private boolean greeted;
+
+    private Subscriber(SseEventSink sink, Sse sse, Endpoint endpoint, long cursor) {
+      this.sink = sink;
+      this.sse = sse;
+      this.endpoint = endpoint;
+      this.cursor = cursor;
+    }
+
+    /**
+     * Schedule a send task unless one is already scheduled.
+     */
+    private void signal() {
+      if (!draining.get() && draining.compareAndSet(false, true)) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException ex) {
+          draining.set(false);
+        }
+      }
+    }
+
+    /**
+     * Request a heartbeat, sent by the send task.
+     */
+    private void heartbeat() {
+      heartbeat.set(true);
+      signal();
+    }
+
+    /**
+     * Send events until the cursor reaches an event not yet written, and a
+     * heartbeat if one is due.
+     */
+    @Override
+    public void run() {
+      try {
+        if (!greeted) {
+          greeted = true;
+          send(sse.newEventBuilder().comment("esc responder message stream").build());
+        }
+        while (true) {
+          if (heartbeat.getAndSet(false)) {
+            send(sse.newEventBuilder().comment("heartbeat").build());
+          }
+          StreamEvent event = next();
+          if (event == null) {
+            draining.set(false);
+            /**
+             * Recheck after clearing the flag: an event or heartbeat written
+             * meanwhile may have found the flag still set.
+             */
+            if ((peek() == null && !heartbeat.get()) || !draining.compareAndSet(false, true)) {
+              return;
+            }
+            continue;
+          }
+          if (endpoint == null || endpoint == event.endpoint) {
+            send(sse.newEventBuilder()
+              .id(Long.toString(event.seq))
+              .name(event.endpoint.getPath())
+              .mediaType(MediaType.APPLICATION_JSON_TYPE)
+              .data(String.class, event.data)
+              .build());
+          }
+        }
+      } catch (IllegalStateException ex) {
+        LOG.log(Level.FINE, "Message stream subscriber closed: {0}", ex.getMessage());
+        close();
+      }
+    }
+
+    /**
+     * Get the event at the cursor without consuming it.
+     *
+     * @return the event, null if not yet written
+     */
+    private StreamEvent peek() {
+      StreamEvent event = ring.get((int) cursor & mask);
+      return event != null && event.seq >= cursor ? event : null;
+    }
+
+    /**
+     * Get the event at the cursor and advance, skipping events overwritten
+     * since they were published.
+     */
+    private StreamEvent next() {
+      StreamEvent event = peek();
+      if (event == null) {
+        return null;
+      }
+      if (event.seq > cursor) {
+        /**
+         * The cursor was lapped: resume from the oldest retained event.
+         */
+        long oldest = Math.max(cursor, sequence.get() - ring.length());
+        long lost = oldest - cursor;
+        cursor = oldest;
+        dropped.add(lost);
+        send(sse.newEventBuilder().name("dropped").data(String.class, Long.toString(lost)).build());
+        return next();
+      }
+      cursor++;
+      return event;
+    }
+
+    /**
+     * Send one event, waiting for it to be written.
+     *
+     * @throws IllegalStateException if the subscriber is gone
+     */
+    private void send(OutboundSseEvent event) {
+      if (sink.isClosed()) {
+        throw new IllegalStateException("Event sink is closed");
+      }
+      try {
+        sink.send(event).toCompletableFuture().get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted");
+      } catch (ExecutionException | TimeoutException ex) {
+        throw new IllegalStateException(ex.getMessage());
+      }
+    }
+
+    private void close() {
+      subscribers.remove(this);
+      try {
+        sink.close();
+      } catch (RuntimeException ex) {
+        // already closed
+      }
+    }
+  }
+
+  /**
+   * Holds the shared instance, created on first use.
+   */
+  private static final class Holder {
+
+    private static final MessageBroadcaster INSTANCE = new MessageBroadcaster();
+
+    static {
+      initialized = true;
+    }
+  }
+
+}
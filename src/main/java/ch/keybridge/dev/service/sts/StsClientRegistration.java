@@ -0,0 +1,97 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.sts;
+
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+/**
+ * A client registered with the embedded STS (RFC 7591).
+ *
+ * @author Key Bridge
+ */
+public final class StsClientRegistration {
+
+  private final String clientId;
+  private final String clientSecret;
+  private final String registrationAccessToken;
+  /**
+   * The registration time, in seconds since the epoch.
+   */
+  private final long issuedAt;
+  /**
+   * The client metadata, as last registered or updated.
+   */
+  private volatile JsonObject metadata;
+
+  StsClientRegistration(String clientId, String clientSecret, String registrationAccessToken, long issuedAt, JsonObject metadata) {
+    this.clientId = clientId;
+    this.clientSecret = clientSecret;
+    this.registrationAccessToken = registrationAccessToken;
+    this.issuedAt = issuedAt;
+    this.metadata = metadata;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  String getClientSecret() {
+    return clientSecret;
+  }
+
+  String getRegistrationAccessToken() {
+    return registrationAccessToken;
+  }
+
+  void setMetadata(JsonObject metadata) {
+    this.metadata = metadata;
+  }
+
+  /**
+   * Write the RFC 7591 client information response.
+   *
+   * @param registrationClientUri the client configuration endpoint URI
+   * @return the client information JSON
+   */
+  public JsonObjectBuilder toClientInformation(String registrationClientUri) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    for (Map.Entry<String, JsonValue> entry : metadata.entrySet()) {
+      builder.add(entry.getKey(), entry.getValue());
+    }
+    return builder
+      .add("client_id", clientId)
+      .add("client_secret", clientSecret)
+      .add("client_id_issued_at", issuedAt)
+      .add("client_secret_expires_at", 0)
+      .add("registration_access_token", registrationAccessToken)
+      .add("registration_client_uri", registrationClientUri);
+  }
+
+}
@@ -0,0 +1,275 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.sts;
+
+import ch.keybridge.dev.service.ResponderConfiguration;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObject;
+
+/**
+ * An embedded, in-process stand-in for the Key Bridge STS.
+ * <p>
+ * Registers OAuth clients and issues, introspects and revokes client
+ * credentials access tokens, so the OAuth path may be load tested without the
+ * network. Tokens are kept in a {@link StsTokenStore} ring. Clients are kept
+ * in concurrent maps by client ID and by their encoded Basic authorization
+ * header, so authenticating a client is normally one map lookup.
+ * <p>
+ * This is a development tool: tokens are not persisted and are not
+ * cryptographically strong. The STS is disabled unless enabled with system
+ * properties:
+ * <ul>
+ * <li><code>ch.keybridge.dev.sts.embedded</code> - enable the embedded STS.
+ * Default false. Also enabled if <code>ch.keybridge.dev.sts.uri</code> is
+ * <code>embedded</code>.</li>
+ * <li><code>ch.keybridge.dev.sts.initialAccessToken</code> - the bearer token
+ * required to register a client. If not set any token is accepted.</li>
+ * <li><code>ch.keybridge.dev.sts.tokenTtlSeconds</code> - the access token
+ * lifetime. Default 3600.</li>
+ * <li><code>ch.keybridge.dev.sts.tokenCapacity</code> - the number of access
+ * tokens retained. Default 1048576.</li>
+ * </ul>
+ * If <code>ch.keybridge.dev.sts.clientId</code> and
+ * <code>ch.keybridge.dev.sts.clientSecret</code> are set that client is
+ * registered on start.
+ *
+ * @author Key Bridge
+ */
+public final class StsService {
+
+  private static final Logger LOG = Logger.getLogger(StsService.class.getName());
+
+  public static final String EMBEDDED = ResponderConfiguration.PREFIX + "sts.embedded";
+  public static final String INITIAL_ACCESS_TOKEN = ResponderConfiguration.PREFIX + "sts.initialAccessToken";
+  public static final String TOKEN_TTL_SECONDS = ResponderConfiguration.PREFIX + "sts.tokenTtlSeconds";
+  public static final String TOKEN_CAPACITY = ResponderConfiguration.PREFIX + "sts.tokenCapacity";
+  /**
+   * The <code>ch.keybridge.dev.sts.uri</code> value selecting the embedded
+   * STS for access token validation.
+   */
+  public static final String EMBEDDED_URI = "embedded";
+
+  private static final StsService INSTANCE = new StsService();
+
+  private final boolean enabled;
+  private final String initialAccessToken;
+  private final long tokenTtlSeconds;
+  private final StsTokenStore tokens;
+  private final ConcurrentHashMap<String, StsClientRegistration> clients = new ConcurrentHashMap<>();
+  /**
+   * Basic authorization header value to client.
+   */
+  private final ConcurrentHashMap<String, StsClientRegistration> authorizations = new ConcurrentHashMap<>();
+  private final SecureRandom random = new SecureRandom();
+
+  private StsService() {
+    this.enabled = ResponderConfiguration.getBoolean(EMBEDDED, false)
+                   || EMBEDDED_URI.equals(ResponderConfiguration.getString(ResponderConfiguration.PREFIX + "sts.uri", null));
+    this.initialAccessToken = ResponderConfiguration.getString(INITIAL_ACCESS_TOKEN, null);
+    this.tokenTtlSeconds = Math.max(1, ResponderConfiguration.getLong(TOKEN_TTL_SECONDS, 3600));
+    this.tokens = enabled ? new StsTokenStore(ResponderConfiguration.getInt(TOKEN_CAPACITY, 1 << 20)) : null;
+    String clientId = ResponderConfiguration.getString(ResponderConfiguration.PREFIX + "sts.clientId", null);
+    String clientSecret = ResponderConfiguration.getString(ResponderConfiguration.PREFIX + "sts.clientSecret", null);
+    if (enabled && clientId != null && clientSecret != null) {
+      add(new StsClientRegistration(clientId, clientSecret, newSecret(), nowSeconds(), Json.createObjectBuilder().build()));
+    }
+    if (enabled) {
+      LOG.log(Level.INFO, "Embedded STS enabled with token capacity {0}", tokens.getCapacity());
+    }
+  }
+
+  /**
+   * Get the shared STS instance.
+   *
+   * @return the embedded STS
+   */
+  public static StsService getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Determine if the embedded STS is enabled.
+   *
+   * @return true if enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  private static long nowSeconds() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  private String newSecret() {
+    return Long.toHexString(random.nextLong() | Long.MIN_VALUE) + Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+  }
+
+  private void add(StsClientRegistration client) {
+    clients.put(client.getClientId(), client);
+    authorizations.put(basic(client.getClientId(), client.getClientSecret()), client);
+  }
+
+  private static String basic(String clientId, String clientSecret) {
+    return "Basic " + Base64.getEncoder().encodeToString((clientId + ":" + clientSecret).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Determine if a client registration is authorized.
+   *
+   * @param token the initial access token presented
+   * @return true if registration is allowed
+   */
+  public boolean isRegistrationAuthorized(String token) {
+    return token != null && (initialAccessToken == null || initialAccessToken.equals(token));
+  }
+
+  /**
+   * Register a new client.
+   *
+   * @param metadata the client metadata
+   * @return the new client
+   */
+  public StsClientRegistration register(JsonObject metadata) {
+    StsClientRegistration client;
+    do {
+      client = new StsClientRegistration(Long.toHexString(random.nextLong() | Long.MIN_VALUE), newSecret(), newSecret(), nowSeconds(), metadata);
+    } while (clients.putIfAbsent(client.getClientId(), client) != null);
+    authorizations.put(basic(client.getClientId(), client.getClientSecret()), client);
+    return client;
+  }
+
+  /**
+   * Find a client by its registration access token (RFC 7592).
+   *
+   * @param clientId                the client ID
+   * @param registrationAccessToken the registration access token presented
+   * @return the client, null if not registered or the token does not match
+   */
+  public StsClientRegistration findClient(String clientId, String registrationAccessToken) {
+    StsClientRegistration client = clientId == null ? null : clients.get(clientId);
+    return client != null && client.getRegistrationAccessToken().equals(registrationAccessToken) ? client : null;
+  }
+
+  /**
+   * Replace the metadata of a client.
+   *
+   * @param client   the client
+   * @param metadata the client metadata
+   */
+  public void update(StsClientRegistration client, JsonObject metadata) {
+    client.setMetadata(metadata);
+  }
+
+  /**
+   * Delete a client. Tokens already issued to the client expire normally.
+   *
+   * @param client the client
+   */
+  public void delete(StsClientRegistration client) {
+    clients.remove(client.getClientId(), client);
+    authorizations.remove(basic(client.getClientId(), client.getClientSecret()), client);
+  }
+
+  /**
+   * Authenticate a client from its HTTP Basic authorization header.
+   *
+   * @param authorization the Authorization header value
+   * @return the client, null if not authenticated
+   */
+  public StsClientRegistration authenticate(String authorization) {
+    if (authorization == null) {
+      return null;
+    }
+    StsClientRegistration client = authorizations.get(authorization);
+    if (client != null || !authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+      return client;
+    }
+    /**
+     * Not the canonical encoding, e.g. a differently cased scheme.
+     */
+    String credential;
+    try {
+      credential = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+    int colon = credential.indexOf(':');
+    client = colon < 0 ? null : clients.get(credential.substring(0, colon));
+    return client != null && client.getClientSecret().equals(credential.substring(colon + 1)) ? client : null;
+  }
+
+  /**
+   * Issue an access token.
+   *
+   * @param client the client
+   * @param scope  the requested scope, may be null
+   * @return the new token
+   */
+  public StsToken issue(StsClientRegistration client, String scope) {
+    return tokens.mint(client.getClientId(), scope, nowSeconds(), tokenTtlSeconds);
+  }
+
+  /**
+   * Find an active access token.
+   *
+   * @param value the token value
+   * @return the token, null if not issued, expired or revoked
+   */
+  public StsToken introspect(String value) {
+    StsToken token = tokens.find(value);
+    return token != null && token.isActive(nowSeconds()) ? token : null;
+  }
+
+  /**
+   * Revoke an access token (RFC 7009). A client may only revoke its own
+   * tokens; other tokens are ignored.
+   *
+   * @param client the client
+   * @param value  the token value
+   */
+  public void revoke(StsClientRegistration client, String value) {
+    StsToken token = tokens.find(value);
+    if (token != null && token.getClientId().equals(client.getClientId())) {
+      token.revoke();
+    }
+  }
+
+  /**
+   * Get the number of access tokens issued.
+   *
+   * @return the issued token count
+   */
+  public long getIssuedCount() {
+    return enabled ? tokens.getMintedCount() : 0;
+  }
+
+}
@@ -0,0 +1,165 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.sts;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * An access token issued by the embedded STS.
+ * <p>
+ * A token is identified by a sequential 64-bit ID and authenticated by a
+ * random 64-bit secret. The token value is both written as 32 lower case hex
+ * digits, so a presented token is decoded to its store slot without hashing or
+ * allocation.
+ *
+ * @author Key Bridge
+ */
+public final class StsToken {
+
+  /**
+   * The number of characters in an encoded token.
+   */
+  static final int LENGTH = 32;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final long id;
+  private final long secret;
+  private final String clientId;
+  private final String scope;
+  /**
+   * The issue and expiry times, in seconds since the epoch.
+   */
+  private final long issuedAt;
+  private final long expiresAt;
+  private volatile boolean revoked;
+
+  StsToken(long id, long secret, String clientId, String scope, long issuedAt, long expiresAt) {
+    this.id = id;
+    this.secret = secret;
+    this.clientId = clientId;
+    this.scope = scope;
+    this.issuedAt = issuedAt;
+    this.expiresAt = expiresAt;
+  }
+
+  long getId() {
+    return id;
+  }
+
+  long getSecret() {
+    return secret;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public String getScope() {
+    return scope;
+  }
+
+  public long getIssuedAt() {
+    return issuedAt;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  /**
+   * Determine if the token is active: not expired and not revoked.
+   *
+   * @param nowSeconds the current time in seconds since the epoch
+   * @return true if active
+   */
+  public boolean isActive(long nowSeconds) {
+    return !revoked && nowSeconds < expiresAt;
+  }
+
+  void revoke() {
+    revoked = true;
+  }
+
+  /**
+   * Get the token value presented by clients.
+   *
+   * @return the encoded token
+   */
+  public String getValue() {
+    char[] chars = new char[LENGTH];
+    encode(id, chars, 0);
+    encode(secret, chars, LENGTH / 2);
+    return new String(chars);
+  }
+
+  /**
+   * Write the RFC 7662 introspection response of an active token.
+   *
+   * @return the introspection response JSON
+   */
+  public JsonObjectBuilder toIntrospection() {
+    JsonObjectBuilder builder = Json.createObjectBuilder()
+      .add("active", true)
+      .add("client_id", clientId)
+      .add("sub", clientId)
+      .add("token_type", "Bearer")
+      .add("iat", issuedAt)
+      .add("exp", expiresAt);
+    if (scope != null) {
+      builder.add("scope", scope);
+    }
+    return builder;
+  }
+
+  private static void encode(long value, char[] chars, int offset) {
+    for (int i = LENGTH / 2 - 1; i >= 0; i--) {
+      chars[offset + i] = HEX[(int) value & 0xf];
+      value >>>= 4;
+    }
+  }
+
+  /**
+   * Decode one half of an encoded token.
+   *
+   * @param token  the token value
+   * @param offset the index of the first hex digit
+   * @return the decoded value
+   * @throws NumberFormatException if the token is not hex encoded
+   */
+  static long decode(String token, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + LENGTH / 2; i++) {
+      int digit = Character.digit(token.charAt(i), 16);
+      if (digit < 0) {
+        throw new NumberFormatException("Not a hex digit: " + token.charAt(i));
+      }
+      value = value << 4 | digit;
+    }
+    return value;
+  }
+
+}
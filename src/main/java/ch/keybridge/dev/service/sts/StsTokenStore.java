@@ -0,0 +1,116 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.sts;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed capacity store of issued access tokens.
+ * <p>
+ * Tokens are assigned sequential IDs and kept in a ring indexed by the low bits
+ * of the ID. Minting a token is one atomic increment, one random number and
+ * one array store; looking one up is an array read and two long comparisons.
+ * There are no boxed keys, no hashing and no locks. When more tokens than the
+ * capacity are minted the oldest token is overwritten and is no longer active.
+ *
+ * @author Key Bridge
+ */
+final class StsTokenStore {
+
+  private final AtomicReferenceArray<StsToken> slots;
+  private final int mask;
+  private final AtomicLong sequence = new AtomicLong(1);
+
+  /**
+   * Construct a store.
+   *
+   * @param capacity the token capacity; rounded up to a power of two
+   */
+  StsTokenStore(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 30)) * 2 - 1);
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Mint and store a new token.
+   *
+   * @param clientId   the client the token is issued to
+   * @param scope      the granted scope, may be null
+   * @param nowSeconds the current time in seconds since the epoch
+   * @param ttlSeconds the token lifetime
+   * @return the new token
+   */
+  StsToken mint(String clientId, String scope, long nowSeconds, long ttlSeconds) {
+    long id = sequence.getAndIncrement();
+    StsToken token = new StsToken(id, ThreadLocalRandom.current().nextLong(), clientId, scope, nowSeconds, nowSeconds + ttlSeconds);
+    slots.set((int) id & mask, token);
+    return token;
+  }
+
+  /**
+   * Find an issued token by its value.
+   *
+   * @param value the token value presented by a client
+   * @return the token, null if the value was not issued or was overwritten
+   */
+  StsToken find(String value) {
+    if (value == null || value.length() != StsToken.LENGTH) {
+      return null;
+    }
+    long id;
+    long secret;
+    try {
+      id = StsToken.decode(value, 0);
+      secret = StsToken.decode(value, StsToken.LENGTH / 2);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+    StsToken token = slots.get((int) id & mask);
+    return token != null && token.getId() == id && token.getSecret() == secret ? token : null;
+  }
+
+  /**
+   * Get the number of tokens retained.
+   *
+   * @return the store capacity
+   */
+  int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Get the number of tokens minted.
+   *
+   * @return the minted token count
+   */
+  long getMintedCount() {
+    return sequence.get() - 1;
+  }
+
+}
@@ -0,0 +1,231 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.tool;
+
+import ch.keybridge.dev.service.cbor.Cbor;
+import ch.keybridge.dev.service.dpac.DpacStatusParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * Compares the JSON and CBOR encodings of peering messages: the bytes on the
+ * wire, plain and gzip compressed, and the time to parse and write each
+ * message.
+ * <p>
+ * Parse time is measured for a full JSON-P event pass and for the DpacStatus
+ * listener parser; write time for a JSON-P generator writing the message.
+ * Each measurement is the mean over the iterations after an equal warm-up.
+ * Without arguments representative ping and DpacStatus messages are compared;
+ * otherwise each file holds one JSON message.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp dev-esc-service-responder-classes.jar ch.keybridge.dev.tool.CborComparison \
+ *   [--iterations 200000] [message.json ...]
+ * </pre>
+ *
+ * @author Key Bridge
+ */
+public class CborComparison {
+
+  private static final JsonParserFactory PARSERS = Json.createParserFactory(null);
+  private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+  private final int iterations;
+  /**
+   * Defeats dead code elimination of the measured work.
+   */
+  private long sink;
+
+  public CborComparison(int iterations) {
+    this.iterations = iterations;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int iterations = 200_000;
+    Map<String, JsonObject> messages = new LinkedHashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("--iterations".equals(args[i])) {
+        iterations = Integer.parseInt(args[++i]);
+      } else {
+        try (JsonReader reader = Json.createReader(Files.newInputStream(Paths.get(args[i])))) {
+          messages.put(Paths.get(args[i]).getFileName().toString(), reader.readObject());
+        }
+      }
+    }
+    if (messages.isEmpty()) {
+      messages.put("ping", ping());
+      messages.put("dpacStatus (1 channel)", dpacStatus(1));
+      messages.put("dpacStatus (10 channels)", dpacStatus(10));
+    }
+    CborComparison comparison = new CborComparison(iterations);
+    System.out.printf("%-26s %-5s %7s %7s %10s %10s %10s%n", "message", "enc", "bytes", "gzip", "events ns", "dpac ns", "write ns");
+    for (Map.Entry<String, JsonObject> entry : messages.entrySet()) {
+      comparison.compare(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Compare the encodings of one message.
+   *
+   * @param name    the message name
+   * @param message the message
+   * @throws IOException if a message cannot be parsed
+   */
+  public void compare(String name, JsonObject message) throws IOException {
+    byte[] json = write(message, false);
+    byte[] cbor = write(message, true);
+    for (boolean isCbor : new boolean[]{false, true}) {
+      byte[] bytes = isCbor ? cbor : json;
+      /**
+       * Warm up, then measure.
+       */
+      for (int pass = 0; pass < 2; pass++) {
+        long events = time(() -> events(bytes, isCbor));
+        long dpac = time(() -> sink += DpacStatusParser.parse(new ByteArrayInputStream(bytes), isCbor).getLength());
+        long write = time(() -> sink += write(message, isCbor).length);
+        if (pass == 1) {
+          System.out.printf("%-26s %-5s %7d %7d %10d %10d %10d%n", name, isCbor ? "cbor" : "json",
+                            bytes.length, gzip(bytes), events, dpac, write);
+        }
+      }
+    }
+    if (sink == 42) {
+      System.out.println();
+    }
+  }
+
+  /**
+   * Time a task.
+   *
+   * @return the mean nanoseconds per run
+   */
+  private long time(Task task) throws IOException {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      task.run();
+    }
+    return (System.nanoTime() - start) / iterations;
+  }
+
+  private void events(byte[] bytes, boolean cbor) {
+    InputStream in = new ByteArrayInputStream(bytes);
+    try (JsonParser parser = cbor ? Cbor.createParser(in) : PARSERS.createParser(in)) {
+      while (parser.hasNext()) {
+        sink += parser.next().ordinal();
+      }
+    }
+  }
+
+  private static byte[] write(JsonObject message, boolean cbor) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    try (JsonGenerator generator = cbor ? Cbor.createGenerator(out) : GENERATORS.createGenerator(out)) {
+      generator.write(message);
+    }
+    return out.toByteArray();
+  }
+
+  private static int gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    }
+    return out.size();
+  }
+
+  /**
+   * A ping message.
+   *
+   * @return the ping message
+   */
+  public static JsonObject ping() {
+    return Json.createObjectBuilder()
+      .add("messageId", "urn:uuid:6f1c2d4e-8a3b-4c5d-9e7f-0a1b2c3d4e5f")
+      .add("dbHash", "c0ffee254729296a45a3885639AC7E10F9d54979")
+      .build();
+  }
+
+  /**
+   * A DpacStatus message with a number of channels.
+   *
+   * @param channels the number of DPA channel statuses
+   * @return the DpacStatus message
+   */
+  public static JsonObject dpacStatus(int channels) {
+    JsonArrayBuilder statuses = Json.createArrayBuilder();
+    for (int i = 0; i < channels; i++) {
+      statuses.add(Json.createObjectBuilder()
+        .add("dpaId", "east_dpa_" + (i + 1))
+        .add("channel", Json.createObjectBuilder()
+          .add("lowFrequency", 3550000000L + 10000000L * i)
+          .add("highFrequency", 3560000000L + 10000000L * i))
+        .add("activationStatus", i % 2 == 0 ? "ACTIVE" : "INACTIVE")
+        .add("activationTime", "2021-06-01T12:00:00Z")
+        .add("expireTime", "2021-06-01T12:30:00Z")
+        .add("threshold", -144.5)
+        .add("confidence", 0.95));
+    }
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < channels; i++) {
+      ids.add("east_dpa_" + (i + 1));
+    }
+    JsonArrayBuilder dpaIds = Json.createArrayBuilder();
+    ids.forEach(dpaIds::add);
+    return Json.createObjectBuilder()
+      .add("messageId", "urn:uuid:0b7a3c9e-5d2f-4e81-a6c4-3f9e8d7c6b5a")
+      .add("timestamp", "2021-06-01T12:00:00.123Z")
+      .add("dpaIds", dpaIds)
+      .add("dpaStatus", statuses)
+      .build();
+  }
+
+  /**
+   * A measured task.
+   */
+  @FunctionalInterface
+  private interface Task {
+
+    void run() throws IOException;
+  }
+
+}
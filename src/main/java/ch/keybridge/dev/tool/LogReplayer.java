@@ -0,0 +1,269 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.tool;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays the ping and DpacStatus messages recorded in responder log files
+ * against a target responder.
+ * <p>
+ * Log files are parsed as a stream by the {@link MessageLogParser} and each
+ * message is sent as soon as it is read, so a production log of any size may
+ * be replayed as a reproducible load test. Messages are sent at their recorded
+ * inter-arrival times divided by the speed factor, or as fast as possible.
+ * Sends run on a pool of worker threads so slow responses do not delay the
+ * replay schedule; the number of requests in flight is limited to the pool
+ * size.
+ * <p>
+ * Where only the content length was logged (the default) a JSON placeholder
+ * body of the same length is sent.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp dev-esc-service-responder-classes.jar ch.keybridge.dev.tool.LogReplayer \
+ *   --target http://localhost:8080/dev/esc/rs/listen [--speed 1|2|10|max] \
+ *   [--threads 32] [--token credential] server.log [server.log_2021-06-01.gz ...]
+ * </pre>
+ *
+ * @author Key Bridge
+ */
+public class LogReplayer {
+
+  private final String target;
+  /**
+   * The replay speed factor. Zero sends as fast as possible.
+   */
+  private final double speed;
+  private final int threads;
+  /**
+   * An access token sent instead of the recorded token, if set.
+   */
+  private final String token;
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder mismatched = new LongAdder();
+  private final LongAdder latencyMillis = new LongAdder();
+  private final LongAccumulator maxLatencyMillis = new LongAccumulator(Math::max, 0);
+  private final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+  /**
+   * The largest delay between the scheduled and actual send time.
+   */
+  private long maxLagMillis;
+
+  public LogReplayer(String target, double speed, int threads, String token) {
+    this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+    this.speed = speed;
+    this.threads = threads;
+    this.token = token;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String target = null;
+    String token = null;
+    double speed = 1;
+    int threads = 32;
+    List<String> files = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--target":
+          target = args[++i];
+          break;
+        case "--speed":
+          speed = "max".equalsIgnoreCase(args[++i]) ? 0 : Double.parseDouble(args[i]);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        case "--token":
+          token = args[++i];
+          break;
+        default:
+          files.add(args[i]);
+      }
+    }
+    if (target == null || files.isEmpty() || speed < 0 || threads < 1) {
+      System.err.println("Usage: LogReplayer --target <listen URL> [--speed <factor>|max] [--threads <n>] [--token <credential>] <log file>...");
+      System.exit(1);
+    }
+    new LogReplayer(target, speed, threads, token).replay(files);
+  }
+
+  /**
+   * Replay the messages in the indicated log files, in order.
+   *
+   * @param files the log file names; "-" reads standard input
+   * @throws IOException          if a log file cannot be read
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void replay(List<String> files) throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "log-replayer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Semaphore inFlight = new Semaphore(threads);
+    long firstLogMillis = -1;
+    long startNanos = System.nanoTime();
+    long lines = 0;
+    long malformed = 0;
+    for (String file : files) {
+      try (MessageLogParser parser = new MessageLogParser(open(file))) {
+        LoggedMessage message;
+        while ((message = parser.next()) != null) {
+          if (speed > 0) {
+            if (firstLogMillis < 0) {
+              firstLogMillis = message.getTimeMillis();
+              startNanos = System.nanoTime();
+            }
+            long dueNanos = startNanos + (long) ((message.getTimeMillis() - firstLogMillis) * 1_000_000L / speed);
+            long waitNanos;
+            while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+              LockSupport.parkNanos(waitNanos);
+            }
+            maxLagMillis = Math.max(maxLagMillis, TimeUnit.NANOSECONDS.toMillis(-waitNanos));
+          }
+          inFlight.acquire();
+          LoggedMessage send = message;
+          executor.execute(() -> {
+            try {
+              send(send);
+            } finally {
+              inFlight.release();
+            }
+          });
+        }
+        lines += parser.getLineCount();
+        malformed += parser.getMalformedCount();
+      }
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    long count = sent.sum();
+    Map<Integer, Long> statuses = new TreeMap<>();
+    statusCounts.forEach((status, adder) -> statuses.put(status, adder.sum()));
+    System.out.printf("lines %d, malformed messages %d%n", lines, malformed);
+    System.out.printf("sent %d in %d ms (%.1f/s), failed %d, status %s, differing from log %d%n",
+                      count, elapsedMillis, count * 1000.0 / Math.max(1, elapsedMillis), failed.sum(), statuses, mismatched.sum());
+    System.out.printf("latency mean %d ms, max %d ms; max schedule lag %d ms%n",
+                      count == 0 ? 0 : latencyMillis.sum() / count, maxLatencyMillis.get(), maxLagMillis);
+  }
+
+  private static Reader open(String file) throws IOException {
+    InputStream inputStream = "-".equals(file) ? System.in : new FileInputStream(file);
+    if (file.endsWith(".gz")) {
+      inputStream = new GZIPInputStream(inputStream, 1 << 16);
+    }
+    return new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Send one message and record the result.
+   *
+   * @param message the logged message
+   */
+  private void send(LoggedMessage message) {
+    long start = System.nanoTime();
+    try {
+      HttpURLConnection connection = (HttpURLConnection) URI.create(target + "/" + message.getEndpoint().getPath()).toURL().openConnection();
+      connection.setRequestMethod("PUT");
+      connection.setConnectTimeout(5000);
+      connection.setReadTimeout(30000);
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      String accessToken = token != null ? token : message.getAccessToken();
+      if (accessToken != null) {
+        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+      }
+      if (message.getMessageId() != null) {
+        connection.setRequestProperty("MessageID", message.getMessageId());
+      }
+      if (message.getRelatesTo() != null) {
+        connection.setRequestProperty("RelatesTo", message.getRelatesTo());
+      }
+      byte[] body = buildBody(message);
+      connection.setFixedLengthStreamingMode(body.length);
+      try (OutputStream outputStream = connection.getOutputStream()) {
+        outputStream.write(body);
+      }
+      int status = connection.getResponseCode();
+      /**
+       * Read the response to completion so the connection is kept alive.
+       */
+      try (InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+        if (inputStream != null) {
+          byte[] buffer = new byte[1024];
+          while (inputStream.read(buffer) >= 0) {
+            // discard
+          }
+        }
+      }
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      sent.increment();
+      latencyMillis.add(millis);
+      maxLatencyMillis.accumulate(millis);
+      statusCounts.computeIfAbsent(status, s -> new LongAdder()).increment();
+      if (message.getStatus() != 0 && message.getStatus() != status) {
+        mismatched.increment();
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      failed.increment();
+    }
+  }
+
+  /**
+   * Build the request body. If only the content length was logged a JSON
+   * object of the same length is sent.
+   */
+  private static byte[] buildBody(LoggedMessage message) {
+    if (message.hasContent()) {
+      return message.getContent() == null ? new byte[0] : message.getContent().getBytes(StandardCharsets.UTF_8);
+    }
+    int length = message.getContentLength();
+    if (length < 8) {
+      return "{}".getBytes(StandardCharsets.UTF_8);
+    }
+    char[] padding = new char[length - 8];
+    Arrays.fill(padding, 'x');
+    return ("{\"_\":\"" + new String(padding) + "\"}").getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,112 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.tool;
+
+import ch.keybridge.dev.service.Endpoint;
+
+/**
+ * A message read from a responder log file.
+ *
+ * @author Key Bridge
+ */
+public class LoggedMessage {
+
+  private final long timeMillis;
+  private final Endpoint endpoint;
+  private final String remoteAddress;
+  private final String accessToken;
+  private final String messageId;
+  private final String relatesTo;
+  private final String content;
+  /**
+   * The logged content length when only a "[N chars]" placeholder was logged;
+   * -1 if the content was logged.
+   */
+  private final int contentLength;
+  /**
+   * The logged response status; 0 if not logged.
+   */
+  private final int status;
+
+  public LoggedMessage(long timeMillis, Endpoint endpoint, String remoteAddress, String accessToken, String messageId,
+                       String relatesTo, String content, int contentLength, int status) {
+    this.timeMillis = timeMillis;
+    this.endpoint = endpoint;
+    this.remoteAddress = remoteAddress;
+    this.accessToken = accessToken;
+    this.messageId = messageId;
+    this.relatesTo = relatesTo;
+    this.content = content;
+    this.contentLength = contentLength;
+    this.status = status;
+  }
+
+  public long getTimeMillis() {
+    return timeMillis;
+  }
+
+  public Endpoint getEndpoint() {
+    return endpoint;
+  }
+
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  public String getAccessToken() {
+    return accessToken;
+  }
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public String getRelatesTo() {
+    return relatesTo;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public int getContentLength() {
+    return contentLength;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Determine if the message content was logged, not only its length.
+   *
+   * @return true if the content is available
+   */
+  public boolean hasContent() {
+    return contentLength < 0;
+  }
+
+}
@@ -0,0 +1,324 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.tool;
+
+import ch.keybridge.dev.service.Endpoint;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A streaming parser of the messages logged by the listener resources.
+ * <p>
+ * The log is read one line at a time and only the current message is held in
+ * memory, so arbitrarily large log files may be parsed. Message lines are
+ * recognized by their text, written with the pattern
+ * <pre>
+ * PingListenerResource received ping {remoteAddr=.., access_token=.., messageId=.., content=..} status=..
+ * DpacStatusListenerResource received notice {remoteAddr=.., access_token=.., messageId=.., relatesTo=.., content=..} status=..
+ * </pre> The status suffix is optional. The message time is taken from the
+ * latest log record header, in any of these formats:
+ * <ul>
+ * <li>Glassfish ODL: <code>[2021-06-01T12:00:00.123+0000] ... [timeMillis:
+ * 1622548800123] ...</code></li>
+ * <li>Glassfish ULF: <code>[#|2021-06-01T12:00:00.123+0000|INFO|...|_TimeMillis=1622548800123;...</code></li>
+ * <li>JUL SimpleFormatter: <code>Jun 01, 2021 12:00:00 PM ...</code>
+ * (one second resolution, system time zone)</li>
+ * </ul>
+ * Message content spanning several lines is joined up to a limit.
+ *
+ * @author Key Bridge
+ */
+public class MessageLogParser implements Closeable {
+
+  private static final String PING_MARKER = "received ping {";
+  private static final String DPAC_MARKER = "received notice {";
+  /**
+   * The maximum number of characters in a multi-line message.
+   */
+  private static final int MAX_MESSAGE_LENGTH = 1 << 20;
+
+  private static final Pattern TIME_MILLIS = Pattern.compile("(?:timeMillis: |_TimeMillis=)(\\d+)");
+  private static final Pattern ISO_TIME = Pattern.compile("^\\[(?:#\\|)?(\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(?:\\.\\d+)?(?:Z|[+-]\\d{2}:?\\d{2}))");
+  private static final Pattern SIMPLE_TIME = Pattern.compile("^([A-Z][a-z]{2} \\d{1,2}, \\d{4} \\d{1,2}:\\d{2}:\\d{2} [AP]M) ");
+  private static final Pattern CONTENT_PLACEHOLDER = Pattern.compile("^\\[(\\d+) chars\\]$");
+
+  private static final DateTimeFormatter ISO_FORMAT = new DateTimeFormatterBuilder()
+    .appendPattern("yyyy-MM-dd'T'HH:mm:ss")
+    .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 1, 9, true).optionalEnd()
+    .appendPattern("[XXX][XX][X]")
+    .toFormatter(Locale.US);
+  private static final DateTimeFormatter SIMPLE_FORMAT = DateTimeFormatter.ofPattern("MMM d, yyyy h:mm:ss a", Locale.US);
+
+  private final BufferedReader reader;
+  /**
+   * The time of the latest log record header.
+   */
+  private long timeMillis;
+  private long lineCount;
+  private long malformedCount;
+
+  /**
+   * Construct a parser reading the indicated log.
+   *
+   * @param reader the log file reader
+   */
+  public MessageLogParser(Reader reader) {
+    this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 1 << 16);
+  }
+
+  /**
+   * Read the next logged message.
+   *
+   * @return the next message, null at the end of the log
+   * @throws IOException if the log cannot be read
+   */
+  public LoggedMessage next() throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineCount++;
+      readTime(line);
+      Endpoint endpoint;
+      int start = line.indexOf(PING_MARKER);
+      if (start >= 0) {
+        endpoint = Endpoint.PING;
+        start += PING_MARKER.length();
+      } else {
+        start = line.indexOf(DPAC_MARKER);
+        if (start < 0) {
+          continue;
+        }
+        endpoint = Endpoint.DPAC;
+        start += DPAC_MARKER.length();
+      }
+      LoggedMessage message = parseMessage(endpoint, readMessage(line.substring(start)));
+      if (message != null) {
+        return message;
+      }
+      malformedCount++;
+    }
+    return null;
+  }
+
+  /**
+   * Update the current time from a log record header line.
+   */
+  private void readTime(String line) {
+    if (line.isEmpty()) {
+      return;
+    }
+    Matcher matcher = TIME_MILLIS.matcher(line);
+    if (matcher.find()) {
+      timeMillis = Long.parseLong(matcher.group(1));
+      return;
+    }
+    char first = line.charAt(0);
+    try {
+      if (first == '[') {
+        matcher = ISO_TIME.matcher(line);
+        if (matcher.find()) {
+          timeMillis = OffsetDateTime.parse(matcher.group(1), ISO_FORMAT).toInstant().toEpochMilli();
+        }
+      } else if (first >= 'A' && first <= 'Z') {
+        matcher = SIMPLE_TIME.matcher(line);
+        if (matcher.find()) {
+          timeMillis = LocalDateTime.parse(matcher.group(1), SIMPLE_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+      }
+    } catch (DateTimeParseException ex) {
+      // not a record header
+    }
+  }
+
+  /**
+   * Read the message text following the marker, joining continuation lines
+   * until the closing brace is found.
+   *
+   * @param text the message text on the marker line
+   * @return the message text, without trailing log record decoration
+   */
+  private String readMessage(String text) throws IOException {
+    String message = trimRecordEnd(text);
+    if (isComplete(message)) {
+      return message;
+    }
+    StringBuilder builder = new StringBuilder(text);
+    String line;
+    while (builder.length() < MAX_MESSAGE_LENGTH) {
+      reader.mark(MAX_MESSAGE_LENGTH);
+      line = reader.readLine();
+      if (line == null) {
+        break;
+      }
+      if (isRecordStart(line)) {
+        reader.reset(); // an unterminated message; leave the next record
+        break;
+      }
+      lineCount++;
+      builder.append('\n').append(line);
+      message = trimRecordEnd(builder.toString());
+      if (isComplete(message)) {
+        return message;
+      }
+    }
+    return message;
+  }
+
+  /**
+   * Determine if a line starts a new log record or message.
+   */
+  private static boolean isRecordStart(String line) {
+    return line.contains(PING_MARKER)
+           || line.contains(DPAC_MARKER)
+           || ISO_TIME.matcher(line).find()
+           || SIMPLE_TIME.matcher(line).find();
+  }
+
+  /**
+   * Remove trailing white space and the Glassfish record terminator.
+   */
+  private static String trimRecordEnd(String text) {
+    String trimmed = text.trim();
+    if (trimmed.endsWith("]]")) {
+      trimmed = trimmed.substring(0, trimmed.length() - 2).trim();
+    } else if (trimmed.endsWith("|#]")) {
+      trimmed = trimmed.substring(0, trimmed.length() - 3).trim();
+    }
+    return trimmed;
+  }
+
+  /**
+   * A message is complete when it ends with the closing brace and the
+   * optional status.
+   */
+  private static boolean isComplete(String message) {
+    return message.endsWith("}") || statusStart(message) > 0;
+  }
+
+  /**
+   * Find the start of a trailing "} status=NNN" suffix.
+   *
+   * @return the index of the closing brace, -1 if there is no status suffix
+   */
+  private static int statusStart(String message) {
+    int index = message.lastIndexOf("} status=");
+    if (index < 0) {
+      return -1;
+    }
+    for (int i = index + 9; i < message.length(); i++) {
+      if (!Character.isDigit(message.charAt(i))) {
+        return -1;
+      }
+    }
+    return index + 9 < message.length() ? index : -1;
+  }
+
+  /**
+   * Parse the message fields.
+   *
+   * @param endpoint the endpoint
+   * @param message  the message text following the opening brace
+   * @return the message, null if malformed
+   */
+  private LoggedMessage parseMessage(Endpoint endpoint, String message) {
+    int status = 0;
+    int end = statusStart(message);
+    if (end > 0) {
+      status = Integer.parseInt(message.substring(end + 9));
+    } else if (message.endsWith("}")) {
+      end = message.length() - 1;
+    } else {
+      return null;
+    }
+    String fields = message.substring(0, end);
+    String[] keys = endpoint == Endpoint.PING
+                    ? new String[]{"remoteAddr=", ", access_token=", ", messageId=", ", content="}
+                    : new String[]{"remoteAddr=", ", access_token=", ", messageId=", ", relatesTo=", ", content="};
+    String[] values = new String[keys.length];
+    int position = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (!fields.startsWith(keys[i], position)) {
+        return null;
+      }
+      position += keys[i].length();
+      /**
+       * The content is the remainder. Other values end at the next key.
+       */
+      int next = i == keys.length - 1 ? fields.length() : fields.indexOf(keys[i + 1], position);
+      if (next < 0) {
+        return null;
+      }
+      values[i] = "null".equals(fields.substring(position, next)) ? null : fields.substring(position, next);
+      position = next;
+    }
+    String content = values[keys.length - 1];
+    int contentLength = -1;
+    if (content != null) {
+      Matcher placeholder = CONTENT_PLACEHOLDER.matcher(content);
+      if (placeholder.matches()) {
+        contentLength = Integer.parseInt(placeholder.group(1));
+        content = null;
+      }
+    }
+    return new LoggedMessage(timeMillis, endpoint, values[0], values[1], values[2],
+                             endpoint == Endpoint.PING ? null : values[3], content, contentLength, status);
+  }
+
+  /**
+   * Get the number of log lines read.
+   *
+   * @return the line count
+   */
+  public long getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Get the number of message lines that could not be parsed.
+   *
+   * @return the malformed message count
+   */
+  public long getMalformedCount() {
+    return malformedCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+}
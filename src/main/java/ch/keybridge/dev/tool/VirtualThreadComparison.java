@@ -0,0 +1,169 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.tool;
+
+import ch.keybridge.dev.service.Bulkhead;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the number of delayed messages a listener bulkhead holds in flight
+ * with platform threads and with virtual threads.
+ * <p>
+ * A burst of messages is offered to each bulkhead; every admitted message
+ * sleeps for the emulated delay on its handling thread, as the listeners do
+ * when <code>ch.keybridge.dev.async</code> is false. For each bulkhead the
+ * peak number of messages sleeping at once, the admitted and rejected counts,
+ * the time to complete the admitted messages and the peak platform thread
+ * count are reported. The platform bulkheads use the given thread counts and
+ * queue; the virtual bulkhead admits every message. Requires Java 21 or later
+ * for the virtual thread run, which is otherwise skipped.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp dev-esc-service-responder-classes.jar ch.keybridge.dev.tool.VirtualThreadComparison \
+ *   [--messages 10000] [--delay 1000] [--concurrency 16,1000] [--queue 64]
+ * </pre>
+ *
+ * @author Key Bridge
+ */
+public class VirtualThreadComparison {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final int messages;
+  private final long delayMillis;
+  /**
+   * The live thread count before any bulkhead is created.
+   */
+  private final int baseThreads;
+
+  public VirtualThreadComparison(int messages, long delayMillis) {
+    this.messages = messages;
+    this.delayMillis = delayMillis;
+    this.baseThreads = THREADS.getThreadCount();
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int messages = 10_000;
+    long delay = 1_000;
+    int queue = 64;
+    List<Integer> concurrency = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("--messages".equals(args[i])) {
+        messages = Integer.parseInt(args[++i]);
+      } else if ("--delay".equals(args[i])) {
+        delay = Long.parseLong(args[++i]);
+      } else if ("--queue".equals(args[i])) {
+        queue = Integer.parseInt(args[++i]);
+      } else if ("--concurrency".equals(args[i])) {
+        for (String value : args[++i].split(",")) {
+          concurrency.add(Integer.parseInt(value.trim()));
+        }
+      } else {
+        throw new IllegalArgumentException("Unknown argument " + args[i]);
+      }
+    }
+    if (concurrency.isEmpty()) {
+      concurrency.add(16);
+      concurrency.add(1_000);
+    }
+    VirtualThreadComparison comparison = new VirtualThreadComparison(messages, delay);
+    System.out.printf("%d messages, %d ms delay, java %s%n", messages, delay, System.getProperty("java.version"));
+    System.out.printf("%-18s %9s %9s %9s %10s %9s%n", "bulkhead", "peak", "admitted", "rejected", "elapsed ms", "threads");
+    for (int threads : concurrency) {
+      comparison.run("platform " + threads + "/" + queue, Bulkhead.create("platform", threads, queue, false));
+    }
+    try {
+      comparison.run("virtual", Bulkhead.create("virtual", messages, 0, true));
+    } catch (UnsupportedOperationException ex) {
+      System.out.printf("%-18s %s%n", "virtual", ex.getMessage());
+    }
+  }
+
+  /**
+   * Offer the burst of messages to a bulkhead, wait for the admitted messages
+   * to complete and print the result.
+   *
+   * @param name     the bulkhead name
+   * @param bulkhead the bulkhead, closed on return
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void run(String name, Bulkhead bulkhead) throws InterruptedException {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(messages);
+    int admitted = 0;
+    awaitThreadExit();
+    THREADS.resetPeakThreadCount();
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < messages; i++) {
+        try {
+          bulkhead.execute(() -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+              Thread.sleep(delayMillis);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            } finally {
+              inFlight.decrementAndGet();
+              done.countDown();
+            }
+          });
+          admitted++;
+        } catch (RejectedExecutionException ex) {
+          done.countDown();
+        }
+      }
+      done.await();
+    } finally {
+      bulkhead.close();
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    System.out.printf("%-18s %9d %9d %9d %10d %9d%n", name, peak.get(), admitted, bulkhead.getRejectedCount(), elapsed, THREADS.getPeakThreadCount());
+  }
+
+  /**
+   * Wait up to five seconds for the threads of a closed bulkhead to exit, so
+   * the peak thread count of the next run starts from the base count.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private void awaitThreadExit() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (THREADS.getThreadCount() > baseThreads && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+}
@@ -0,0 +1,254 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.auth;
+
+import ch.keybridge.dev.service.ResponderConfiguration;
+import ch.keybridge.dev.service.sts.StsClientRegistration;
+import ch.keybridge.dev.service.sts.StsService;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the token introspector against the embedded STS and against a
+ * local stand-in for the STS introspection API.
+ *
+ * @author Key Bridge
+ */
+public class TokenIntrospectorTest {
+
+  private static final String CLIENT_ID = "test-client";
+  private static final String CLIENT_SECRET = "test-secret";
+  /**
+   * The embedded STS token lifetime.
+   */
+  private static final long TOKEN_TTL_SECONDS = 2;
+
+  private static StsClientRegistration client;
+
+  /**
+   * The stand-in STS, answering with {@link #standInResponse} after
+   * {@link #standInDelayMillis}.
+   */
+  private HttpServer standIn;
+  private ExecutorService standInExecutor;
+  private final AtomicInteger standInCalls = new AtomicInteger();
+  private volatile String standInResponse;
+  private volatile long standInDelayMillis;
+
+  private TokenIntrospector introspector;
+
+  @BeforeClass
+  public static void setUpClass() {
+    /**
+     * The embedded STS reads its configuration once, on first use.
+     */
+    System.setProperty(StsService.EMBEDDED, "true");
+    System.setProperty(StsService.TOKEN_TTL_SECONDS, String.valueOf(TOKEN_TTL_SECONDS));
+    System.setProperty(ResponderConfiguration.PREFIX + "sts.clientId", CLIENT_ID);
+    System.setProperty(ResponderConfiguration.PREFIX + "sts.clientSecret", CLIENT_SECRET);
+    String credential = CLIENT_ID + ":" + CLIENT_SECRET;
+    client = StsService.getInstance().authenticate("Basic " + Base64.getEncoder().encodeToString(credential.getBytes(StandardCharsets.UTF_8)));
+    assertNotNull("embedded STS client", client);
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    System.clearProperty(StsService.EMBEDDED);
+    System.clearProperty(StsService.TOKEN_TTL_SECONDS);
+    System.clearProperty(ResponderConfiguration.PREFIX + "sts.clientId");
+    System.clearProperty(ResponderConfiguration.PREFIX + "sts.clientSecret");
+  }
+
+  @After
+  public void tearDown() {
+    if (introspector != null) {
+      introspector.shutdown();
+    }
+    if (standIn != null) {
+      standIn.stop(0);
+      standInExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testEmbeddedActive() {
+    introspector = embedded();
+    String token = StsService.getInstance().issue(client, null).getValue();
+    TokenIntrospection result = introspector.introspect(token);
+    assertTrue(result.isActive());
+    assertEquals(CLIENT_ID, result.getClientId());
+  }
+
+  @Test
+  public void testEmbeddedInactive() {
+    introspector = embedded();
+    assertFalse(introspector.introspect("not-issued").isActive());
+  }
+
+  @Test
+  public void testEmbeddedExpired() throws Exception {
+    introspector = embedded();
+    String token = StsService.getInstance().issue(client, null).getValue();
+    assertTrue(introspector.introspect(token).isActive());
+    Thread.sleep(TimeUnit.SECONDS.toMillis(TOKEN_TTL_SECONDS) + 100);
+    assertFalse("cached no longer than the token lifetime", introspector.introspect(token).isActive());
+    assertEquals(2, introspector.getLoadCount());
+  }
+
+  @Test
+  public void testEmbeddedCacheHit() {
+    introspector = embedded();
+    String token = StsService.getInstance().issue(client, null).getValue();
+    assertTrue(introspector.introspect(token).isActive());
+    assertTrue(introspector.introspect(token).isActive());
+    assertFalse(introspector.introspect("not-issued").isActive());
+    assertFalse(introspector.introspect("not-issued").isActive());
+    assertEquals(2, introspector.getLoadCount());
+    assertEquals(2, introspector.getHitCount());
+  }
+
+  @Test
+  public void testStandInActive() throws Exception {
+    introspector = standIn("{\"active\":true,\"client_id\":\"peer\",\"sub\":\"peer-sub\"}", 0);
+    TokenIntrospection result = introspector.introspect("token");
+    assertTrue(result.isActive());
+    assertEquals("peer", result.getClientId());
+    assertEquals("peer-sub", result.getSubject());
+    assertTrue(introspector.introspect("token").isActive());
+    assertEquals(1, standInCalls.get());
+    assertEquals(1, introspector.getHitCount());
+  }
+
+  @Test
+  public void testStandInInactive() throws Exception {
+    introspector = standIn("{\"active\":false}", 0);
+    assertFalse(introspector.introspect("token").isActive());
+    assertFalse(introspector.introspect("token").isActive());
+    assertEquals("inactive result cached", 1, standInCalls.get());
+  }
+
+  @Test
+  public void testStandInExpired() throws Exception {
+    long exp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 1;
+    introspector = standIn("{\"active\":true,\"client_id\":\"peer\",\"exp\":" + exp + "}", 0);
+    assertTrue(introspector.introspect("token").isActive());
+    introspector.introspect("token");
+    assertEquals("expired result not cached", 2, standInCalls.get());
+  }
+
+  @Test
+  public void testStandInFailureNotCached() throws Exception {
+    introspector = standIn(null, 0);
+    assertNull(introspector.introspect("token"));
+    assertNull(introspector.introspect("token"));
+    assertEquals(2, standInCalls.get());
+    assertEquals(2, introspector.getFailureCount());
+  }
+
+  @Test
+  public void testStandInSingleFlight() throws Exception {
+    int threads = 8;
+    introspector = standIn("{\"active\":true,\"client_id\":\"peer\"}", 500);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<TokenIntrospection>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          return introspector.introspect("token");
+        }));
+      }
+      start.countDown();
+      for (Future<TokenIntrospection> result : results) {
+        assertTrue(result.get(5, TimeUnit.SECONDS).isActive());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals("one STS call for concurrent requests", 1, standInCalls.get());
+    assertEquals(1, introspector.getLoadCount());
+    assertEquals(threads - 1, introspector.getHitCount());
+  }
+
+  private static TokenIntrospector embedded() {
+    return new TokenIntrospector(StsService.EMBEDDED_URI, CLIENT_ID, CLIENT_SECRET, 100, 300, 30, 2000);
+  }
+
+  /**
+   * Start a stand-in STS introspection API and create an introspector
+   * calling it.
+   *
+   * @param response    the JSON response, null to answer HTTP 500
+   * @param delayMillis the response delay
+   * @return the introspector
+   */
+  private TokenIntrospector standIn(String response, long delayMillis) throws IOException {
+    standInResponse = response;
+    standInDelayMillis = delayMillis;
+    standIn = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    standInExecutor = Executors.newCachedThreadPool();
+    standIn.setExecutor(standInExecutor);
+    standIn.createContext("/sts/api/introspect", exchange -> {
+      standInCalls.incrementAndGet();
+      try {
+        Thread.sleep(standInDelayMillis);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      String expected = "Basic " + Base64.getEncoder().encodeToString((CLIENT_ID + ":" + CLIENT_SECRET).getBytes(StandardCharsets.UTF_8));
+      byte[] body = standInResponse == null ? new byte[0] : standInResponse.getBytes(StandardCharsets.UTF_8);
+      int status = standInResponse == null ? 500 : expected.equals(exchange.getRequestHeaders().getFirst("Authorization")) ? 200 : 401;
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    standIn.start();
+    String uri = "http://127.0.0.1:" + standIn.getAddress().getPort() + "/sts/api";
+    return new TokenIntrospector(uri, CLIENT_ID, CLIENT_SECRET, 100, 300, 30, 2000);
+  }
+
+}
@@ -0,0 +1,144 @@
+/* 
+ * Copyright (c) 2021, Key Bridge
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.keybridge.dev.service.cbor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParsingException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the CBOR generator and parser, in particular their handling of
+ * numbers and input that could exhaust memory or the stack.
+ *
+ * @author Key Bridge
+ */
+public class CborTest {
+
+  @Test
+  public void testSmallIntegers() {
+    assertArrayEquals(new byte[]{0x0a}, encode(new BigDecimal("10")));
+    assertArrayEquals(new byte[]{0x18, 0x64}, encode(new BigDecimal("1E+2")));
+    assertArrayEquals(new byte[]{0x29}, encode(new BigDecimal("-10")));
+  }
+
+  @Test
+  public void testBignum() {
+    BigDecimal value = new BigDecimal("99999999999999999999");
+    byte[] cbor = encode(value);
+    assertEquals("tag 2", 0xc2, cbor[0] & 0xff);
+    assertEquals(0, value.compareTo(decode(cbor)));
+  }
+
+  @Test
+  public void testDecimalFraction() {
+    BigDecimal value = new BigDecimal("273.15");
+    byte[] cbor = encode(value);
+    assertEquals("tag 4", 0xc4, cbor[0] & 0xff);
+    assertEquals(value, decode(cbor));
+  }
+
+  @Test(timeout = 5000)
+  public void testLargeExponent() {
+    for (String number : new String[]{"1e10000000", "-7e999999999", "12345e21"}) {
+      BigDecimal value = new BigDecimal(number);
+      byte[] cbor = encode(value);
+      assertEquals(number + " tag 4", 0xc4, cbor[0] & 0xff);
+      assertTrue(number + " is not expanded", cbor.length < 16);
+      assertEquals(number, 0, value.compareTo(decode(cbor)));
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testLargeExponentFromJson() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonParser parser = Json.createParser(new StringReader("{\"n\":[1e10000000,-1e999999999]}"));
+         JsonGenerator generator = Cbor.createGenerator(out)) {
+      Cbor.transcode(parser, generator);
+    }
+    assertTrue("decimal fractions, not expanded digits", out.size() < 64);
+    StringWriter json = new StringWriter();
+    try (JsonParser parser = Cbor.createParser(new ByteArrayInputStream(out.toByteArray()));
+         JsonGenerator generator = Json.createGenerator(json)) {
+      Cbor.transcode(parser, generator);
+    }
+    assertEquals("{\"n\":[1E+10000000,-1E+999999999]}", json.toString());
+  }
+
+  @Test(timeout = 5000)
+  public void testLargeExponentTruncation() {
+    try (JsonParser parser = Cbor.createParser(new ByteArrayInputStream(encode(new BigDecimal("1e999999999"))))) {
+      assertEquals(JsonParser.Event.VALUE_NUMBER, parser.next());
+      assertFalse(parser.isIntegralNumber());
+      assertEquals(0, parser.getLong());
+      assertEquals(0, parser.getInt());
+    }
+    try (JsonParser parser = Cbor.createParser(new ByteArrayInputStream(encode(new BigDecimal("25e-999999999"))))) {
+      assertEquals(JsonParser.Event.VALUE_NUMBER, parser.next());
+      assertEquals(0, parser.getLong());
+    }
+  }
+
+  @Test
+  public void testNestingTooDeep() {
+    byte[] cbor = new byte[100001];
+    /**
+     * 100000 nested tags (tag 6, which is ignored) around a zero.
+     */
+    for (int i = 0; i < cbor.length - 1; i++) {
+      cbor[i] = (byte) 0xc6;
+    }
+    try (JsonParser parser = Cbor.createParser(new ByteArrayInputStream(cbor))) {
+      parser.next();
+      fail("nested tags accepted");
+    } catch (JsonParsingException ex) {
+      assertTrue(ex.getMessage(), ex.getMessage().contains("too deep"));
+    }
+  }
+
+  private static byte[] encode(BigDecimal value) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator generator = Cbor.createGenerator(out)) {
+      generator.write(value);
+    }
+    return out.toByteArray();
+  }
+
+  private static BigDecimal decode(byte[] cbor) {
+    try (JsonParser parser = Cbor.createParser(new ByteArrayInputStream(cbor))) {
+      assertEquals(JsonParser.Event.VALUE_NUMBER, parser.next());
+      return parser.getBigDecimal();
+    }
+  }
+}
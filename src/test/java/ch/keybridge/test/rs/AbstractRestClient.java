@@ -18,6 +18,8 @@
  */
 package ch.keybridge.test.rs;
 
+import ch.keybridge.dev.rs.ext.ContentCoding;
+import ch.keybridge.dev.rs.ext.ContentEncodingClientInterceptor;
 import java.net.URI;
 import java.security.cert.X509Certificate;
 import java.util.logging.Level;
@@ -90,6 +92,13 @@ public abstract class AbstractRestClient {
    */
   protected boolean clientLogging = true;
 
+  /**
+   * The request body size, in bytes, from which request bodies are gzip
+   * compressed. Default -1, never compress request bodies, since not every
+   * peer accepts them. Compressed responses are always accepted.
+   */
+  protected int compressionThreshold = -1;
+
   /**
    * The web service base URI pattern.
    */
@@ -162,6 +171,19 @@ public abstract class AbstractRestClient {
     return this;
   }
 
+  /**
+   * Set the request body size from which request bodies are gzip compressed,
+   * e.g. {@link ContentCoding#DEFAULT_THRESHOLD}. Default is -1, never.
+   *
+   * @param compressionThreshold the threshold in bytes; -1 to never compress
+   *                             request bodies
+   * @return the current client instance
+   */
+  public AbstractRestClient withCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+    return this;
+  }
+
   /**
    * Set the Read timeout interval, in milliseconds. Default is 5,000
    * milliseconds = 5 seconds.
@@ -220,6 +242,10 @@ public abstract class AbstractRestClient {
      * of infinity. The default value is infinity (0).
      */
     client.property(READ_TIMEOUT, timoutRead);
+    /**
+     * Accept compressed responses and compress large request bodies.
+     */
+    client.register(new ContentEncodingClientInterceptor(compressionThreshold));
     return client;
   }
 
@@ -252,6 +278,7 @@ public abstract class AbstractRestClient {
     Client client = ClientBuilder.newBuilder().sslContext(sc).hostnameVerifier(allHostsValid).build();
     client.property(CONNECT_TIMEOUT, timoutConnect); // should immediately connect
     client.property(READ_TIMEOUT, timoutRead); // wait for processing
+    client.register(new ContentEncodingClientInterceptor(compressionThreshold));
     /**
      * If transaction logging is enabled the register the client logging filter.
      */
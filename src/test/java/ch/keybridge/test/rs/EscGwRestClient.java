@@ -18,11 +18,11 @@
  */
 package ch.keybridge.test.rs;
 
+import ch.keybridge.dev.service.MessageIds;
 import ch.keybridge.test.rs.ext.DpacStatusRequestJsonMessageBodyWriter;
 import ch.keybridge.test.rs.ext.PeerInformationResponseJsonReader;
 import ch.keybridge.test.rs.ext.PeerRegistrationRequestJsonWriter;
 import ch.keybridge.test.rs.ext.PeerUpdateRequestJsonWriter;
-import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -60,6 +60,10 @@ public class EscGwRestClient extends AbstractRestClient {
    * The peer organization UID. This is used to log all messages.
    */
   private String subject;
+  /**
+   * The peering message media type: application/json or application/cbor.
+   */
+  private String mediaType = MediaType.APPLICATION_JSON;
 
   /**
    * Construct a new client with the necessary registered filters.
@@ -90,6 +94,17 @@ public class EscGwRestClient extends AbstractRestClient {
     return this;
   }
 
+  /**
+   * Set the media type of peering messages sent and accepted.
+   *
+   * @param mediaType application/json (the default) or application/cbor
+   * @return the current client instance
+   */
+  public EscGwRestClient withMediaType(String mediaType) {
+    this.mediaType = mediaType;
+    return this;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -153,9 +168,9 @@ public class EscGwRestClient extends AbstractRestClient {
    */
   public PeerInformationResponse registerPeerSession(String registrationAccessToken, PeerRegistrationRequest request) {
     return buildWebTarget().path("peer")
-      .request(MediaType.APPLICATION_JSON)
+      .request(mediaType)
       .header(HttpHeaders.AUTHORIZATION, "Bearer " + registrationAccessToken)
-      .post(Entity.json(request))
+      .post(Entity.entity(request, mediaType))
       .readEntity(PeerInformationResponse.class);
   }
 
@@ -174,9 +189,9 @@ public class EscGwRestClient extends AbstractRestClient {
    */
   public PeerInformationResponse updatePeerSession(String registrationAccessToken, String peerId, PeerUpdateRequest request) {
     return buildWebTarget().path("peer").path(peerId)
-      .request(MediaType.APPLICATION_JSON)
+      .request(mediaType)
       .header(HttpHeaders.AUTHORIZATION, "Bearer " + registrationAccessToken)
-      .put(Entity.json(request))
+      .put(Entity.entity(request, mediaType))
       .readEntity(PeerInformationResponse.class);
   }
 
@@ -195,7 +210,7 @@ public class EscGwRestClient extends AbstractRestClient {
    */
   public PeerInformationResponse readPeerSession(String registrationAccessToken, String peerId) {
     return buildWebTarget().path("peer").path(peerId)
-      .request(MediaType.APPLICATION_JSON)
+      .request(mediaType)
       .header(HttpHeaders.AUTHORIZATION, "Bearer " + registrationAccessToken)
       .get(PeerInformationResponse.class);
   }
@@ -259,7 +274,7 @@ public class EscGwRestClient extends AbstractRestClient {
    */
   public boolean terminatePeerSession(String registrationAccessToken, String peerId) {
     Response response = buildWebTarget().path("peer").path(peerId)
-      .request(MediaType.APPLICATION_JSON)
+      .request(mediaType)
       .header(HttpHeaders.AUTHORIZATION, "Bearer " + registrationAccessToken)
       .delete();
     /**
@@ -281,10 +296,10 @@ public class EscGwRestClient extends AbstractRestClient {
    */
   public boolean requestDpacStatus(String accessToken, DpacStatusRequest statusRequest) {
     Response response = buildWebTarget().path("dpa").path("status")
-      .request(MediaType.APPLICATION_JSON)
+      .request(mediaType)
       .header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken)
-      .header("MessageID", UUID.randomUUID().toString()) // replace with your own
-      .post(Entity.json(statusRequest));
+      .header("MessageID", MessageIds.next())
+      .post(Entity.entity(statusRequest, mediaType));
     return response.getStatus() == Response.Status.NO_CONTENT.getStatusCode();
   }
 
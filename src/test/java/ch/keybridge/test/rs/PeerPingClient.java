@@ -18,11 +18,11 @@
  */
 package ch.keybridge.test.rs;
 
+import ch.keybridge.dev.service.MessageIds;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ws.rs.client.Client;
@@ -40,11 +40,6 @@ import javax.ws.rs.core.Response;
 public class PeerPingClient extends AbstractRestClient {
 
   private static final Logger LOG = Logger.getLogger(PeerPingClient.class.getName());
-  /**
-   * An AtomicLong counter for consistent message identification.
-   */
-  private static final AtomicLong ATOMIC_LONG = new AtomicLong(System.currentTimeMillis());
-
   private static final String DEFAULT_URI = "https://keybridgewireless.com/cbrs/esc/gw/api/ping";
 
   /**
@@ -127,7 +122,7 @@ public class PeerPingClient extends AbstractRestClient {
       /**
        * Get a new message ID.
        */
-      long messageId = ATOMIC_LONG.getAndIncrement();
+      String messageId = MessageIds.next();
       /**
        * Ping the target
        */
@@ -142,7 +137,7 @@ public class PeerPingClient extends AbstractRestClient {
        */
       Response response = futureResponse.get(TIMEOUT_READ, TimeUnit.SECONDS);
       String relatesTo = response.getHeaderString("RelatesTo");
-      if (relatesTo != null && Long.parseLong(relatesTo) != messageId) {
+      if (relatesTo != null && !relatesTo.equals(messageId)) {
         throw new Exception("Message addressing error: {messageId=" + messageId + ", relatesTo=" + relatesTo + "}");
       }
       /**
@@ -18,6 +18,7 @@
  */
 package ch.keybridge.test.rs.ext;
 
+import ch.keybridge.dev.service.cbor.Cbor;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
@@ -38,7 +39,7 @@ import org.opencbrs.peering.message.DpacStatusRequest;
  * @since v0.12.0 created 2021-02-25
  */
 @Provider
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
 public class DpacStatusRequestJsonMessageBodyWriter implements MessageBodyWriter<DpacStatusRequest> {
 
   /**
@@ -59,11 +60,16 @@ public class DpacStatusRequestJsonMessageBodyWriter implements MessageBodyWriter
   }
 
   /**
-   * {@inheritDoc} Use JsonbBuilder to marshal the object.
+   * {@inheritDoc} Use JsonbBuilder to marshal the object. A CBOR entity is
+   * marshaled with the CBOR JSON-B instance.
    */
   @Override
   public void writeTo(DpacStatusRequest t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-    JsonbBuilder.create().toJson(t, entityStream);
+    if (Cbor.isCbor(mediaType.toString())) {
+      Cbor.jsonb().toJson(t, entityStream);
+    } else {
+      JsonbBuilder.create().toJson(t, entityStream);
+    }
   }
 
 }
@@ -18,6 +18,7 @@
  */
 package ch.keybridge.test.rs.ext;
 
+import ch.keybridge.dev.service.cbor.Cbor;
 import ch.keybridge.json.JsonbReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,7 +39,7 @@ import org.opencbrs.peering.message.PeerInformationResponse;
  * @since v0.9.2 created 2021-01-16
  */
 @Provider
-@Consumes(MediaType.APPLICATION_JSON)
+@Consumes({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
 public class PeerInformationResponseJsonReader implements MessageBodyReader<PeerInformationResponse> {
 
   /**
@@ -54,7 +55,9 @@ public class PeerInformationResponseJsonReader implements MessageBodyReader<Peer
    */
   @Override
   public PeerInformationResponse readFrom(Class<PeerInformationResponse> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
-    return new JsonbReader().unmarshal(entityStream, type);
+    return Cbor.isCbor(mediaType.toString())
+           ? Cbor.jsonb().fromJson(entityStream, type)
+           : new JsonbReader().unmarshal(entityStream, type);
   }
 
 }
@@ -18,6 +18,7 @@
  */
 package ch.keybridge.test.rs.ext;
 
+import ch.keybridge.dev.service.cbor.Cbor;
 import ch.keybridge.json.JsonbUtility;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -38,7 +39,7 @@ import org.opencbrs.peering.message.PeerInformationResponse;
  * @since v0.9.2 created 2021-01-17
  */
 @Provider
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
 public class PeerInformationResponseJsonWriter implements MessageBodyWriter<PeerInformationResponse> {
 
   /**
@@ -59,11 +60,16 @@ public class PeerInformationResponseJsonWriter implements MessageBodyWriter<Peer
   }
 
   /**
-   * {@inheritDoc} Use JsonbUtility to marshal the object.
+   * {@inheritDoc} Use JsonbUtility to marshal the object. A CBOR entity is
+   * marshaled with the CBOR JSON-B instance.
    */
   @Override
   public void writeTo(PeerInformationResponse t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-    new JsonbUtility().marshal(t, entityStream);
+    if (Cbor.isCbor(mediaType.toString())) {
+      Cbor.jsonb().toJson(t, entityStream);
+    } else {
+      new JsonbUtility().marshal(t, entityStream);
+    }
   }
 
 }
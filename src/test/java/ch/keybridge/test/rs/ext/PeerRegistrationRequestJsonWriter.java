@@ -18,6 +18,7 @@
  */
 package ch.keybridge.test.rs.ext;
 
+import ch.keybridge.dev.service.cbor.Cbor;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
@@ -38,7 +39,7 @@ import org.opencbrs.peering.message.PeerRegistrationRequest;
  * @since v0.9.2 created 2021-01-16
  */
 @Provider
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE})
 public class PeerRegistrationRequestJsonWriter implements MessageBodyWriter<PeerRegistrationRequest> {
 
   /**
@@ -62,7 +63,11 @@ public class PeerRegistrationRequestJsonWriter implements MessageBodyWriter<Peer
    */
   @Override
   public void writeTo(PeerRegistrationRequest t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-    JsonbBuilder.create().toJson(t, entityStream);
+    if (Cbor.isCbor(mediaType.toString())) {
+      Cbor.jsonb().toJson(t, entityStream);
+    } else {
+      JsonbBuilder.create().toJson(t, entityStream);
+    }
   }
 
 }